@@ -0,0 +1,53 @@
+package org.enginecraft;
+
+import org.enginecraft.objects.Difference;
+import org.enginecraft.service.LibraryService;
+import org.enginecraft.service.ShardCoordinator;
+import org.enginecraft.util.DifferenceFileUtil;
+import org.enginecraft.util.ReferenceCheckUtil;
+import org.enginecraft.util.SchedulerUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * A worker process started by {@link ShardCoordinator}: loads one shard of two libraries, compares it and writes
+ * the differences to a file. The reference shard checks the references of library B against library A instead.
+ * Libraries are kept in memory only, nothing is stored.
+ * <p>
+ * Arguments: nameA pathA nameB pathB shard|references shards resultFile cpuThreads
+ */
+public class ShardWorker {
+    private static final Logger log = LoggerFactory.getLogger(ShardWorker.class);
+
+    public static final String REFERENCES = "references";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 8) {
+            log.error("Usage: ShardWorker nameA pathA nameB pathB shard|{} shards resultFile cpuThreads", REFERENCES);
+            System.exit(2);
+        }
+
+        boolean references = REFERENCES.equals(args[4]);
+        int shards = Integer.parseInt(args[5]);
+        int shard = references ? -1 : Integer.parseInt(args[4]);
+        SchedulerUtil.configure(Integer.parseInt(args[7]), (int) (Runtime.getRuntime().maxMemory() / 2 / (1024 * 1024)));
+
+        Predicate<String> refs = references
+                ? ReferenceCheckUtil::isReferenced
+                : ref -> ShardCoordinator.inShard(ref, shard, shards);
+
+        long start = System.nanoTime();
+        LibraryService a = new LibraryService(args[0], Paths.get(args[1]), refs);
+        LibraryService b = new LibraryService(args[2], Paths.get(args[3]), refs);
+        List<Difference> differences = SchedulerUtil.onCpu(() -> references ? b.checkReferences(a) : a.compareFiles(b));
+        DifferenceFileUtil.write(Paths.get(args[6]), differences);
+
+        log.info("Shard {} of {} and {}: {} files, {} differences in {} ms",
+                args[4], args[0], args[2], a.getLibrary().size(), differences.size(), (System.nanoTime() - start) / 1_000_000);
+        System.exit(0);
+    }
+}
@@ -1,35 +1,227 @@
 package org.enginecraft;
 
+import org.enginecraft.objects.CellChange;
+import org.enginecraft.objects.DifferenceOverview;
+import org.enginecraft.objects.PersistenceMode;
+import org.enginecraft.objects.StorageLayout;
+import org.enginecraft.service.ComparisonStore;
+import org.enginecraft.service.HistoryService;
 import org.enginecraft.service.LibraryService;
+import org.enginecraft.service.LibraryWatcher;
+import org.enginecraft.service.ShardCoordinator;
 import org.enginecraft.util.HtmlReportUtil;
+import org.enginecraft.util.MetricsUtil;
+import org.enginecraft.util.SchedulerUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
 
 public class TownPortal {
+    private static final Logger log = LoggerFactory.getLogger(TownPortal.class);
+
+    private static final DateTimeFormatter RUN_STAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
     public static void main(String[] args) throws Exception {
-        LibraryService d2r = new LibraryService("D2R_91636", Paths.get(".\\extracted\\91636"));
+        // --watch keeps the reports of folder mods up to date while their files are edited
+        boolean watch = Arrays.asList(args).contains("--watch");
+        // --no-db compares in memory only, for one-off runs that just want the report; --write-behind stores the
+        // libraries in the background while they are compared
+        PersistenceMode persistence = Arrays.asList(args).contains("--no-db") ? PersistenceMode.NONE
+                : Arrays.asList(args).contains("--write-behind") ? PersistenceMode.WRITE_BEHIND
+                : PersistenceMode.SYNC;
+        // --shared-store keeps every build in the shared row store instead of one table per file
+        StorageLayout layout = Arrays.asList(args).contains("--shared-store") ? StorageLayout.SHARED : StorageLayout.TABLE_PER_FILE;
+        // --cpu-threads=N sizes the pool mods are compared and rendered in, --memory-budget=MiB caps the memory
+        // of the libraries loaded at once
+        SchedulerUtil.configure(
+                intOption(args, "--cpu-threads", Runtime.getRuntime().availableProcessors()),
+                intOption(args, "--memory-budget", (int) (Runtime.getRuntime().maxMemory() / 2 / (1024 * 1024)))
+        );
+
+        // Every comparison is stored unless --no-db; --regression-since=LIBRARY also reports how each mod's
+        // differences changed since it was compared against that earlier baseline
+        String regressionSince = stringOption(args, "--regression-since", null);
+        ComparisonStore comparisons = persistence == PersistenceMode.NONE ? null : new ComparisonStore();
+        if (regressionSince != null && comparisons == null) log.warn("--regression-since needs stored comparisons, ignored with --no-db");
+
+        // --shards=N compares each mod in N worker processes, of --worker-heap=MiB each, that each load and compare
+        // a slice of the files, instead of loading whole libraries in this process
+        int shards = intOption(args, "--shards", 1);
+        ShardCoordinator sharding = shards > 1 ? new ShardCoordinator(shards, intOption(args, "--worker-heap", 0)) : null;
+        if (sharding != null && watch) log.warn("--watch needs the libraries loaded in this process, ignored with --shards");
+
+        // --history=FOLDER adds the builds extracted into FOLDER, one sub-folder per build number, to the cell
+        // history in build order; --blame-ref=REF with --blame-row=KEY and optionally --blame-column=COLUMN prints
+        // the history of a row or cell. Either replaces the comparison run
+        String historyDir = stringOption(args, "--history", null);
+        String blameRef = stringOption(args, "--blame-ref", null);
+        if (historyDir != null || blameRef != null) {
+            try (HistoryService history = new HistoryService()) {
+                if (historyDir != null) addBuilds(history, Paths.get(historyDir), persistence, layout);
+                if (blameRef != null) blame(history, blameRef, stringOption(args, "--blame-row", ""), stringOption(args, "--blame-column", null));
+            }
+            return;
+        }
+
+        String d2rName = "D2R_91636";
+        Path d2rPath = Paths.get(".\\extracted\\91636");
         Map<String, String> modDirs = Map.of(
                 "D2R_77312", ".\\extracted\\77312"//,
 //                "Reimagined", "D:\\Diablo II Resurrected\\mods\\Reimagined\\Reimagined.mpq",
 //                "Eastern_Sun_Resurrected", "C:\\D2RMM 1.8.0\\mods\\Eastern_Sun_Resurrected"
         );
 
-        final List<CompletableFuture<Void>> futures = new ArrayList<>();
-        modDirs.forEach((k, v) ->
-                futures.add(CompletableFuture.runAsync(() -> {
-                    try {
-                        LibraryService mod = new LibraryService(k, Paths.get(v));
-                        HtmlReportUtil.generate(Paths.get("./docs"), k, d2r.compareTo(mod));
+        if (sharding != null) {
+            // Libraries only exist in the workers, so they are neither stored nor watched
+            for (Map.Entry<String, String> mod : modDirs.entrySet()) {
+                DifferenceOverview overview = sharding.compare(d2rName, d2rPath, mod.getKey(), Paths.get(mod.getValue()));
+                report(mod.getKey(), d2rName, overview, comparisons, regressionSince);
+            }
+        } else {
+            // The baseline stays loaded for the whole run, so its share of the budget is pinned rather than admitted
+            SchedulerUtil.pin(d2rName, SchedulerUtil.estimateBytes(d2rPath));
+            LibraryService d2r = new LibraryService(d2rName, d2rPath, persistence, layout);
+
+            final List<CompletableFuture<Void>> futures = new ArrayList<>();
+            // Watchers run until the process is stopped, which closes their watch services and connections
+            final List<LibraryWatcher> watchers = new CopyOnWriteArrayList<>();
+            if (watch) Runtime.getRuntime().addShutdownHook(new Thread(() -> closeAll(watchers), "close-watchers"));
+            modDirs.forEach((k, v) -> {
+                // The admission is held for the whole block but never referenced in it
+                @SuppressWarnings("try")
+                Runnable compare = () -> {
+                    // Loading waits on disk and the database, so it runs on a virtual thread; comparing and
+                    // rendering run in the CPU pool
+                    try (SchedulerUtil.Admission ignored = SchedulerUtil.admit(k, SchedulerUtil.estimateBytes(Paths.get(v)))) {
+                        LibraryService mod = new LibraryService(k, Paths.get(v), persistence, layout);
+                        DifferenceOverview overview = SchedulerUtil.onCpu(() -> d2r.compareTo(mod));
+                        report(k, d2rName, overview, comparisons, regressionSince);
+
+                        if (watch && Files.isDirectory(Paths.get(v))) {
+                            // The watcher keeps reloading files into the library and closes it when it stops
+                            mod.flush();
+                            LibraryWatcher watcher = new LibraryWatcher(d2r, mod, Paths.get(v), Paths.get("./docs"), k, overview);
+                            watchers.add(watcher);
+                            Thread.ofPlatform().name("watch-" + k).start(watcher);
+                        } else {
+                            mod.close();
+                        }
                     } catch (Exception e) {
                         throw new RuntimeException(e);
                     }
-                }))
+                };
+                futures.add(CompletableFuture.runAsync(compare, SchedulerUtil.io()));
+            });
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+            // Watchers only compare against the baseline, they never store it
+            d2r.close();
+        }
+        if (comparisons != null) comparisons.close();
+
+        MetricsUtil.logSlowest(10);
+        MetricsUtil.writeSummary(Paths.get("./metrics", "run-" + RUN_STAMP.format(LocalDateTime.now()) + ".json"));
+    }
+
+    /**
+     * Adds every build extracted into a folder that is not in the history yet, oldest build number first. Builds
+     * are named like the baseline, "D2R_" and the build number, and loaded one at a time: the history keeps the
+     * latest build to compare the next against.
+     */
+    private static void addBuilds(HistoryService history, Path dir, PersistenceMode persistence, StorageLayout layout) throws Exception {
+        List<String> added = history.builds();
+        List<Path> builds;
+        try (Stream<Path> stream = Files.list(dir)) {
+            builds = stream
+                    .filter(Files::isDirectory)
+                    // Build numbers grow in length, so shorter names sort first
+                    .sorted(Comparator.comparing((Path p) -> p.getFileName().toString().length()).thenComparing(Path::getFileName))
+                    .toList();
+        }
+
+        for (Path build : builds) {
+            String name = "D2R_" + build.getFileName();
+            if (added.contains(name)) continue;
+
+            // The history keeps the build to compare the next against, but never stores it again
+            LibraryService library = new LibraryService(name, build, persistence, layout);
+            library.close();
+            int changes = history.addBuild(library);
+            log.info("{} changes in {} since the previous build", changes, name);
+        }
+    }
+
+    private static void blame(HistoryService history, String ref, String rowKey, String column) throws Exception {
+        List<CellChange> changes = column == null ? history.rowHistory(ref, rowKey) : history.cellHistory(ref, rowKey, column);
+        log.info("{} changes of {} row '{}'{}", changes.size(), ref, rowKey, column == null ? "" : " column '" + column + "'");
+        for (CellChange change : changes) {
+            log.info("  {} {} {}: '{}' -> '{}'", change.library(), change.type(), change.column(), change.oldValue(), change.newValue());
+        }
+    }
+
+    private static void closeAll(List<LibraryWatcher> watchers) {
+        for (LibraryWatcher watcher : watchers) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                log.warn("Could not close a library watcher: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Renders a mod's report and, unless comparisons are not stored, stores the comparison and reports how it
+     * changed since the comparison against {@code regressionSince}.
+     */
+    private static void report(String mod, String baseline, DifferenceOverview overview, ComparisonStore comparisons, String regressionSince) throws Exception {
+        SchedulerUtil.onCpu(() -> {
+            HtmlReportUtil.generate(Paths.get("./docs"), mod, overview);
+            return null;
+        });
+        if (comparisons == null) return;
+
+        comparisons.store(overview);
+        if (regressionSince == null) return;
+        if (!comparisons.contains(regressionSince, mod)) {
+            log.warn("No stored comparison of {} and {}, no regression report for {}", regressionSince, mod, mod);
+            return;
+        }
+        HtmlReportUtil.generateRegression(
+                Paths.get("./docs"),
+                mod + "_since_" + regressionSince,
+                regressionSince + " vs " + mod,
+                baseline + " vs " + mod,
+                comparisons.regressions(regressionSince, mod, baseline, mod)
         );
-        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+    }
+
+    private static String stringOption(String[] args, String name, String defaultValue) {
+        for (String arg : args) {
+            if (arg.startsWith(name + "=")) return arg.substring(name.length() + 1);
+        }
+        return defaultValue;
+    }
+
+    private static int intOption(String[] args, String name, int defaultValue) throws Exception {
+        String value = stringOption(args, name, null);
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new Exception("Invalid value for " + name + ": " + value);
+        }
     }
 }
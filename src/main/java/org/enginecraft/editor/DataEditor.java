@@ -1,6 +1,11 @@
 package org.enginecraft.editor;
 
+import org.enginecraft.objects.ColumnProfile;
+import org.enginecraft.objects.SearchHit;
+import org.enginecraft.util.CatalogUtil;
 import org.enginecraft.util.SqlUtil;
+import org.enginecraft.util.ValueIndexUtil;
+import org.enginecraft.util.WriteUtil;
 
 import javax.swing.*;
 import javax.swing.table.*;
@@ -8,24 +13,42 @@ import java.awt.*;
 import java.sql.*;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 
 public class DataEditor extends JFrame {
     private final JComboBox<String> groupSelector = new JComboBox<>();
     private final JComboBox<String> subGroupSelector = new JComboBox<>();
 
     private final JTable table = new JTable();
-    private DefaultTableModel model;
+    private PagedTableModel model;
     private JButton btnToggleDarkMode = new JButton("Dark Mode");
+    private final JTextField searchField = new JTextField(14);
     private boolean darkMode = false;
 
+    private final JProgressBar progressBar = new JProgressBar(0, 100);
+    private final JLabel statusLabel = new JLabel(" ");
+
     private final Connection conn;
 
-    // Store all data including first two columns internally
-    private Object[][] rawData;
-    private String[] rawColumnNames;
+    private static final int PAGE_SIZE = 200;
+    private static final int MAX_CACHED_PAGES = 10;
+
+    // Map: library name -> (ref -> physical table name)
+    private Map<String, Map<String, String>> tableGroups = new TreeMap<>();
+
+    // In-flight table load, cancelled when another table is selected
+    private TableLoader tableLoader;
+
+    // Suppresses selector listeners while the combo boxes are being repopulated
+    private boolean updatingSelectors = false;
 
-    // Map: group name -> list of tables
-    private Map<String, List<String>> tableGroups;
+    // Search hit to select once its table has finished loading
+    private SearchHit pendingHit;
+
+    // Column the next load of the same table sorts by, as a raw name, or null for stored order
+    private String sortColumn;
+    private boolean sortAscending = true;
 
     public DataEditor() throws SQLException {
         setTitle("Data Editor");
@@ -35,7 +58,6 @@ public class DataEditor extends JFrame {
 
         conn = SqlUtil.getConnection();
 
-        loadTableGroups();
         setupGroupSelectors();
 
         JPanel topPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
@@ -47,7 +69,13 @@ public class DataEditor extends JFrame {
         topPanel.add(btnRefresh);
         JButton btnSave = new JButton("Save Changes");
         topPanel.add(btnSave);
+        JButton btnExport = new JButton("Export Library");
+        topPanel.add(btnExport);
         topPanel.add(btnToggleDarkMode);
+        topPanel.add(new JLabel("Search:"));
+        topPanel.add(searchField);
+        JButton btnSearch = new JButton("Find");
+        topPanel.add(btnSearch);
 
         add(topPanel, BorderLayout.NORTH);
         JScrollPane scrollPane = new JScrollPane(
@@ -57,25 +85,48 @@ public class DataEditor extends JFrame {
         );
         add(scrollPane, BorderLayout.CENTER);
 
+        JPanel statusPanel = new JPanel(new BorderLayout(10, 0));
+        statusPanel.setBorder(BorderFactory.createEmptyBorder(2, 6, 2, 6));
+        progressBar.setStringPainted(true);
+        progressBar.setVisible(false);
+        statusPanel.add(statusLabel, BorderLayout.CENTER);
+        statusPanel.add(progressBar, BorderLayout.EAST);
+        add(statusPanel, BorderLayout.SOUTH);
+
+        // Prefetch pages around the viewport while scrolling
+        scrollPane.getViewport().addChangeListener(e -> {
+            if (model == null) return;
+            Rectangle view = scrollPane.getViewport().getViewRect();
+            int first = table.rowAtPoint(new Point(0, view.y));
+            int last = table.rowAtPoint(new Point(0, view.y + view.height - 1));
+            if (first < 0) return;
+            if (last < 0) last = table.getRowCount() - 1;
+            model.prefetch(first, last);
+        });
+
+        // Sorting reloads the table ordered by the column, rows are never sorted in memory
+        table.getTableHeader().addMouseListener(new java.awt.event.MouseAdapter() {
+            @Override
+            public void mouseClicked(java.awt.event.MouseEvent e) {
+                int column = table.columnAtPoint(e.getPoint());
+                if (column >= 0) sortBy(table.convertColumnIndexToModel(column));
+            }
+        });
+
         btnRefresh.addActionListener(e -> {
             String selectedGroup = (String) groupSelector.getSelectedItem();
             String selectedTable = (String) subGroupSelector.getSelectedItem();
             if (selectedGroup != null && selectedTable != null) {
-                try {
-                    loadTableData(selectedGroup + "_" + selectedTable);
-                } catch (SQLException ex) {
-                    showError("Error refreshing table: " + ex.getMessage());
-                }
+                loadTableData(tableGroups.get(selectedGroup).get(selectedTable));
             }
         });
 
-        btnSave.addActionListener(e -> {
-            try {
-                saveChanges();
-            } catch (SQLException ex) {
-                showError("Error saving changes: " + ex.getMessage());
-            }
-        });
+        btnSave.addActionListener(e -> saveChanges());
+
+        btnExport.addActionListener(e -> exportLibrary());
+
+        btnSearch.addActionListener(e -> search());
+        searchField.addActionListener(e -> search());
 
         btnToggleDarkMode.addActionListener(e -> {
             darkMode = !darkMode;
@@ -89,200 +140,213 @@ public class DataEditor extends JFrame {
             updateLookAndFeel();
         });
 
-        // Load first group and table on startup
-        if (!tableGroups.isEmpty()) {
-            groupSelector.setSelectedIndex(0);
-        }
-
         setVisible(true);
+
+        // Load groups off the event thread, then select the first group and table
+        loadTableGroupsAsync();
     }
 
-    private void loadTableGroups() throws SQLException {
-        List<String> tables = getTableNames();
+    private void loadTableGroupsAsync() {
+        showProgress("Loading tables...", true);
 
-        // Step 1: Build suffix -> table list map
-        Map<String, List<String>> suffixToTables = new HashMap<>();
-        for (String table : tables) {
-            String[] parts = table.split("_");
-            for (int i = 0; i < parts.length; i++) {
-                String suffix = String.join("_", Arrays.copyOfRange(parts, i, parts.length));
-                suffixToTables.computeIfAbsent(suffix, k -> new ArrayList<>()).add(table);
+        new SwingWorker<Map<String, Map<String, String>>, Void>() {
+            @Override
+            protected Map<String, Map<String, String>> doInBackground() throws SQLException {
+                return CatalogUtil.readLibraryTables(conn);
             }
-        }
 
-        // Step 2: Keep only suffixes that appear in 2+ tables, sort longest first
-        List<String> commonSuffixes = suffixToTables.entrySet().stream()
-                .filter(e -> e.getValue().size() >= 2)
-                .map(Map.Entry::getKey)
-                .sorted((a, b) -> Integer.compare(b.length(), a.length()))
-                .toList();
-
-        // Step 3: Assign longest matching suffix to each table
-        Map<String, String> tableToGroupPrefix = new HashMap<>();
-        for (String table : tables) {
-            String matchedSuffix = null;
-            for (String suffix : commonSuffixes) {
-                if (table.endsWith(suffix)) {
-                    matchedSuffix = suffix;
-                    break;
+            @Override
+            protected void done() {
+                hideProgress();
+                try {
+                    tableGroups = get();
+                } catch (InterruptedException | ExecutionException ex) {
+                    showError("Error loading tables: " + rootMessage(ex));
+                    return;
                 }
-            }
-            if (matchedSuffix != null) {
-                String prefix = table.substring(0, table.length() - matchedSuffix.length());
-                if (prefix.endsWith("_")) prefix = prefix.substring(0, prefix.length() - 1);
-                tableToGroupPrefix.put(table, prefix);
-            }
-        }
 
-        // Step 4: Build initial groups from prefixes
-        Map<String, List<String>> groups = new HashMap<>();
-        for (Map.Entry<String, String> entry : tableToGroupPrefix.entrySet()) {
-            String table = entry.getKey();
-            String prefix = entry.getValue();
-            groups.computeIfAbsent(prefix, k -> new ArrayList<>()).add(table);
-        }
+                updatingSelectors = true;
+                groupSelector.removeAllItems();
+                tableGroups.keySet().forEach(groupSelector::addItem);
+                updatingSelectors = false;
 
-        // Step 5: Merge singletons into existing groups if they match prefix partially
-        Map<String, List<String>> finalGroups = new HashMap<>();
-        for (String table : groups.keySet()) {
-            boolean found = false;
-            for (String groupPrefix : groups.keySet()) {
-                if (
-                    (!table.equals(groupPrefix) && table.startsWith(groupPrefix))
-                ) {
-                    List<String> groupTables = groups.get(table);
-                    if (groupTables == null || groupTables.isEmpty()) {
-                        groups.get(groupPrefix).add(table);
-                    }
-                    else {
-                        groups.get(groupPrefix).addAll(groupTables);
-                    }
-                    finalGroups.put(groupPrefix, new ArrayList<>(Collections.singletonList(table)));
-                    found = true;
-                    break;
+                if (!tableGroups.isEmpty()) {
+                    groupSelector.setSelectedIndex(0);
                 }
             }
-
-            if (!found) finalGroups.put(table, groups.get(table));
-        }
-
-        // Step 6: Sort tables in each group and sort groups
-        Map<String, List<String>> cleanedGroups = new HashMap<>();
-
-        for (Map.Entry<String, List<String>> entry : finalGroups.entrySet()) {
-            String prefix = entry.getKey();
-            List<String> tablesInGroup = entry.getValue();
-
-            String prefixWithUnderscore = prefix + "_";
-
-            List<String> cleaned = tablesInGroup.stream()
-                    .map(table -> {
-                        if (table.startsWith(prefixWithUnderscore)) {
-                            return table.substring(prefixWithUnderscore.length());
-                        }
-                        return table; // safety fallback
-                    })
-                    .sorted()
-                    .toList();
-
-            cleanedGroups.put(prefix, new ArrayList<>(cleaned));
-        }
-
-        tableGroups = new TreeMap<>(cleanedGroups);
+        }.execute();
     }
 
     private void setupGroupSelectors() {
-        groupSelector.removeAllItems();
-        tableGroups.keySet().forEach(groupSelector::addItem);
-
         groupSelector.addActionListener(e -> {
+            if (updatingSelectors) return;
+
             String selectedGroup = (String) groupSelector.getSelectedItem();
             if (selectedGroup == null) return;
 
-            List<String> tablesInGroup = tableGroups.get(selectedGroup);
+            Map<String, String> tablesInGroup = tableGroups.get(selectedGroup);
             if (tablesInGroup == null) return;
 
-            tablesInGroup.sort(String::compareTo);
+            updatingSelectors = true;
             subGroupSelector.removeAllItems();
-            tablesInGroup.forEach(subGroupSelector::addItem);
+            tablesInGroup.keySet().forEach(subGroupSelector::addItem);
+            updatingSelectors = false;
 
             if (!tablesInGroup.isEmpty()) {
                 subGroupSelector.setSelectedIndex(0);
-                try {
-                    loadTableData(selectedGroup + "_" + tablesInGroup.getFirst());
-                } catch (SQLException ex) {
-                    showError("Error loading table data: " + ex.getMessage());
-                }
             }
         });
 
         subGroupSelector.addActionListener(e -> {
+            if (updatingSelectors) return;
+
             String selectedGroup = (String) groupSelector.getSelectedItem();
             String selectedTable = (String) subGroupSelector.getSelectedItem();
             if (selectedGroup != null && selectedTable != null) {
-                try {
-                    loadTableData(selectedGroup + "_" + selectedTable);
-                } catch (SQLException ex) {
-                    showError("Error loading table data: " + ex.getMessage());
-                }
+                loadTableData(tableGroups.get(selectedGroup).get(selectedTable));
             }
         });
     }
 
-    private List<String> getTableNames() throws SQLException {
-        List<String> tableNames = new ArrayList<>();
-        try (Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(
-                     "SELECT TABLE_NAME FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA='PUBLIC' AND TABLE_TYPE='BASE TABLE'")) {
-            while (rs.next()) {
-                tableNames.add(rs.getString("TABLE_NAME"));
-            }
+    /**
+     * Cycles a column through ascending, descending and stored order. Edits are kept by row position, so sorting
+     * waits until they are saved.
+     */
+    private void sortBy(int column) {
+        if (model == null || (tableLoader != null && !tableLoader.isDone())) return;
+        if (model.getDirtyCellCount() > 0) {
+            JOptionPane.showMessageDialog(this, "Save your changes before sorting.");
+            return;
+        }
+
+        String name = model.getColumnName(column);
+        if (!name.equals(sortColumn)) {
+            sortColumn = name;
+            sortAscending = true;
+        } else if (sortAscending) {
+            sortAscending = false;
+        } else {
+            sortColumn = null;
         }
-        return tableNames;
+        loadTableData(model.getTableName());
     }
 
-    private void loadTableData(String tableName) throws SQLException {
-        try (Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery("SELECT * FROM \"" + tableName + "\"")) {
+    private void loadTableData(String tableName) {
+        // Another table starts in stored order
+        if (model == null || !model.getTableName().equals(tableName)) sortColumn = null;
+
+        // Switching tables abandons the old one, including any query still running against it
+        if (tableLoader != null) tableLoader.abort();
+        if (model != null) model.cancel();
 
-            ResultSetMetaData meta = rs.getMetaData();
-            int columnCount = meta.getColumnCount();
+        showProgress("Loading " + tableName + "...", true);
+        tableLoader = new TableLoader(tableName, sortColumn, sortAscending);
+        tableLoader.execute();
+    }
+
+    /**
+     * Opens a table off the event thread and publishes its leading pages one chunk at a time, so the first
+     * rows show as soon as they are read while the rest of the page cache warms up behind them.
+     */
+    private class TableLoader extends SwingWorker<Void, TableLoader.Chunk> {
+        private record Chunk(PagedTableModel model, int page, Object[][] rows, int savesBefore) {}
+
+        private final String tableName;
+        private final String sortColumn;
+        private final boolean ascending;
+        private volatile PagedTableModel loading;
+        private volatile Map<String, ColumnProfile> profiles = Map.of();
+
+        TableLoader(String tableName, String sortColumn, boolean ascending) {
+            this.tableName = tableName;
+            this.sortColumn = sortColumn;
+            this.ascending = ascending;
+        }
 
-            rawColumnNames = new String[columnCount];
-            for (int i = 1; i <= columnCount; i++) {
-                rawColumnNames[i - 1] = meta.getColumnName(i);
+        void abort() {
+            PagedTableModel current = loading;
+            if (current != null) current.cancel();
+            cancel(true);
+        }
+
+        @Override
+        protected Void doInBackground() throws SQLException {
+            loading = new PagedTableModel(tableName, PAGE_SIZE, MAX_CACHED_PAGES, sortColumn, ascending);
+            profiles = CatalogUtil.readColumnStats(conn, tableName);
+            if (isCancelled()) {
+                loading.cancel();
+                return null;
             }
 
-            List<Object[]> rows = new ArrayList<>();
-            while (rs.next()) {
-                Object[] row = new Object[columnCount];
-                for (int i = 1; i <= columnCount; i++) {
-                    row[i - 1] = rs.getObject(i);
+            int pagesToWarm = Math.min(loading.getPageCount(), loading.getMaxPages());
+            if (pagesToWarm == 0) publish(new Chunk(loading, -1, null, 0));
+
+            for (int page = 0; page < pagesToWarm && !isCancelled(); page++) {
+                int savesBefore = loading.getSaveCount();
+                publish(new Chunk(loading, page, loading.fetchPage(page), savesBefore));
+                setProgress((page + 1) * 100 / pagesToWarm);
+            }
+            return null;
+        }
+
+        @Override
+        protected void process(List<Chunk> chunks) {
+            if (isCancelled()) return;
+
+            for (Chunk chunk : chunks) {
+                if (model != chunk.model()) {
+                    model = chunk.model();
+                    table.setModel(model);
+                    table.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
+                    markSortedColumn();
                 }
-                rows.add(row);
+                if (chunk.page() < 0) continue;
+
+                model.putPage(chunk.page(), chunk.rows(), chunk.savesBefore());
+                if (chunk.page() == 0) autoResizeColumns(table, profiles);
             }
-            rawData = rows.toArray(new Object[0][]);
+            progressBar.setIndeterminate(false);
+            progressBar.setValue(getProgress());
+        }
 
-            // Show all columns except first two
-            int visibleColumnCount = columnCount - 2;
-            String[] visibleColumnNames = new String[visibleColumnCount];
-            System.arraycopy(rawColumnNames, 2, visibleColumnNames, 0, visibleColumnCount);
+        @Override
+        protected void done() {
+            if (tableLoader != this) return;
 
-            Object[][] visibleData = new Object[rawData.length][visibleColumnCount];
-            for (int r = 0; r < rawData.length; r++) {
-                System.arraycopy(rawData[r], 2, visibleData[r], 0, visibleColumnCount);
+            hideProgress();
+            try {
+                get();
+                statusLabel.setText(tableName + " - " + model.getRowCount() + " rows");
+                if (pendingHit != null && tableName.equals(tableFor(pendingHit))) {
+                    selectHit(pendingHit);
+                    pendingHit = null;
+                }
+            } catch (CancellationException ignored) {
+                // Superseded by another table selection
+            } catch (InterruptedException | ExecutionException ex) {
+                showError("Error loading table data: " + rootMessage(ex));
             }
+        }
+    }
+
+    // The header of the sorted column shows the direction; the model's column names stay as stored
+    private void markSortedColumn() {
+        String sorted = model.getSortColumn();
+        if (sorted == null) return;
 
-            model = new DefaultTableModel(visibleData, visibleColumnNames);
-            table.setModel(model);
-            table.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
-            table.setAutoCreateRowSorter(true);
-            autoResizeColumns(table);
+        TableColumnModel columns = table.getColumnModel();
+        for (int col = 0; col < columns.getColumnCount(); col++) {
+            TableColumn column = columns.getColumn(col);
+            if (sorted.equals(model.getColumnName(column.getModelIndex()))) {
+                column.setHeaderValue(sorted + (model.isAscending() ? " \u25B2" : " \u25BC"));
+            }
         }
+        table.getTableHeader().repaint();
     }
 
-    private void autoResizeColumns(JTable table) {
+    private void autoResizeColumns(JTable table, Map<String, ColumnProfile> profiles) {
         final TableColumnModel columnModel = table.getColumnModel();
+        final FontMetrics metrics = table.getFontMetrics(table.getFont());
         for (int col = 0; col < table.getColumnCount(); col++) {
             int maxWidth = 50; // minimum width
 
@@ -296,11 +360,18 @@ public class DataEditor extends JFrame {
             Component headerComp = headerRenderer.getTableCellRendererComponent(table, column.getHeaderValue(), false, false, 0, col);
             maxWidth = Math.max(maxWidth, headerComp.getPreferredSize().width);
 
-            // Cell width
-            for (int row = 0; row < table.getRowCount(); row++) {
-                TableCellRenderer cellRenderer = table.getCellRenderer(row, col);
-                Component comp = cellRenderer.getTableCellRendererComponent(table, table.getValueAt(row, col), false, false, row, col);
-                maxWidth = Math.max(maxWidth, comp.getPreferredSize().width);
+            ColumnProfile profile = profiles.get(table.getColumnName(col));
+            if (profile != null) {
+                // Cell width from the ingest-time catalog, no cell has to be rendered
+                maxWidth = Math.max(maxWidth, metrics.stringWidth("0") * profile.maxLength() + 6);
+            } else {
+                // Cell width, sampled from the first page only so sizing never pulls the whole table
+                int sampleRows = Math.min(table.getRowCount(), PAGE_SIZE);
+                for (int row = 0; row < sampleRows; row++) {
+                    TableCellRenderer cellRenderer = table.getCellRenderer(row, col);
+                    Component comp = cellRenderer.getTableCellRendererComponent(table, table.getValueAt(row, col), false, false, row, col);
+                    maxWidth = Math.max(maxWidth, comp.getPreferredSize().width);
+                }
             }
 
             maxWidth += 10; // padding
@@ -309,50 +380,212 @@ public class DataEditor extends JFrame {
         }
     }
 
-    private void saveChanges() throws SQLException {
+    private void saveChanges() {
         if (model == null) return;
 
-        String tableName = (String) subGroupSelector.getSelectedItem();
-        if (tableName == null) return;
+        if (table.isEditing()) table.getCellEditor().stopCellEditing();
+
+        PagedTableModel saving = model;
+        Map<Integer, PagedTableModel.RowEdit> edits = saving.getDirtyCells();
+        if (edits.isEmpty()) {
+            JOptionPane.showMessageDialog(this, saving.getDirtyCellCount() > 0
+                    ? "Changes are waiting for their rows to load, save again in a moment."
+                    : "No changes to save.");
+            return;
+        }
 
-        // First two columns are keys, so we include them in WHERE clause if possible
-        // For now, we use just the first column as primary key as before, but can extend to both if needed
+        int cellCount = edits.values().stream().mapToInt(edit -> edit.values().size()).sum();
+        showProgress("Saving " + cellCount + " cells...", true);
 
-        String pkColumn = rawColumnNames[0];  // first column name
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws SQLException {
+                executeSave(saving.getTableName(), saving.getRawColumnNames(), edits.values());
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                hideProgress();
+                try {
+                    get();
+                    saving.markSaved(edits);
+                    JOptionPane.showMessageDialog(DataEditor.this,
+                            "Saved " + cellCount + " cells in " + edits.size() + " rows successfully.");
+                } catch (InterruptedException | ExecutionException ex) {
+                    showError("Error saving changes: " + rootMessage(ex));
+                }
+            }
+        }.execute();
+    }
 
-        // Build UPDATE SQL for all visible columns + keys if needed
-        StringBuilder sql = new StringBuilder("UPDATE \"" + tableName + "\" SET ");
+    /**
+     * Writes only the changed cells. Rows are grouped by the set of columns they changed so each group shares
+     * one batched UPDATE keyed on (ROW_INDEX, PATH), and everything is committed as a single transaction on a
+     * connection of its own, so neither a table being cancelled nor a search can interrupt it.
+     */
+    private void executeSave(String tableName, String[] rawColumnNames, Collection<PagedTableModel.RowEdit> edits) throws SQLException {
+        Map<Set<Integer>, List<PagedTableModel.RowEdit>> byColumnSet = new LinkedHashMap<>();
+        for (PagedTableModel.RowEdit edit : edits) {
+            byColumnSet.computeIfAbsent(edit.values().keySet(), k -> new ArrayList<>()).add(edit);
+        }
 
-        // Visible columns start at rawColumnNames index 2
-        for (int col = 2; col < rawColumnNames.length; col++) {
-            sql.append("\"").append(rawColumnNames[col]).append("\" = ?");
-            if (col < rawColumnNames.length - 1) sql.append(", ");
+        try (Connection conn = SqlUtil.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                for (Map.Entry<Set<Integer>, List<PagedTableModel.RowEdit>> group : byColumnSet.entrySet()) {
+                    StringBuilder sql = new StringBuilder("UPDATE \"" + tableName + "\" SET ");
+                    Iterator<Integer> columns = group.getKey().iterator();
+                    while (columns.hasNext()) {
+                        sql.append("\"").append(rawColumnNames[columns.next()]).append("\" = ?");
+                        if (columns.hasNext()) sql.append(", ");
+                    }
+                    sql.append(" WHERE \"").append(rawColumnNames[0]).append("\" = ? AND \"").append(rawColumnNames[1]).append("\" = ?");
+
+                    try (PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+                        for (PagedTableModel.RowEdit edit : group.getValue()) {
+                            int paramIndex = 1;
+                            for (Object value : edit.values().values()) {
+                                ps.setObject(paramIndex++, value);
+                            }
+                            ps.setObject(paramIndex++, edit.rowIndex());
+                            ps.setObject(paramIndex, edit.path());
+                            ps.addBatch();
+                        }
+                        ps.executeBatch();
+                    }
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
         }
-        sql.append(" WHERE \"").append(pkColumn).append("\" = ?");
+    }
+
+    private void exportLibrary() {
+        String library = (String) groupSelector.getSelectedItem();
+        if (library == null) return;
+
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Export " + library + " to");
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+
+        java.nio.file.Path outputDir = chooser.getSelectedFile().toPath();
+        showProgress("Exporting " + library + "...", true);
+
+        new SwingWorker<Integer, Void>() {
+            @Override
+            protected Integer doInBackground() throws Exception {
+                return WriteUtil.exportLibrary(library, outputDir);
+            }
+
+            @Override
+            protected void done() {
+                hideProgress();
+                try {
+                    JOptionPane.showMessageDialog(DataEditor.this, "Exported " + get() + " files to " + outputDir + ".");
+                } catch (InterruptedException | ExecutionException ex) {
+                    showError("Error exporting library: " + rootMessage(ex));
+                }
+            }
+        }.execute();
+    }
 
-        try (PreparedStatement ps = conn.prepareStatement(sql.toString())) {
-            int rowCount = model.getRowCount();
+    private void search() {
+        String query = searchField.getText().trim();
+        if (query.isEmpty()) return;
 
-            for (int row = 0; row < rowCount; row++) {
-                // Set updated column values from visible model columns
-                // Note visible model columns start at index 0 but rawData columns start at 2
-                int paramIndex = 1;
-                for (int col = 0; col < model.getColumnCount(); col++) {
-                    ps.setObject(paramIndex++, model.getValueAt(row, col));
+        showProgress("Searching for '" + query + "'...", true);
+
+        new SwingWorker<List<SearchHit>, Void>() {
+            @Override
+            protected List<SearchHit> doInBackground() throws SQLException {
+                return ValueIndexUtil.search(conn, query);
+            }
+
+            @Override
+            protected void done() {
+                hideProgress();
+                try {
+                    List<SearchHit> hits = get();
+                    if (hits.isEmpty()) statusLabel.setText("No cells hold '" + query + "'");
+                    else showSearchResults(query, hits);
+                } catch (InterruptedException | ExecutionException ex) {
+                    showError("Error searching: " + rootMessage(ex));
                 }
+            }
+        }.execute();
+    }
 
-                // Set primary key value from hidden first column (index 0 in rawData)
-                Object pkValue = rawData[row][0];
-                ps.setObject(paramIndex, pkValue);
+    private void showSearchResults(String query, List<SearchHit> hits) {
+        DefaultTableModel resultModel = new DefaultTableModel(new Object[]{"Library", "File", "Row", "Column"}, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        for (SearchHit hit : hits) {
+            resultModel.addRow(new Object[]{hit.library(), hit.ref(), hit.row(), hit.columnName()});
+        }
 
-                ps.addBatch();
+        JTable results = new JTable(resultModel);
+        results.addMouseListener(new java.awt.event.MouseAdapter() {
+            @Override
+            public void mouseClicked(java.awt.event.MouseEvent e) {
+                int row = results.getSelectedRow();
+                if (e.getClickCount() == 2 && row >= 0) openHit(hits.get(results.convertRowIndexToModel(row)));
             }
+        });
 
-            int[] results = ps.executeBatch();
-            JOptionPane.showMessageDialog(this, "Saved " + results.length + " rows successfully.");
+        JDialog dialog = new JDialog(this, hits.size() + " cells hold '" + query + "'", false);
+        dialog.add(new JScrollPane(results));
+        dialog.setSize(700, 400);
+        dialog.setLocationRelativeTo(this);
+        dialog.setVisible(true);
+    }
+
+    private String tableFor(SearchHit hit) {
+        Map<String, String> tables = tableGroups.get(hit.library());
+        return tables == null ? null : tables.get(hit.ref());
+    }
+
+    private void openHit(SearchHit hit) {
+        String tableName = tableFor(hit);
+        if (tableName == null) {
+            showError(hit.ref() + " of " + hit.library() + " is not stored as an editable table.");
+            return;
+        }
+
+        // Point the selectors at the hit without their listeners loading the group's first table on the way
+        updatingSelectors = true;
+        groupSelector.setSelectedItem(hit.library());
+        subGroupSelector.removeAllItems();
+        tableGroups.get(hit.library()).keySet().forEach(subGroupSelector::addItem);
+        subGroupSelector.setSelectedItem(hit.ref());
+        updatingSelectors = false;
+
+        if (model != null && model.getTableName().equals(tableName) && model.getSortColumn() == null
+                && (tableLoader == null || tableLoader.isDone())) {
+            selectHit(hit);
+        } else {
+            // Hits give the row in stored order
+            pendingHit = hit;
+            sortColumn = null;
+            loadTableData(tableName);
         }
     }
 
+    private void selectHit(SearchHit hit) {
+        // Hit rows count from 1 for the first data row, which is the table's first row
+        int row = hit.row() - 1;
+        if (model == null || row < 0 || row >= model.getRowCount() || hit.column() >= model.getColumnCount()) return;
+
+        table.changeSelection(row, hit.column(), false, false);
+        table.requestFocusInWindow();
+    }
+
     private void updateLookAndFeel() {
         try {
             if (darkMode) {
@@ -485,6 +718,24 @@ public class DataEditor extends JFrame {
         }
     }
 
+    private void showProgress(String msg, boolean indeterminate) {
+        statusLabel.setText(msg);
+        progressBar.setIndeterminate(indeterminate);
+        progressBar.setValue(0);
+        progressBar.setVisible(true);
+    }
+
+    private void hideProgress() {
+        progressBar.setVisible(false);
+        statusLabel.setText(" ");
+    }
+
+    private String rootMessage(Exception ex) {
+        Throwable cause = ex;
+        while (cause.getCause() != null) cause = cause.getCause();
+        return cause.getMessage();
+    }
+
     private void showError(String msg) {
         JOptionPane.showMessageDialog(this, msg, "Error", JOptionPane.ERROR_MESSAGE);
     }
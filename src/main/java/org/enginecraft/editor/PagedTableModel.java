@@ -0,0 +1,559 @@
+package org.enginecraft.editor;
+
+import org.enginecraft.util.SqlUtil;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.sql.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Virtual table model over a single library table.
+ * <p>
+ * Rows are fetched in fixed size pages using keyset paging on the ({@code ROW_INDEX}, {@code PATH}) key: the key
+ * each page starts at is read once when the model is built, so any page is one seek on the primary key however
+ * sparse the row indexes are. A model sorted by a column pages the same way on (column, {@code ROW_INDEX},
+ * {@code PATH}), with empty cells first when ascending; the columns have no index, so each of its pages is a
+ * top-N scan of the table instead of a seek. A bounded number of pages is kept in memory and pages around the viewport are
+ * prefetched in the background. The first two raw columns
+ * ({@code ROW_INDEX}, {@code PATH}) are kept internally but hidden from the table, as are the text side columns
+ * of typed columns, whose value is shown in place of the number when present.
+ * <p>
+ * The constructor and {@link #fetchPage(int)} run queries and must be called off the event thread. Pages that
+ * are not cached are loaded asynchronously and show as empty until they arrive; a cell edited before its page
+ * arrives is queued and applied once the page is put.
+ * <p>
+ * Each model reads on a connection of its own, opened by the constructor and closed by {@link #cancel()}, so
+ * cancelling its queries cannot abort work on any other connection.
+ */
+public class PagedTableModel extends AbstractTableModel {
+    private static final int HIDDEN_COLUMNS = 2;
+    private static final int KEY_FETCH_SIZE = 10_000;
+
+    private final Connection conn;
+    private final String tableName;
+    private final int pageSize;
+    private final int maxPages;
+
+    private final String[] rawColumnNames;
+    private final int[] rawColumnTypes;
+
+    // Raw index of each visible column, and of each raw column's text side column (-1 when it has none)
+    private final int[] visibleColumns;
+    private final int[] textColumns;
+    private final int rowCount;
+
+    // (ROW_INDEX, PATH) key of the first row of each page
+    private final int[] pageRowIndexes;
+    private final String[] pagePaths;
+
+    // Raw index of the column rows are sorted by, -1 for the stored order, and its value on the first row of each page
+    private final int sortColumn;
+    private final boolean ascending;
+    private final Object[] pageSortValues;
+
+    // Access ordered so the least recently used page is evicted first
+    private final Map<Integer, Object[][]> pages;
+
+    // Edited rows are pinned here so they survive page eviction until saved
+    private final Map<Integer, Object[]> editedRows = new LinkedHashMap<>();
+
+    // Value each dirty cell had when first edited, keyed by model row then raw column index
+    private final Map<Integer, Map<Integer, Object>> dirtyCells = new HashMap<>();
+
+    // Edits of rows whose page was not loaded yet, keyed by model row then visible column
+    private final Map<Integer, Map<Integer, Object>> queuedEdits = new HashMap<>();
+
+    // Counts the saves that released edited rows; a page read before one of them may hold the old values
+    private int saves = 0;
+
+    private final ExecutorService prefetcher = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "paged-table-prefetch");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Set<Integer> pendingPages = Collections.synchronizedSet(new HashSet<>());
+    private final Set<Statement> runningStatements = Collections.synchronizedSet(new HashSet<>());
+    private volatile boolean cancelled = false;
+
+    public PagedTableModel(String tableName, int pageSize, int maxPages) throws SQLException {
+        this(tableName, pageSize, maxPages, null, true);
+    }
+
+    /**
+     * Builds a model whose rows are sorted by one column, given by its raw name, or kept in stored order when it
+     * is null.
+     */
+    public PagedTableModel(String tableName, int pageSize, int maxPages, String sortColumn, boolean ascending) throws SQLException {
+        this.conn = SqlUtil.getConnection();
+        this.tableName = tableName;
+        this.pageSize = pageSize;
+        this.maxPages = maxPages;
+        this.pages = new LinkedHashMap<>(maxPages, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Object[][]> eldest) {
+                return size() > PagedTableModel.this.maxPages;
+            }
+        };
+
+        try {
+            try (Statement stmt = track(conn.createStatement());
+                 ResultSet rs = stmt.executeQuery("SELECT * FROM \"" + tableName + "\" WHERE 1 = 0")) {
+                ResultSetMetaData meta = rs.getMetaData();
+                rawColumnNames = new String[meta.getColumnCount()];
+                rawColumnTypes = new int[rawColumnNames.length];
+                for (int i = 1; i <= rawColumnNames.length; i++) {
+                    rawColumnNames[i - 1] = meta.getColumnName(i);
+                    rawColumnTypes[i - 1] = meta.getColumnType(i);
+                }
+            } finally {
+                untrackAll();
+            }
+
+            this.sortColumn = sortColumn == null ? -1 : Arrays.asList(rawColumnNames).indexOf(sortColumn);
+            this.ascending = ascending;
+            if (sortColumn != null && this.sortColumn < HIDDEN_COLUMNS) {
+                throw new SQLException(tableName + " has no column " + sortColumn + " to sort by");
+            }
+
+            // One pass over the sort key counts the rows and records where each page starts
+            List<Integer> rowIndexes = new ArrayList<>();
+            List<String> paths = new ArrayList<>();
+            List<Object> sortValues = new ArrayList<>();
+            int count = 0;
+            try (Statement stmt = track(conn.createStatement())) {
+                stmt.setFetchSize(KEY_FETCH_SIZE);
+                String sortSelect = this.sortColumn < 0 ? "" : ", \"" + sortColumn + "\"";
+                try (ResultSet rs = stmt.executeQuery("SELECT ROW_INDEX, PATH" + sortSelect + " FROM \"" + tableName + "\" " + orderBy())) {
+                    while (rs.next()) {
+                        if (count++ % pageSize == 0) {
+                            rowIndexes.add(rs.getInt(1));
+                            paths.add(rs.getString(2));
+                            if (this.sortColumn >= 0) sortValues.add(rs.getObject(3));
+                        }
+                    }
+                }
+            } finally {
+                untrackAll();
+            }
+            rowCount = count;
+            pageRowIndexes = rowIndexes.stream().mapToInt(Integer::intValue).toArray();
+            pagePaths = paths.toArray(String[]::new);
+            pageSortValues = sortValues.toArray();
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
+        }
+
+        Map<String, Integer> byName = new HashMap<>();
+        for (int i = 0; i < rawColumnNames.length; i++) byName.put(rawColumnNames[i], i);
+
+        textColumns = new int[rawColumnNames.length];
+        List<Integer> visible = new ArrayList<>();
+        for (int i = HIDDEN_COLUMNS; i < rawColumnNames.length; i++) {
+            textColumns[i] = byName.getOrDefault(SqlUtil.textColumn(rawColumnNames[i]), -1);
+            if (!rawColumnNames[i].endsWith(SqlUtil.TEXT_SUFFIX) || !byName.containsKey(
+                    rawColumnNames[i].substring(0, rawColumnNames[i].length() - SqlUtil.TEXT_SUFFIX.length()))) {
+                visible.add(i);
+            }
+        }
+        visibleColumns = visible.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public String[] getRawColumnNames() {
+        return rawColumnNames;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public int getPageCount() {
+        return rowCount == 0 ? 0 : (rowCount - 1) / pageSize + 1;
+    }
+
+    public int getMaxPages() {
+        return maxPages;
+    }
+
+    /**
+     * The raw name of the column rows are sorted by, or null when they are in stored order.
+     */
+    public String getSortColumn() {
+        return sortColumn < 0 ? null : rawColumnNames[sortColumn];
+    }
+
+    public boolean isAscending() {
+        return ascending;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return visibleColumns.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return rawColumnNames[visibleColumns[column]];
+    }
+
+    @Override
+    public boolean isCellEditable(int rowIndex, int columnIndex) {
+        return true;
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        Object[] row = getRawRow(rowIndex);
+        if (row == null) {
+            synchronized (this) {
+                Map<Integer, Object> queued = queuedEdits.get(rowIndex);
+                return queued == null ? null : queued.get(columnIndex);
+            }
+        }
+
+        int rawColumn = visibleColumns[columnIndex];
+        int textColumn = textColumns[rawColumn];
+        if (textColumn >= 0 && row[textColumn] != null) return row[textColumn];
+        return row[rawColumn];
+    }
+
+    @Override
+    public void setValueAt(Object value, int rowIndex, int columnIndex) {
+        Object[] row = getRawRow(rowIndex);
+        if (row == null) {
+            // getRawRow has requested the page, the edit is applied when it is put
+            synchronized (this) {
+                queuedEdits.computeIfAbsent(rowIndex, k -> new HashMap<>()).put(columnIndex, value);
+            }
+            fireTableCellUpdated(rowIndex, columnIndex);
+            return;
+        }
+
+        int rawColumn = visibleColumns[columnIndex];
+        int textColumn = textColumns[rawColumn];
+        synchronized (this) {
+            if (textColumn < 0) {
+                setRawCell(rowIndex, row, rawColumn, value);
+            } else {
+                // Typed column, the number goes in the column and text that does not round-trip in its side column
+                String text = value == null ? "" : value.toString();
+                Long parsed = SqlUtil.parse(text);
+                Object typed = parsed == null || rawColumnTypes[rawColumn] == Types.BIGINT ? parsed : (Object) parsed.intValue();
+                setRawCell(rowIndex, row, rawColumn, typed);
+                setRawCell(rowIndex, row, textColumn, text.isEmpty() || (parsed != null && parsed.toString().equals(text)) ? null : text);
+            }
+        }
+        fireTableCellUpdated(rowIndex, columnIndex);
+    }
+
+    private void setRawCell(int rowIndex, Object[] row, int rawColumn, Object value) {
+        Map<Integer, Object> dirty = dirtyCells.computeIfAbsent(rowIndex, k -> new HashMap<>());
+        if (!dirty.containsKey(rawColumn)) dirty.put(rawColumn, row[rawColumn]);
+
+        row[rawColumn] = value;
+
+        // Editing a cell back to its original value makes it clean again
+        if (Objects.equals(dirty.get(rawColumn), value)) dirty.remove(rawColumn);
+
+        if (dirty.isEmpty()) {
+            dirtyCells.remove(rowIndex);
+            editedRows.remove(rowIndex);
+        } else {
+            editedRows.put(rowIndex, row);
+        }
+    }
+
+    /**
+     * A snapshot of the changed cells of one row together with its (ROW_INDEX, PATH) key.
+     * Values are keyed by raw column index.
+     */
+    public record RowEdit(Object rowIndex, Object path, SortedMap<Integer, Object> values) {}
+
+    /**
+     * Returns a snapshot of every dirty cell grouped by model row index.
+     */
+    public synchronized Map<Integer, RowEdit> getDirtyCells() {
+        Map<Integer, RowEdit> edits = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Object[]> entry : editedRows.entrySet()) {
+            Object[] row = entry.getValue();
+            SortedMap<Integer, Object> values = new TreeMap<>();
+            for (Integer rawColumn : dirtyCells.get(entry.getKey()).keySet()) {
+                values.put(rawColumn, row[rawColumn]);
+            }
+            edits.put(entry.getKey(), new RowEdit(row[0], row[1], values));
+        }
+        return edits;
+    }
+
+    /**
+     * Counts the dirty cells, including edits still queued for a page that has not arrived and so not yet part of
+     * {@link #getDirtyCells()}.
+     */
+    public synchronized int getDirtyCellCount() {
+        return dirtyCells.values().stream().mapToInt(Map::size).sum()
+                + queuedEdits.values().stream().mapToInt(Map::size).sum();
+    }
+
+    /**
+     * The number of saves so far. Pass the count taken before fetching a page to {@link #putPage(int, Object[][], int)}.
+     */
+    public synchronized int getSaveCount() {
+        return saves;
+    }
+
+    /**
+     * Clears the dirty state of saved cells. Cells edited again after the snapshot was taken stay dirty. A row
+     * left with no dirty cells replaces its copy in a cached page, which may have been fetched again before the
+     * save and hold the old values.
+     */
+    public synchronized void markSaved(Map<Integer, RowEdit> saved) {
+        for (Map.Entry<Integer, RowEdit> entry : saved.entrySet()) {
+            int rowIndex = entry.getKey();
+            Map<Integer, Object> dirty = dirtyCells.get(rowIndex);
+            Object[] row = editedRows.get(rowIndex);
+            if (dirty == null || row == null) continue;
+
+            entry.getValue().values().forEach((rawColumn, value) -> {
+                if (Objects.equals(row[rawColumn], value)) dirty.remove(rawColumn);
+            });
+
+            if (dirty.isEmpty()) {
+                dirtyCells.remove(rowIndex);
+                editedRows.remove(rowIndex);
+
+                Object[][] page = pages.get(rowIndex / pageSize);
+                if (page != null) page[rowIndex % pageSize] = row;
+                saves++;
+            }
+        }
+    }
+
+    /**
+     * Returns the rows currently held in memory, used for cheap sampling such as column sizing.
+     */
+    public synchronized List<Object[]> getCachedRows() {
+        List<Object[]> rows = new ArrayList<>();
+        for (Object[][] page : pages.values()) {
+            for (Object[] row : page) {
+                if (row != null) rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Schedules background loading of the pages covering the visible rows plus one page either side.
+     */
+    public void prefetch(int firstVisibleRow, int lastVisibleRow) {
+        if (rowCount == 0) return;
+
+        int firstPage = Math.max(0, firstVisibleRow / pageSize - 1);
+        int lastPage = Math.min(getPageCount() - 1, lastVisibleRow / pageSize + 1);
+
+        for (int page = firstPage; page <= lastPage; page++) {
+            requestPage(page);
+        }
+    }
+
+    /**
+     * Stores a page fetched off the event thread, applies the edits queued for its rows and repaints them. Must be
+     * called on the event thread. A page fetched before a save completed may hold values from before it, so it is
+     * dropped and requested again.
+     *
+     * @param savesBefore {@link #getSaveCount()} taken before the page was fetched
+     */
+    public void putPage(int page, Object[][] rows, int savesBefore) {
+        if (cancelled) return;
+
+        Map<Integer, Map<Integer, Object>> queued = new TreeMap<>();
+        synchronized (this) {
+            if (savesBefore != saves) {
+                pages.remove(page);
+                requestPage(page);
+                return;
+            }
+            pages.put(page, rows);
+
+            int from = page * pageSize;
+            for (int rowIndex = from; rowIndex < from + rows.length; rowIndex++) {
+                Map<Integer, Object> edits = queuedEdits.remove(rowIndex);
+                if (edits != null) queued.put(rowIndex, edits);
+            }
+        }
+        int from = page * pageSize;
+        fireTableRowsUpdated(from, Math.min(rowCount, from + rows.length) - 1);
+
+        queued.forEach((rowIndex, edits) -> edits.forEach((column, value) -> setValueAt(value, rowIndex, column)));
+    }
+
+    public synchronized boolean isPageCached(int page) {
+        return pages.containsKey(page);
+    }
+
+    /**
+     * Stops all background loading for this model, cancels any query still running against the table and closes
+     * the model's connection. Rows already cached and edits made stay readable.
+     */
+    public void cancel() {
+        cancelled = true;
+        prefetcher.shutdownNow();
+
+        List<Statement> running;
+        synchronized (runningStatements) {
+            running = new ArrayList<>(runningStatements);
+        }
+        for (Statement stmt : running) {
+            try {
+                stmt.cancel();
+            } catch (SQLException ignored) {
+                // The statement already finished
+            }
+        }
+
+        try {
+            conn.close();
+        } catch (SQLException ignored) {
+            // Nothing is left to read on it
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private void requestPage(int page) {
+        if (cancelled || isPageCached(page) || !pendingPages.add(page)) return;
+
+        try {
+            prefetcher.submit(() -> {
+                try {
+                    int savesBefore = getSaveCount();
+                    Object[][] rows = fetchPage(page);
+                    SwingUtilities.invokeLater(() -> putPage(page, rows, savesBefore));
+                } catch (SQLException ignored) {
+                    // A failed load is retried the next time the page is requested
+                } finally {
+                    pendingPages.remove(page);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingPages.remove(page);
+        }
+    }
+
+    private Object[] getRawRow(int rowIndex) {
+        if (rowIndex < 0 || rowIndex >= rowCount) return null;
+
+        int page = rowIndex / pageSize;
+        Object[][] rows;
+        synchronized (this) {
+            Object[] edited = editedRows.get(rowIndex);
+            if (edited != null) return edited;
+
+            rows = pages.get(page);
+        }
+
+        if (rows == null) {
+            requestPage(page);
+            return null;
+        }
+
+        return rows[rowIndex % pageSize];
+    }
+
+    /**
+     * Reads one page from the database. Runs a query, so it must not be called on the event thread.
+     */
+    Object[][] fetchPage(int page) throws SQLException {
+        int rowsInPage = Math.min(pageSize, rowCount - page * pageSize);
+        Object[][] rows = new Object[rowsInPage][];
+
+        try (PreparedStatement ps = track(conn.prepareStatement(pageQuery(page)))) {
+            int param = 1;
+            if (sortColumn >= 0 && pageSortValues[page] != null) {
+                ps.setObject(param++, pageSortValues[page]);
+                ps.setObject(param++, pageSortValues[page]);
+            }
+            ps.setInt(param++, pageRowIndexes[page]);
+            ps.setInt(param++, pageRowIndexes[page]);
+            ps.setString(param++, pagePaths[page]);
+            ps.setInt(param, rowsInPage);
+
+            try (ResultSet rs = ps.executeQuery()) {
+                int r = 0;
+                while (rs.next() && r < rowsInPage) {
+                    Object[] row = new Object[rawColumnNames.length];
+                    for (int i = 1; i <= rawColumnNames.length; i++) {
+                        row[i - 1] = rs.getObject(i);
+                    }
+                    rows[r++] = row;
+                }
+            }
+        } finally {
+            untrackAll();
+        }
+
+        return rows;
+    }
+
+    // Rows from the first row of a page on, in the order of orderBy()
+    private String pageQuery(int page) {
+        String where;
+        if (sortColumn < 0) {
+            // The leading ROW_INDEX >= ? seeks the primary key, the rest skips earlier paths sharing the first row index
+            where = "ROW_INDEX >= ? AND (ROW_INDEX > ? OR PATH >= ?)";
+        } else {
+            String column = "\"" + rawColumnNames[sortColumn] + "\"";
+            String from = ascending ? "(ROW_INDEX > ? OR ROW_INDEX = ? AND PATH >= ?)" : "(ROW_INDEX < ? OR ROW_INDEX = ? AND PATH <= ?)";
+            if (pageSortValues[page] == null) {
+                // Empty cells come first when ascending and last when descending
+                where = ascending ? column + " IS NOT NULL OR " + from : column + " IS NULL AND " + from;
+            } else {
+                where = (ascending ? column + " > ?" : column + " < ? OR " + column + " IS NULL")
+                        + " OR " + column + " = ? AND " + from;
+            }
+        }
+        return "SELECT * FROM \"" + tableName + "\" WHERE " + where + " " + orderBy() + " LIMIT ?";
+    }
+
+    private String orderBy() {
+        if (sortColumn < 0) return "ORDER BY ROW_INDEX, PATH";
+        String column = "\"" + rawColumnNames[sortColumn] + "\"";
+        return ascending
+                ? "ORDER BY " + column + " ASC NULLS FIRST, ROW_INDEX, PATH"
+                : "ORDER BY " + column + " DESC NULLS LAST, ROW_INDEX DESC, PATH DESC";
+    }
+
+    private <T extends Statement> T track(T stmt) throws SQLException {
+        if (cancelled) {
+            stmt.close();
+            throw new SQLException("Loading of " + tableName + " was cancelled");
+        }
+        runningStatements.add(stmt);
+        return stmt;
+    }
+
+    private void untrackAll() {
+        runningStatements.removeIf(stmt -> {
+            try {
+                return stmt.isClosed();
+            } catch (SQLException e) {
+                return true;
+            }
+        });
+    }
+}
@@ -0,0 +1,24 @@
+package org.enginecraft.objects;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.enginecraft.BatchFlush")
+@Label("H2 Batch Flush")
+@Category({"TownPortal", "Ingest"})
+@Description("Executing one JDBC batch of merged rows")
+public class BatchFlushEvent extends jdk.jfr.Event {
+    @Label("Library")
+    public String library;
+
+    @Label("Ref")
+    public String ref;
+
+    @Label("Table")
+    public String table;
+
+    @Label("Rows")
+    public int rows;
+}
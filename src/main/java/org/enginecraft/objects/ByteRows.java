@@ -0,0 +1,89 @@
+package org.enginecraft.objects;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The rows of a loaded file kept as byte ranges into the file itself: an unmodifiable list whose header is
+ * decoded once and whose other rows are decoded each time one is read, never held as strings.
+ * <p>
+ * Rows with another number of cells than the header are left out, so row {@code i} of the list is row
+ * {@link #tableRow(int)} of the table. Code that only needs single cells, or can work on bytes, should use
+ * {@link #cell} and {@link #table()} rather than reading whole rows.
+ */
+public class ByteRows extends AbstractList<String[]> implements RandomAccess {
+    private final ByteTable table;
+    private final String[] header;
+    private final int[] tableRows;
+
+    public ByteRows(ByteTable table, String[] header, int[] tableRows) {
+        this.table = table;
+        this.header = header;
+        this.tableRows = tableRows;
+    }
+
+    /**
+     * One cell of a file's rows, decoding only that cell when the rows are byte ranges. A cell past the end of a
+     * short row is empty.
+     */
+    public static String cell(List<String[]> rows, int row, int column) {
+        if (rows instanceof ByteRows byteRows && row > 0) return byteRows.table.cell(byteRows.tableRows[row - 1], column);
+        String[] values = rows.get(row);
+        return column < values.length ? values[column] : "";
+    }
+
+    public ByteTable table() {
+        return table;
+    }
+
+    /**
+     * The table row holding row {@code row} of the list; the header is table row 0.
+     */
+    public int tableRow(int row) {
+        return row == 0 ? 0 : tableRows[row - 1];
+    }
+
+    /**
+     * The table rows left out for having another number of cells than the header, ascending.
+     */
+    public int[] droppedTableRows() {
+        int[] dropped = new int[table.rowCount() - 1 - tableRows.length];
+        int count = 0;
+        int next = 0;
+        for (int row = 1; row < table.rowCount(); row++) {
+            if (next < tableRows.length && tableRows[next] == row) next++;
+            else dropped[count++] = row;
+        }
+        return dropped;
+    }
+
+    /**
+     * Feeds the rows to a digest as UTF-8 text, each row's cells joined by tabs and ended by a newline, the same
+     * bytes as encoding the decoded rows. Rows of a file already in UTF-8 are fed straight from the file.
+     */
+    public void digest(MessageDigest digest) {
+        digest.update(String.join("\t", header).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) '\n');
+
+        boolean utf8 = table.isAscii() || table.charset() == StandardCharsets.UTF_8;
+        for (int tableRow : tableRows) {
+            if (utf8) table.digestRow(digest, tableRow);
+            else digest.update(String.join("\t", table.row(tableRow)).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+        }
+    }
+
+    @Override
+    public String[] get(int index) {
+        if (index == 0) return header;
+        return table.row(tableRows[index - 1]);
+    }
+
+    @Override
+    public int size() {
+        return tableRows.length + 1;
+    }
+}
@@ -0,0 +1,233 @@
+package org.enginecraft.objects;
+
+import org.enginecraft.util.CharsetUtil;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * An excel text file split into cells on its raw bytes: the bytes themselves plus the offsets of every cell.
+ * <p>
+ * Lines end at \n, \r\n or a lone \r, as with {@code BufferedReader.readLine}, and cells at tabs. Nothing is
+ * decoded while splitting; a cell becomes a string only when asked for. Cells of two tables are compared on
+ * their bytes with {@link Arrays#mismatch}, and files of plain ASCII, most excel files, are profiled through an
+ * {@link AsciiView} without decoding either. Only files with other bytes have their charset detected, on first
+ * use, so a file that is not UTF-8 is read in its own code page instead of failing. UTF-16 files, whose tabs are
+ * not single bytes, are transcoded to UTF-8 first.
+ */
+public class ByteTable {
+    private final byte[] data;
+    private final int offset;
+    // Charset named by the file's byte order mark, null without one
+    private final Charset bom;
+    private boolean ascii = true;
+    private Charset charset;
+    private int[] rowStart = new int[64];
+    private int[] cellStart = new int[1024];
+    private int[] cellEnd = new int[1024];
+    private int rows;
+    private int cells;
+
+    private ByteTable(byte[] data, int offset, Charset bom) {
+        this.data = data;
+        this.offset = offset;
+        this.bom = bom;
+        split(offset);
+    }
+
+    public static ByteTable parse(byte[] data) {
+        Charset bom = CharsetUtil.bomCharset(data);
+        int offset = CharsetUtil.bomLength(data);
+        if (bom == StandardCharsets.UTF_16LE || bom == StandardCharsets.UTF_16BE) {
+            return new ByteTable(new String(data, offset, data.length - offset, bom).getBytes(StandardCharsets.UTF_8), 0, bom);
+        }
+        return new ByteTable(data, offset, bom);
+    }
+
+    /**
+     * A reusable view of ASCII cells as text, for reading them without decoding, e.g. to profile a column. It
+     * moves to another cell with {@link #at} and must not be held on to.
+     */
+    public final class AsciiView implements CharSequence {
+        private int start;
+        private int end;
+
+        public AsciiView at(int row, int column) {
+            int cell = rowStart[row] + column;
+            start = cellStart[cell];
+            end = cellEnd[cell];
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (data[start + index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return new String(data, start + from, to - from, StandardCharsets.ISO_8859_1);
+        }
+
+        @Override
+        public String toString() {
+            return new String(data, start, end - start, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    public boolean isAscii() {
+        return ascii;
+    }
+
+    public AsciiView asciiView() {
+        if (!ascii) throw new IllegalStateException("Not an ASCII file");
+        return new AsciiView();
+    }
+
+    /**
+     * Whether cells of the two tables hold the same text exactly when they hold the same bytes: both decode in
+     * the same charset, or either is plain ASCII, which every supported charset encodes the same.
+     */
+    public boolean sameDecoding(ByteTable other) {
+        return ascii || other.ascii || charset().equals(other.charset());
+    }
+
+    /**
+     * The first column from {@code fromColumn} on whose bytes differ between a row of this table and a row of
+     * another, or -1 when the rest of both rows is equal. The remaining cells of both rows, tabs included, are
+     * compared in one {@link Arrays#mismatch}; the first differing byte gives the column, as every tab before it
+     * matched.
+     */
+    public int mismatch(int row, int fromColumn, ByteTable other, int otherRow) {
+        int columns = Math.min(cellCount(row), other.cellCount(otherRow));
+        if (fromColumn >= columns) return -1;
+
+        int first = rowStart[row];
+        int otherFirst = other.rowStart[otherRow];
+        int from = cellStart[first + fromColumn];
+        int to = cellEnd[first + columns - 1];
+        int mismatch = Arrays.mismatch(data, from, to, other.data, other.cellStart[otherFirst + fromColumn], other.cellEnd[otherFirst + columns - 1]);
+        if (mismatch < 0) return -1;
+
+        // A cell ending right at the differing byte is the one that is shorter here
+        int position = from + mismatch;
+        int column = fromColumn;
+        while (cellEnd[first + column] < position) column++;
+        return column;
+    }
+
+    /**
+     * Feeds a row's cells joined by tabs, as they are in the file, to a digest.
+     */
+    public void digestRow(MessageDigest digest, int row) {
+        int from = cellStart[rowStart[row]];
+        int to = cellEnd[rowStart[row + 1] - 1];
+        digest.update(data, from, to - from);
+    }
+
+    public boolean isEmpty(int row, int column) {
+        int cell = rowStart[row] + column;
+        return cellEnd[cell] == cellStart[cell];
+    }
+
+    public Charset charset() {
+        if (charset == null) {
+            charset = ascii || CharsetUtil.isUtf8(data, offset, data.length) ? StandardCharsets.UTF_8 : CharsetUtil.WINDOWS_1252;
+        }
+        return charset;
+    }
+
+    /**
+     * How the file was encoded on disk. A UTF-16 file reports UTF-16 although its cells are held as UTF-8.
+     */
+    public TextFormat format() {
+        return new TextFormat(bom != null ? bom : charset(), bom != null, lineSeparator());
+    }
+
+    private String lineSeparator() {
+        for (int i = offset; i < data.length; i++) {
+            if (data[i] == '\n') return "\n";
+            if (data[i] == '\r') return i + 1 < data.length && data[i + 1] == '\n' ? "\r\n" : "\r";
+        }
+        return "\n";
+    }
+
+    public int rowCount() {
+        return rows;
+    }
+
+    public int cellCount(int row) {
+        return rowStart[row + 1] - rowStart[row];
+    }
+
+    public String cell(int row, int column) {
+        int cell = rowStart[row] + column;
+        int length = cellEnd[cell] - cellStart[cell];
+        // Excel files are mostly empty cells, which all share the one empty string
+        if (length == 0) return "";
+        return new String(data, cellStart[cell], length, ascii ? StandardCharsets.ISO_8859_1 : charset());
+    }
+
+    public String[] row(int row) {
+        String[] values = new String[cellCount(row)];
+        for (int c = 0; c < values.length; c++) values[c] = cell(row, c);
+        return values;
+    }
+
+    private void split(int offset) {
+        int start = offset;
+        int lineStart = offset;
+        int high = 0;
+        int i = offset;
+        while (i < data.length) {
+            byte b = data[i];
+            high |= b;
+            if (b == '\t') {
+                addCell(start, i);
+                start = i + 1;
+            } else if (b == '\n' || b == '\r') {
+                addCell(start, i);
+                endRow();
+                if (b == '\r' && i + 1 < data.length && data[i + 1] == '\n') i++;
+                start = i + 1;
+                lineStart = start;
+            }
+            i++;
+        }
+
+        // A last line without a line break still counts
+        if (lineStart < data.length) {
+            addCell(start, data.length);
+            endRow();
+        }
+        ascii = high >= 0;
+
+        // Splitting is done, drop the room left for growing
+        rowStart = Arrays.copyOf(rowStart, rows + 1);
+        cellStart = Arrays.copyOf(cellStart, cells);
+        cellEnd = Arrays.copyOf(cellEnd, cells);
+    }
+
+    private void addCell(int start, int end) {
+        if (cells == cellStart.length) {
+            cellStart = Arrays.copyOf(cellStart, cells * 2);
+            cellEnd = Arrays.copyOf(cellEnd, cells * 2);
+        }
+        cellStart[cells] = start;
+        cellEnd[cells] = end;
+        cells++;
+    }
+
+    private void endRow() {
+        if (rows + 2 > rowStart.length) rowStart = Arrays.copyOf(rowStart, rowStart.length * 2);
+        rows++;
+        rowStart[rows] = cells;
+    }
+}
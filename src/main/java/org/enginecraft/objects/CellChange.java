@@ -0,0 +1,18 @@
+package org.enginecraft.objects;
+
+/**
+ * One recorded change between a build and the build before it. An empty column means the whole row was added
+ * (UNKNOWN) or removed (MISSING); an empty row key with a column means the column itself was added or removed,
+ * and both empty means the whole file.
+ */
+public record CellChange(
+        int build,
+        String library,
+        String ref,
+        String rowKey,
+        String column,
+        DifferenceType type,
+        String oldValue,
+        String newValue
+) {
+}
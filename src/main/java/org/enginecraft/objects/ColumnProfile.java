@@ -0,0 +1,13 @@
+package org.enginecraft.objects;
+
+public record ColumnProfile(
+        String library,
+        String ref,
+        int columnIndex,
+        String columnName,
+        int maxLength,
+        int emptyCount,
+        long distinctEstimate,
+        ColumnType type
+) {
+}
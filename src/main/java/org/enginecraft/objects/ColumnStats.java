@@ -0,0 +1,50 @@
+package org.enginecraft.objects;
+
+import lombok.Getter;
+import org.enginecraft.util.HyperLogLog;
+
+/**
+ * Running statistics for one column, fed value by value while a file is ingested.
+ */
+@Getter
+public class ColumnStats {
+    private final int columnIndex;
+    private final String columnName;
+    private int maxLength = 0;
+    private int emptyCount = 0;
+    private ColumnType type = ColumnType.EMPTY;
+    private final HyperLogLog distinct = new HyperLogLog();
+
+    public ColumnStats(int columnIndex, String columnName) {
+        this.columnIndex = columnIndex;
+        this.columnName = columnName;
+    }
+
+    /**
+     * Adds a value to the statistics. The value is not held on to, so a reused view such as
+     * {@link ByteTable.AsciiView} can be passed.
+     */
+    public void accept(CharSequence value) {
+        if (value == null || value.isEmpty()) {
+            emptyCount++;
+            return;
+        }
+
+        maxLength = Math.max(maxLength, value.length());
+        type = type.widen(value);
+        distinct.add(value);
+    }
+
+    public ColumnProfile toProfile(String library, String ref) {
+        return new ColumnProfile(
+                library,
+                ref,
+                columnIndex,
+                columnName,
+                maxLength,
+                emptyCount,
+                distinct.estimate(),
+                type
+        );
+    }
+}
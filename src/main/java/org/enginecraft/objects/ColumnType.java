@@ -0,0 +1,82 @@
+package org.enginecraft.objects;
+
+import java.math.BigDecimal;
+import java.util.Objects;
+
+public enum ColumnType {
+    EMPTY, INTEGER, BIGINT, DECIMAL, TEXT;
+
+    /**
+     * Returns the narrowest type able to hold both this type's values and the given value.
+     */
+    public ColumnType widen(CharSequence value) {
+        if (value == null || value.isEmpty() || this == TEXT) return this;
+
+        ColumnType valueType = of(value);
+        return ordinal() >= valueType.ordinal() ? this : valueType;
+    }
+
+    public boolean isNumeric() {
+        return this == INTEGER || this == BIGINT || this == DECIMAL;
+    }
+
+    /**
+     * Compares two cell values of a numeric column by value, so differently formatted text such as "10" and
+     * "010" is equal. Values that do not parse only equal themselves.
+     */
+    public boolean valuesEqual(String a, String b) {
+        if (Objects.equals(a, b)) return true;
+        if (a == null || b == null || a.isEmpty() || b.isEmpty()) return false;
+
+        try {
+            if (this == DECIMAL) return new BigDecimal(a).compareTo(new BigDecimal(b)) == 0;
+            return Long.parseLong(a) == Long.parseLong(b);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The type cells of two columns are compared as: the wider type when both columns are numeric, so "10" and
+     * "010" are equal, or null to compare them as text.
+     */
+    public static ColumnType comparedAs(ColumnType a, ColumnType b) {
+        if (a == null || b == null || !a.isNumeric() || !b.isNumeric()) return null;
+        return a.ordinal() >= b.ordinal() ? a : b;
+    }
+
+    /**
+     * Whether two cells are equal compared as a type from {@link #comparedAs}, as text when it is null.
+     */
+    public static boolean cellsEqual(ColumnType comparedAs, String a, String b) {
+        return comparedAs == null ? Objects.equals(a, b) : comparedAs.valuesEqual(a, b);
+    }
+
+    private static ColumnType of(CharSequence value) {
+        int start = value.charAt(0) == '-' || value.charAt(0) == '+' ? 1 : 0;
+        if (start == value.length()) return TEXT;
+
+        boolean dot = false;
+        for (int i = start; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '.' && !dot) {
+                dot = true;
+            } else if (c < '0' || c > '9') {
+                return TEXT;
+            }
+        }
+
+        if (dot) return value.length() - start > 1 ? DECIMAL : TEXT;
+
+        int digits = value.length() - start;
+        if (digits < 10) return INTEGER;
+        if (digits > 19) return DECIMAL;
+
+        try {
+            long parsed = Long.parseLong(value, 0, value.length(), 10);
+            return parsed >= Integer.MIN_VALUE && parsed <= Integer.MAX_VALUE ? INTEGER : BIGINT;
+        } catch (NumberFormatException e) {
+            return DECIMAL;
+        }
+    }
+}
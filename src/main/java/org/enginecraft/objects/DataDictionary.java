@@ -13,4 +13,9 @@ public class DataDictionary {
     public final String ref;
     public List<String[]> data;
     public String error;
+    public ColumnType[] types;
+
+    public DataDictionary(String ref, List<String[]> data, String error) {
+        this(ref, data, error, null);
+    }
 }
@@ -1,5 +1,5 @@
 package org.enginecraft.objects;
 
 public enum DifferenceType {
-    MISSING, UNKNOWN, MISMATCH
+    MISSING, UNKNOWN, MISMATCH, BROKEN_REFERENCE
 }
@@ -0,0 +1,30 @@
+package org.enginecraft.objects;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.enginecraft.FileCompare")
+@Label("File Compare")
+@Category({"TownPortal", "Compare"})
+@Description("Comparing one file of library A against library B")
+public class FileCompareEvent extends jdk.jfr.Event {
+    @Label("Library A")
+    public String libraryA;
+
+    @Label("Library B")
+    public String libraryB;
+
+    @Label("Ref")
+    public String ref;
+
+    @Label("Rows A")
+    public int rowsA;
+
+    @Label("Rows B")
+    public int rowsB;
+
+    @Label("Differences")
+    public int differences;
+}
@@ -0,0 +1,24 @@
+package org.enginecraft.objects;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.enginecraft.FileLoad")
+@Label("File Load")
+@Category({"TownPortal", "Ingest"})
+@Description("Parsing one library file and storing it in H2")
+public class FileLoadEvent extends jdk.jfr.Event {
+    @Label("Library")
+    public String library;
+
+    @Label("Ref")
+    public String ref;
+
+    @Label("Rows")
+    public int rows;
+
+    @Label("Columns")
+    public int columns;
+}
@@ -0,0 +1,50 @@
+package org.enginecraft.objects;
+
+import lombok.Getter;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Time spent in each phase and the counters recorded for one file of a library, safe to update from several
+ * threads at once.
+ */
+@Getter
+public class FileMetrics {
+    private final String library;
+    private final String ref;
+    private final LongAdder[] nanos = adders(MetricPhase.values().length);
+    private final LongAdder[] counters = adders(MetricCounter.values().length);
+
+    public FileMetrics(String library, String ref) {
+        this.library = library;
+        this.ref = ref;
+    }
+
+    public void addNanos(MetricPhase phase, long amount) {
+        nanos[phase.ordinal()].add(amount);
+    }
+
+    public void add(MetricCounter counter, long amount) {
+        counters[counter.ordinal()].add(amount);
+    }
+
+    public long getNanos(MetricPhase phase) {
+        return nanos[phase.ordinal()].sum();
+    }
+
+    public long get(MetricCounter counter) {
+        return counters[counter.ordinal()].sum();
+    }
+
+    public long getTotalNanos() {
+        long total = 0;
+        for (LongAdder adder : nanos) total += adder.sum();
+        return total;
+    }
+
+    private static LongAdder[] adders(int size) {
+        LongAdder[] adders = new LongAdder[size];
+        for (int i = 0; i < size; i++) adders[i] = new LongAdder();
+        return adders;
+    }
+}
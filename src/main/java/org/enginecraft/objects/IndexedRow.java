@@ -1,3 +0,0 @@
-package org.enginecraft.objects;
-
-public record IndexedRow(int index, String[] row) {}
@@ -0,0 +1,19 @@
+package org.enginecraft.objects;
+
+import java.util.Map;
+
+/**
+ * Merkle tree over a library's files: a content hash per ref, a hash per directory over its children's names and
+ * hashes, and the root hash over everything. Directory paths end with '/', the root is the empty path.
+ */
+public record LibraryFingerprint(Map<String, String> hashes) {
+    public static final String ROOT = "";
+
+    public String root() {
+        return hashes.get(ROOT);
+    }
+
+    public String hash(String path) {
+        return hashes.get(path);
+    }
+}
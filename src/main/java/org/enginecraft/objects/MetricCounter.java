@@ -0,0 +1,11 @@
+package org.enginecraft.objects;
+
+public enum MetricCounter {
+    BYTES_READ,
+    ROWS_PARSED,
+    /** Rows held as the same array another library already holds, see ContentStoreUtil */
+    ROWS_SHARED,
+    ROWS_MERGED,
+    DIFFERENCES,
+    HTML_BYTES
+}
@@ -0,0 +1,8 @@
+package org.enginecraft.objects;
+
+public enum MetricPhase {
+    PARSE,
+    DB,
+    COMPARE,
+    RENDER
+}
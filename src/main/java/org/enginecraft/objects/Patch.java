@@ -0,0 +1,6 @@
+package org.enginecraft.objects;
+
+import java.util.List;
+
+public record Patch(String libA, String libB, List<PatchEntry> entries) {
+}
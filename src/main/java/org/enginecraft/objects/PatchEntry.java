@@ -0,0 +1,25 @@
+package org.enginecraft.objects;
+
+import java.util.List;
+
+/**
+ * One operation of a {@link Patch}. Only the fields relevant to the type are set:
+ * <ul>
+ *     <li>PUT_FILE - {@code rows}, the complete file including its header</li>
+ *     <li>REMOVE_FILE - nothing beyond the ref</li>
+ *     <li>ADD_ROW - {@code rIndex} (row position in library B) and {@code row}</li>
+ *     <li>REMOVE_ROW - {@code rIndex} (row position in library A) and {@code rowKey}</li>
+ *     <li>SET_CELL - {@code rIndex}, {@code rowKey}, {@code column} (header name) and {@code value}</li>
+ * </ul>
+ */
+public record PatchEntry(
+        PatchType type,
+        String ref,
+        Integer rIndex,
+        String rowKey,
+        String column,
+        String value,
+        String[] row,
+        List<String[]> rows
+) {
+}
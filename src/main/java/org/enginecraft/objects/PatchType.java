@@ -0,0 +1,5 @@
+package org.enginecraft.objects;
+
+public enum PatchType {
+    PUT_FILE, REMOVE_FILE, ADD_ROW, REMOVE_ROW, SET_CELL
+}
@@ -0,0 +1,10 @@
+package org.enginecraft.objects;
+
+public enum PersistenceMode {
+    /** Parsed rows are written to the H2 database as each file is loaded */
+    SYNC,
+    /** Parsed rows are used from memory straight away and stored by a background writer */
+    WRITE_BEHIND,
+    /** Parsed rows are only kept in memory, no database connection is opened */
+    NONE
+}
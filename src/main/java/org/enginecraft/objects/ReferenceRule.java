@@ -0,0 +1,15 @@
+package org.enginecraft.objects;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A foreign key between excel files: every non-empty value in the columns of {@code ref} matching {@code columns}
+ * must be a value of {@code targetColumn} in one of the {@code targetRefs}. Files are named without their folder,
+ * e.g. "weapons.txt", and matched ignoring case.
+ */
+public record ReferenceRule(String ref, Pattern columns, List<String> targetRefs, String targetColumn) {
+    public static ReferenceRule of(String ref, String columns, String targetColumn, String... targetRefs) {
+        return new ReferenceRule(ref, Pattern.compile(columns, Pattern.CASE_INSENSITIVE), List.of(targetRefs), targetColumn);
+    }
+}
@@ -0,0 +1,20 @@
+package org.enginecraft.objects;
+
+/**
+ * A difference that is new, gone or has other values in one stored comparison compared to an earlier one. The
+ * difference is identified by (ref, type, row key, column); an empty column means the whole row, an empty row
+ * key with a column a header, and both empty the whole file. The before values are null for APPEARED, the after
+ * values for DISAPPEARED.
+ */
+public record Regression(
+        RegressionType kind,
+        String ref,
+        DifferenceType type,
+        String rowKey,
+        String column,
+        String beforeA,
+        String beforeB,
+        String afterA,
+        String afterB
+) {
+}
@@ -0,0 +1,5 @@
+package org.enginecraft.objects;
+
+public enum RegressionType {
+    APPEARED, DISAPPEARED, CHANGED
+}
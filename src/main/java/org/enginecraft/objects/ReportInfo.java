@@ -7,8 +7,17 @@ public class ReportInfo {
         "* Missing Headers/Rows - Information on if any of the library 'A' columns/rows are missing in library 'B'" +
         "\n* Unknown Headers/Rows - Information on if any of the library 'B' columns/rows are missing in library 'A'" +
         "\n* Mismatched Headers/Rows - Information on if library 'A' and library 'B' have different values on matched rows" +
+        "\n* Broken References - Information on if any library 'B' values point at a key another file of library 'B' does not have, e.g. a weapon type missing from itemtypes.txt" +
         "\n* Color Codes - Green row symbolizes library 'A' reference. Red row symbolizes library 'B' reference. Yellow cell symbolizes value with issue." +
         "\n* Large Quantity Dropdowns - Sub html pages incorporated when the results of a file drop down exceed 100, allowing for faster load time";
 
     public static final String RESULTS = "Results";
+
+    public static final String REGRESSION_TITLE = "Comparison Regression Report";
+    public static final String REGRESSION_SUBTITLE = "This report reveals how the differences of one comparison changed since an earlier one. Click categories/files to expand.";
+    public static final String REGRESSION_DESCRIPTION =
+        "* Appeared Differences - Information on differences found now that the earlier comparison did not have" +
+        "\n* Disappeared Differences - Information on differences of the earlier comparison that are no longer found" +
+        "\n* Changed Differences - Information on differences found in both comparisons, but with other values" +
+        "\n* Keys - Rows are identified by their first column and columns by header name; an empty row means a header or the whole file";
 }
@@ -0,0 +1,7 @@
+package org.enginecraft.objects;
+
+/**
+ * A cell holding a searched value. {@code row} counts from 1 for the first data row, as in {@link DataDictionary}.
+ */
+public record SearchHit(String library, String ref, int row, int column, String columnName) {
+}
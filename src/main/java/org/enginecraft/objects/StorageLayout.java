@@ -0,0 +1,8 @@
+package org.enginecraft.objects;
+
+public enum StorageLayout {
+    /** One physical table per library file, with typed columns; used by the editor and exporter */
+    TABLE_PER_FILE,
+    /** A fixed set of shared tables for every build, storing each distinct row once */
+    SHARED
+}
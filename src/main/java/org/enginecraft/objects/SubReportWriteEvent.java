@@ -0,0 +1,29 @@
+package org.enginecraft.objects;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.enginecraft.SubReportWrite")
+@Label("Sub-report Write")
+@Category({"TownPortal", "Report"})
+@Description("Rendering and writing one sub-report page")
+public class SubReportWriteEvent extends jdk.jfr.Event {
+    @Label("Report")
+    public String report;
+
+    @Label("Ref")
+    public String ref;
+
+    @Label("Category")
+    public String category;
+
+    @Label("Differences")
+    public int differences;
+
+    @Label("Size")
+    @DataAmount
+    public long bytes;
+}
@@ -0,0 +1,12 @@
+package org.enginecraft.objects;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * How a file's text was laid out on disk: its charset, whether it started with a byte order mark and the line
+ * separator of its first line. Stored with a table so the exporter writes the file back the way it was read.
+ */
+public record TextFormat(Charset charset, boolean bom, String lineSeparator) {
+    public static final TextFormat DEFAULT = new TextFormat(StandardCharsets.UTF_8, false, "\n");
+}
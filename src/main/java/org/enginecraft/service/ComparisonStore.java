@@ -0,0 +1,348 @@
+package org.enginecraft.service;
+
+import org.enginecraft.objects.Difference;
+import org.enginecraft.objects.DifferenceOverview;
+import org.enginecraft.objects.DifferenceType;
+import org.enginecraft.objects.Regression;
+import org.enginecraft.objects.RegressionType;
+import org.enginecraft.util.HashUtil;
+import org.enginecraft.util.SqlUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Stored comparison results, and the "diff of diffs" between two of them.
+ * <p>
+ * A comparison is stored per (library A, library B) in {@code COMPARISON_DIFF}, one row per difference keyed by
+ * (ref, type, row key, column), together with a hash of every ref's differences in {@code COMPARISON_REF}.
+ * Storing a comparison again only rewrites the refs whose hash changed. Comparing two stored results, e.g. a mod
+ * against the previous and the current vanilla build, first compares the ref hashes and only reads the
+ * differences of refs whose hashes differ, so neither full result is loaded or rendered.
+ * <p>
+ * Rows are identified by their first column, as when comparing. Should two differences share a key, e.g. broken
+ * references in rows with a repeated id, the first one is kept.
+ */
+public class ComparisonStore implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(ComparisonStore.class);
+
+    public static final String COMPARISON = "COMPARISON";
+    public static final String COMPARISON_REF = "COMPARISON_REF";
+    public static final String COMPARISON_DIFF = "COMPARISON_DIFF";
+
+    private static final int BATCH_SIZE = 1000;
+
+    // Held for the life of the store, H2 would otherwise reopen the database file for every query
+    private Connection conn;
+
+    private record StoredDifference(String ref, DifferenceType type, String rowKey, String column, String valueA, String valueB) {
+        String key() {
+            return type.name() + "\u0000" + rowKey + "\u0000" + column;
+        }
+    }
+
+    /**
+     * Stores a comparison, replacing what was stored for the same two libraries. Returns the number of refs
+     * whose differences were rewritten.
+     */
+    public synchronized int store(DifferenceOverview overview) throws SQLException {
+        long start = System.nanoTime();
+        Connection conn = connection();
+
+        Map<String, Map<String, StoredDifference>> byRef = new TreeMap<>();
+        for (Difference d : overview.differences()) {
+            StoredDifference stored = toStored(d);
+            byRef.computeIfAbsent(d.ref(), k -> new TreeMap<>()).putIfAbsent(stored.key(), stored);
+        }
+        Map<String, String> hashes = new HashMap<>();
+        byRef.forEach((ref, diffs) -> hashes.put(ref, hash(diffs)));
+
+        conn.setAutoCommit(false);
+        try {
+            int id = id(conn, overview.libA(), overview.libB());
+            Map<String, String> storedHashes = refHashes(conn, id);
+
+            Set<String> rewrite = new TreeSet<>();
+            for (String ref : storedHashes.keySet()) {
+                if (!storedHashes.get(ref).equals(hashes.get(ref))) rewrite.add(ref);
+            }
+            for (String ref : hashes.keySet()) {
+                if (!hashes.get(ref).equals(storedHashes.get(ref))) rewrite.add(ref);
+            }
+
+            for (String ref : rewrite) {
+                for (String table : List.of(COMPARISON_REF, COMPARISON_DIFF)) {
+                    try (PreparedStatement ps = conn.prepareStatement("DELETE FROM " + table + " WHERE COMPARISON_ID = ? AND REF = ?")) {
+                        ps.setInt(1, id);
+                        ps.setString(2, ref);
+                        ps.executeUpdate();
+                    }
+                }
+            }
+            writeRefs(conn, id, rewrite, byRef, hashes);
+            conn.commit();
+
+            log.info("Stored the comparison of {} and {}, {} of {} refs rewritten, in {} ms",
+                    overview.libA(), overview.libB(), rewrite.size(), hashes.size(), (System.nanoTime() - start) / 1_000_000);
+            return rewrite.size();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * The differences that appeared, disappeared or changed value from the stored comparison of
+     * {@code beforeA} and {@code beforeB} to that of {@code afterA} and {@code afterB}, ordered by ref and key.
+     */
+    public synchronized List<Regression> regressions(String beforeA, String beforeB, String afterA, String afterB) throws Exception {
+        long start = System.nanoTime();
+        Connection conn = connection();
+
+        Integer beforeId = findId(conn, beforeA, beforeB);
+        if (beforeId == null) throw new Exception("No stored comparison of '" + beforeA + "' and '" + beforeB + "'");
+        Integer afterId = findId(conn, afterA, afterB);
+        if (afterId == null) throw new Exception("No stored comparison of '" + afterA + "' and '" + afterB + "'");
+
+        Map<String, String> beforeHashes = refHashes(conn, beforeId);
+        Map<String, String> afterHashes = refHashes(conn, afterId);
+        Set<String> changedRefs = new TreeSet<>();
+        for (String ref : beforeHashes.keySet()) {
+            if (!beforeHashes.get(ref).equals(afterHashes.get(ref))) changedRefs.add(ref);
+        }
+        for (String ref : afterHashes.keySet()) {
+            if (!afterHashes.get(ref).equals(beforeHashes.get(ref))) changedRefs.add(ref);
+        }
+
+        List<Regression> regressions = new ArrayList<>();
+        for (String ref : changedRefs) {
+            Map<String, StoredDifference> before = readRef(conn, beforeId, ref);
+            Map<String, StoredDifference> after = readRef(conn, afterId, ref);
+
+            Set<String> keys = new TreeSet<>(before.keySet());
+            keys.addAll(after.keySet());
+            for (String key : keys) {
+                StoredDifference b = before.get(key);
+                StoredDifference a = after.get(key);
+                if (b == null) regressions.add(regression(RegressionType.APPEARED, null, a));
+                else if (a == null) regressions.add(regression(RegressionType.DISAPPEARED, b, null));
+                else if (!Objects.equals(b.valueA(), a.valueA()) || !Objects.equals(b.valueB(), a.valueB())) {
+                    regressions.add(regression(RegressionType.CHANGED, b, a));
+                }
+            }
+        }
+
+        log.info("Compared {}/{} against {}/{}: {} of {} refs changed, {} regressions in {} ms",
+                beforeA, beforeB, afterA, afterB, changedRefs.size(), afterHashes.size(), regressions.size(),
+                (System.nanoTime() - start) / 1_000_000);
+        return regressions;
+    }
+
+    /**
+     * Whether a comparison of the two libraries is stored.
+     */
+    public synchronized boolean contains(String libA, String libB) throws SQLException {
+        return findId(connection(), libA, libB) != null;
+    }
+
+    private Regression regression(RegressionType kind, StoredDifference before, StoredDifference after) {
+        StoredDifference any = before != null ? before : after;
+        return new Regression(
+                kind,
+                any.ref(),
+                any.type(),
+                any.rowKey(),
+                any.column(),
+                before == null ? null : before.valueA(),
+                before == null ? null : before.valueB(),
+                after == null ? null : after.valueA(),
+                after == null ? null : after.valueB()
+        );
+    }
+
+    /**
+     * Keys a difference by what it is about rather than where: header differences by column name, missing and
+     * unknown rows by row id, cell differences by row id and column name.
+     */
+    private StoredDifference toStored(Difference d) {
+        String rowKey = "";
+        String column = "";
+        if (d.rIndex() != null && d.rIndex() == 0) {
+            column = d.valueA() != null ? d.valueA() : d.valueB();
+        } else if (d.rIndex() != null && d.cIndex() == null) {
+            rowKey = d.valueA() != null ? d.valueA() : d.valueB();
+        } else if (d.rIndex() != null) {
+            String[] row = d.rowA() != null ? d.rowA() : d.rowB();
+            rowKey = row[0];
+            column = d.rowZero()[d.cIndex()];
+        }
+        return new StoredDifference(d.ref(), d.type(), rowKey, column, d.valueA(), d.valueB());
+    }
+
+    private void writeRefs(Connection conn, int id, Set<String> refs, Map<String, Map<String, StoredDifference>> byRef, Map<String, String> hashes) throws SQLException {
+        String refSql = "INSERT INTO " + COMPARISON_REF + " (COMPARISON_ID, REF, DIFF_HASH, DIFF_COUNT) VALUES (?, ?, ?, ?)";
+        String diffSql = "INSERT INTO " + COMPARISON_DIFF + " (COMPARISON_ID, REF, DIFF_TYPE, ROW_KEY, COLUMN_NAME, VALUE_A, VALUE_B) VALUES (?, ?, ?, ?, ?, ?, ?)";
+        try (PreparedStatement refPs = conn.prepareStatement(refSql);
+             PreparedStatement diffPs = conn.prepareStatement(diffSql)) {
+            int count = 0;
+            for (String ref : refs) {
+                Map<String, StoredDifference> diffs = byRef.get(ref);
+                if (diffs == null) continue;
+
+                refPs.setInt(1, id);
+                refPs.setString(2, ref);
+                refPs.setString(3, hashes.get(ref));
+                refPs.setInt(4, diffs.size());
+                refPs.addBatch();
+
+                for (StoredDifference d : diffs.values()) {
+                    diffPs.setInt(1, id);
+                    diffPs.setString(2, ref);
+                    diffPs.setString(3, d.type().name());
+                    diffPs.setString(4, d.rowKey());
+                    diffPs.setString(5, d.column());
+                    diffPs.setString(6, d.valueA());
+                    diffPs.setString(7, d.valueB());
+                    diffPs.addBatch();
+                    if (++count % BATCH_SIZE == 0) diffPs.executeBatch();
+                }
+            }
+            refPs.executeBatch();
+            diffPs.executeBatch();
+        }
+    }
+
+    private Map<String, String> refHashes(Connection conn, int id) throws SQLException {
+        Map<String, String> hashes = new HashMap<>();
+        try (PreparedStatement ps = conn.prepareStatement("SELECT REF, DIFF_HASH FROM " + COMPARISON_REF + " WHERE COMPARISON_ID = ?")) {
+            ps.setInt(1, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) hashes.put(rs.getString(1), rs.getString(2));
+            }
+        }
+        return hashes;
+    }
+
+    private Map<String, StoredDifference> readRef(Connection conn, int id, String ref) throws SQLException {
+        Map<String, StoredDifference> diffs = new LinkedHashMap<>();
+        String sql = "SELECT DIFF_TYPE, ROW_KEY, COLUMN_NAME, VALUE_A, VALUE_B FROM " + COMPARISON_DIFF + " WHERE COMPARISON_ID = ? AND REF = ?";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, id);
+            ps.setString(2, ref);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    StoredDifference d = new StoredDifference(
+                            ref,
+                            DifferenceType.valueOf(rs.getString(1)),
+                            rs.getString(2),
+                            rs.getString(3),
+                            rs.getString(4),
+                            rs.getString(5)
+                    );
+                    diffs.put(d.key(), d);
+                }
+            }
+        }
+        return diffs;
+    }
+
+    private int id(Connection conn, String libA, String libB) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("MERGE INTO " + COMPARISON + " (LIB_A, LIB_B) KEY(LIB_A, LIB_B) VALUES (?, ?)")) {
+            ps.setString(1, libA);
+            ps.setString(2, libB);
+            ps.executeUpdate();
+        }
+        return findId(conn, libA, libB);
+    }
+
+    private Integer findId(Connection conn, String libA, String libB) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT COMPARISON_ID FROM " + COMPARISON + " WHERE LIB_A = ? AND LIB_B = ?")) {
+            ps.setString(1, libA);
+            ps.setString(2, libB);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : null;
+            }
+        }
+    }
+
+    // Taken over the ref's differences in key order, so the same result always hashes the same
+    private String hash(Map<String, StoredDifference> diffs) {
+        MessageDigest digest = HashUtil.sha1();
+        for (StoredDifference d : diffs.values()) {
+            digest.update(d.key().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(String.valueOf(d.valueA()).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(String.valueOf(d.valueB()).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+        }
+        return HashUtil.hex(digest);
+    }
+
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (conn == null) return;
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            throw new IOException(e);
+        } finally {
+            conn = null;
+        }
+    }
+
+    private Connection connection() throws SQLException {
+        if (conn == null) {
+            conn = SqlUtil.getConnection();
+            createTables(conn);
+        }
+        return conn;
+    }
+
+    private void createTables(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + COMPARISON + " (" +
+                    "COMPARISON_ID INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, " +
+                    "LIB_A VARCHAR(255) NOT NULL, " +
+                    "LIB_B VARCHAR(255) NOT NULL, " +
+                    "UNIQUE (LIB_A, LIB_B))");
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + COMPARISON_REF + " (" +
+                    "COMPARISON_ID INTEGER NOT NULL, " +
+                    "REF VARCHAR(255) NOT NULL, " +
+                    "DIFF_HASH CHAR(40) NOT NULL, " +
+                    "DIFF_COUNT INTEGER NOT NULL, " +
+                    "PRIMARY KEY (COMPARISON_ID, REF))");
+            // The key leads with (COMPARISON_ID, REF) so reading one ref of a comparison is a prefix range scan
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + COMPARISON_DIFF + " (" +
+                    "COMPARISON_ID INTEGER NOT NULL, " +
+                    "REF VARCHAR(255) NOT NULL, " +
+                    "DIFF_TYPE VARCHAR(16) NOT NULL, " +
+                    "ROW_KEY VARCHAR(255) NOT NULL, " +
+                    "COLUMN_NAME VARCHAR(255) NOT NULL, " +
+                    "VALUE_A TEXT, " +
+                    "VALUE_B TEXT, " +
+                    "PRIMARY KEY (COMPARISON_ID, REF, DIFF_TYPE, ROW_KEY, COLUMN_NAME))");
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package org.enginecraft.service;
+
+import org.enginecraft.objects.CellChange;
+import org.enginecraft.objects.ColumnType;
+import org.enginecraft.objects.DataDictionary;
+import org.enginecraft.objects.Difference;
+import org.enginecraft.objects.DifferenceType;
+import org.enginecraft.objects.PersistenceMode;
+import org.enginecraft.objects.StorageLayout;
+import org.enginecraft.util.SqlUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Change history across an ordered series of builds ("blame" for cells).
+ * <p>
+ * Every build added is compared only with the build added before it, and the differences are stored in
+ * {@code CELL_HISTORY} keyed by (ref, row key, column, build). The history of one cell or one row is then a single
+ * range scan of that key, however many builds have been added. Columns are recorded by name, so the history of a
+ * column survives it moving within the header.
+ */
+public class HistoryService implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(HistoryService.class);
+
+    public static final String HISTORY_BUILD = "HISTORY_BUILD";
+    public static final String CELL_HISTORY = "CELL_HISTORY";
+
+    private static final int BATCH_SIZE = 1000;
+
+    // The most recently added build, kept so the next one can be diffed without reloading it
+    private LibraryService latest;
+
+    // Held for the life of the service, H2 would otherwise reopen the database file for every query
+    private Connection conn;
+
+    /**
+     * Appends a build to the history, recording what changed since the previous build. The previous build must
+     * have been added through this service in the same session, or have been stored, in either layout; the layout
+     * of each build is recorded so it can be read back. Returns the number of changes recorded.
+     */
+    public synchronized int addBuild(LibraryService build) throws Exception {
+        long start = System.nanoTime();
+        Connection conn = connection();
+
+        int seq = 1;
+        String previousName = null;
+        String previousLayout = null;
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT BUILD_SEQ, LIBRARY, LAYOUT FROM " + HISTORY_BUILD + " ORDER BY BUILD_SEQ DESC LIMIT 1")) {
+            if (rs.next()) {
+                seq = rs.getInt(1) + 1;
+                previousName = rs.getString(2);
+                previousLayout = rs.getString(3);
+            }
+        }
+        if (build.getName().equals(previousName)) throw new Exception("Build '" + build.getName() + "' is already the latest in the history");
+
+        List<CellChange> changes = previousName == null
+                ? List.of()
+                : changes(previous(previousName, previousLayout), build, seq);
+
+        conn.setAutoCommit(false);
+        try {
+            try (PreparedStatement ps = conn.prepareStatement("INSERT INTO " + HISTORY_BUILD + " (BUILD_SEQ, LIBRARY, LAYOUT) VALUES (?, ?, ?)")) {
+                ps.setInt(1, seq);
+                ps.setString(2, build.getName());
+                // A build kept in memory only has no layout and cannot be read back in a later session
+                ps.setString(3, build.getPersistence() == PersistenceMode.NONE ? null : build.getLayout().name());
+                ps.executeUpdate();
+            }
+            writeChanges(conn, changes);
+            conn.commit();
+        } catch (Exception e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+
+        latest = build;
+        log.info("Added build {} ({}) to the history with {} changes in {} ms",
+                seq, build.getName(), changes.size(), (System.nanoTime() - start) / 1_000_000);
+        return changes.size();
+    }
+
+    /**
+     * The names of the builds in the history, oldest first.
+     */
+    public synchronized List<String> builds() throws SQLException {
+        List<String> builds = new ArrayList<>();
+        try (Statement stmt = connection().createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT LIBRARY FROM " + HISTORY_BUILD + " ORDER BY BUILD_SEQ")) {
+            while (rs.next()) builds.add(rs.getString(1));
+        }
+        return builds;
+    }
+
+    /**
+     * Every change of one cell, oldest build first, including the row being added or removed.
+     */
+    public synchronized List<CellChange> cellHistory(String ref, String rowKey, String column) throws SQLException {
+        return query("h.REF = ? AND h.ROW_KEY = ? AND h.COLUMN_NAME IN (?, '')", ref, rowKey, column);
+    }
+
+    /**
+     * Every change of one row, oldest build first.
+     */
+    public synchronized List<CellChange> rowHistory(String ref, String rowKey) throws SQLException {
+        return query("h.REF = ? AND h.ROW_KEY = ?", ref, rowKey);
+    }
+
+    private LibraryService previous(String previousName, String previousLayout) throws Exception {
+        if (latest != null && latest.getName().equals(previousName)) return latest;
+
+        if (previousLayout == null) {
+            throw new Exception("Previous build '" + previousName + "' was not stored and is not loaded, "
+                    + "add builds in one session or store them");
+        }
+
+        StorageLayout layout = StorageLayout.valueOf(previousLayout);
+        LibraryService stored = new LibraryService(previousName, layout);
+        if (stored.getLibrary().isEmpty()) {
+            throw new Exception("Previous build '" + previousName + "' is not in the " + layout + " store");
+        }
+        return stored;
+    }
+
+    private List<CellChange> changes(LibraryService previous, LibraryService build, int seq) {
+        Map<String, DataDictionary> before = byRef(previous);
+        Map<String, DataDictionary> after = byRef(build);
+        List<CellChange> changes = new ArrayList<>();
+
+        for (String ref : before.keySet()) {
+            if (!after.containsKey(ref)) {
+                changes.add(change(seq, build, ref, "", "", DifferenceType.MISSING, null, null));
+                continue;
+            }
+
+            List<Difference> diffs = previous.compareRef(build, ref);
+            boolean headerChanged = diffs.stream().anyMatch(d -> d.rIndex() != null && d.rIndex() == 0);
+            if (headerChanged) alignedChanges(seq, build, ref, before.get(ref), after.get(ref), changes);
+            else diffs.forEach(d -> changes.add(toChange(seq, build, d)));
+        }
+
+        for (String ref : after.keySet()) {
+            if (!before.containsKey(ref)) changes.add(change(seq, build, ref, "", "", DifferenceType.UNKNOWN, null, null));
+        }
+
+        return changes;
+    }
+
+    private CellChange toChange(int seq, LibraryService build, Difference d) {
+        return switch (d.type()) {
+            case MISSING -> change(seq, build, d.ref(), d.valueA(), "", DifferenceType.MISSING, null, null);
+            case UNKNOWN -> change(seq, build, d.ref(), d.valueB(), "", DifferenceType.UNKNOWN, null, null);
+            case MISMATCH -> change(seq, build, d.ref(), d.rowA()[0], d.rowZero()[d.cIndex()], DifferenceType.MISMATCH, d.valueA(), d.valueB());
+            case BROKEN_REFERENCE -> throw new IllegalArgumentException("Not a change between builds: " + d);
+        };
+    }
+
+    /**
+     * The regular comparison stops at a changed header, so files whose columns changed are compared here with
+     * columns matched by name instead. Cells are equal as the comparison sees them, numeric columns by value.
+     */
+    private void alignedChanges(int seq, LibraryService build, String ref, DataDictionary before, DataDictionary after, List<CellChange> changes) {
+        String[] aHeader = before.getData().getFirst();
+        String[] bHeader = after.getData().getFirst();
+        Map<String, Integer> aColumns = columns(aHeader);
+        Map<String, Integer> bColumns = columns(bHeader);
+
+        aColumns.keySet().stream()
+                .filter(c -> !bColumns.containsKey(c))
+                .forEach(c -> changes.add(change(seq, build, ref, "", c, DifferenceType.MISSING, null, null)));
+        bColumns.keySet().stream()
+                .filter(c -> !aColumns.containsKey(c))
+                .forEach(c -> changes.add(change(seq, build, ref, "", c, DifferenceType.UNKNOWN, null, null)));
+
+        Map<String, String[]> aRows = rows(before.getData());
+        Map<String, String[]> bRows = rows(after.getData());
+
+        aRows.keySet().stream()
+                .filter(k -> !bRows.containsKey(k))
+                .forEach(k -> changes.add(change(seq, build, ref, k, "", DifferenceType.MISSING, null, null)));
+        bRows.keySet().stream()
+                .filter(k -> !aRows.containsKey(k))
+                .forEach(k -> changes.add(change(seq, build, ref, k, "", DifferenceType.UNKNOWN, null, null)));
+
+        for (Map.Entry<String, String[]> row : aRows.entrySet()) {
+            String[] bRow = bRows.get(row.getKey());
+            if (bRow == null) continue;
+
+            for (Map.Entry<String, Integer> column : aColumns.entrySet()) {
+                Integer bCol = bColumns.get(column.getKey());
+                if (bCol == null || column.getValue() == 0) continue;
+
+                String oldValue = row.getValue()[column.getValue()];
+                String newValue = bRow[bCol];
+                ColumnType comparedAs = ColumnType.comparedAs(type(before, column.getValue()), type(after, bCol));
+                if (!ColumnType.cellsEqual(comparedAs, oldValue, newValue)) {
+                    changes.add(change(seq, build, ref, row.getKey(), column.getKey(), DifferenceType.MISMATCH, oldValue, newValue));
+                }
+            }
+        }
+    }
+
+    private ColumnType type(DataDictionary dict, int column) {
+        ColumnType[] types = dict.getTypes();
+        return types == null || column >= types.length ? null : types[column];
+    }
+
+    private CellChange change(int seq, LibraryService build, String ref, String rowKey, String column, DifferenceType type, String oldValue, String newValue) {
+        return new CellChange(seq, build.getName(), ref, rowKey, column, type, oldValue, newValue);
+    }
+
+    private void writeChanges(Connection conn, List<CellChange> changes) throws SQLException {
+        // MERGE rather than INSERT: a header may repeat a column name, which would otherwise collide on the key
+        String sql = "MERGE INTO " + CELL_HISTORY + " (REF, ROW_KEY, COLUMN_NAME, BUILD_SEQ, CHANGE_TYPE, OLD_VALUE, NEW_VALUE) " +
+                "KEY(REF, ROW_KEY, COLUMN_NAME, BUILD_SEQ) VALUES (?, ?, ?, ?, ?, ?, ?)";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            int count = 0;
+            for (CellChange change : changes) {
+                ps.setString(1, change.ref());
+                ps.setString(2, change.rowKey());
+                ps.setString(3, change.column());
+                ps.setInt(4, change.build());
+                ps.setString(5, change.type().name());
+                ps.setString(6, change.oldValue());
+                ps.setString(7, change.newValue());
+                ps.addBatch();
+                if (++count % BATCH_SIZE == 0) ps.executeBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    private List<CellChange> query(String where, String... params) throws SQLException {
+        String sql = "SELECT h.BUILD_SEQ, b.LIBRARY, h.REF, h.ROW_KEY, h.COLUMN_NAME, h.CHANGE_TYPE, h.OLD_VALUE, h.NEW_VALUE " +
+                "FROM " + CELL_HISTORY + " h JOIN " + HISTORY_BUILD + " b ON b.BUILD_SEQ = h.BUILD_SEQ " +
+                "WHERE " + where + " ORDER BY h.BUILD_SEQ, h.COLUMN_NAME";
+
+        List<CellChange> changes = new ArrayList<>();
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            for (int i = 0; i < params.length; i++) ps.setString(i + 1, params[i]);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    changes.add(new CellChange(
+                            rs.getInt(1),
+                            rs.getString(2),
+                            rs.getString(3),
+                            rs.getString(4),
+                            rs.getString(5),
+                            DifferenceType.valueOf(rs.getString(6)),
+                            rs.getString(7),
+                            rs.getString(8)
+                    ));
+                }
+            }
+        }
+        return changes;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (conn == null) return;
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            throw new IOException(e);
+        } finally {
+            conn = null;
+        }
+    }
+
+    private Connection connection() throws SQLException {
+        if (conn == null) {
+            conn = SqlUtil.getConnection();
+            createTables(conn);
+        }
+        return conn;
+    }
+
+    private void createTables(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + HISTORY_BUILD + " (" +
+                    "BUILD_SEQ INTEGER PRIMARY KEY, " +
+                    "LIBRARY VARCHAR(255) NOT NULL UNIQUE, " +
+                    "LAYOUT VARCHAR(16))");
+            // Histories started before the layout was recorded only read previous builds from the shared store
+            stmt.execute("ALTER TABLE " + HISTORY_BUILD + " ADD COLUMN IF NOT EXISTS LAYOUT VARCHAR(16) DEFAULT '"
+                    + StorageLayout.SHARED.name() + "'");
+            // The key leads with (REF, ROW_KEY, COLUMN_NAME) so row and cell lookups are prefix range scans. Row
+            // keys and column names are whatever the files hold, so they are not limited in length
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + CELL_HISTORY + " (" +
+                    "REF VARCHAR(255) NOT NULL, " +
+                    "ROW_KEY VARCHAR NOT NULL, " +
+                    "COLUMN_NAME VARCHAR NOT NULL, " +
+                    "BUILD_SEQ INTEGER NOT NULL, " +
+                    "CHANGE_TYPE VARCHAR(16) NOT NULL, " +
+                    "OLD_VALUE TEXT, " +
+                    "NEW_VALUE TEXT, " +
+                    "PRIMARY KEY (REF, ROW_KEY, COLUMN_NAME, BUILD_SEQ))");
+            // Histories started when both were limited to 255 characters
+            stmt.execute("ALTER TABLE " + CELL_HISTORY + " ALTER COLUMN ROW_KEY SET DATA TYPE VARCHAR");
+            stmt.execute("ALTER TABLE " + CELL_HISTORY + " ALTER COLUMN COLUMN_NAME SET DATA TYPE VARCHAR");
+        }
+    }
+
+    private Map<String, DataDictionary> byRef(LibraryService library) {
+        return library.getLibrary().stream()
+                .filter(d -> d.getData() != null && !d.getData().isEmpty())
+                .collect(Collectors.toMap(DataDictionary::getRef, d -> d, (a, b) -> a, LinkedHashMap::new));
+    }
+
+    private Map<String, Integer> columns(String[] header) {
+        Map<String, Integer> columns = new LinkedHashMap<>();
+        for (int i = 0; i < header.length; i++) columns.putIfAbsent(header[i], i);
+        return columns;
+    }
+
+    private Map<String, String[]> rows(List<String[]> data) {
+        Map<String, String[]> rows = new HashMap<>();
+        for (int i = 1; i < data.size(); i++) rows.putIfAbsent(data.get(i)[0], data.get(i));
+        return rows;
+    }
+}
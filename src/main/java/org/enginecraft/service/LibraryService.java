@@ -2,57 +2,139 @@ package org.enginecraft.service;
 
 import lombok.Getter;
 import lombok.Setter;
+import org.enginecraft.objects.BatchFlushEvent;
+import org.enginecraft.objects.ByteRows;
+import org.enginecraft.objects.ByteTable;
+import org.enginecraft.objects.ColumnStats;
+import org.enginecraft.objects.ColumnType;
 import org.enginecraft.objects.DataDictionary;
 import org.enginecraft.objects.Difference;
 import org.enginecraft.objects.DifferenceOverview;
 import org.enginecraft.objects.DifferenceType;
-import org.enginecraft.objects.IndexedRow;
+import org.enginecraft.objects.FileCompareEvent;
+import org.enginecraft.objects.FileLoadEvent;
+import org.enginecraft.objects.LibraryFingerprint;
+import org.enginecraft.objects.MetricCounter;
+import org.enginecraft.objects.MetricPhase;
+import org.enginecraft.objects.PersistenceMode;
+import org.enginecraft.objects.SearchHit;
+import org.enginecraft.objects.StorageLayout;
+import org.enginecraft.objects.TextFormat;
+import org.enginecraft.util.CatalogUtil;
+import org.enginecraft.util.ContentStoreUtil;
+import org.enginecraft.util.FingerprintUtil;
+import org.enginecraft.util.MetricsUtil;
+import org.enginecraft.util.MpqArchive;
+import org.enginecraft.util.ReferenceCheckUtil;
+import org.enginecraft.util.RowStoreUtil;
+import org.enginecraft.util.SchedulerUtil;
 import org.enginecraft.util.SqlUtil;
+import org.enginecraft.util.TarArchiveReader;
+import org.enginecraft.util.ValueIndexUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 
 @Getter
 @Setter
-public class LibraryService {
+public class LibraryService implements AutoCloseable {
     private static final Logger log = LoggerFactory.getLogger(LibraryService.class);
+    private static final String EXCEL_DIR = "data/global/excel/";
+    private static final int BATCH_SIZE = 1000;
 
     public final String name;
+    public final PersistenceMode persistence;
+    public final StorageLayout layout;
+    private final LibraryWriter writer;
+    // Refs to load from a folder or archive, all but for a shard of a library
+    private final Predicate<String> refFilter;
     public List<DataDictionary> library;
+    private volatile LibraryFingerprint fingerprint;
+    // Keys of the references this library breaks, checked once when it is first used as a baseline
+    private volatile Set<String> brokenReferenceKeys;
 
-    public LibraryService(String name) {
-        this.name = name
-                .replace("\\", "_")
-                .replace("/", "_")
-                .replaceAll("(?i)\\.txt$", "")
-                .replaceAll("[^a-zA-Z0-9_]", "_")
-                .toUpperCase();
+    /**
+     * Reads a library back from the database, stored with the given layout. There is no default: a library is
+     * only found in the layout it was stored with. The name is used as given, the same key the library was stored
+     * under.
+     */
+    public LibraryService(String name, StorageLayout layout) {
+        this.name = name;
+        this.persistence = PersistenceMode.SYNC;
+        this.layout = layout;
+        this.writer = null;
+        this.refFilter = ref -> true;
 
         library = loadLibraryRows();
+        fingerprint = readFingerprint();
     }
 
     public LibraryService(String name, Path toLoad) throws Exception {
+        this(name, toLoad, PersistenceMode.SYNC);
+    }
+
+    public LibraryService(String name, Path toLoad, PersistenceMode persistence) throws Exception {
+        this(name, toLoad, persistence, StorageLayout.TABLE_PER_FILE);
+    }
+
+    public LibraryService(String name, Path toLoad, PersistenceMode persistence, StorageLayout layout) throws Exception {
+        this.name = name;
+        this.persistence = persistence;
+        this.layout = layout;
+        this.writer = persistence == PersistenceMode.WRITE_BEHIND ? new LibraryWriter(name) : null;
+        this.refFilter = ref -> true;
+        library = loadFiles(toLoad);
+        storeFingerprint();
+    }
+
+    /**
+     * Loads only the files whose ref passes the filter and keeps them in memory, for comparing one shard of a
+     * library in a worker process.
+     */
+    public LibraryService(String name, Path toLoad, Predicate<String> refFilter) throws Exception {
         this.name = name;
+        this.persistence = PersistenceMode.NONE;
+        this.layout = StorageLayout.TABLE_PER_FILE;
+        this.writer = null;
+        this.refFilter = refFilter;
         library = loadFiles(toLoad);
     }
 
+    public LibraryService(String name, List<DataDictionary> library) {
+        this.name = name;
+        this.persistence = PersistenceMode.NONE;
+        this.layout = StorageLayout.TABLE_PER_FILE;
+        this.writer = null;
+        this.refFilter = ref -> true;
+        this.library = library;
+    }
+
     private String tableNormalize(String val) throws Exception {
         if (val == null || val.isEmpty()) return "TABLE";
 
@@ -74,16 +156,47 @@ public class LibraryService {
         return normalized;
     }
 
+    private LibraryFingerprint readFingerprint() {
+        try (Connection conn = SqlUtil.getConnection()) {
+            return FingerprintUtil.read(conn, name, layout);
+        } catch (Exception e) {
+            log.warn("Could not read the fingerprint of library '{}', it will be computed: {}", name, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Reads a library back from the database in its layout, re-inferring column types from the stored rows.
+     */
     private List<DataDictionary> loadLibraryRows() {
-        return null;
+        try (Connection conn = SqlUtil.getConnection()) {
+            List<DataDictionary> stored = layout == StorageLayout.SHARED
+                    ? RowStoreUtil.readLibrary(conn, name)
+                    : CatalogUtil.readLibrary(conn, name);
+
+            List<DataDictionary> dictionaries = new ArrayList<>();
+            for (DataDictionary dict : stored) {
+                List<String[]> rows = dict.getData();
+                ColumnType[] types = rows.getFirst().length < 2 ? null : columnTypes(profileColumns(rows.getFirst(), rows));
+                dictionaries.add(new DataDictionary(dict.getRef(), rows, null, types));
+            }
+            return dictionaries;
+        } catch (Exception e) {
+            log.error("An error occurred reading library '{}' from the {} layout: {}", name, layout, e.getMessage());
+            return new ArrayList<>();
+        }
     }
 
     private void createLibraryTable(
             Connection conn,
             String ref,
-            String[] headers
+            String[] headers,
+            List<ColumnStats> stats,
+            TextFormat format
     ) throws Exception {
         String tableName = tableNormalize(name + "_" + ref);
+        dropChangedTable(conn, ref, tableName, headers, stats);
+
         StringBuilder sql = new StringBuilder();
         sql.append("CREATE TABLE IF NOT EXISTS \"")
                 .append(tableName)
@@ -92,29 +205,80 @@ public class LibraryService {
         for (int i = 0; i < headers.length; i++) {
             sql.append("\"")
                     .append(headers[i].trim())
-                    .append("\" TEXT");
+                    .append("\" ")
+                    .append(SqlUtil.sqlType(stats.get(i).getType()));
 
             if (i < headers.length - 1) {
                 sql.append(", ");
             }
         }
 
+        // Typed columns get a text side column, kept after the header columns so they stay in header order
+        for (int i = 0; i < headers.length; i++) {
+            if (SqlUtil.isTyped(stats.get(i).getType())) {
+                sql.append(", \"").append(SqlUtil.textColumn(headers[i].trim())).append("\" TEXT");
+            }
+        }
+
         sql.append(", PRIMARY KEY (ROW_INDEX, PATH));");
 
         try (Statement stmt = conn.createStatement()) {
             stmt.execute(sql.toString());
             stmt.execute("CREATE INDEX IF NOT EXISTS IDX_" + tableName + "_PATH ON " + tableName + "(PATH)");
         }
+
+        CatalogUtil.createLibraryTablesTable(conn);
+        CatalogUtil.writeLibraryTable(conn, name, ref, tableName, headers, format);
+    }
+
+    /**
+     * Drops the table of a file when it was created with other columns or column types than the file now needs,
+     * e.g. by an older version storing every column as text or before a column's inferred type changed, along
+     * with its catalog entries. MERGE into the old schema would fail, or the catalog would describe columns the
+     * table does not have.
+     */
+    private void dropChangedTable(Connection conn, String ref, String tableName, String[] headers, List<ColumnStats> stats) throws Exception {
+        Map<String, String> existing = SqlUtil.columns(conn, tableName);
+        if (existing.isEmpty()) return;
+
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("ROW_INDEX", SqlUtil.schemaType(ColumnType.INTEGER));
+        expected.put("PATH", SqlUtil.schemaType(ColumnType.TEXT));
+        for (int i = 0; i < headers.length; i++) expected.put(headers[i].trim(), SqlUtil.schemaType(stats.get(i).getType()));
+        for (int i = 0; i < headers.length; i++) {
+            if (SqlUtil.isTyped(stats.get(i).getType())) expected.put(SqlUtil.textColumn(headers[i].trim()), SqlUtil.schemaType(ColumnType.TEXT));
+        }
+        if (new ArrayList<>(existing.entrySet()).equals(new ArrayList<>(expected.entrySet()))) return;
+
+        log.info("Columns of {} changed from {} to {}, recreating it", tableName, existing, expected);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS \"" + tableName + "\"");
+        }
+        CatalogUtil.removeLibraryTable(conn, name, ref);
+    }
+
+    private void insertLibraryRows(
+            Connection conn,
+            String ref,
+            String[] headers,
+            List<ColumnStats> stats,
+            List<String[]> rows
+    ) throws Exception {
+        int count = mergeLibraryRows(conn, ref, headers, stats, rows, 0);
+        finishLibraryRows(conn, ref, stats, count);
     }
 
-    private List<String[]> insertLibraryRows(
+    /**
+     * Merges rows into the library table, numbering them from {@code firstIndex}. Returns the number of rows merged.
+     */
+    private int mergeLibraryRows(
             Connection conn,
             String ref,
             String[] headers,
-            BufferedReader reader
+            List<ColumnStats> stats,
+            List<String[]> rows,
+            int firstIndex
     ) throws Exception {
-        List<String[]> rows = new ArrayList<>();
-        int batchSize = 1000;
         int count = 0;
 
         StringBuilder columnNames = new StringBuilder("ROW_INDEX, PATH");
@@ -122,57 +286,312 @@ public class LibraryService {
             columnNames.append(", \"").append(h.trim()).append("\"");
         }
 
-        String placeholders = String.join(", ", Collections.nCopies(headers.length + 2, "?"));
+        // Parameter index of each typed column's text side column, 0 for plain text columns
+        int[] textParams = new int[headers.length];
+        int paramCount = headers.length + 2;
+        for (int i = 0; i < headers.length; i++) {
+            if (SqlUtil.isTyped(stats.get(i).getType())) {
+                columnNames.append(", \"").append(SqlUtil.textColumn(headers[i].trim())).append("\"");
+                textParams[i] = ++paramCount;
+            }
+        }
+
+        String placeholders = String.join(", ", Collections.nCopies(paramCount, "?"));
 
         String tableName = tableNormalize(name + "_" + ref);
         String sql = "MERGE INTO \"" + tableName + "\" (" + columnNames + ") KEY(ROW_INDEX, PATH) VALUES (" + placeholders + ")";
 
         try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] values = line.split("\t", -1);
-                if (values.length != headers.length) continue;
-                ps.setInt(1, count);
+            for (String[] values : rows) {
+                ps.setInt(1, firstIndex + count);
                 ps.setString(2, ref);
                 for (int i = 0; i < headers.length; i++) {
-                    ps.setString(i + 3, values[i]);
+                    if (textParams[i] == 0) {
+                        ps.setString(i + 3, values[i]);
+                    } else {
+                        SqlUtil.setTyped(ps, i + 3, textParams[i], stats.get(i).getType(), values[i]);
+                    }
                 }
                 ps.addBatch();
-                rows.add(values);
                 count++;
-                if (count % batchSize == 0) {
-                    ps.executeBatch();
+                if (count % BATCH_SIZE == 0) {
+                    executeBatch(ps, ref, tableName, BATCH_SIZE);
                 }
             }
-            ps.executeBatch();
+            executeBatch(ps, ref, tableName, count % BATCH_SIZE);
+        }
+        return count;
+    }
+
+    private void finishLibraryRows(Connection conn, String ref, List<ColumnStats> stats, int count) throws Exception {
+        String tableName = tableNormalize(name + "_" + ref);
+
+        // Rows were merged over those of an earlier load, drop any it had beyond the end of the file
+        try (PreparedStatement ps = conn.prepareStatement("DELETE FROM \"" + tableName + "\" WHERE ROW_INDEX >= ?")) {
+            ps.setInt(1, count);
+            ps.executeUpdate();
         }
 
+        CatalogUtil.createColumnStatsTable(conn);
+        CatalogUtil.writeColumnStats(conn, name, ref, tableName, stats);
+
+        MetricsUtil.count(name, ref, MetricCounter.ROWS_MERGED, count);
         log.info("Merged {} rows into {}", count, tableName);
-        return rows;
     }
 
-     private List<String[]> loadFile(Path toLoad, String ref) throws Exception {
-        List<String[]> rows = new ArrayList<>();
-        try (BufferedReader br = Files.newBufferedReader(toLoad)) {
-            String headerLine = br.readLine();
-            if (headerLine == null) return null;
+    private void executeBatch(PreparedStatement ps, String ref, String tableName, int rows) throws Exception {
+        BatchFlushEvent event = new BatchFlushEvent();
+        event.begin();
+        ps.executeBatch();
+        if (event.shouldCommit()) {
+            event.library = name;
+            event.ref = ref;
+            event.table = tableName;
+            event.rows = rows;
+            event.commit();
+        }
+    }
+
+    private DataDictionary loadFile(Path toLoad, String ref) throws Exception {
+        return loadFile(Files.readAllBytes(toLoad), ref);
+    }
+
+    /**
+     * Loads one file from its bytes. A file byte-identical to one already held by any library is shared from the
+     * content store instead of being parsed again; otherwise it is split on its bytes and kept as {@link ByteRows},
+     * decoded in its detected charset only where a cell is read as text.
+     */
+    private DataDictionary loadFile(byte[] data, String ref) throws Exception {
+        MetricsUtil.count(name, ref, MetricCounter.BYTES_READ, data.length);
+        FileLoadEvent event = new FileLoadEvent();
+        event.begin();
+        long parseStart = System.nanoTime();
+
+        List<String[]> rows = sharedRows(data, ref);
+        if (rows.isEmpty()) return new DataDictionary(ref, null, null);
+
+        String[] headers = rows.getFirst();
+        if (headers.length < 2) return new DataDictionary(ref, rows, null);
+
+        // Column types have to be known before the table is created, so profile the rows first
+        List<ColumnStats> stats = profileColumns(headers, rows);
+        MetricsUtil.time(name, ref, MetricPhase.PARSE, parseStart);
+
+        switch (persistence) {
+            case SYNC -> {
+                long dbStart = System.nanoTime();
+                try (Connection conn = SqlUtil.getConnection()) {
+                    if (layout == StorageLayout.SHARED) {
+                        storeShared(conn, ref, rows);
+                    } else {
+                        createLibraryTable(conn, ref, headers, stats, format(rows));
+                        insertLibraryRows(conn, ref, headers, stats, rows.subList(1, rows.size()));
+                    }
+                    ValueIndexUtil.writeFile(conn, name, ref, rows);
+                    CatalogUtil.writeDroppedRows(conn, name, ref, droppedRows(rows));
+                }
+                MetricsUtil.time(name, ref, MetricPhase.DB, dbStart);
+            }
+            case WRITE_BEHIND -> {
+                if (layout == StorageLayout.SHARED) writer.submit(ref, conn -> storeShared(conn, ref, rows));
+                else persistBehind(ref, headers, stats, format(rows), rows.subList(1, rows.size()));
+                writer.submit(ref, conn -> ValueIndexUtil.writeFile(conn, name, ref, rows));
+                writer.submit(ref, conn -> CatalogUtil.writeDroppedRows(conn, name, ref, droppedRows(rows)));
+            }
+            case NONE -> {
+            }
+        }
+
+        if (event.shouldCommit()) {
+            event.library = name;
+            event.ref = ref;
+            event.rows = rows.size() - 1;
+            event.columns = headers.length;
+            event.commit();
+        }
+
+        return new DataDictionary(ref, rows, null, columnTypes(stats));
+    }
+
+    // Rows shared from the content store are the ByteRows of an identical file, so they carry the same format
+    private TextFormat format(List<String[]> rows) {
+        return rows instanceof ByteRows byteRows ? byteRows.table().format() : TextFormat.DEFAULT;
+    }
+
+    // The lines parseRows left out, by line index, so the file can still be exported as it was read
+    private SortedMap<Integer, String> droppedRows(List<String[]> rows) {
+        SortedMap<Integer, String> lines = new TreeMap<>();
+        if (rows instanceof ByteRows byteRows) {
+            for (int row : byteRows.droppedTableRows()) lines.put(row, String.join("\t", byteRows.table().row(row)));
+        }
+        return lines;
+    }
+
+    private List<String[]> sharedRows(byte[] data, String ref) {
+        String hash = ContentStoreUtil.hash(data);
+        List<String[]> rows = ContentStoreUtil.file(hash);
+        if (rows != null) {
+            MetricsUtil.count(name, ref, MetricCounter.ROWS_SHARED, Math.max(0, rows.size() - 1));
+            return rows;
+        }
+
+        ByteTable table = ByteTable.parse(data);
+        if (table.charset() != StandardCharsets.UTF_8) log.warn("Reading {} of {} as {}, it is not UTF-8", ref, name, table.charset());
+        rows = parseRows(table);
+        MetricsUtil.count(name, ref, MetricCounter.ROWS_PARSED, Math.max(0, rows.size() - 1));
+        return ContentStoreUtil.putFile(hash, rows);
+    }
+
+    /**
+     * Keeps the rows of a file as byte ranges into it. Only the header is decoded; rows with a different number
+     * of cells than the header are left out.
+     */
+    private List<String[]> parseRows(ByteTable table) {
+        if (table.rowCount() == 0) return List.of();
+
+        String[] headers = ContentStoreUtil.internRow(headerCells(table));
+        if (headers.length < 2) return new ByteRows(table, headers, new int[0]);
+
+        int[] kept = new int[table.rowCount() - 1];
+        int count = 0;
+        for (int r = 1; r < table.rowCount(); r++) {
+            if (table.cellCount(r) == headers.length) kept[count++] = r;
+        }
+        return new ByteRows(table, headers, Arrays.copyOf(kept, count));
+    }
+
+    // Trailing empty header cells are dropped, as String.split does, unless the line has a single cell
+    private String[] headerCells(ByteTable table) {
+        String[] cells = table.row(0);
+        if (cells.length == 1) return cells;
+
+        int length = cells.length;
+        while (length > 0 && cells[length - 1].isEmpty()) length--;
+        return length == cells.length ? cells : Arrays.copyOf(cells, length);
+    }
+
+    private void storeShared(Connection conn, String ref, List<String[]> rows) throws Exception {
+        RowStoreUtil.writeFile(conn, name, ref, rows, format(rows));
+        MetricsUtil.count(name, ref, MetricCounter.ROWS_MERGED, rows.size() - 1);
+        log.info("Stored {} rows of {} for {} in the row store", rows.size() - 1, ref, name);
+    }
+
+    /**
+     * Queues the table of a parsed file to the background writer, one batch per job, so the caller can go on with
+     * the rows in memory while they are being stored.
+     */
+    private void persistBehind(String ref, String[] headers, List<ColumnStats> stats, TextFormat format, List<String[]> rows) throws Exception {
+        writer.submit(ref, conn -> createLibraryTable(conn, ref, headers, stats, format));
+        for (int from = 0; from < rows.size(); from += BATCH_SIZE) {
+            int firstIndex = from;
+            List<String[]> batch = rows.subList(from, Math.min(from + BATCH_SIZE, rows.size()));
+            writer.submit(ref, conn -> mergeLibraryRows(conn, ref, headers, stats, batch, firstIndex));
+        }
+        writer.submit(ref, conn -> finishLibraryRows(conn, ref, stats, rows.size()));
+    }
 
-            String[] headers = headerLine.split("\t");
-            rows.add(headers);
-            if (headers.length < 2) return rows;
+    /**
+     * Waits until everything queued for write-behind persistence is stored. Does nothing in the other modes.
+     */
+    public void flush() throws Exception {
+        if (writer != null) writer.flush();
+    }
 
+    /**
+     * Stores everything queued for write-behind persistence and stops the background writer. Does nothing in the
+     * other modes. The library stays readable, but a write-behind library can no longer reload files.
+     */
+    @Override
+    public void close() throws Exception {
+        if (writer != null) writer.close();
+    }
+
+    /**
+     * The Merkle fingerprint of the library, computed on first use or read back with a stored library.
+     */
+    public LibraryFingerprint fingerprint() {
+        LibraryFingerprint current = fingerprint;
+        if (current == null) fingerprint = current = FingerprintUtil.of(library);
+        return current;
+    }
+
+    /**
+     * Whether both libraries hold exactly the same files, answered from the root hashes alone.
+     */
+    public boolean sameContent(LibraryService lib) {
+        return fingerprint().root().equals(lib.fingerprint().root());
+    }
+
+    // Stored with the library, so a later run reading it back from the row store gets it without hashing
+    private void storeFingerprint() throws Exception {
+        if (persistence == PersistenceMode.NONE) return;
+
+        LibraryFingerprint current = fingerprint();
+        if (persistence == PersistenceMode.SYNC) {
             try (Connection conn = SqlUtil.getConnection()) {
-                createLibraryTable(conn, ref, headers);
-                rows.addAll(insertLibraryRows(conn, ref, headers, br));
+                FingerprintUtil.write(conn, name, layout, current);
             }
+        } else {
+            writer.submit(FingerprintUtil.LIBRARY_FINGERPRINT, conn -> FingerprintUtil.write(conn, name, layout, current));
         }
+    }
 
-        return rows;
+    private List<ColumnStats> profileColumns(String[] headers, List<String[]> rows) {
+        List<ColumnStats> stats = new ArrayList<>(headers.length);
+        for (int i = 0; i < headers.length; i++) {
+            stats.add(new ColumnStats(i, headers[i].trim()));
+        }
+
+        // ASCII files are profiled on their bytes, without decoding a cell
+        if (rows instanceof ByteRows byteRows && byteRows.table().isAscii()) {
+            ByteTable table = byteRows.table();
+            ByteTable.AsciiView view = table.asciiView();
+            for (int r = 1; r < rows.size(); r++) {
+                int tableRow = byteRows.tableRow(r);
+                for (int i = 0; i < headers.length; i++) {
+                    stats.get(i).accept(view.at(tableRow, i));
+                }
+            }
+            return stats;
+        }
+
+        for (int r = 1; r < rows.size(); r++) {
+            String[] values = rows.get(r);
+            for (int i = 0; i < headers.length; i++) {
+                stats.get(i).accept(values[i]);
+            }
+        }
+        return stats;
+    }
+
+    private ColumnType[] columnTypes(List<ColumnStats> stats) {
+        return stats.stream().map(ColumnStats::getType).toArray(ColumnType[]::new);
+    }
+
+    private DataDictionary loadOrError(String ref, Object source, Callable<DataDictionary> loader) {
+        try {
+            return loader.call();
+        } catch (Exception e) {
+            log.error("An error occurred loading '{}' at '{}': {}", ref, source, e.getMessage());
+            return new DataDictionary(ref, null, e.getMessage());
+        }
     }
 
+    /**
+     * Loads the files of a folder or archive. Files of a folder, zip, tar.gz or MPQ are each read, parsed and stored
+     * on one of the scheduler's virtual threads.
+     */
     private List<DataDictionary> loadFiles(Path toLoad) throws IOException {
+        if (Files.isRegularFile(toLoad)) {
+            String fileName = toLoad.getFileName().toString().toLowerCase();
+            if (fileName.endsWith(".mpq")) return loadMpq(toLoad);
+            if (fileName.endsWith(".zip")) return loadZip(toLoad);
+            if (fileName.endsWith(".tar.gz") || fileName.endsWith(".tgz")) return loadTarGz(toLoad);
+        }
+
+        List<CompletableFuture<DataDictionary>> futures;
         try (Stream<Path> stream = Files.walk(toLoad)) {
-            return stream
+            futures = stream
                     .filter(Files::isRegularFile)
                     .filter(path -> path.toString().toLowerCase().endsWith(".txt"))
                     .map(path -> {
@@ -180,36 +599,269 @@ public class LibraryService {
                                 .relativize(path)
                                 .toString()
                                 .replace("\\", "/");
-                        try {
-                            List<String[]> data = loadFile(path, ref);
-                            return new DataDictionary(ref, data, null);
-                        } catch (Exception e) {
-                            log.error("An error occurred loading '{}' at '{}': {}", ref, path, e.getMessage());
-                            return new DataDictionary(ref, null, e.getMessage());
-                        }
+                        if (!refFilter.test(ref)) return null;
+                        return CompletableFuture.supplyAsync(() -> loadOrError(ref, path, () -> loadFile(path, ref)), SchedulerUtil.io());
                     })
-                    .collect(Collectors.toList());
+                    .filter(Objects::nonNull)
+                    .toList();
+        }
+        return joinAll(futures);
+    }
+
+    /**
+     * Loads the excel text files straight out of an MPQ archive, without extracting it to disk, decompressing and
+     * parsing the entries concurrently on virtual threads.
+     */
+    private List<DataDictionary> loadMpq(Path toLoad) throws IOException {
+        try (MpqArchive archive = MpqArchive.open(toLoad)) {
+            return joinAll(archive.list().stream()
+                    .map(entry -> {
+                        String ref = entry.replace("\\", "/");
+                        String lower = ref.toLowerCase();
+                        if (!lower.startsWith(EXCEL_DIR) || !lower.endsWith(".txt") || !refFilter.test(ref)) return null;
+
+                        return CompletableFuture.supplyAsync(() -> loadOrError(ref, toLoad, () -> {
+                            byte[] data = archive.read(entry);
+                            return data == null ? null : loadFile(data, ref);
+                        }), SchedulerUtil.io());
+                    })
+                    .filter(Objects::nonNull)
+                    .toList());
+        }
+    }
+
+    /**
+     * Loads the text files of a zip archive through the zip file system, decompressing and parsing the entries
+     * concurrently on virtual threads.
+     */
+    private List<DataDictionary> loadZip(Path toLoad) throws IOException {
+        try (FileSystem zip = FileSystems.newFileSystem(toLoad)) {
+            Path root = zip.getPath("/");
+            List<Path> entries;
+            try (Stream<Path> stream = Files.walk(root)) {
+                entries = stream
+                        .filter(Files::isRegularFile)
+                        .filter(path -> path.toString().toLowerCase().endsWith(".txt"))
+                        .toList();
+            }
+
+            return joinAll(entries.stream()
+                    .map(path -> {
+                        String ref = archiveRef(root.relativize(path).toString());
+                        if (!refFilter.test(ref)) return null;
+                        return CompletableFuture.supplyAsync(() -> loadOrError(ref, toLoad, () -> loadFile(path, ref)), SchedulerUtil.io());
+                    })
+                    .filter(Objects::nonNull)
+                    .toList());
+        }
+    }
+
+    /**
+     * Streams a gzip compressed tar archive once, handing each text entry to a task as soon as it has been
+     * decompressed, so parsing overlaps with decompressing the rest of the archive. The tasks also store the file,
+     * so like the other loaders they run on virtual threads rather than holding a CPU pool thread through the write.
+     */
+    private List<DataDictionary> loadTarGz(Path toLoad) throws IOException {
+        List<CompletableFuture<DataDictionary>> futures = new ArrayList<>();
+        try (TarArchiveReader tar = new TarArchiveReader(new GZIPInputStream(Files.newInputStream(toLoad), 1 << 16))) {
+            String entry;
+            while ((entry = tar.next()) != null) {
+                if (!entry.toLowerCase().endsWith(".txt")) continue;
+
+                String ref = archiveRef(entry);
+                if (!refFilter.test(ref)) continue;
+                byte[] data = tar.read();
+                futures.add(CompletableFuture.supplyAsync(() -> loadOrError(ref, toLoad, () -> loadFile(data, ref)), SchedulerUtil.io()));
+            }
+        }
+        return joinAll(futures);
+    }
+
+    private List<DataDictionary> joinAll(List<CompletableFuture<DataDictionary>> futures) {
+        // An MPQ listfile may name entries the archive does not hold, those load as null
+        return futures.stream()
+                .map(CompletableFuture::join)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Builds the ref of an archive entry. Archives of a build are often made from its parent folder, so anything
+     * in front of the data/global folder is dropped to give the same refs as loading the extracted folder.
+     */
+    private String archiveRef(String entry) {
+        String ref = entry.replace("\\", "/").replaceAll("^(\\./|/)+", "");
+        int data = ref.toLowerCase().indexOf("/data/global/");
+        return data >= 0 ? ref.substring(data + 1) : ref;
+    }
+
+    /**
+     * Re-parses one file of a folder library, replacing its stored table and its dictionary. The file having been
+     * deleted removes the ref. Returns the new dictionary, or null when the file no longer exists.
+     */
+    public DataDictionary reloadFile(String ref, Path file) throws Exception {
+        // Drop the old table first, the header may have changed and rows may have been removed
+        if (persistence == PersistenceMode.SYNC) {
+            try (Connection conn = SqlUtil.getConnection()) {
+                dropLibraryTable(conn, ref);
+            }
+        } else if (persistence == PersistenceMode.WRITE_BEHIND) {
+            writer.submit(ref, conn -> dropLibraryTable(conn, ref));
         }
+
+        DataDictionary dict = Files.isRegularFile(file) ? loadOrError(ref, file, () -> loadFile(file, ref)) : null;
+
+        List<DataDictionary> updated = new ArrayList<>(library);
+        updated.removeIf(d -> d.getRef().equals(ref));
+        if (dict != null) updated.add(dict);
+        library = updated;
+        brokenReferenceKeys = null;
+
+        if (fingerprint != null) fingerprint = FingerprintUtil.update(fingerprint, ref, dict == null ? null : dict.getData());
+        storeFingerprint();
+
+        return dict;
     }
 
+    private void dropLibraryTable(Connection conn, String ref) throws Exception {
+        ValueIndexUtil.removeFile(conn, name, ref);
+        CatalogUtil.removeDroppedRows(conn, name, ref);
+        if (layout == StorageLayout.SHARED) {
+            RowStoreUtil.removeFile(conn, name, ref);
+            return;
+        }
+
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS \"" + tableNormalize(name + "_" + ref) + "\"");
+        }
+        CatalogUtil.removeLibraryTable(conn, name, ref);
+    }
+
+    /**
+     * Finds every cell of every stored library holding the value, or a word equal to it, ignoring case.
+     */
+    public static List<SearchHit> search(String value) throws Exception {
+        try (Connection conn = SqlUtil.getConnection()) {
+            return ValueIndexUtil.search(conn, value);
+        }
+    }
+
+    /**
+     * Compares a single ref of this library against another, giving the same differences {@link #compareTo}
+     * reports for it.
+     */
+    public List<Difference> compareRef(LibraryService lib, String ref) {
+        DataDictionary aDict = toMap(this.library).get(ref);
+        if (aDict == null) return List.of();
+
+        String hash = fingerprint().hash(ref);
+        if (hash != null && hash.equals(lib.fingerprint().hash(ref))) return List.of();
+
+        return compareMeasured(lib, ref, aDict, toMap(lib.getLibrary()).get(ref));
+    }
+
+    /**
+     * Compares every file of this library against another and checks the other library's references. Files
+     * whose fingerprints match are equal and skipped, libraries whose root fingerprints match are not compared
+     * at all. Files are compared in parallel in the pool of the calling thread; call it through
+     * {@link SchedulerUtil#onCpu} to keep it off the common pool.
+     */
     public DifferenceOverview compareTo(LibraryService lib) {
+        if (sameContent(lib)) {
+            log.info("{} and {} hold the same content, nothing to compare", name, lib.name);
+            return new DifferenceOverview(name, lib.name, new ArrayList<>());
+        }
+
+        List<Difference> differences = compareFiles(lib);
+        differences.addAll(lib.checkReferences(this));
+        return new DifferenceOverview(name, lib.name, differences);
+    }
+
+    /**
+     * Compares the files of this library against another, leaving out the reference check, e.g. for one shard
+     * of a library whose other files are not loaded.
+     */
+    public List<Difference> compareFiles(LibraryService lib) {
         Map<String, DataDictionary> aMap = toMap(this.library);
         Map<String, DataDictionary> bMap = toMap(lib.getLibrary());
 
-        return new DifferenceOverview(
-                name,
-                lib.name,
-                aMap.keySet()
-                        .parallelStream()
-                        .flatMap(ref -> compareDictionary(ref, aMap.get(ref), bMap.get(ref)).stream())
-                        .collect(Collectors.toList())
-        );
+        LibraryFingerprint aFingerprint = fingerprint();
+        Set<String> changed = FingerprintUtil.changedFiles(aFingerprint, lib.fingerprint());
+        log.info("Comparing {} of {} files of {} against {}, the others are unchanged", changed.size(), aMap.size(), name, lib.name);
+
+        return aMap.keySet()
+                .parallelStream()
+                .filter(ref -> changed.contains(ref) || aFingerprint.hash(ref) == null)
+                .flatMap(ref -> compareMeasured(lib, ref, aMap.get(ref), bMap.get(ref)).stream())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Checks the references between this library's files, leaving out those the baseline breaks the same way, in
+     * the same file and column with the same value, so a mod is only charged with what it broke itself. A null
+     * baseline keeps every broken reference.
+     */
+    public List<Difference> checkReferences(LibraryService baseline) {
+        long start = System.nanoTime();
+        List<Difference> broken = ReferenceCheckUtil.check(library);
+        if (baseline != null && !broken.isEmpty()) {
+            Set<String> inherited = baseline.brokenReferenceKeys();
+            broken = broken.stream()
+                    .filter(d -> !inherited.contains(referenceKey(d)))
+                    .collect(Collectors.toList());
+        }
+
+        log.info("Checked the references of {} in {} ms, {} broken", name, (System.nanoTime() - start) / 1_000_000, broken.size());
+        return broken;
+    }
+
+    /**
+     * The broken references of this library as file, column and value keys, checked on first use, the same for
+     * every mod compared against it.
+     */
+    private Set<String> brokenReferenceKeys() {
+        Set<String> current = brokenReferenceKeys;
+        if (current == null) {
+            brokenReferenceKeys = current = ReferenceCheckUtil.check(library).stream()
+                    .map(LibraryService::referenceKey)
+                    .collect(Collectors.toSet());
+        }
+        return current;
+    }
+
+    private static String referenceKey(Difference d) {
+        return d.ref() + "\u0000" + d.rowZero()[d.cIndex()] + "\u0000" + d.valueB();
     }
 
     private Map<String, DataDictionary> toMap(List<DataDictionary> list) {
         return list.stream().collect(Collectors.toMap(DataDictionary::getRef, d -> d));
     }
 
+    // Comparison figures are recorded against library B, next to the parse figures of the same mod file
+    private List<Difference> compareMeasured(LibraryService lib, String ref, DataDictionary aDict, DataDictionary bDict) {
+        FileCompareEvent event = new FileCompareEvent();
+        event.begin();
+        long start = System.nanoTime();
+        List<Difference> diffs = compareDictionary(ref, aDict, bDict);
+        MetricsUtil.time(lib.name, ref, MetricPhase.COMPARE, start);
+        MetricsUtil.count(lib.name, ref, MetricCounter.DIFFERENCES, diffs.size());
+
+        if (event.shouldCommit()) {
+            event.libraryA = name;
+            event.libraryB = lib.name;
+            event.ref = ref;
+            event.rowsA = rowCount(aDict);
+            event.rowsB = rowCount(bDict);
+            event.differences = diffs.size();
+            event.commit();
+        }
+        return diffs;
+    }
+
+    private int rowCount(DataDictionary dict) {
+        return dict == null || dict.getData() == null ? 0 : Math.max(0, dict.getData().size() - 1);
+    }
+
     private List<Difference> compareDictionary(
             String ref,
             DataDictionary aDict,
@@ -249,7 +901,7 @@ public class LibraryService {
             return headerDiffs;
         }
 
-        diffs.addAll(compareRowsById(ref, aHeader, aRows, bRows));
+        diffs.addAll(compareRowsById(ref, aHeader, aRows, bRows, numericColumns(aDict, bDict, aHeader.length)));
 
         return diffs;
     }
@@ -327,25 +979,26 @@ public class LibraryService {
             String ref,
             String[] header,
             List<String[]> aRows,
-            List<String[]> bRows) {
+            List<String[]> bRows,
+            ColumnType[] numeric) {
 
         List<Difference> diffs = new ArrayList<>();
 
-        Map<String, IndexedRow> aMap = rowMap(aRows);
-        Map<String, IndexedRow> bMap = rowMap(bRows);
+        Map<String, Integer> aMap = rowMap(aRows);
+        Map<String, Integer> bMap = rowMap(bRows);
 
         for (String id : aMap.keySet()) {
             if (!bMap.containsKey(id)) {
-                IndexedRow ir = aMap.get(id);
+                int index = aMap.get(id);
                 diffs.add(
                         new Difference(
                                 DifferenceType.MISSING,
                                 ref,
                                 header,
-                                ir.row(),
+                                aRows.get(index),
                                 null,
                                 null,
-                                ir.index(),
+                                index,
                                 id,
                                 null
                         )
@@ -355,16 +1008,16 @@ public class LibraryService {
 
         for (String id : bMap.keySet()) {
             if (!aMap.containsKey(id)) {
-                IndexedRow ir = bMap.get(id);
+                int index = bMap.get(id);
                 diffs.add(
                         new Difference(
                                 DifferenceType.UNKNOWN,
                                 ref,
                                 header,
                                 null,
-                                ir.row(),
+                                bRows.get(index),
                                 null,
-                                ir.index(),
+                                index,
                                 null,
                                 id
                         )
@@ -372,33 +1025,85 @@ public class LibraryService {
             }
         }
 
+        // Rows loaded from files are compared on their bytes, decoding only the cells that differ
+        boolean onBytes = aRows instanceof ByteRows aBytes && bRows instanceof ByteRows bBytes
+                && aBytes.table().sameDecoding(bBytes.table());
+
         for (String id : aMap.keySet()) {
-            if (!bMap.containsKey(id)) continue;
-            IndexedRow ir = aMap.get(id);
-
-            String[] aRow = ir.row();
-            String[] bRow = bMap.get(id).row();
-
-            for (int col = 1; col < header.length; col++) {
-                if (!Objects.equals(aRow[col], bRow[col])) {
-                    diffs.add(
-                            new Difference(
-                                    DifferenceType.MISMATCH,
-                                    ref,
-                                    header,
-                                    aRow,
-                                    bRow,
-                                    col,
-                                    ir.index(),
-                                    aRow[col],
-                                    bRow[col]
-                            )
-                    );
+            Integer bIndex = bMap.get(id);
+            if (bIndex == null) continue;
+
+            int aIndex = aMap.get(id);
+            if (onBytes) compareRowBytes(ref, header, (ByteRows) aRows, aIndex, (ByteRows) bRows, bIndex, numeric, diffs);
+            else compareRowStrings(ref, header, aRows.get(aIndex), aIndex, bRows.get(bIndex), numeric, diffs);
+        }
+
+        return diffs;
+    }
+
+    private void compareRowStrings(String ref, String[] header, String[] aRow, int aIndex, String[] bRow, ColumnType[] numeric, List<Difference> diffs) {
+        // Rows with the same content are usually the same shared array, see ContentStoreUtil
+        if (aRow == bRow) return;
+
+        for (int col = 1; col < header.length; col++) {
+            if (!ColumnType.cellsEqual(numeric[col], aRow[col], bRow[col])) diffs.add(mismatch(ref, header, aRow, bRow, col, aIndex));
+        }
+    }
+
+    /**
+     * Compares two rows with {@link ByteTable#mismatch}, jumping from one differing cell to the next. Only those
+     * cells are decoded, and the rows themselves only once a cell really differs, for the report.
+     */
+    private void compareRowBytes(String ref, String[] header, ByteRows aRows, int aIndex, ByteRows bRows, int bIndex, ColumnType[] numeric, List<Difference> diffs) {
+        ByteTable aTable = aRows.table();
+        ByteTable bTable = bRows.table();
+        int aRow = aRows.tableRow(aIndex);
+        int bRow = bRows.tableRow(bIndex);
+
+        String[] aValues = null;
+        String[] bValues = null;
+        int col = aTable.mismatch(aRow, 1, bTable, bRow);
+        while (col >= 0 && col < header.length) {
+            boolean equal = numeric[col] != null && numeric[col].valuesEqual(aTable.cell(aRow, col), bTable.cell(bRow, col));
+            if (!equal) {
+                if (aValues == null) {
+                    aValues = aTable.row(aRow);
+                    bValues = bTable.row(bRow);
                 }
+                diffs.add(mismatch(ref, header, aValues, bValues, col, aIndex));
             }
+            col = aTable.mismatch(aRow, col + 1, bTable, bRow);
         }
+    }
 
-        return diffs;
+    private Difference mismatch(String ref, String[] header, String[] aRow, String[] bRow, int col, int aIndex) {
+        return new Difference(
+                DifferenceType.MISMATCH,
+                ref,
+                header,
+                aRow,
+                bRow,
+                col,
+                aIndex,
+                aRow[col],
+                bRow[col]
+        );
+    }
+
+    /**
+     * Returns, per column, the type to compare numerically with when both libraries inferred a numeric type
+     * for it, so that "10" and "010" are equal. Plain text comparison is used where the entry is null.
+     */
+    private ColumnType[] numericColumns(DataDictionary aDict, DataDictionary bDict, int columns) {
+        ColumnType[] numeric = new ColumnType[columns];
+        ColumnType[] aTypes = aDict.getTypes();
+        ColumnType[] bTypes = bDict.getTypes();
+        if (aTypes == null || bTypes == null) return numeric;
+
+        for (int i = 0; i < columns && i < aTypes.length && i < bTypes.length; i++) {
+            numeric[i] = ColumnType.comparedAs(aTypes[i], bTypes[i]);
+        }
+        return numeric;
     }
 
     private boolean isValid(List<String[]> rows) {
@@ -413,15 +1118,11 @@ public class LibraryService {
         return map;
     }
 
-    private Map<String, IndexedRow> rowMap(List<String[]> rows) {
-        return IntStream.range(1, rows.size())
-                .boxed()
-                .collect(Collectors.toMap(
-                        i -> rows.get(i)[0],
-                        i -> new IndexedRow(i, rows.get(i)),
-                        (a, b) -> a,
-                        LinkedHashMap::new
-                ));
+    // Row index by id, the first row of an id wins; only the id cell of each row is read
+    private Map<String, Integer> rowMap(List<String[]> rows) {
+        Map<String, Integer> map = new LinkedHashMap<>();
+        for (int i = 1; i < rows.size(); i++) map.putIfAbsent(ByteRows.cell(rows, i, 0), i);
+        return map;
     }
 
 }
@@ -0,0 +1,227 @@
+package org.enginecraft.service;
+
+import org.enginecraft.objects.Difference;
+import org.enginecraft.objects.DifferenceOverview;
+import org.enginecraft.objects.DifferenceType;
+import org.enginecraft.objects.PersistenceMode;
+import org.enginecraft.util.HtmlReportUtil;
+import org.enginecraft.util.SqlUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps a comparison report up to date while a mod folder is being edited.
+ * <p>
+ * Only the files that changed are re-parsed and re-compared against the base library, and only their
+ * sub-reports are rewritten together with the index page. The differences of every other ref are kept
+ * from the previous comparison. References between files are checked again on every update, as an edit to one
+ * file can break or repair references in another; refs whose broken references changed are rewritten too. An
+ * update that fails is logged and the watch goes on, the refs it did not get to report are rewritten by the next.
+ * <p>
+ * The watcher takes over the mod library: closing the watcher closes the library and its background writer.
+ */
+public class LibraryWatcher implements Runnable, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(LibraryWatcher.class);
+
+    // Editors usually save with a burst of events (truncate, write, rename), collect them into one update
+    private static final long SETTLE_MILLIS = 50;
+
+    private final LibraryService base;
+    private final LibraryService mod;
+    private final Path modRoot;
+    private final Path outputPath;
+    private final String fileName;
+    private final WatchService watchService;
+    private final Connection keepAlive;
+    private final Map<String, List<Difference>> diffsByRef = new TreeMap<>();
+    private Map<String, List<Difference>> brokenByRef = new TreeMap<>();
+    // Refs compared again whose sub-reports are not written yet, kept when an update fails part way
+    private final Set<String> unreported = new TreeSet<>();
+
+    public LibraryWatcher(
+            LibraryService base,
+            LibraryService mod,
+            Path modRoot,
+            Path outputPath,
+            String fileName,
+            DifferenceOverview initial
+    ) throws Exception {
+        if (!Files.isDirectory(modRoot)) throw new Exception("Only folder libraries can be watched: " + modRoot);
+
+        this.base = base;
+        this.mod = mod;
+        this.modRoot = modRoot;
+        this.outputPath = outputPath;
+        this.fileName = fileName;
+        this.watchService = modRoot.getFileSystem().newWatchService();
+
+        initial.differences().forEach(d ->
+                (d.type() == DifferenceType.BROKEN_REFERENCE ? brokenByRef : diffsByRef).computeIfAbsent(d.ref(), k -> new ArrayList<>()).add(d)
+        );
+        try {
+            register(modRoot);
+        } catch (IOException e) {
+            watchService.close();
+            throw e;
+        }
+
+        // H2 closes the database with its last connection, holding one open spares every reload from reopening it
+        this.keepAlive = mod.getPersistence() == PersistenceMode.SYNC ? SqlUtil.getConnection() : null;
+    }
+
+    @Override
+    public void run() {
+        log.info("Watching {} for changes to {}", modRoot, fileName);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Set<Path> changed = new LinkedHashSet<>();
+                drain(watchService.take(), changed);
+
+                WatchKey key;
+                while ((key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    drain(key, changed);
+                }
+
+                if (changed.isEmpty()) continue;
+                try {
+                    update(changed);
+                } catch (IOException | RuntimeException e) {
+                    // One failed update must not end the watch, the next edit tries again
+                    log.error("An error occurred updating {} for {}: {}", fileName, changed, e.getMessage(), e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // Closed from another thread, stop watching
+        } catch (IOException e) {
+            log.error("Stopped watching {}: {}", modRoot, e.getMessage());
+        }
+        log.info("Stopped watching {}", modRoot);
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        try {
+            mod.close();
+            if (keepAlive != null) keepAlive.close();
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    private void update(Set<Path> changed) throws IOException {
+        long start = System.nanoTime();
+        Set<String> refs = unreported;
+
+        for (Path file : changed) {
+            String ref = modRoot.relativize(file).toString().replace("\\", "/");
+            try {
+                mod.reloadFile(ref, file);
+            } catch (Exception e) {
+                log.error("An error occurred reloading '{}': {}", ref, e.getMessage());
+                continue;
+            }
+
+            List<Difference> diffs = base.compareRef(mod, ref);
+            if (diffs.isEmpty()) diffsByRef.remove(ref);
+            else diffsByRef.put(ref, diffs);
+            refs.add(ref);
+        }
+
+        if (refs.isEmpty()) return;
+
+        Map<String, List<Difference>> broken = mod.checkReferences(base).stream()
+                .collect(Collectors.groupingBy(Difference::ref, TreeMap::new, Collectors.toList()));
+        Stream.concat(broken.keySet().stream(), brokenByRef.keySet().stream())
+                .filter(ref -> !sameReferences(broken.get(ref), brokenByRef.get(ref)))
+                .forEach(refs::add);
+        brokenByRef = broken;
+
+        List<Difference> differences = Stream.concat(diffsByRef.values().stream(), brokenByRef.values().stream())
+                .flatMap(List::stream)
+                .collect(Collectors.toList());
+        HtmlReportUtil.generate(outputPath, fileName, new DifferenceOverview(base.getName(), mod.getName(), differences), refs);
+
+        log.info("Updated {} for {} in {} ms", fileName, refs, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        refs.clear();
+    }
+
+    private boolean sameReferences(List<Difference> a, List<Difference> b) {
+        if (a == null || b == null) return a == b;
+        if (a.size() != b.size()) return false;
+
+        for (int i = 0; i < a.size(); i++) {
+            Difference da = a.get(i);
+            Difference db = b.get(i);
+            if (!da.rIndex().equals(db.rIndex()) || !da.cIndex().equals(db.cIndex()) || !da.valueB().equals(db.valueB())) return false;
+        }
+        return true;
+    }
+
+    private void drain(WatchKey key, Set<Path> changed) throws IOException {
+        Path dir = (Path) key.watchable();
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // Events were lost, fall back to re-reading every file
+                collectTextFiles(modRoot, changed);
+                continue;
+            }
+
+            Path child = dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child)) {
+                register(child);
+                collectTextFiles(child, changed);
+            } else if (child.toString().toLowerCase().endsWith(".txt")) {
+                changed.add(child);
+            }
+        }
+
+        key.reset();
+    }
+
+    private void register(Path root) throws IOException {
+        // A watch service only reports direct children, so every folder of the tree is registered on its own
+        try (Stream<Path> stream = Files.walk(root)) {
+            for (Path dir : stream.filter(Files::isDirectory).toList()) {
+                dir.register(
+                        watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE
+                );
+            }
+        }
+    }
+
+    private void collectTextFiles(Path root, Set<Path> changed) throws IOException {
+        try (Stream<Path> stream = Files.walk(root)) {
+            stream.filter(Files::isRegularFile)
+                    .filter(path -> path.toString().toLowerCase().endsWith(".txt"))
+                    .forEach(changed::add);
+        }
+    }
+}
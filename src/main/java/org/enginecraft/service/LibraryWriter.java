@@ -0,0 +1,122 @@
+package org.enginecraft.service;
+
+import org.enginecraft.objects.MetricPhase;
+import org.enginecraft.util.MetricsUtil;
+import org.enginecraft.util.SqlUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Background writer for a library's H2 tables.
+ * <p>
+ * Jobs run one at a time, in the order they were submitted, on a single connection held by the writer thread.
+ * The queue is bounded: once it is full, submitting blocks until the writer catches up, so parsing cannot run
+ * arbitrarily far ahead of the database. {@link #flush()} waits for everything submitted so far, and
+ * {@link #close()} does the same before stopping the thread and closing its connection.
+ */
+public class LibraryWriter implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(LibraryWriter.class);
+
+    private static final int QUEUE_CAPACITY = 16;
+
+    public interface Job {
+        void run(Connection conn) throws Exception;
+    }
+
+    private record Entry(String ref, Job job) {
+    }
+
+    private final String library;
+    private final Thread thread;
+    private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Object lock = new Object();
+    private long submitted;
+    private long completed;
+    private Exception failure;
+    private boolean closed;
+
+    public LibraryWriter(String library) {
+        this.library = library;
+
+        thread = new Thread(this::run, "writer-" + library);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void submit(String ref, Job job) throws InterruptedException {
+        synchronized (lock) {
+            if (closed) throw new IllegalStateException("The writer of library '" + library + "' is closed");
+            submitted++;
+        }
+        queue.put(new Entry(ref, job));
+    }
+
+    /**
+     * Blocks until every job submitted before the call has been written, then reports the first failure, if any.
+     */
+    public void flush() throws Exception {
+        synchronized (lock) {
+            long target = submitted;
+            while (completed < target) lock.wait();
+
+            if (failure != null) throw new Exception("Persisting library '" + library + "' failed: " + failure.getMessage(), failure);
+        }
+    }
+
+    /**
+     * Waits for every job submitted so far and reports the first failure, as {@link #flush()} does, then stops the
+     * writer thread and closes its connection. Jobs cannot be submitted afterwards.
+     */
+    @Override
+    public void close() throws Exception {
+        synchronized (lock) {
+            closed = true;
+        }
+        try {
+            flush();
+        } finally {
+            // Nothing is left in the queue, the thread is waiting on it
+            thread.interrupt();
+            thread.join();
+        }
+    }
+
+    private void run() {
+        Connection conn = null;
+        try {
+            while (true) {
+                Entry entry = queue.take();
+                long start = System.nanoTime();
+                try {
+                    if (conn == null) conn = SqlUtil.getConnection();
+                    entry.job().run(conn);
+                } catch (Exception e) {
+                    log.error("An error occurred persisting '{}' of {}: {}", entry.ref(), library, e.getMessage());
+                    synchronized (lock) {
+                        if (failure == null) failure = e;
+                    }
+                } finally {
+                    MetricsUtil.time(library, entry.ref(), MetricPhase.DB, start);
+                    synchronized (lock) {
+                        completed++;
+                        lock.notifyAll();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (Exception e) {
+                    log.warn("Could not close the writer connection of {}: {}", library, e.getMessage());
+                }
+            }
+        }
+    }
+}
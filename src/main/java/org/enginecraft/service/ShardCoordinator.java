@@ -0,0 +1,102 @@
+package org.enginecraft.service;
+
+import org.enginecraft.ShardWorker;
+import org.enginecraft.objects.Difference;
+import org.enginecraft.objects.DifferenceOverview;
+import org.enginecraft.util.DifferenceFileUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Compares two libraries in worker processes on this machine instead of in this one, so no process holds more
+ * than a slice of either library and each heap, and its GC pauses, stay small.
+ * <p>
+ * The refs are split into shards by hash, so every worker picks its files by ref alone while loading, and nothing
+ * has to be listed up front. One more worker checks references, as they cross files: it loads only the files the
+ * reference rules read. Each worker writes its differences to a file in a shared temporary folder; the
+ * coordinator merges them, in shard order, into one {@link DifferenceOverview}.
+ */
+public class ShardCoordinator {
+    private static final Logger log = LoggerFactory.getLogger(ShardCoordinator.class);
+
+    private final int shards;
+    private final int workerHeapMib;
+
+    /**
+     * @param shards        number of file shards, each compared by its own worker
+     * @param workerHeapMib maximum heap of a worker, or 0 for the JVM default
+     */
+    public ShardCoordinator(int shards, int workerHeapMib) throws Exception {
+        if (shards < 1) throw new Exception("Shards must be at least 1, was " + shards);
+        this.shards = shards;
+        this.workerHeapMib = workerHeapMib;
+    }
+
+    /**
+     * Whether a ref belongs to a shard. Workers decide this on their own, so it only depends on the ref.
+     */
+    public static boolean inShard(String ref, int shard, int shards) {
+        return Math.floorMod(ref.hashCode(), shards) == shard;
+    }
+
+    public DifferenceOverview compare(String nameA, Path pathA, String nameB, Path pathB) throws Exception {
+        long start = System.nanoTime();
+        Path dir = Files.createTempDirectory("townportal-shards");
+        try {
+            int cpuThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / (shards + 1));
+
+            List<Process> workers = new ArrayList<>();
+            List<Path> results = new ArrayList<>();
+            for (int shard = 0; shard <= shards; shard++) {
+                String shardArg = shard < shards ? String.valueOf(shard) : ShardWorker.REFERENCES;
+                Path result = dir.resolve("shard-" + shardArg + ".bin");
+                results.add(result);
+                workers.add(start(nameA, pathA, nameB, pathB, shardArg, result, cpuThreads));
+            }
+
+            List<String> failures = new ArrayList<>();
+            for (int i = 0; i < workers.size(); i++) {
+                int exit = workers.get(i).waitFor();
+                if (exit != 0 || !Files.exists(results.get(i))) failures.add(results.get(i).getFileName() + " (exit " + exit + ")");
+            }
+            if (!failures.isEmpty()) throw new Exception("Shard workers comparing " + nameA + " and " + nameB + " failed: " + failures);
+
+            List<Difference> differences = new ArrayList<>();
+            for (Path result : results) differences.addAll(DifferenceFileUtil.read(result));
+
+            log.info("Compared {} and {} in {} shards and a reference check in {} ms, {} differences",
+                    nameA, nameB, shards, (System.nanoTime() - start) / 1_000_000, differences.size());
+            return new DifferenceOverview(nameA, nameB, differences);
+        } finally {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : files.toList()) Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    private Process start(String nameA, Path pathA, String nameB, Path pathB, String shard, Path result, int cpuThreads) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        if (workerHeapMib > 0) command.add("-Xmx" + workerHeapMib + "m");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ShardWorker.class.getName());
+        command.addAll(List.of(
+                nameA, pathA.toAbsolutePath().toString(),
+                nameB, pathB.toAbsolutePath().toString(),
+                shard, String.valueOf(shards),
+                result.toString(),
+                String.valueOf(cpuThreads)
+        ));
+
+        log.debug("Starting shard worker {}", command);
+        return new ProcessBuilder(command).inheritIO().start();
+    }
+}
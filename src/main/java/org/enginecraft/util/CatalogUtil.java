@@ -0,0 +1,344 @@
+package org.enginecraft.util;
+
+import org.enginecraft.objects.ColumnProfile;
+import org.enginecraft.objects.ColumnStats;
+import org.enginecraft.objects.ColumnType;
+import org.enginecraft.objects.DataDictionary;
+import org.enginecraft.objects.TextFormat;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+public class CatalogUtil {
+    public static final String COLUMN_STATS = "COLUMN_STATS";
+    public static final String LIBRARY_TABLES = "LIBRARY_TABLES";
+    public static final String DROPPED_ROWS = "DROPPED_ROWS";
+
+    private static final int READ_FETCH_SIZE = 5000;
+
+    /**
+     * Receives the rows of a stored table one at a time.
+     */
+    @FunctionalInterface
+    public interface RowHandler {
+        void accept(String[] row) throws IOException;
+    }
+
+    // Files are stored concurrently, and concurrent DDL on the same catalog can still collide in H2
+    public static synchronized void createLibraryTablesTable(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + LIBRARY_TABLES + " (" +
+                    "LIBRARY VARCHAR(255) NOT NULL, " +
+                    "REF VARCHAR(255) NOT NULL, " +
+                    "TABLE_NAME VARCHAR(255) NOT NULL, " +
+                    // The header as it was in the file, column names are trimmed, and how the file was encoded
+                    "HEADER TEXT, " +
+                    "CHARSET VARCHAR(32), " +
+                    "BOM BOOLEAN, " +
+                    "LINE_SEPARATOR VARCHAR(2), " +
+                    "PRIMARY KEY (LIBRARY, REF))");
+
+            // Catalogs created before the file format was recorded; checked first, as files are stored concurrently
+            if (!SqlUtil.columnExists(conn, LIBRARY_TABLES, "HEADER")) {
+                stmt.execute("ALTER TABLE " + LIBRARY_TABLES + " ADD COLUMN IF NOT EXISTS HEADER TEXT");
+                stmt.execute("ALTER TABLE " + LIBRARY_TABLES + " ADD COLUMN IF NOT EXISTS CHARSET VARCHAR(32)");
+                stmt.execute("ALTER TABLE " + LIBRARY_TABLES + " ADD COLUMN IF NOT EXISTS BOM BOOLEAN");
+                stmt.execute("ALTER TABLE " + LIBRARY_TABLES + " ADD COLUMN IF NOT EXISTS LINE_SEPARATOR VARCHAR(2)");
+            }
+        }
+    }
+
+    public static void writeLibraryTable(
+            Connection conn,
+            String library,
+            String ref,
+            String tableName,
+            String[] header,
+            TextFormat format
+    ) throws SQLException {
+        String sql = "MERGE INTO " + LIBRARY_TABLES + " (LIBRARY, REF, TABLE_NAME, HEADER, CHARSET, BOM, LINE_SEPARATOR) " +
+                "KEY(LIBRARY, REF) VALUES (?, ?, ?, ?, ?, ?, ?)";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, library);
+            ps.setString(2, ref);
+            ps.setString(3, tableName);
+            ps.setString(4, String.join("\t", header));
+            ps.setString(5, format.charset().name());
+            ps.setBoolean(6, format.bom());
+            ps.setString(7, format.lineSeparator());
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * How the file of a table was encoded, or {@link TextFormat#DEFAULT} for tables stored before it was recorded.
+     */
+    public static TextFormat readFormat(Connection conn, String tableName) throws SQLException {
+        String sql = "SELECT CHARSET, BOM, LINE_SEPARATOR FROM " + LIBRARY_TABLES + " WHERE TABLE_NAME = ? AND CHARSET IS NOT NULL";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, tableName);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) return TextFormat.DEFAULT;
+                return new TextFormat(Charset.forName(rs.getString(1)), rs.getBoolean(2), rs.getString(3));
+            }
+        }
+    }
+
+    /**
+     * The header of a table as it was in its file, or null for tables stored before it was recorded.
+     */
+    private static String[] readHeader(Connection conn, String tableName) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT HEADER FROM " + LIBRARY_TABLES + " WHERE TABLE_NAME = ?")) {
+            ps.setString(1, tableName);
+            try (ResultSet rs = ps.executeQuery()) {
+                String header = rs.next() ? rs.getString(1) : null;
+                return header == null ? null : header.split("\t", -1);
+            }
+        }
+    }
+
+    /**
+     * Forgets one table of a library, e.g. before it is re-ingested with a different header.
+     */
+    public static void removeLibraryTable(Connection conn, String library, String ref) throws SQLException {
+        for (String catalog : List.of(LIBRARY_TABLES, COLUMN_STATS)) {
+            if (!SqlUtil.tableExists(conn, catalog)) continue;
+
+            try (PreparedStatement ps = conn.prepareStatement("DELETE FROM " + catalog + " WHERE LIBRARY = ? AND REF = ?")) {
+                ps.setString(1, library);
+                ps.setString(2, ref);
+                ps.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * Reads the whole library/table tree with a single scan of the catalog's primary key.
+     * Returns library name -> (ref -> physical table name), both levels sorted.
+     */
+    public static Map<String, Map<String, String>> readLibraryTables(Connection conn) throws SQLException {
+        Map<String, Map<String, String>> libraries = new TreeMap<>();
+        if (!SqlUtil.tableExists(conn, LIBRARY_TABLES)) return libraries;
+
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT LIBRARY, REF, TABLE_NAME FROM " + LIBRARY_TABLES + " ORDER BY LIBRARY, REF")) {
+            while (rs.next()) {
+                libraries.computeIfAbsent(rs.getString(1), k -> new TreeMap<>())
+                        .put(rs.getString(2), rs.getString(3));
+            }
+        }
+        return libraries;
+    }
+
+    /**
+     * Reads every file of a library stored one table per file, rows in their original order with the header first.
+     */
+    public static List<DataDictionary> readLibrary(Connection conn, String library) throws IOException, SQLException {
+        List<DataDictionary> dictionaries = new ArrayList<>();
+        Map<String, String> tables = readLibraryTables(conn).get(library);
+        if (tables == null) return dictionaries;
+
+        for (Map.Entry<String, String> table : tables.entrySet()) {
+            List<String[]> rows = new ArrayList<>();
+            readTable(conn, table.getValue(), rows::add);
+            dictionaries.add(new DataDictionary(table.getKey(), rows, null));
+        }
+        return dictionaries;
+    }
+
+    /**
+     * Streams one table of the per-file layout in ROW_INDEX order, header first. The header is the one of the file,
+     * and each cell is the text it was loaded with: the side column of a typed column when it holds the text, the
+     * number otherwise.
+     */
+    public static void readTable(Connection conn, String tableName, RowHandler handler) throws IOException, SQLException {
+        List<ColumnProfile> headers = new ArrayList<>(readColumnStats(conn, tableName).values());
+        if (headers.isEmpty()) throw new SQLException("No column catalog for " + tableName);
+
+        // Select the header columns in original order, followed by the side column of each typed column
+        StringBuilder sql = new StringBuilder("SELECT ");
+        for (int i = 0; i < headers.size(); i++) {
+            if (i > 0) sql.append(", ");
+            sql.append("\"").append(headers.get(i).columnName()).append("\"");
+        }
+        int[] textColumns = new int[headers.size()];
+        int next = headers.size();
+        for (int i = 0; i < headers.size(); i++) {
+            if (SqlUtil.isTyped(headers.get(i).type())) {
+                sql.append(", \"").append(SqlUtil.textColumn(headers.get(i).columnName())).append("\"");
+                textColumns[i] = ++next;
+            }
+        }
+        sql.append(" FROM \"").append(tableName).append("\" ORDER BY ROW_INDEX");
+
+        String[] header = readHeader(conn, tableName);
+        if (header == null || header.length != headers.size()) {
+            header = headers.stream().map(ColumnProfile::columnName).toArray(String[]::new);
+        }
+        handler.accept(header);
+
+        try (Statement stmt = conn.createStatement()) {
+            stmt.setFetchSize(READ_FETCH_SIZE);
+            try (ResultSet rs = stmt.executeQuery(sql.toString())) {
+                while (rs.next()) {
+                    String[] row = new String[headers.size()];
+                    for (int i = 0; i < row.length; i++) {
+                        String text = textColumns[i] > 0 ? rs.getString(textColumns[i]) : null;
+                        if (text == null) text = rs.getString(i + 1);
+                        row[i] = text == null ? "" : text;
+                    }
+                    handler.accept(row);
+                }
+            }
+        }
+    }
+
+    public static synchronized void createDroppedRowsTable(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            // Lines of a file whose cell count does not match its header, in either layout; the line index counts
+            // the header as 0
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + DROPPED_ROWS + " (" +
+                    "LIBRARY VARCHAR(255) NOT NULL, " +
+                    "REF VARCHAR(255) NOT NULL, " +
+                    "LINE_INDEX INTEGER NOT NULL, " +
+                    "LINE TEXT NOT NULL, " +
+                    "PRIMARY KEY (LIBRARY, REF, LINE_INDEX))");
+        }
+    }
+
+    /**
+     * Keeps the lines left out of a file's rows at ingest, replacing those kept before, so the file can be
+     * exported as it was read.
+     */
+    public static void writeDroppedRows(Connection conn, String library, String ref, SortedMap<Integer, String> lines) throws SQLException {
+        if (lines.isEmpty() && !SqlUtil.tableExists(conn, DROPPED_ROWS)) return;
+
+        createDroppedRowsTable(conn);
+        removeDroppedRows(conn, library, ref);
+        try (PreparedStatement ps = conn.prepareStatement("INSERT INTO " + DROPPED_ROWS + " (LIBRARY, REF, LINE_INDEX, LINE) VALUES (?, ?, ?, ?)")) {
+            for (Map.Entry<Integer, String> line : lines.entrySet()) {
+                ps.setString(1, library);
+                ps.setString(2, ref);
+                ps.setInt(3, line.getKey());
+                ps.setString(4, line.getValue());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    /**
+     * The lines left out of a file at ingest by line index, empty when there were none.
+     */
+    public static SortedMap<Integer, String> readDroppedRows(Connection conn, String library, String ref) throws SQLException {
+        SortedMap<Integer, String> lines = new TreeMap<>();
+        if (!SqlUtil.tableExists(conn, DROPPED_ROWS)) return lines;
+
+        try (PreparedStatement ps = conn.prepareStatement("SELECT LINE_INDEX, LINE FROM " + DROPPED_ROWS + " WHERE LIBRARY = ? AND REF = ?")) {
+            ps.setString(1, library);
+            ps.setString(2, ref);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) lines.put(rs.getInt(1), rs.getString(2));
+            }
+        }
+        return lines;
+    }
+
+    public static void removeDroppedRows(Connection conn, String library, String ref) throws SQLException {
+        if (!SqlUtil.tableExists(conn, DROPPED_ROWS)) return;
+
+        try (PreparedStatement ps = conn.prepareStatement("DELETE FROM " + DROPPED_ROWS + " WHERE LIBRARY = ? AND REF = ?")) {
+            ps.setString(1, library);
+            ps.setString(2, ref);
+            ps.executeUpdate();
+        }
+    }
+
+    public static synchronized void createColumnStatsTable(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + COLUMN_STATS + " (" +
+                    "LIBRARY VARCHAR(255) NOT NULL, " +
+                    "REF VARCHAR(255) NOT NULL, " +
+                    "TABLE_NAME VARCHAR(255) NOT NULL, " +
+                    "COLUMN_INDEX INTEGER NOT NULL, " +
+                    "COLUMN_NAME VARCHAR(255), " +
+                    "MAX_LENGTH INTEGER, " +
+                    "EMPTY_COUNT INTEGER, " +
+                    "DISTINCT_ESTIMATE BIGINT, " +
+                    "INFERRED_TYPE VARCHAR(16), " +
+                    "PRIMARY KEY (LIBRARY, REF, COLUMN_INDEX))");
+            stmt.execute("CREATE INDEX IF NOT EXISTS IDX_" + COLUMN_STATS + "_TABLE_NAME ON " + COLUMN_STATS + "(TABLE_NAME)");
+        }
+    }
+
+    public static void writeColumnStats(
+            Connection conn,
+            String library,
+            String ref,
+            String tableName,
+            List<ColumnStats> stats
+    ) throws SQLException {
+        String sql = "MERGE INTO " + COLUMN_STATS + " (LIBRARY, REF, TABLE_NAME, COLUMN_INDEX, COLUMN_NAME, MAX_LENGTH, " +
+                "EMPTY_COUNT, DISTINCT_ESTIMATE, INFERRED_TYPE) KEY(LIBRARY, REF, COLUMN_INDEX) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            for (ColumnStats s : stats) {
+                ColumnProfile p = s.toProfile(library, ref);
+                ps.setString(1, library);
+                ps.setString(2, ref);
+                ps.setString(3, tableName);
+                ps.setInt(4, p.columnIndex());
+                ps.setString(5, p.columnName());
+                ps.setInt(6, p.maxLength());
+                ps.setInt(7, p.emptyCount());
+                ps.setLong(8, p.distinctEstimate());
+                ps.setString(9, p.type().name());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    /**
+     * Reads the column profiles of one physical table, keyed by column name in header order.
+     * Returns an empty map when the table was ingested before statistics were recorded.
+     */
+    public static Map<String, ColumnProfile> readColumnStats(Connection conn, String tableName) throws SQLException {
+        Map<String, ColumnProfile> profiles = new LinkedHashMap<>();
+        if (!SqlUtil.tableExists(conn, COLUMN_STATS)) return profiles;
+
+        String sql = "SELECT LIBRARY, REF, COLUMN_INDEX, COLUMN_NAME, MAX_LENGTH, EMPTY_COUNT, DISTINCT_ESTIMATE, INFERRED_TYPE " +
+                "FROM " + COLUMN_STATS + " WHERE TABLE_NAME = ? ORDER BY COLUMN_INDEX";
+
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, tableName);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    ColumnProfile p = new ColumnProfile(
+                            rs.getString(1),
+                            rs.getString(2),
+                            rs.getInt(3),
+                            rs.getString(4),
+                            rs.getInt(5),
+                            rs.getInt(6),
+                            rs.getLong(7),
+                            ColumnType.valueOf(rs.getString(8))
+                    );
+                    profiles.put(p.columnName(), p);
+                }
+            }
+        }
+        return profiles;
+    }
+}
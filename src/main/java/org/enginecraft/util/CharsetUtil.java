@@ -0,0 +1,92 @@
+package org.enginecraft.util;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Guesses the charset of an excel text file from its bytes. A byte order mark decides; otherwise bytes that form
+ * valid UTF-8 are taken as UTF-8, and anything else as windows-1252, the code page older tools save mod files in.
+ */
+public class CharsetUtil {
+    public static final Charset WINDOWS_1252 = Charset.forName("windows-1252");
+
+    private static final byte[] UTF_8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+
+    /**
+     * The charset named by the byte order mark the data starts with, or null without one.
+     */
+    public static Charset bomCharset(byte[] data) {
+        if (startsWith(data, UTF_8_BOM)) return StandardCharsets.UTF_8;
+        if (data.length >= 2 && (data[0] & 0xFF) == 0xFF && (data[1] & 0xFF) == 0xFE) return StandardCharsets.UTF_16LE;
+        if (data.length >= 2 && (data[0] & 0xFF) == 0xFE && (data[1] & 0xFF) == 0xFF) return StandardCharsets.UTF_16BE;
+        return null;
+    }
+
+    /**
+     * The byte order mark of a charset, for writing a file back with the mark it was read with.
+     */
+    public static byte[] bom(Charset charset) {
+        if (StandardCharsets.UTF_16LE.equals(charset)) return new byte[]{(byte) 0xFF, (byte) 0xFE};
+        if (StandardCharsets.UTF_16BE.equals(charset)) return new byte[]{(byte) 0xFE, (byte) 0xFF};
+        if (StandardCharsets.UTF_8.equals(charset)) return UTF_8_BOM.clone();
+        return new byte[0];
+    }
+
+    /**
+     * Length of the byte order mark the data starts with, if any.
+     */
+    public static int bomLength(byte[] data) {
+        Charset bom = bomCharset(data);
+        if (bom == null) return 0;
+        return bom == StandardCharsets.UTF_8 ? UTF_8_BOM.length : 2;
+    }
+
+    /**
+     * Whether the bytes are well-formed UTF-8: no stray continuation bytes, overlong forms, surrogates or code
+     * points past U+10FFFF. Runs of ASCII, most of an excel file, are skipped over without decoding.
+     */
+    public static boolean isUtf8(byte[] data, int from, int to) {
+        int i = from;
+        while (i < to) {
+            int b = data[i] & 0xFF;
+            if (b < 0x80) {
+                i++;
+                continue;
+            }
+
+            int length;
+            int min;
+            if (b >= 0xC2 && b <= 0xDF) {
+                length = 2;
+                min = 0x80;
+            } else if (b >= 0xE0 && b <= 0xEF) {
+                length = 3;
+                min = 0x800;
+            } else if (b >= 0xF0 && b <= 0xF4) {
+                length = 4;
+                min = 0x10000;
+            } else {
+                return false;
+            }
+            if (i + length > to) return false;
+
+            int codePoint = b & (0xFF >> (length + 1));
+            for (int k = 1; k < length; k++) {
+                int next = data[i + k] & 0xFF;
+                if ((next & 0xC0) != 0x80) return false;
+                codePoint = (codePoint << 6) | (next & 0x3F);
+            }
+            if (codePoint < min || codePoint > 0x10FFFF || (codePoint >= 0xD800 && codePoint <= 0xDFFF)) return false;
+            i += length;
+        }
+        return true;
+    }
+
+    private static boolean startsWith(byte[] data, byte[] prefix) {
+        if (data.length < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i]) return false;
+        }
+        return true;
+    }
+}
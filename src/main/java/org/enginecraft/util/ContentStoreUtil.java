@@ -0,0 +1,104 @@
+package org.enginecraft.util;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Content addressed sharing of parsed files and rows between the libraries of one process.
+ * <p>
+ * Parsed files are keyed by the SHA-1 of their bytes, so a file byte-identical to one another library already
+ * holds is neither parsed nor kept twice. Rows read back from the row store are interned by content, so the rows
+ * one build kept from another share their arrays; rows loaded from files are kept as bytes instead. Both maps only hold their values weakly: content goes away
+ * with the last library using it. Shared rows must never be modified in place.
+ */
+public class ContentStoreUtil {
+    private static final Map<String, Entry<String, List<String[]>>> FILES = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<List<String[]>> FILES_QUEUE = new ReferenceQueue<>();
+
+    private static final Map<Long, Entry<Long, String[]>> ROWS = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<String[]> ROWS_QUEUE = new ReferenceQueue<>();
+
+    private static class Entry<K, V> extends WeakReference<V> {
+        private final K key;
+
+        Entry(K key, V value, ReferenceQueue<V> queue) {
+            super(value, queue);
+            this.key = key;
+        }
+    }
+
+    public static String hash(byte[] data) {
+        return HashUtil.sha1Hex(data);
+    }
+
+    /**
+     * The parsed rows of the file with this content hash, if a library still holds them.
+     */
+    public static List<String[]> file(String hash) {
+        Entry<String, List<String[]>> entry = FILES.get(hash);
+        return entry == null ? null : entry.get();
+    }
+
+    /**
+     * Shares a parsed file under its content hash, returning the rows to hold: those already shared when
+     * another library got there first.
+     */
+    public static List<String[]> putFile(String hash, List<String[]> rows) {
+        purge(FILES, FILES_QUEUE);
+
+        Entry<String, List<String[]>> entry = new Entry<>(hash, rows, FILES_QUEUE);
+        while (true) {
+            Entry<String, List<String[]>> existing = FILES.putIfAbsent(hash, entry);
+            if (existing == null) return rows;
+
+            List<String[]> shared = existing.get();
+            if (shared != null) return shared;
+            if (FILES.replace(hash, existing, entry)) return rows;
+        }
+    }
+
+    /**
+     * The shared array of a row with the same content, sharing this one if there is none. Rows whose content hash
+     * collides with a different row are simply not shared.
+     */
+    public static String[] internRow(String[] row) {
+        purge(ROWS, ROWS_QUEUE);
+
+        long hash = hash(row);
+        Entry<Long, String[]> entry = new Entry<>(hash, row, ROWS_QUEUE);
+        while (true) {
+            Entry<Long, String[]> existing = ROWS.putIfAbsent(hash, entry);
+            if (existing == null) return row;
+
+            String[] shared = existing.get();
+            if (shared != null) return Arrays.equals(shared, row) ? shared : row;
+            if (ROWS.replace(hash, existing, entry)) return row;
+        }
+    }
+
+    public static void clear() {
+        FILES.clear();
+        ROWS.clear();
+    }
+
+    private static long hash(String[] row) {
+        long hash = 1125899906842597L;
+        for (String value : row) {
+            hash = 31 * hash + value.length();
+            hash = 1_000_003 * hash + value.hashCode();
+        }
+        return hash;
+    }
+
+    private static <K, V> void purge(Map<K, Entry<K, V>> map, ReferenceQueue<V> queue) {
+        Object cleared;
+        while ((cleared = queue.poll()) != null) {
+            Entry<?, ?> entry = (Entry<?, ?>) cleared;
+            map.remove(entry.key, entry);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.enginecraft.util;
+
+import org.enginecraft.objects.Difference;
+import org.enginecraft.objects.DifferenceType;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes and reads differences as a compact binary file, for handing the results of a worker process to the
+ * coordinator.
+ * <p>
+ * The rows the differences point at are written once into a row table up front, as the header of a file is
+ * shared by all of its differences, and the differences refer to them by index. Rows are matched by content, a file
+ * kept as bytes decodes a new array for the same row every time it is read. Files are written under a temporary name and moved into place, so a file that exists is complete.
+ */
+public class DifferenceFileUtil {
+    private static final int MAGIC = 0x54504446;
+    private static final int NONE = -1;
+
+    public static void write(Path path, List<Difference> differences) throws IOException {
+        Map<List<String>, Integer> rowIds = new HashMap<>();
+        List<String[]> rows = new ArrayList<>();
+        for (Difference d : differences) {
+            for (String[] row : new String[][]{d.rowZero(), d.rowA(), d.rowB()}) {
+                if (row != null && rowIds.putIfAbsent(Arrays.asList(row), rows.size()) == null) rows.add(row);
+            }
+        }
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+
+            out.writeInt(rows.size());
+            for (String[] row : rows) {
+                out.writeInt(row.length);
+                for (String value : row) writeString(out, value);
+            }
+
+            out.writeInt(differences.size());
+            for (Difference d : differences) {
+                out.writeByte(d.type().ordinal());
+                writeString(out, d.ref());
+                out.writeInt(d.rowZero() == null ? NONE : rowIds.get(Arrays.asList(d.rowZero())));
+                out.writeInt(d.rowA() == null ? NONE : rowIds.get(Arrays.asList(d.rowA())));
+                out.writeInt(d.rowB() == null ? NONE : rowIds.get(Arrays.asList(d.rowB())));
+                out.writeInt(d.cIndex() == null ? NONE : d.cIndex());
+                out.writeInt(d.rIndex() == null ? NONE : d.rIndex());
+                writeString(out, d.valueA());
+                writeString(out, d.valueB());
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static List<Difference> read(Path path) throws Exception {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != MAGIC) throw new Exception("Not a differences file: " + path);
+
+            String[][] rows = new String[in.readInt()][];
+            for (int r = 0; r < rows.length; r++) {
+                rows[r] = new String[in.readInt()];
+                for (int c = 0; c < rows[r].length; c++) rows[r][c] = readString(in);
+            }
+
+            DifferenceType[] types = DifferenceType.values();
+            int count = in.readInt();
+            List<Difference> differences = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                DifferenceType type = types[in.readByte()];
+                String ref = readString(in);
+                String[] rowZero = row(rows, in.readInt());
+                String[] rowA = row(rows, in.readInt());
+                String[] rowB = row(rows, in.readInt());
+                Integer cIndex = index(in.readInt());
+                Integer rIndex = index(in.readInt());
+                differences.add(new Difference(type, ref, rowZero, rowA, rowB, cIndex, rIndex, readString(in), readString(in)));
+            }
+            return differences;
+        }
+    }
+
+    private static String[] row(String[][] rows, int id) {
+        return id == NONE ? null : rows[id];
+    }
+
+    private static Integer index(int value) {
+        return value == NONE ? null : value;
+    }
+
+    // Length prefixed UTF-8, as writeUTF is limited to 64 KB; a negative length is null
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(NONE);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        if (length == 0) return "";
+        return new String(in.readNBytes(length), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,206 @@
+package org.enginecraft.util;
+
+import org.enginecraft.objects.ByteRows;
+import org.enginecraft.objects.DataDictionary;
+import org.enginecraft.objects.LibraryFingerprint;
+import org.enginecraft.objects.StorageLayout;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Builds, compares and stores {@link LibraryFingerprint}s.
+ * <p>
+ * A file's hash is taken over its parsed rows rather than its bytes, so the same content fingerprints the same
+ * whether it was loaded from a folder, an archive or the row store. Rows still held as bytes are hashed from
+ * their bytes, see {@link ByteRows#digest}. Files that failed to load have no hash and
+ * never count as unchanged. Fingerprints are stored per library and storage layout in {@code LIBRARY_FINGERPRINT},
+ * as each layout is written by its own runs.
+ */
+public class FingerprintUtil {
+    public static final String LIBRARY_FINGERPRINT = "LIBRARY_FINGERPRINT";
+
+    private static final int BATCH_SIZE = 1000;
+
+    public static LibraryFingerprint of(List<DataDictionary> library) {
+        Map<String, String> files = new HashMap<>();
+        for (DataDictionary dict : library) {
+            if (dict.getData() != null) files.put(dict.getRef(), fileHash(dict.getData()));
+        }
+        return tree(files);
+    }
+
+    /**
+     * The fingerprint with one file replaced, or removed when {@code rows} is null. Only that file's content is
+     * hashed again; the directories are re-hashed from their children's hashes.
+     */
+    public static LibraryFingerprint update(LibraryFingerprint fingerprint, String ref, List<String[]> rows) {
+        Map<String, String> files = new HashMap<>();
+        fingerprint.hashes().forEach((path, hash) -> {
+            if (!isDirectory(path)) files.put(path, hash);
+        });
+
+        if (rows == null) files.remove(ref);
+        else files.put(ref, fileHash(rows));
+        return tree(files);
+    }
+
+    /**
+     * Lists the files of {@code a} whose hash differs in {@code b}, or that {@code b} does not have. Directories
+     * with equal hashes are skipped without looking at their files, equal roots answer at once.
+     */
+    public static Set<String> changedFiles(LibraryFingerprint a, LibraryFingerprint b) {
+        Set<String> changed = new TreeSet<>();
+        if (a.root().equals(b.root())) return changed;
+
+        walk(LibraryFingerprint.ROOT, a, b, children(a.hashes().keySet()), changed);
+        return changed;
+    }
+
+    public static void createTable(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + LIBRARY_FINGERPRINT + " (" +
+                    "LIBRARY VARCHAR(255) NOT NULL, " +
+                    "LAYOUT VARCHAR(32) NOT NULL, " +
+                    "PATH VARCHAR(255) NOT NULL, " +
+                    "HASH CHAR(40) NOT NULL, " +
+                    "PRIMARY KEY (LIBRARY, LAYOUT, PATH))");
+        }
+    }
+
+    /**
+     * Replaces the stored fingerprint of a library.
+     */
+    public static void write(Connection conn, String library, StorageLayout layout, LibraryFingerprint fingerprint) throws SQLException {
+        createTable(conn);
+
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            try (PreparedStatement ps = conn.prepareStatement("DELETE FROM " + LIBRARY_FINGERPRINT + " WHERE LIBRARY = ? AND LAYOUT = ?")) {
+                ps.setString(1, library);
+                ps.setString(2, layout.name());
+                ps.executeUpdate();
+            }
+
+            String sql = "INSERT INTO " + LIBRARY_FINGERPRINT + " (LIBRARY, LAYOUT, PATH, HASH) VALUES (?, ?, ?, ?)";
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                int count = 0;
+                for (Map.Entry<String, String> node : fingerprint.hashes().entrySet()) {
+                    ps.setString(1, library);
+                    ps.setString(2, layout.name());
+                    ps.setString(3, node.getKey());
+                    ps.setString(4, node.getValue());
+                    ps.addBatch();
+                    if (++count % BATCH_SIZE == 0) ps.executeBatch();
+                }
+                ps.executeBatch();
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * The stored fingerprint of a library, or null when none was stored.
+     */
+    public static LibraryFingerprint read(Connection conn, String library, StorageLayout layout) throws SQLException {
+        createTable(conn);
+
+        Map<String, String> hashes = new TreeMap<>();
+        try (PreparedStatement ps = conn.prepareStatement("SELECT PATH, HASH FROM " + LIBRARY_FINGERPRINT + " WHERE LIBRARY = ? AND LAYOUT = ?")) {
+            ps.setString(1, library);
+            ps.setString(2, layout.name());
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) hashes.put(rs.getString(1), rs.getString(2));
+            }
+        }
+        return hashes.containsKey(LibraryFingerprint.ROOT) ? new LibraryFingerprint(Collections.unmodifiableMap(hashes)) : null;
+    }
+
+    private static void walk(String path, LibraryFingerprint a, LibraryFingerprint b, Map<String, Set<String>> children, Set<String> changed) {
+        if (a.hash(path).equals(b.hash(path))) return;
+
+        if (!isDirectory(path)) {
+            changed.add(path);
+            return;
+        }
+        for (String child : children.getOrDefault(path, Set.of())) walk(child, a, b, children, changed);
+    }
+
+    private static LibraryFingerprint tree(Map<String, String> files) {
+        Map<String, String> hashes = new TreeMap<>(files);
+        Map<String, Set<String>> children = children(files.keySet());
+        hashDirectory(LibraryFingerprint.ROOT, children, hashes);
+        return new LibraryFingerprint(Collections.unmodifiableMap(hashes));
+    }
+
+    private static String hashDirectory(String dir, Map<String, Set<String>> children, Map<String, String> hashes) {
+        MessageDigest digest = HashUtil.sha1();
+        for (String child : children.getOrDefault(dir, Set.of())) {
+            String hash = isDirectory(child) ? hashDirectory(child, children, hashes) : hashes.get(child);
+            digest.update(child.substring(dir.length()).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(hash.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        String hash = HashUtil.hex(digest);
+        hashes.put(dir, hash);
+        return hash;
+    }
+
+    // Children of every directory, given the paths of a tree; directories only implied by file paths are included
+    private static Map<String, Set<String>> children(Set<String> paths) {
+        Map<String, Set<String>> children = new HashMap<>();
+        for (String path : paths) {
+            String child = path;
+            while (!child.equals(LibraryFingerprint.ROOT)) {
+                String parent = parent(child);
+                if (!children.computeIfAbsent(parent, k -> new TreeSet<>()).add(child)) break;
+                child = parent;
+            }
+        }
+        return children;
+    }
+
+    private static String parent(String path) {
+        String trimmed = isDirectory(path) ? path.substring(0, path.length() - 1) : path;
+        int slash = trimmed.lastIndexOf('/');
+        return slash < 0 ? LibraryFingerprint.ROOT : trimmed.substring(0, slash + 1);
+    }
+
+    private static boolean isDirectory(String path) {
+        return path.isEmpty() || path.endsWith("/");
+    }
+
+    private static String fileHash(List<String[]> rows) {
+        MessageDigest digest = HashUtil.sha1();
+        if (rows instanceof ByteRows byteRows) {
+            byteRows.digest(digest);
+            return HashUtil.hex(digest);
+        }
+
+        for (String[] row : rows) {
+            digest.update(String.join("\t", row).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+        }
+        return HashUtil.hex(digest);
+    }
+
+}
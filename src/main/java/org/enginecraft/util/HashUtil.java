@@ -0,0 +1,33 @@
+package org.enginecraft.util;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * SHA-1 hashing, the one hash used for file contents, stored rows, fingerprints and stored results.
+ */
+public class HashUtil {
+    public static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String sha1Hex(byte[] data) {
+        return hex(sha1().digest(data));
+    }
+
+    /**
+     * Completes a digest and returns it in lower-case hex.
+     */
+    public static String hex(MessageDigest digest) {
+        return hex(digest.digest());
+    }
+
+    private static String hex(byte[] hash) {
+        return HexFormat.of().formatHex(hash);
+    }
+}
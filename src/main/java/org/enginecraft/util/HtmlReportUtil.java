@@ -3,18 +3,51 @@ package org.enginecraft.util;
 import org.enginecraft.objects.Difference;
 import org.enginecraft.objects.DifferenceOverview;
 import org.enginecraft.objects.DifferenceType;
+import org.enginecraft.objects.MetricCounter;
+import org.enginecraft.objects.MetricPhase;
+import org.enginecraft.objects.Regression;
+import org.enginecraft.objects.RegressionType;
 import org.enginecraft.objects.ReportInfo;
+import org.enginecraft.objects.SubReportWriteEvent;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.stream.Collectors;
 
 public class HtmlReportUtil {
+    private static final String[] CATEGORIES = {
+            "Missing Headers",
+            "Unknown Headers",
+            "Mismatched Headers",
+            "Missing Rows",
+            "Unknown Rows",
+            "Mismatched Rows",
+            "Broken References"
+    };
+
     public static void generate(Path outputPath, String fileName, DifferenceOverview differenceOverview) throws IOException {
+        generate(outputPath, fileName, differenceOverview, null);
+    }
+
+    /**
+     * Rewrites the index page, but only the sub-reports of the given refs; the sub-reports of every other ref are
+     * left as they are on disk. A null set rewrites everything.
+     */
+    public static void generate(Path outputPath, String fileName, DifferenceOverview differenceOverview, Set<String> changedRefs) throws IOException {
+        if (changedRefs != null) {
+            for (String ref : changedRefs) deleteSubReports(outputPath, fileName, ref);
+        }
+
+        long start = System.nanoTime();
+        long subReportNanos = 0;
+
         StringBuilder sb = new StringBuilder();
         initHtml(sb);
 
@@ -57,16 +90,7 @@ public class HtmlReportUtil {
                                 )
                         ));
 
-        String[] categories = {
-                "Missing Headers",
-                "Unknown Headers",
-                "Mismatched Headers",
-                "Missing Rows",
-                "Unknown Rows",
-                "Mismatched Rows"
-        };
-
-        for (String category : categories) {
+        for (String category : CATEGORIES) {
             long categoryCount = switch (category) {
                 case "Missing Headers" -> totalsByTypeAndHeader.getOrDefault(DifferenceType.MISSING, Map.of()).getOrDefault(true, 0L);
                 case "Unknown Headers" -> totalsByTypeAndHeader.getOrDefault(DifferenceType.UNKNOWN, Map.of()).getOrDefault(true, 0L);
@@ -74,6 +98,7 @@ public class HtmlReportUtil {
                 case "Missing Rows" -> totalsByTypeAndHeader.getOrDefault(DifferenceType.MISSING, Map.of()).getOrDefault(false, 0L);
                 case "Unknown Rows" -> totalsByTypeAndHeader.getOrDefault(DifferenceType.UNKNOWN, Map.of()).getOrDefault(false, 0L);
                 case "Mismatched Rows" -> totalsByTypeAndHeader.getOrDefault(DifferenceType.MISMATCH, Map.of()).getOrDefault(false, 0L);
+                case "Broken References" -> totalsByTypeAndHeader.getOrDefault(DifferenceType.BROKEN_REFERENCE, Map.of()).getOrDefault(false, 0L);
                 default -> 0;
             };
 
@@ -106,14 +131,21 @@ public class HtmlReportUtil {
                         .getOrDefault(DifferenceType.MISMATCH, Map.of())
                         .getOrDefault(false, List.of());
 
-                switch (category) {
-                    case "Missing Headers" -> appendItems(outputPath, fileName, category, ref, sb, missingHeaders);
-                    case "Unknown Headers" -> appendItems(outputPath, fileName, category, ref, sb, unknownHeaders);
-                    case "Mismatched Headers" -> appendItems(outputPath, fileName, category, ref, sb, mismatchedHeaders);
-                    case "Missing Rows" -> appendItems(outputPath, fileName, category, ref, sb, missingRows);
-                    case "Unknown Rows" -> appendItems(outputPath, fileName, category, ref, sb, unknownRows);
-                    case "Mismatched Rows" -> appendItems(outputPath, fileName, category, ref, sb, mismatchedRows);
-                }
+                List<Difference> brokenReferences = diffsByTypeAndHeader
+                        .getOrDefault(DifferenceType.BROKEN_REFERENCE, Map.of())
+                        .getOrDefault(false, List.of());
+
+                boolean writeSubReport = changedRefs == null || changedRefs.contains(ref);
+                subReportNanos += switch (category) {
+                    case "Missing Headers" -> appendItems(outputPath, fileName, category, ref, sb, missingHeaders, writeSubReport);
+                    case "Unknown Headers" -> appendItems(outputPath, fileName, category, ref, sb, unknownHeaders, writeSubReport);
+                    case "Mismatched Headers" -> appendItems(outputPath, fileName, category, ref, sb, mismatchedHeaders, writeSubReport);
+                    case "Missing Rows" -> appendItems(outputPath, fileName, category, ref, sb, missingRows, writeSubReport);
+                    case "Unknown Rows" -> appendItems(outputPath, fileName, category, ref, sb, unknownRows, writeSubReport);
+                    case "Mismatched Rows" -> appendItems(outputPath, fileName, category, ref, sb, mismatchedRows, writeSubReport);
+                    case "Broken References" -> appendItems(outputPath, fileName, category, ref, sb, brokenReferences, writeSubReport);
+                    default -> 0L;
+                };
             }
 
             sb.append("</details>\n");
@@ -122,7 +154,101 @@ public class HtmlReportUtil {
         sb.append("</div>\n");
         sb.append("</body>\n</html>");
 
-        WriteUtil.writeFile(outputPath.resolve(fileName + ".html"), sb.toString());
+        Path indexPath = outputPath.resolve(fileName + ".html");
+        WriteUtil.writeFile(indexPath, sb.toString());
+
+        // Sub-reports are measured against their own ref, so they are taken out of the index page's time
+        MetricsUtil.of(fileName, indexPath.getFileName().toString()).addNanos(MetricPhase.RENDER, System.nanoTime() - start - subReportNanos);
+        MetricsUtil.count(fileName, indexPath.getFileName().toString(), MetricCounter.HTML_BYTES, Files.size(indexPath));
+    }
+
+    /**
+     * Writes the differences that appeared, disappeared or changed between two stored comparisons as one page,
+     * grouped by kind and ref.
+     */
+    public static void generateRegression(Path outputPath, String fileName, String before, String after, List<Regression> regressions) throws IOException {
+        long start = System.nanoTime();
+
+        StringBuilder sb = new StringBuilder();
+        initHtml(sb);
+
+        // ================= CONTENT =================
+        sb.append("<h1>").append(ReportInfo.REGRESSION_TITLE).append("</h1>\n");
+        sb.append("<p>").append(ReportInfo.REGRESSION_SUBTITLE).append("</p>\n");
+        sb.append("<br><p><strong>Before:</strong> ").append(escape(before)).append("<br><strong>After:</strong> ").append(escape(after)).append("</p>\n");
+        sb.append("<br><p>").append(ReportInfo.REGRESSION_DESCRIPTION.replace("\n", "<br>")).append("</p>\n");
+        sb.append("<h2 style=\"margin-left: 25px;\">").append(ReportInfo.RESULTS).append("</h2>");
+
+        sb.append("<div id='spinner-container'>\n");
+        sb.append("  <div class='spinner'></div>\n");
+        sb.append("  <div style='margin-top: 10px; color: #999;'>Loading report...</div>\n");
+        sb.append("</div>\n");
+
+        // ================= RESULTS =================
+        sb.append("<div id='content'>\n");
+
+        Map<RegressionType, Map<String, List<Regression>>> byKindAndRef = regressions.stream()
+                .collect(Collectors.groupingBy(
+                        Regression::kind,
+                        TreeMap::new,
+                        Collectors.groupingBy(Regression::ref, TreeMap::new, Collectors.toList())
+                ));
+
+        for (Map.Entry<RegressionType, Map<String, List<Regression>>> kind : byKindAndRef.entrySet()) {
+            String category = switch (kind.getKey()) {
+                case APPEARED -> "Appeared Differences";
+                case DISAPPEARED -> "Disappeared Differences";
+                case CHANGED -> "Changed Differences";
+            };
+            long count = kind.getValue().values().stream().mapToLong(List::size).sum();
+
+            sb.append("<details>\n");
+            sb.append("<summary>").append(category).append(" (").append(count).append(")</summary>\n");
+            for (Map.Entry<String, List<Regression>> ref : kind.getValue().entrySet()) {
+                sb.append("<details>\n");
+                sb.append(renderRegressionTable(ref.getKey(), ref.getValue()));
+                sb.append("</details>\n");
+            }
+            sb.append("</details>\n");
+        }
+
+        sb.append("</div>\n");
+        sb.append("</body>\n</html>");
+
+        Path indexPath = outputPath.resolve(fileName + ".html");
+        WriteUtil.writeFile(indexPath, sb.toString());
+
+        MetricsUtil.of(fileName, indexPath.getFileName().toString()).addNanos(MetricPhase.RENDER, System.nanoTime() - start);
+        MetricsUtil.count(fileName, indexPath.getFileName().toString(), MetricCounter.HTML_BYTES, Files.size(indexPath));
+    }
+
+    private static String renderRegressionTable(String ref, List<Regression> items) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<summary>").append(escape(ref)).append(" (").append(items.size()).append(")</summary>\n");
+        sb.append("<div class='lazy'>\n");
+        sb.append("<div class='table-container'>\n");
+        sb.append("<table><thead><tr>");
+        for (String h : new String[]{"type", "row", "column", "before A", "before B", "after A", "after B"}) {
+            sb.append("<th>").append(h).append("</th>");
+        }
+        sb.append("</tr></thead><tbody>");
+
+        for (Regression r : items) {
+            sb.append("<tr>");
+            sb.append("<td>").append(r.type()).append("</td>");
+            sb.append("<td>").append(escape(r.rowKey())).append("</td>");
+            sb.append("<td>").append(escape(r.column())).append("</td>");
+            sb.append("<td>").append(escape(r.beforeA())).append("</td>");
+            sb.append("<td>").append(escape(r.beforeB())).append("</td>");
+            boolean changedA = r.kind() == RegressionType.CHANGED && !Objects.equals(r.beforeA(), r.afterA());
+            boolean changedB = r.kind() == RegressionType.CHANGED && !Objects.equals(r.beforeB(), r.afterB());
+            sb.append(changedA ? "<td style='background-color:#fff176;'>" : "<td>").append(escape(r.afterA())).append("</td>");
+            sb.append(changedB ? "<td style='background-color:#fff176;'>" : "<td>").append(escape(r.afterB())).append("</td>");
+            sb.append("</tr>");
+        }
+
+        sb.append("</tbody></table>\n</div>\n</div>\n");
+        return sb.toString();
     }
 
     private static void initHtml(StringBuilder sb) {
@@ -193,12 +319,36 @@ public class HtmlReportUtil {
         sb.append("</head>\n<body>\n");
     }
 
-    private static void appendItems(Path outputPath, String fileName, String category, String ref, StringBuilder sb, List<Difference> items) throws IOException {
-        if (items.isEmpty() || items.getFirst().rowZero() == null) return;
+    /**
+     * Appends one ref's items to the index page, returning the time spent writing a sub-report for them.
+     */
+    private static long appendItems(Path outputPath, String fileName, String category, String ref, StringBuilder sb, List<Difference> items, boolean writeSubReport) throws IOException {
+        if (items.isEmpty() || items.getFirst().rowZero() == null) return 0;
 
+        long subReportNanos = 0;
         if (items.size() > 100) {
-            String subReportFileName = fileName + "_" + ref.replaceAll("[^a-zA-Z0-9]", "_") + "_" + category.replaceAll("[^a-zA-Z0-9]", "_") + "_report.html";
-            generateSubReport(outputPath.resolve(subReportFileName), ref, category, items);
+            String subReportFileName = subReportFileName(fileName, ref, category);
+            if (writeSubReport) {
+                SubReportWriteEvent event = new SubReportWriteEvent();
+                event.begin();
+                long start = System.nanoTime();
+                Path subReportPath = outputPath.resolve(subReportFileName);
+                generateSubReport(subReportPath, ref, category, items);
+                subReportNanos = System.nanoTime() - start;
+
+                long bytes = Files.size(subReportPath);
+                MetricsUtil.of(fileName, ref).addNanos(MetricPhase.RENDER, subReportNanos);
+                MetricsUtil.count(fileName, ref, MetricCounter.HTML_BYTES, bytes);
+
+                if (event.shouldCommit()) {
+                    event.report = fileName;
+                    event.ref = ref;
+                    event.category = category;
+                    event.differences = items.size();
+                    event.bytes = bytes;
+                    event.commit();
+                }
+            }
 
             sb.append("<details onclick=\"window.location.href='").append(subReportFileName).append("'\">").append("\n");
             sb.append("<summary>").append(escape(ref)).append(" (").append(items.size()).append(")</summary>\n");
@@ -206,6 +356,17 @@ public class HtmlReportUtil {
         } else {
             generateItemDetails(category, ref, sb, items, true);
         }
+        return subReportNanos;
+    }
+
+    private static String subReportFileName(String fileName, String ref, String category) {
+        return fileName + "_" + ref.replaceAll("[^a-zA-Z0-9]", "_") + "_" + category.replaceAll("[^a-zA-Z0-9]", "_") + "_report.html";
+    }
+
+    private static void deleteSubReports(Path outputPath, String fileName, String ref) throws IOException {
+        for (String category : CATEGORIES) {
+            Files.deleteIfExists(outputPath.resolve(subReportFileName(fileName, ref, category)));
+        }
     }
 
     private static void generateItemDetails(String category, String ref, StringBuilder sb, List<Difference> items, boolean isLazy) {
@@ -223,6 +384,7 @@ public class HtmlReportUtil {
 
             case "Missing Rows":
             case "Unknown Rows":
+            case "Broken References":
                 sb.append(renderTable(ref, items, isLazy, true));
                 break;
 
@@ -0,0 +1,172 @@
+package org.enginecraft.util;
+
+import org.enginecraft.objects.FileMetrics;
+import org.enginecraft.objects.MetricCounter;
+import org.enginecraft.objects.MetricPhase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects per file timers and counters for a run, keyed by library and ref, and reports them as a JSON summary
+ * and a log table of the slowest files.
+ */
+public class MetricsUtil {
+    private static final Logger log = LoggerFactory.getLogger(MetricsUtil.class);
+
+    private static final Map<String, FileMetrics> FILES = new ConcurrentHashMap<>();
+    private static volatile Instant started = Instant.now();
+
+    public static FileMetrics of(String library, String ref) {
+        return FILES.computeIfAbsent(library + "\u0000" + ref, k -> new FileMetrics(library, ref));
+    }
+
+    public static void time(String library, String ref, MetricPhase phase, long startNanos) {
+        of(library, ref).addNanos(phase, System.nanoTime() - startNanos);
+    }
+
+    public static void count(String library, String ref, MetricCounter counter, long amount) {
+        of(library, ref).add(counter, amount);
+    }
+
+    public static <T> T timed(String library, String ref, MetricPhase phase, Callable<T> task) throws Exception {
+        long start = System.nanoTime();
+        try {
+            return task.call();
+        } finally {
+            time(library, ref, phase, start);
+        }
+    }
+
+    public static void reset() {
+        FILES.clear();
+        started = Instant.now();
+    }
+
+    public static List<FileMetrics> snapshot() {
+        return FILES.values().stream()
+                .sorted(Comparator.comparing(FileMetrics::getLibrary).thenComparing(FileMetrics::getRef))
+                .toList();
+    }
+
+    /**
+     * Logs the files that took longest over all phases, with each phase's share.
+     */
+    public static void logSlowest(int limit) {
+        List<FileMetrics> slowest = FILES.values().stream()
+                .sorted(Comparator.comparingLong(FileMetrics::getTotalNanos).reversed())
+                .limit(limit)
+                .toList();
+        if (slowest.isEmpty()) return;
+
+        StringBuilder sb = new StringBuilder("Slowest files:\n");
+        sb.append(String.format(Locale.ROOT, "%-24s %-48s %9s %9s %9s %9s %9s%n",
+                "library", "ref", "total ms", "parse ms", "db ms", "diff ms", "html ms"));
+        for (FileMetrics m : slowest) {
+            sb.append(String.format(Locale.ROOT, "%-24s %-48s %9d %9d %9d %9d %9d%n",
+                    m.getLibrary(),
+                    m.getRef(),
+                    millis(m.getTotalNanos()),
+                    millis(m.getNanos(MetricPhase.PARSE)),
+                    millis(m.getNanos(MetricPhase.DB)),
+                    millis(m.getNanos(MetricPhase.COMPARE)),
+                    millis(m.getNanos(MetricPhase.RENDER))));
+        }
+        log.info(sb.toString().stripTrailing());
+    }
+
+    /**
+     * Writes the run summary: phase and counter totals, then every file's figures.
+     */
+    public static void writeSummary(Path outputPath) throws IOException {
+        List<FileMetrics> files = snapshot();
+        Instant finished = Instant.now();
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"started\": \"").append(started).append("\",\n");
+        sb.append("  \"finished\": \"").append(finished).append("\",\n");
+        sb.append("  \"wallMillis\": ").append(finished.toEpochMilli() - started.toEpochMilli()).append(",\n");
+
+        sb.append("  \"totals\": {");
+        appendFigures(sb, files);
+        sb.append("},\n");
+
+        sb.append("  \"files\": [");
+        for (int i = 0; i < files.size(); i++) {
+            FileMetrics m = files.get(i);
+            sb.append(i == 0 ? "\n" : ",\n");
+            sb.append("    {\"library\": ").append(quote(m.getLibrary()))
+                    .append(", \"ref\": ").append(quote(m.getRef()))
+                    .append(", ");
+            appendFigures(sb, List.of(m));
+            sb.append("}");
+        }
+        sb.append(files.isEmpty() ? "]\n" : "\n  ]\n");
+        sb.append("}\n");
+
+        WriteUtil.writeFile(outputPath, sb.toString());
+        log.info("Wrote run summary of {} files to {}", files.size(), outputPath);
+    }
+
+    private static void appendFigures(StringBuilder sb, List<FileMetrics> files) {
+        boolean first = true;
+        for (MetricPhase phase : MetricPhase.values()) {
+            long nanos = files.stream().mapToLong(m -> m.getNanos(phase)).sum();
+            sb.append(first ? "" : ", ").append(quote(camel(phase.name()) + "Millis")).append(": ").append(millis(nanos));
+            first = false;
+        }
+        for (MetricCounter counter : MetricCounter.values()) {
+            long value = files.stream().mapToLong(m -> m.get(counter)).sum();
+            sb.append(", ").append(quote(camel(counter.name()))).append(": ").append(value);
+        }
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    private static String camel(String constant) {
+        StringBuilder sb = new StringBuilder();
+        boolean upper = false;
+        for (char c : constant.toLowerCase(Locale.ROOT).toCharArray()) {
+            if (c == '_') {
+                upper = true;
+            } else {
+                sb.append(upper ? Character.toUpperCase(c) : c);
+                upper = false;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String quote(String value) {
+        if (value == null) return "null";
+
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
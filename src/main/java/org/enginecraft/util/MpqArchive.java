@@ -0,0 +1,288 @@
+package org.enginecraft.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Read-only MPQ archive backed by a memory mapped file.
+ * <p>
+ * Parses the (encrypted) hash and block tables and reads files by name, decrypting and decompressing only the
+ * sectors of the requested file. Plain, zlib compressed, encrypted and single unit files are supported; PKWARE
+ * implode, bzip2 and the audio compressions are reported as unsupported. Reads only use absolute positions into
+ * the map, so files may be read concurrently.
+ */
+public class MpqArchive implements Closeable {
+    // Must be initialised before the table keys below, which are hashed with it
+    private static final int[] CRYPT_TABLE = buildCryptTable();
+
+    private static final int MPQ_HEADER = 0x1A51504D;   // "MPQ\x1A"
+    private static final int MPQ_USER_DATA = 0x1B51504D; // "MPQ\x1B"
+
+    private static final int HASH_TABLE_KEY = hashString("(hash table)", 3);
+    private static final int BLOCK_TABLE_KEY = hashString("(block table)", 3);
+
+    private static final int HASH_ENTRY_EMPTY = 0xFFFFFFFF;
+    private static final int HASH_ENTRY_DELETED = 0xFFFFFFFE;
+
+    private static final int FILE_IMPLODE = 0x00000100;
+    private static final int FILE_COMPRESS = 0x00000200;
+    private static final int FILE_ENCRYPTED = 0x00010000;
+    private static final int FILE_FIX_KEY = 0x00020000;
+    private static final int FILE_SINGLE_UNIT = 0x01000000;
+    private static final int FILE_SECTOR_CRC = 0x04000000;
+    private static final int FILE_EXISTS = 0x80000000;
+
+    private static final int COMPRESSION_ZLIB = 0x02;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private final int archiveOffset;
+    private final int sectorSize;
+    private final int[] hashTable;
+    private final int[] blockTable;
+
+    private MpqArchive(FileChannel channel, MappedByteBuffer map) throws IOException {
+        this.channel = channel;
+        this.map = map;
+        map.order(ByteOrder.LITTLE_ENDIAN);
+
+        archiveOffset = findHeader(map);
+
+        int formatVersion = Short.toUnsignedInt(map.getShort(archiveOffset + 0x0C));
+        sectorSize = 512 << Short.toUnsignedInt(map.getShort(archiveOffset + 0x0E));
+        long hashTableOffset = Integer.toUnsignedLong(map.getInt(archiveOffset + 0x10));
+        long blockTableOffset = Integer.toUnsignedLong(map.getInt(archiveOffset + 0x14));
+        int hashTableEntries = map.getInt(archiveOffset + 0x18);
+        int blockTableEntries = map.getInt(archiveOffset + 0x1C);
+
+        if (formatVersion >= 1) {
+            hashTableOffset |= (long) Short.toUnsignedInt(map.getShort(archiveOffset + 0x28)) << 32;
+            blockTableOffset |= (long) Short.toUnsignedInt(map.getShort(archiveOffset + 0x2A)) << 32;
+        }
+
+        hashTable = readTable(archiveOffset + hashTableOffset, hashTableEntries * 4, HASH_TABLE_KEY);
+        blockTable = readTable(archiveOffset + blockTableOffset, blockTableEntries * 4, BLOCK_TABLE_KEY);
+    }
+
+    public static MpqArchive open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("MPQ archives over 2 GB are not supported: " + path);
+            return new MpqArchive(channel, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the file names listed in the archive's {@code (listfile)}, with '\' separators as stored.
+     */
+    public List<String> list() throws IOException {
+        byte[] listFile = read("(listfile)");
+        if (listFile == null) throw new IOException("Archive has no (listfile), its file names cannot be enumerated");
+
+        List<String> names = new ArrayList<>();
+        for (String name : new String(listFile, StandardCharsets.UTF_8).split("[;\r\n]+")) {
+            if (!name.isBlank()) names.add(name.trim());
+        }
+        return names;
+    }
+
+    /**
+     * Reads and decompresses one file, or returns null when the archive does not contain it.
+     */
+    public byte[] read(String name) throws IOException {
+        int block = findBlock(name);
+        if (block < 0) return null;
+
+        long offset = Integer.toUnsignedLong(blockTable[block * 4]);
+        int packedSize = blockTable[block * 4 + 1];
+        int fileSize = blockTable[block * 4 + 2];
+        int flags = blockTable[block * 4 + 3];
+
+        if ((flags & FILE_EXISTS) == 0) return null;
+        if ((flags & FILE_IMPLODE) != 0) throw new IOException("'" + name + "' uses PKWARE implode compression, which is not supported");
+
+        int key = 0;
+        if ((flags & FILE_ENCRYPTED) != 0) {
+            key = hashString(baseName(name), 3);
+            if ((flags & FILE_FIX_KEY) != 0) key = (key + (int) offset) ^ fileSize;
+        }
+
+        int start = Math.toIntExact(archiveOffset + offset);
+        boolean compressed = (flags & FILE_COMPRESS) != 0;
+
+        if ((flags & FILE_SINGLE_UNIT) != 0) {
+            byte[] data = slice(start, packedSize);
+            if (key != 0) decrypt(data, data.length, key);
+            return compressed && packedSize < fileSize ? decompress(name, data, data.length, fileSize) : data;
+        }
+
+        int sectors = (fileSize + sectorSize - 1) / sectorSize;
+        int[] sectorOffsets;
+
+        if (compressed) {
+            int entries = sectors + 1 + ((flags & FILE_SECTOR_CRC) != 0 ? 1 : 0);
+            byte[] table = slice(start, entries * 4);
+            if (key != 0) decrypt(table, table.length, key - 1);
+
+            ByteBuffer tb = ByteBuffer.wrap(table).order(ByteOrder.LITTLE_ENDIAN);
+            sectorOffsets = new int[sectors + 1];
+            for (int i = 0; i <= sectors; i++) sectorOffsets[i] = tb.getInt();
+        } else {
+            sectorOffsets = new int[sectors + 1];
+            for (int i = 0; i <= sectors; i++) sectorOffsets[i] = Math.min(i * sectorSize, fileSize);
+        }
+
+        byte[] out = new byte[fileSize];
+        int written = 0;
+        for (int i = 0; i < sectors; i++) {
+            int expected = Math.min(sectorSize, fileSize - written);
+            int length = sectorOffsets[i + 1] - sectorOffsets[i];
+            byte[] sector = slice(start + sectorOffsets[i], length);
+            if (key != 0) decrypt(sector, length, key + i);
+
+            byte[] plain = compressed && length < expected ? decompress(name, sector, length, expected) : sector;
+            System.arraycopy(plain, 0, out, written, expected);
+            written += expected;
+        }
+
+        return out;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private int findBlock(String name) {
+        if (hashTable.length == 0) return -1;
+
+        String normalized = name.replace('/', '\\');
+        int entries = hashTable.length / 4;
+        int start = Integer.remainderUnsigned(hashString(normalized, 0), entries);
+        int nameA = hashString(normalized, 1);
+        int nameB = hashString(normalized, 2);
+
+        for (int i = 0; i < entries; i++) {
+            int entry = ((start + i) % entries) * 4;
+            int block = hashTable[entry + 3];
+            if (block == HASH_ENTRY_EMPTY) return -1;
+            if (block != HASH_ENTRY_DELETED && hashTable[entry] == nameA && hashTable[entry + 1] == nameB) {
+                return block;
+            }
+        }
+        return -1;
+    }
+
+    private int[] readTable(long offset, int ints, int key) throws IOException {
+        byte[] raw = slice(Math.toIntExact(offset), ints * 4);
+        decrypt(raw, raw.length, key);
+
+        int[] table = new int[ints];
+        ByteBuffer.wrap(raw).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(table);
+        return table;
+    }
+
+    private byte[] slice(int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > map.capacity()) {
+            throw new IOException("MPQ structure points outside the archive (offset " + offset + ", length " + length + ")");
+        }
+        byte[] bytes = new byte[length];
+        map.get(offset, bytes);
+        return bytes;
+    }
+
+    private static int findHeader(ByteBuffer map) throws IOException {
+        // The header sits on a 512 byte boundary, optionally behind a user data block pointing at it
+        for (int offset = 0; offset + 32 <= map.capacity(); offset += 512) {
+            int magic = map.getInt(offset);
+            if (magic == MPQ_HEADER) return offset;
+            if (magic == MPQ_USER_DATA) {
+                int headerOffset = offset + map.getInt(offset + 8);
+                if (headerOffset + 32 <= map.capacity() && map.getInt(headerOffset) == MPQ_HEADER) return headerOffset;
+            }
+        }
+        throw new IOException("No MPQ header found");
+    }
+
+    private static byte[] decompress(String name, byte[] data, int length, int expected) throws IOException {
+        int mask = data[0] & 0xFF;
+        if (mask != COMPRESSION_ZLIB) {
+            throw new IOException("'" + name + "' uses unsupported MPQ compression 0x" + Integer.toHexString(mask));
+        }
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, 1, length - 1);
+            byte[] out = new byte[expected];
+            int read = 0;
+            while (read < expected && !inflater.finished()) {
+                int n = inflater.inflate(out, read, expected - read);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                read += n;
+            }
+            if (read != expected) throw new IOException("'" + name + "' inflated to " + read + " bytes, expected " + expected);
+            return out;
+        } catch (DataFormatException e) {
+            throw new IOException("'" + name + "' has corrupt zlib data: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void decrypt(byte[] data, int length, int key) {
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, length & ~3).order(ByteOrder.LITTLE_ENDIAN);
+        int seed = 0xEEEEEEEE;
+        for (int i = 0; i < length / 4; i++) {
+            seed += CRYPT_TABLE[0x400 + (key & 0xFF)];
+            int value = buffer.getInt(i * 4) ^ (key + seed);
+            key = ((~key << 0x15) + 0x11111111) | (key >>> 0x0B);
+            seed = value + seed + (seed << 5) + 3;
+            buffer.putInt(i * 4, value);
+        }
+    }
+
+    static int hashString(String value, int type) {
+        int seed1 = 0x7FED7FED;
+        int seed2 = 0xEEEEEEEE;
+        for (char c : value.toUpperCase(Locale.ROOT).toCharArray()) {
+            seed1 = CRYPT_TABLE[(type << 8) + (c & 0xFF)] ^ (seed1 + seed2);
+            seed2 = c + seed1 + seed2 + (seed2 << 5) + 3;
+        }
+        return seed1;
+    }
+
+    private static String baseName(String name) {
+        int slash = Math.max(name.lastIndexOf('\\'), name.lastIndexOf('/'));
+        return name.substring(slash + 1);
+    }
+
+    private static int[] buildCryptTable() {
+        int[] table = new int[0x500];
+        int seed = 0x00100001;
+        for (int index1 = 0; index1 < 0x100; index1++) {
+            for (int index2 = index1, i = 0; i < 5; i++, index2 += 0x100) {
+                seed = (seed * 125 + 3) % 0x2AAAAB;
+                int temp1 = (seed & 0xFFFF) << 0x10;
+                seed = (seed * 125 + 3) % 0x2AAAAB;
+                int temp2 = seed & 0xFFFF;
+                table[index2] = temp1 | temp2;
+            }
+        }
+        return table;
+    }
+}
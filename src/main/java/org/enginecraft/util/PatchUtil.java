@@ -0,0 +1,309 @@
+package org.enginecraft.util;
+
+import org.enginecraft.objects.DataDictionary;
+import org.enginecraft.objects.Difference;
+import org.enginecraft.objects.DifferenceOverview;
+import org.enginecraft.objects.Patch;
+import org.enginecraft.objects.PatchEntry;
+import org.enginecraft.objects.PatchType;
+import org.enginecraft.service.LibraryService;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Machine-applicable patches between two libraries: row adds, row removes and cell edits keyed by ref and row
+ * key, plus whole files where headers differ or a file only exists in library B.
+ * <p>
+ * Patches reproduce B's rows exactly, text included. The comparison they are built from sees less than that:
+ * numeric cells compare by value ("10" and "010" are equal), rows are keyed by their first cell with the first
+ * occurrence winning, and files without data rows are not compared. Every file is therefore checked by applying
+ * its entries to A's copy, and one the entries do not rebuild exactly is shipped whole instead. Rows dropped at
+ * ingest, for a cell count that does not match the header, are in neither library and not in the patch either.
+ */
+public class PatchUtil {
+    private static final String MAGIC = "TOWNPORTAL-PATCH";
+    private static final int VERSION = 1;
+
+    /**
+     * Builds the patch turning {@code a} into {@code b} from their comparison. Both libraries are needed for
+     * what the comparison does not carry: the full content of files whose headers differ, of files that only
+     * exist in {@code b} and of files whose differences the comparison does not see.
+     */
+    public static Patch create(DifferenceOverview overview, LibraryService a, LibraryService b) {
+        Map<String, DataDictionary> bMap = new HashMap<>();
+        b.getLibrary().forEach(d -> bMap.put(d.getRef(), d));
+
+        Map<String, List<Difference>> byRef = new LinkedHashMap<>();
+        for (Difference d : overview.differences()) {
+            byRef.computeIfAbsent(d.ref(), k -> new ArrayList<>()).add(d);
+        }
+
+        Map<String, List<PatchEntry>> entriesByRef = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Difference>> refDiffs : byRef.entrySet()) {
+            String ref = refDiffs.getKey();
+            List<Difference> diffs = refDiffs.getValue();
+            List<PatchEntry> entries = entriesByRef.computeIfAbsent(ref, k -> new ArrayList<>());
+
+            if (diffs.stream().anyMatch(d -> d.rowZero() == null)) {
+                entries.add(new PatchEntry(PatchType.REMOVE_FILE, ref, null, null, null, null, null, null));
+                continue;
+            }
+
+            // Header changes are only reported on their own, so the file is shipped whole
+            if (diffs.stream().anyMatch(d -> d.rIndex() != null && d.rIndex() == 0)) {
+                entries.add(new PatchEntry(PatchType.PUT_FILE, ref, null, null, null, null, null, bMap.get(ref).getData()));
+                continue;
+            }
+
+            for (Difference d : diffs) {
+                switch (d.type()) {
+                    case MISSING -> entries.add(new PatchEntry(PatchType.REMOVE_ROW, ref, d.rIndex(), d.valueA(), null, null, null, null));
+                    case UNKNOWN -> entries.add(new PatchEntry(PatchType.ADD_ROW, ref, d.rIndex(), d.valueB(), null, null, d.rowB(), null));
+                    case MISMATCH -> entries.add(new PatchEntry(PatchType.SET_CELL, ref, d.rIndex(), d.rowA()[0],
+                            d.rowZero()[d.cIndex()], d.valueB(), null, null));
+                    default -> {
+                    }
+                }
+            }
+        }
+
+        for (DataDictionary dict : a.getLibrary()) {
+            String ref = dict.getRef();
+            DataDictionary bDict = bMap.get(ref);
+            List<PatchEntry> entries = entriesByRef.getOrDefault(ref, List.of());
+            if (dict.getData() == null || entries.stream().anyMatch(e -> e.type() == PatchType.REMOVE_FILE || e.type() == PatchType.PUT_FILE)) {
+                continue;
+            }
+
+            if (bDict == null || bDict.getData() == null) {
+                entriesByRef.put(ref, List.of(new PatchEntry(PatchType.REMOVE_FILE, ref, null, null, null, null, null, null)));
+            } else if (!reproduces(dict, entries, bDict.getData())) {
+                entriesByRef.put(ref, List.of(new PatchEntry(PatchType.PUT_FILE, ref, null, null, null, null, null, bDict.getData())));
+            }
+        }
+
+        List<PatchEntry> entries = new ArrayList<>();
+        entriesByRef.values().forEach(entries::addAll);
+
+        Set<String> aRefs = new LinkedHashSet<>();
+        a.getLibrary().forEach(d -> aRefs.add(d.getRef()));
+        for (DataDictionary dict : b.getLibrary()) {
+            if (!aRefs.contains(dict.getRef()) && dict.getData() != null) {
+                entries.add(new PatchEntry(PatchType.PUT_FILE, dict.getRef(), null, null, null, null, null, dict.getData()));
+            }
+        }
+
+        return new Patch(overview.libA(), overview.libB(), entries);
+    }
+
+    // Whether applying the entries to A's copy of a file gives exactly B's rows
+    private static boolean reproduces(DataDictionary dict, List<PatchEntry> entries, List<String[]> expected) {
+        List<String[]> rows;
+        try {
+            rows = applyEntries(dict, entries).getData();
+        } catch (Exception e) {
+            return false;
+        }
+
+        if (rows.size() != expected.size()) return false;
+        for (int i = 0; i < rows.size(); i++) {
+            if (!Arrays.equals(rows.get(i), expected.get(i))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Rebuilds library B in memory from library A and a patch. Untouched files share A's rows, touched files
+     * copy only the rows they edit.
+     */
+    public static LibraryService apply(LibraryService a, Patch patch, String name) throws Exception {
+        Map<String, List<PatchEntry>> byRef = new LinkedHashMap<>();
+        for (PatchEntry entry : patch.entries()) {
+            byRef.computeIfAbsent(entry.ref(), k -> new ArrayList<>()).add(entry);
+        }
+
+        List<DataDictionary> library = new ArrayList<>();
+        for (DataDictionary dict : a.getLibrary()) {
+            List<PatchEntry> entries = byRef.remove(dict.getRef());
+            if (entries == null) {
+                library.add(new DataDictionary(dict.getRef(), dict.getData(), dict.getError(), dict.getTypes()));
+                continue;
+            }
+
+            DataDictionary patched = applyEntries(dict, entries);
+            if (patched != null) library.add(patched);
+        }
+
+        for (Map.Entry<String, List<PatchEntry>> remaining : byRef.entrySet()) {
+            for (PatchEntry entry : remaining.getValue()) {
+                if (entry.type() != PatchType.PUT_FILE) {
+                    throw new Exception("Patch does not apply, '" + remaining.getKey() + "' is missing in " + a.getName());
+                }
+                library.add(new DataDictionary(entry.ref(), entry.rows(), null));
+            }
+        }
+
+        return new LibraryService(name, library);
+    }
+
+    private static DataDictionary applyEntries(DataDictionary dict, List<PatchEntry> entries) throws Exception {
+        for (PatchEntry entry : entries) {
+            if (entry.type() == PatchType.REMOVE_FILE) return null;
+            if (entry.type() == PatchType.PUT_FILE) return new DataDictionary(dict.getRef(), entry.rows(), null);
+        }
+
+        List<String[]> rows = dict.getData();
+        if (rows == null || rows.isEmpty()) throw new Exception("Patch does not apply, '" + dict.getRef() + "' has no rows");
+
+        String[] header = rows.getFirst();
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = header.length - 1; i >= 0; i--) columns.put(header[i], i);
+
+        // First occurrence wins, matching how the comparison keys rows
+        Map<String, Integer> keys = new HashMap<>();
+        for (int i = 1; i < rows.size(); i++) keys.putIfAbsent(rows.get(i)[0], i);
+
+        List<String[]> patched = new ArrayList<>(rows);
+        BitSet copied = new BitSet(rows.size());
+        BitSet removed = new BitSet(rows.size());
+        List<PatchEntry> added = new ArrayList<>();
+
+        for (PatchEntry entry : entries) {
+            switch (entry.type()) {
+                case SET_CELL -> {
+                    int row = rowIndex(dict, keys, entry);
+                    Integer col = columns.get(entry.column());
+                    if (col == null) throw new Exception("Patch does not apply, '" + dict.getRef() + "' has no column '" + entry.column() + "'");
+                    if (!copied.get(row)) {
+                        patched.set(row, patched.get(row).clone());
+                        copied.set(row);
+                    }
+                    patched.get(row)[col] = entry.value();
+                }
+                case REMOVE_ROW -> removed.set(rowIndex(dict, keys, entry));
+                case ADD_ROW -> added.add(entry);
+                default -> {
+                }
+            }
+        }
+
+        List<String[]> result = new ArrayList<>(rows.size() - removed.cardinality() + added.size());
+        for (int i = 0; i < patched.size(); i++) {
+            if (!removed.get(i)) result.add(patched.get(i));
+        }
+
+        // Added rows carry their position in B, inserting in ascending order reproduces it
+        added.sort(Comparator.comparingInt(PatchEntry::rIndex));
+        for (PatchEntry entry : added) {
+            result.add(Math.min(entry.rIndex(), result.size()), entry.row());
+        }
+
+        return new DataDictionary(dict.getRef(), result, null, dict.getTypes());
+    }
+
+    private static int rowIndex(DataDictionary dict, Map<String, Integer> keys, PatchEntry entry) throws Exception {
+        Integer row = keys.get(entry.rowKey());
+        if (row == null) throw new Exception("Patch does not apply, '" + dict.getRef() + "' has no row '" + entry.rowKey() + "'");
+        return row;
+    }
+
+    /**
+     * Writes a patch as tab separated text, gzip compressed when the file name ends in {@code .gz}.
+     */
+    public static void write(Path path, Patch patch) throws IOException {
+        if (path.getParent() != null) Files.createDirectories(path.getParent());
+
+        OutputStream out = Files.newOutputStream(path);
+        if (isGzip(path)) out = new GZIPOutputStream(out, 1 << 16);
+
+        try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            writeLine(bw, MAGIC + " " + VERSION, patch.libA(), patch.libB());
+            for (PatchEntry e : patch.entries()) {
+                switch (e.type()) {
+                    case PUT_FILE -> {
+                        writeLine(bw, e.type().name(), e.ref(), String.valueOf(e.rows().size()));
+                        for (String[] row : e.rows()) writeLine(bw, row);
+                    }
+                    case REMOVE_FILE -> writeLine(bw, e.type().name(), e.ref());
+                    case REMOVE_ROW -> writeLine(bw, e.type().name(), e.ref(), String.valueOf(e.rIndex()), e.rowKey());
+                    case ADD_ROW -> {
+                        bw.write(String.join("\t", e.type().name(), e.ref(), String.valueOf(e.rIndex())));
+                        bw.write('\t');
+                        writeLine(bw, e.row());
+                    }
+                    case SET_CELL -> writeLine(bw, e.type().name(), e.ref(), String.valueOf(e.rIndex()), e.rowKey(), e.column(), e.value());
+                }
+            }
+        }
+    }
+
+    public static Patch read(Path path) throws IOException {
+        InputStream in = Files.newInputStream(path);
+        if (isGzip(path)) in = new GZIPInputStream(in, 1 << 16);
+
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String first = br.readLine();
+            if (first == null || !first.startsWith(MAGIC + " ")) throw new IOException("Not a patch file: " + path);
+            String[] head = first.split("\t", -1);
+
+            List<PatchEntry> entries = new ArrayList<>();
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] f = line.split("\t", -1);
+                PatchType type = PatchType.valueOf(f[0]);
+                switch (type) {
+                    case PUT_FILE -> {
+                        int count = Integer.parseInt(f[2]);
+                        List<String[]> rows = new ArrayList<>(count);
+                        for (int i = 0; i < count; i++) {
+                            String row = br.readLine();
+                            if (row == null) throw new IOException("Truncated patch file: " + path);
+                            rows.add(row.split("\t", -1));
+                        }
+                        entries.add(new PatchEntry(type, f[1], null, null, null, null, null, rows));
+                    }
+                    case REMOVE_FILE -> entries.add(new PatchEntry(type, f[1], null, null, null, null, null, null));
+                    case REMOVE_ROW -> entries.add(new PatchEntry(type, f[1], Integer.parseInt(f[2]), f[3], null, null, null, null));
+                    case ADD_ROW -> {
+                        String[] row = new String[f.length - 3];
+                        System.arraycopy(f, 3, row, 0, row.length);
+                        entries.add(new PatchEntry(type, f[1], Integer.parseInt(f[2]), row[0], null, null, row, null));
+                    }
+                    case SET_CELL -> entries.add(new PatchEntry(type, f[1], Integer.parseInt(f[2]), f[3], f[4], f[5], null, null));
+                }
+            }
+
+            return new Patch(head[1], head[2], entries);
+        }
+    }
+
+    private static void writeLine(BufferedWriter bw, String... fields) throws IOException {
+        bw.write(String.join("\t", fields));
+        bw.write('\n');
+    }
+
+    private static boolean isGzip(Path path) {
+        return path.getFileName().toString().toLowerCase().endsWith(".gz");
+    }
+}
@@ -0,0 +1,179 @@
+package org.enginecraft.util;
+
+import org.enginecraft.objects.ByteRows;
+import org.enginecraft.objects.DataDictionary;
+import org.enginecraft.objects.Difference;
+import org.enginecraft.objects.DifferenceType;
+import org.enginecraft.objects.ReferenceRule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Checks the references between the excel files of one library, e.g. weapon types against itemtypes.txt.
+ * <p>
+ * The key set of every referenced column is built once per check as a hash set; the rules are then checked in
+ * parallel with one lookup per referencing cell. A value found in none of a rule's target files is reported as a
+ * {@link DifferenceType#BROKEN_REFERENCE} carrying the row in {@code rowB}, so it renders like a library B row,
+ * the value in {@code valueB} and the column it should be a key of in {@code valueA}. Rules whose source file,
+ * target files or target column are absent from the library are skipped.
+ */
+public class ReferenceCheckUtil {
+    private static final Logger log = LoggerFactory.getLogger(ReferenceCheckUtil.class);
+
+    public static final List<ReferenceRule> DEFAULT_RULES = List.of(
+            // Item types
+            ReferenceRule.of("weapons.txt", "type|type2", "Code", "itemtypes.txt"),
+            ReferenceRule.of("armor.txt", "type|type2", "Code", "itemtypes.txt"),
+            ReferenceRule.of("misc.txt", "type|type2", "Code", "itemtypes.txt"),
+            ReferenceRule.of("itemtypes.txt", "Equiv[12]", "Code", "itemtypes.txt"),
+            ReferenceRule.of("magicprefix.txt", "itype\\d+|etype\\d+", "Code", "itemtypes.txt"),
+            ReferenceRule.of("magicsuffix.txt", "itype\\d+|etype\\d+", "Code", "itemtypes.txt"),
+            ReferenceRule.of("automagic.txt", "itype\\d+|etype\\d+", "Code", "itemtypes.txt"),
+
+            // Item codes
+            ReferenceRule.of("weapons.txt", "normcode|ubercode|ultracode", "code", "weapons.txt"),
+            ReferenceRule.of("armor.txt", "normcode|ubercode|ultracode", "code", "armor.txt"),
+            ReferenceRule.of("uniqueitems.txt", "code", "code", "weapons.txt", "armor.txt", "misc.txt"),
+            ReferenceRule.of("setitems.txt", "item", "code", "weapons.txt", "armor.txt", "misc.txt"),
+
+            // Property codes
+            ReferenceRule.of("uniqueitems.txt", "prop\\d+", "code", "properties.txt"),
+            ReferenceRule.of("setitems.txt", "prop\\d+|aprop\\d+[ab]", "code", "properties.txt"),
+            ReferenceRule.of("sets.txt", "PCode\\d+[ab]|FCode\\d+", "code", "properties.txt"),
+            ReferenceRule.of("runes.txt", "T1Code\\d+", "code", "properties.txt"),
+            ReferenceRule.of("magicprefix.txt", "mod\\dcode", "code", "properties.txt"),
+            ReferenceRule.of("magicsuffix.txt", "mod\\dcode", "code", "properties.txt"),
+            ReferenceRule.of("automagic.txt", "mod\\dcode", "code", "properties.txt"),
+
+            // Skill names
+            ReferenceRule.of("skills.txt", "reqskill\\d", "skill", "skills.txt"),
+            ReferenceRule.of("charstats.txt", "Skill \\d+", "skill", "skills.txt")
+    );
+
+    /**
+     * Whether any of the default rules reads the file, as its source or one of its targets.
+     */
+    public static boolean isReferenced(String ref) {
+        String fileName = fileName(ref);
+        return DEFAULT_RULES.stream().anyMatch(rule -> rule.ref().equalsIgnoreCase(fileName)
+                || rule.targetRefs().stream().anyMatch(target -> target.equalsIgnoreCase(fileName)));
+    }
+
+    public static List<Difference> check(List<DataDictionary> library) {
+        return check(library, DEFAULT_RULES);
+    }
+
+    /**
+     * Checks every rule against the library, returning the broken references ordered by ref, row and column.
+     */
+    public static List<Difference> check(List<DataDictionary> library, List<ReferenceRule> rules) {
+        Map<String, DataDictionary> files = new HashMap<>();
+        for (DataDictionary dict : library) {
+            if (dict.getData() != null && !dict.getData().isEmpty()) files.put(fileName(dict.getRef()), dict);
+        }
+
+        Map<String, Set<String>> keys = rules.stream()
+                .flatMap(rule -> rule.targetRefs().stream().map(target -> keyOf(target, rule.targetColumn())))
+                .distinct()
+                .parallel()
+                .collect(Collectors.toMap(k -> k, k -> keySet(files, k)));
+
+        return rules.parallelStream()
+                .flatMap(rule -> check(rule, files, keys).stream())
+                .sorted(Comparator.comparing(Difference::ref)
+                        .thenComparing(Difference::rIndex)
+                        .thenComparing(Difference::cIndex))
+                .collect(Collectors.toList());
+    }
+
+    private static List<Difference> check(ReferenceRule rule, Map<String, DataDictionary> files, Map<String, Set<String>> keys) {
+        List<Difference> broken = new ArrayList<>();
+
+        DataDictionary source = files.get(rule.ref().toLowerCase(Locale.ROOT));
+        if (source == null) return broken;
+
+        List<Set<String>> targets = rule.targetRefs().stream()
+                .map(target -> keys.get(keyOf(target, rule.targetColumn())))
+                .filter(set -> set != null && !set.isEmpty())
+                .toList();
+        if (targets.isEmpty()) {
+            log.debug("Skipping references of {} to {}: no target column '{}'", rule.ref(), rule.targetRefs(), rule.targetColumn());
+            return broken;
+        }
+
+        // Cells are read one by one, a file kept as bytes only decodes the referencing cells
+        List<String[]> rows = source.getData();
+        String[] header = rows.getFirst();
+        List<Integer> columns = new ArrayList<>();
+        for (int c = 0; c < header.length; c++) {
+            if (rule.columns().matcher(header[c]).matches()) columns.add(c);
+        }
+        if (columns.isEmpty()) return broken;
+
+        String expected = String.join(", ", rule.targetRefs()) + " " + rule.targetColumn();
+        for (int r = 1; r < rows.size(); r++) {
+            String[] row = null;
+            for (int c : columns) {
+                if (c >= header.length) continue;
+
+                String cell = ByteRows.cell(rows, r, c);
+                String value = cell.trim();
+                if (value.isEmpty() || targets.stream().anyMatch(set -> set.contains(value))) continue;
+
+                if (row == null) row = rows.get(r);
+                broken.add(new Difference(
+                        DifferenceType.BROKEN_REFERENCE,
+                        source.getRef(),
+                        header,
+                        null,
+                        row,
+                        c,
+                        r,
+                        expected,
+                        cell
+                ));
+            }
+        }
+        return broken;
+    }
+
+    private static Set<String> keySet(Map<String, DataDictionary> files, String key) {
+        Set<String> keys = new HashSet<>();
+
+        String[] parts = key.split("\u0000", 2);
+        DataDictionary target = files.get(parts[0]);
+        if (target == null) return keys;
+
+        List<String[]> rows = target.getData();
+        String[] header = rows.getFirst();
+        int column = -1;
+        for (int c = 0; c < header.length && column < 0; c++) {
+            if (header[c].equalsIgnoreCase(parts[1])) column = c;
+        }
+        if (column < 0) return keys;
+
+        for (int r = 1; r < rows.size(); r++) {
+            String value = ByteRows.cell(rows, r, column);
+            if (!value.isBlank()) keys.add(value.trim());
+        }
+        return keys;
+    }
+
+    private static String keyOf(String ref, String column) {
+        return ref.toLowerCase(Locale.ROOT) + "\u0000" + column;
+    }
+
+    private static String fileName(String ref) {
+        return ref.substring(ref.lastIndexOf('/') + 1).toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,306 @@
+package org.enginecraft.util;
+
+import org.enginecraft.objects.DataDictionary;
+import org.enginecraft.objects.TextFormat;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Shared row store: a fixed set of tables holding every build, instead of one table per library file.
+ * <p>
+ * Storage is content addressed at two levels. {@code STORE_ROW} holds each distinct row once, keyed by the SHA-1
+ * of its tab separated text, and {@code STORE_FILE_ROW} each distinct file once, as the list of its row hashes
+ * keyed by a file hash over them. {@code STORE_LIBRARY_FILE} then only says which file a library has at a ref, so
+ * a file identical across builds costs one row per build, along with how that library's copy was encoded on disk.
+ * Library and ref are dictionary-encoded to integer ids. Row index 0 is the header.
+ */
+public class RowStoreUtil {
+    public static final String STORE_LIBRARY = "STORE_LIBRARY";
+    public static final String STORE_REF = "STORE_REF";
+    public static final String STORE_ROW = "STORE_ROW";
+    public static final String STORE_FILE = "STORE_FILE";
+    public static final String STORE_FILE_ROW = "STORE_FILE_ROW";
+    public static final String STORE_LIBRARY_FILE = "STORE_LIBRARY_FILE";
+
+    private static final int BATCH_SIZE = 1000;
+
+    // H2 reports a row another transaction added first as a duplicate key, or a conflict while it is uncommitted
+    private static final Set<String> CONFLICT_STATES = Set.of("23505", "90131", "HYT00");
+    private static final int ATTEMPTS = 5;
+
+    // Libraries stored concurrently often hold identical files; those are stored one at a time, so only one
+    // transaction adds a file. Writers of different files do not wait for each other
+    private static final Object[] FILE_LOCKS = new Object[64];
+
+    static {
+        Arrays.setAll(FILE_LOCKS, i -> new Object());
+    }
+
+    public static synchronized void createTables(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + STORE_LIBRARY + " (" +
+                    "LIBRARY_ID INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, " +
+                    "NAME VARCHAR(255) NOT NULL UNIQUE)");
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + STORE_REF + " (" +
+                    "REF_ID INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, " +
+                    "REF VARCHAR(255) NOT NULL UNIQUE)");
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + STORE_ROW + " (" +
+                    "ROW_HASH VARBINARY(20) PRIMARY KEY, " +
+                    "LINE TEXT NOT NULL)");
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + STORE_FILE + " (" +
+                    "FILE_HASH VARBINARY(20) PRIMARY KEY, " +
+                    "ROW_COUNT INTEGER NOT NULL)");
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + STORE_FILE_ROW + " (" +
+                    "FILE_HASH VARBINARY(20) NOT NULL, " +
+                    "ROW_INDEX INTEGER NOT NULL, " +
+                    "ROW_HASH VARBINARY(20) NOT NULL, " +
+                    "PRIMARY KEY (FILE_HASH, ROW_INDEX))");
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + STORE_LIBRARY_FILE + " (" +
+                    "LIBRARY_ID INTEGER NOT NULL, " +
+                    "REF_ID INTEGER NOT NULL, " +
+                    "FILE_HASH VARBINARY(20) NOT NULL, " +
+                    "CHARSET VARCHAR(32), " +
+                    "BOM BOOLEAN, " +
+                    "LINE_SEPARATOR VARCHAR(2), " +
+                    "PRIMARY KEY (LIBRARY_ID, REF_ID))");
+            // Stores created before the file format was recorded
+            if (!SqlUtil.columnExists(conn, STORE_LIBRARY_FILE, "CHARSET")) {
+                stmt.execute("ALTER TABLE " + STORE_LIBRARY_FILE + " ADD COLUMN IF NOT EXISTS CHARSET VARCHAR(32)");
+                stmt.execute("ALTER TABLE " + STORE_LIBRARY_FILE + " ADD COLUMN IF NOT EXISTS BOM BOOLEAN");
+                stmt.execute("ALTER TABLE " + STORE_LIBRARY_FILE + " ADD COLUMN IF NOT EXISTS LINE_SEPARATOR VARCHAR(2)");
+            }
+            // Serve the cross-build lookups: which files hold this row, and which libraries have those files
+            stmt.execute("CREATE INDEX IF NOT EXISTS IDX_" + STORE_FILE_ROW + "_ROW ON " + STORE_FILE_ROW + "(ROW_HASH)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS IDX_" + STORE_LIBRARY_FILE + "_FILE ON " + STORE_LIBRARY_FILE + "(FILE_HASH)");
+        }
+    }
+
+    /**
+     * Stores one file of a library, header included, replacing whatever the library held for that ref before.
+     * A file already known to the store is only linked to the library; otherwise only its rows not yet known are
+     * added to {@code STORE_ROW}.
+     */
+    public static void writeFile(Connection conn, String library, String ref, List<String[]> rows, TextFormat format) throws SQLException {
+        createTables(conn);
+        int libraryId = id(conn, STORE_LIBRARY, "LIBRARY_ID", "NAME", library);
+        int refId = id(conn, STORE_REF, "REF_ID", "REF", ref);
+
+        MessageDigest digest = HashUtil.sha1();
+        String[] lines = new String[rows.size()];
+        byte[][] rowHashes = new byte[rows.size()][];
+        MessageDigest fileDigest = HashUtil.sha1();
+        for (int i = 0; i < rows.size(); i++) {
+            lines[i] = String.join("\t", rows.get(i));
+            rowHashes[i] = digest.digest(lines[i].getBytes(StandardCharsets.UTF_8));
+            fileDigest.update(rowHashes[i]);
+        }
+        byte[] fileHash = fileDigest.digest();
+
+        synchronized (FILE_LOCKS[Math.floorMod(Arrays.hashCode(fileHash), FILE_LOCKS.length)]) {
+            boolean autoCommit = conn.getAutoCommit();
+            try {
+                if (!fileExists(conn, fileHash)) {
+                    // Rows are keyed by their content, so they are added outside the file's transaction, in short
+                    // batches other writers of the same rows only briefly wait on. Rows left by a failed write are
+                    // found again by the next
+                    conn.setAutoCommit(true);
+                    insertRows(conn, lines, rowHashes);
+                }
+
+                conn.setAutoCommit(false);
+                try {
+                    if (!fileExists(conn, fileHash)) insertFile(conn, fileHash, rowHashes);
+                    try (PreparedStatement ps = conn.prepareStatement("MERGE INTO " + STORE_LIBRARY_FILE +
+                            " (LIBRARY_ID, REF_ID, FILE_HASH, CHARSET, BOM, LINE_SEPARATOR) KEY(LIBRARY_ID, REF_ID) VALUES (?, ?, ?, ?, ?, ?)")) {
+                        ps.setInt(1, libraryId);
+                        ps.setInt(2, refId);
+                        ps.setBytes(3, fileHash);
+                        ps.setString(4, format.charset().name());
+                        ps.setBoolean(5, format.bom());
+                        ps.setString(6, format.lineSeparator());
+                        ps.executeUpdate();
+                    }
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
+                }
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    private static void insertRows(Connection conn, String[] lines, byte[][] rowHashes) throws SQLException {
+        String sql = "MERGE INTO " + STORE_ROW + " (ROW_HASH, LINE) KEY(ROW_HASH) VALUES (?, ?)";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            for (int start = 0; start < lines.length; start += BATCH_SIZE) {
+                int end = Math.min(lines.length, start + BATCH_SIZE);
+                for (int attempt = 1; ; attempt++) {
+                    try {
+                        for (int i = start; i < end; i++) {
+                            ps.setBytes(1, rowHashes[i]);
+                            ps.setString(2, lines[i]);
+                            ps.addBatch();
+                        }
+                        ps.executeBatch();
+                        break;
+                    } catch (SQLException e) {
+                        // Another writer added one of the rows at the same time; the batch finds it stored next time
+                        ps.clearBatch();
+                        if (attempt == ATTEMPTS || !conflict(e)) throw e;
+                    }
+                }
+            }
+        }
+    }
+
+    private static void insertFile(Connection conn, byte[] fileHash, byte[][] rowHashes) throws SQLException {
+        String sql = "INSERT INTO " + STORE_FILE_ROW + " (FILE_HASH, ROW_INDEX, ROW_HASH) VALUES (?, ?, ?)";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            for (int i = 0; i < rowHashes.length; i++) {
+                ps.setBytes(1, fileHash);
+                ps.setInt(2, i);
+                ps.setBytes(3, rowHashes[i]);
+                ps.addBatch();
+                if ((i + 1) % BATCH_SIZE == 0) ps.executeBatch();
+            }
+            ps.executeBatch();
+        }
+
+        try (PreparedStatement ps = conn.prepareStatement("INSERT INTO " + STORE_FILE + " (FILE_HASH, ROW_COUNT) VALUES (?, ?)")) {
+            ps.setBytes(1, fileHash);
+            ps.setInt(2, rowHashes.length);
+            ps.executeUpdate();
+        }
+    }
+
+    private static boolean conflict(SQLException e) {
+        for (SQLException next = e; next != null; next = next.getNextException()) {
+            if (CONFLICT_STATES.contains(next.getSQLState())) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Forgets one file of a library. The file and its rows stay in the store, other builds may share them.
+     */
+    public static void removeFile(Connection conn, String library, String ref) throws SQLException {
+        if (!SqlUtil.tableExists(conn, STORE_LIBRARY_FILE)) return;
+
+        Integer libraryId = findId(conn, STORE_LIBRARY, "LIBRARY_ID", "NAME", library);
+        Integer refId = findId(conn, STORE_REF, "REF_ID", "REF", ref);
+        if (libraryId == null || refId == null) return;
+
+        try (PreparedStatement ps = conn.prepareStatement("DELETE FROM " + STORE_LIBRARY_FILE + " WHERE LIBRARY_ID = ? AND REF_ID = ?")) {
+            ps.setInt(1, libraryId);
+            ps.setInt(2, refId);
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Reads every file of a stored library, rows in their original order with the header first. Rows are interned,
+     * so libraries read one after another share the rows they have in common.
+     */
+    public static List<DataDictionary> readLibrary(Connection conn, String library) throws SQLException {
+        List<DataDictionary> dictionaries = new ArrayList<>();
+        if (!SqlUtil.tableExists(conn, STORE_LIBRARY_FILE)) return dictionaries;
+
+        Integer libraryId = findId(conn, STORE_LIBRARY, "LIBRARY_ID", "NAME", library);
+        if (libraryId == null) return dictionaries;
+
+        String sql = "SELECT f.REF, r.LINE FROM " + STORE_LIBRARY_FILE + " m " +
+                "JOIN " + STORE_REF + " f ON f.REF_ID = m.REF_ID " +
+                "JOIN " + STORE_FILE_ROW + " fr ON fr.FILE_HASH = m.FILE_HASH " +
+                "JOIN " + STORE_ROW + " r ON r.ROW_HASH = fr.ROW_HASH " +
+                "WHERE m.LIBRARY_ID = ? ORDER BY m.REF_ID, fr.ROW_INDEX";
+
+        Map<String, List<String[]>> files = new LinkedHashMap<>();
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, libraryId);
+            ps.setFetchSize(5000);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    files.computeIfAbsent(rs.getString(1), k -> new ArrayList<>())
+                            .add(ContentStoreUtil.internRow(rs.getString(2).split("\t", -1)));
+                }
+            }
+        }
+
+        files.forEach((ref, rows) -> dictionaries.add(new DataDictionary(ref, rows, null)));
+        return dictionaries;
+    }
+
+    /**
+     * How each file of a stored library was encoded, by ref; {@link TextFormat#DEFAULT} for files stored before it
+     * was recorded.
+     */
+    public static Map<String, TextFormat> readFormats(Connection conn, String library) throws SQLException {
+        Map<String, TextFormat> formats = new LinkedHashMap<>();
+        if (!SqlUtil.tableExists(conn, STORE_LIBRARY_FILE)) return formats;
+
+        Integer libraryId = findId(conn, STORE_LIBRARY, "LIBRARY_ID", "NAME", library);
+        if (libraryId == null) return formats;
+
+        String sql = "SELECT f.REF, m.CHARSET, m.BOM, m.LINE_SEPARATOR FROM " + STORE_LIBRARY_FILE + " m " +
+                "JOIN " + STORE_REF + " f ON f.REF_ID = m.REF_ID WHERE m.LIBRARY_ID = ?";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, libraryId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    formats.put(rs.getString(1), rs.getString(2) == null ? TextFormat.DEFAULT
+                            : new TextFormat(Charset.forName(rs.getString(2)), rs.getBoolean(3), rs.getString(4)));
+                }
+            }
+        }
+        return formats;
+    }
+
+    private static boolean fileExists(Connection conn, byte[] fileHash) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT 1 FROM " + STORE_FILE + " WHERE FILE_HASH = ?")) {
+            ps.setBytes(1, fileHash);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    private static int id(Connection conn, String table, String idColumn, String nameColumn, String name) throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            Integer id = findId(conn, table, idColumn, nameColumn, name);
+            if (id != null) return id;
+
+            try (PreparedStatement ps = conn.prepareStatement("INSERT INTO " + table + " (" + nameColumn + ") VALUES (?)")) {
+                ps.setString(1, name);
+                ps.executeUpdate();
+            } catch (SQLException e) {
+                // Libraries stored together share refs, another may have added the name first
+                if (attempt == ATTEMPTS || !conflict(e)) throw e;
+            }
+        }
+    }
+
+    private static Integer findId(Connection conn, String table, String idColumn, String nameColumn, String name) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT " + idColumn + " FROM " + table + " WHERE " + nameColumn + " = ?")) {
+            ps.setString(1, name);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : null;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,175 @@
+package org.enginecraft.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+
+/**
+ * The executors work of a run is scheduled on, in place of the common pool.
+ * <ul>
+ *   <li>I/O: a virtual thread per task, for reading files and archive entries and for JDBC, which mostly wait</li>
+ *   <li>CPU: a fork join pool of a configured size, for comparing and rendering. Parallel streams started by one
+ *       of its tasks run in it as well, so nested parallelism stays within the pool instead of spilling into the
+ *       common pool</li>
+ *   <li>Memory: a budget in MiB that libraries are admitted against by their estimated in-memory size, so only
+ *       as many large libraries are loaded and compared at once as fit. A library kept for the whole run, such as
+ *       the baseline, is pinned: its share leaves the budget for good. A library larger than what pinned ones
+ *       leave of the budget is admitted alone</li>
+ * </ul>
+ * Defaults are one CPU thread per core and half the maximum heap; {@link #configure} replaces them before a run.
+ */
+public class SchedulerUtil {
+    private static final Logger log = LoggerFactory.getLogger(SchedulerUtil.class);
+
+    // Parsed rows take several times their size on disk: a String, array slot and header per cell
+    private static final int IN_MEMORY_FACTOR = 6;
+    // Zip and tar.gz archives hold roughly this many times their size in excel text; MPQs hold far more than
+    // excel text, so their own size is estimate enough
+    private static final int ARCHIVE_FACTOR = 8;
+    private static final long MIB = 1024 * 1024;
+
+    private static ExecutorService io = Executors.newVirtualThreadPerTaskExecutor();
+    private static ForkJoinPool cpu = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    private static int budgetMib = (int) (Runtime.getRuntime().maxMemory() / 2 / MIB);
+    private static Semaphore memory = new Semaphore(budgetMib, true);
+    // Part of the budget held by pinned libraries until the end of the run
+    private static int pinnedMib = 0;
+
+    /**
+     * Memory taken from the budget, returned on close.
+     */
+    public static final class Admission implements AutoCloseable {
+        private final Semaphore memory;
+        private final int permits;
+        private boolean closed;
+
+        private Admission(Semaphore memory, int permits) {
+            this.memory = memory;
+            this.permits = permits;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) return;
+            closed = true;
+            memory.release(permits);
+        }
+    }
+
+    /**
+     * Replaces the pools with a CPU pool of {@code cpuThreads} and a memory budget of {@code memoryBudgetMib}.
+     * Meant to be called once, before any work is scheduled; the previous pools are shut down.
+     */
+    public static synchronized void configure(int cpuThreads, int memoryBudgetMib) throws Exception {
+        if (cpuThreads < 1) throw new Exception("CPU threads must be at least 1, was " + cpuThreads);
+        if (memoryBudgetMib < 1) throw new Exception("Memory budget must be at least 1 MiB, was " + memoryBudgetMib);
+
+        cpu.shutdown();
+        io.shutdown();
+        cpu = new ForkJoinPool(cpuThreads);
+        io = Executors.newVirtualThreadPerTaskExecutor();
+        budgetMib = memoryBudgetMib;
+        memory = new Semaphore(memoryBudgetMib, true);
+        pinnedMib = 0;
+        log.info("Scheduling on {} CPU threads with a memory budget of {} MiB", cpuThreads, memoryBudgetMib);
+    }
+
+    public static synchronized ExecutorService io() {
+        return io;
+    }
+
+    public static synchronized ForkJoinPool cpu() {
+        return cpu;
+    }
+
+    /**
+     * Runs a task in the CPU pool and waits for it. A task already running in the pool is called directly.
+     */
+    public static <T> T onCpu(Callable<T> task) throws Exception {
+        ForkJoinPool pool = cpu();
+        if (ForkJoinTask.getPool() == pool) return task.call();
+
+        try {
+            return pool.submit(task).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) throw cause;
+            throw e;
+        }
+    }
+
+    /**
+     * Waits until the estimated bytes fit into the memory budget and takes them from it. A library larger than
+     * what pinned libraries leave of the budget takes all of that, so it waits for every other admission.
+     */
+    public static Admission admit(String name, long bytes) throws InterruptedException {
+        Semaphore budget;
+        int permits;
+        synchronized (SchedulerUtil.class) {
+            budget = memory;
+            permits = (int) Math.max(1, Math.min(budgetMib - pinnedMib, mib(bytes)));
+        }
+        return acquire(name, budget, permits);
+    }
+
+    /**
+     * Takes the estimated bytes of a library that stays loaded until the end of the run out of the budget for
+     * good, and lowers what a single admission can take to what is left. At least 1 MiB is always left, so a
+     * baseline larger than the whole budget still lets mods be admitted one at a time.
+     */
+    public static void pin(String name, long bytes) throws InterruptedException {
+        Semaphore budget;
+        int permits;
+        synchronized (SchedulerUtil.class) {
+            budget = memory;
+            permits = (int) Math.min(budgetMib - pinnedMib - 1, mib(bytes));
+            pinnedMib += permits;
+        }
+        if (permits > 0) acquire(name, budget, permits);
+        log.info("Pinned {} MiB of memory budget for {}", permits, name);
+    }
+
+    private static long mib(long bytes) {
+        return (bytes + MIB - 1) / MIB;
+    }
+
+    private static Admission acquire(String name, Semaphore budget, int permits) throws InterruptedException {
+        if (!budget.tryAcquire(permits)) {
+            log.info("Waiting for {} MiB of memory budget to load {}, {} MiB free", permits, name, budget.availablePermits());
+            budget.acquire(permits);
+        }
+        return new Admission(budget, permits);
+    }
+
+    /**
+     * A rough estimate of the memory a library takes once loaded: its excel text files' size, or for an archive
+     * the size of the text it likely holds, times the overhead of parsed rows.
+     */
+    public static long estimateBytes(Path source) throws IOException {
+        if (Files.isRegularFile(source)) {
+            String fileName = source.getFileName().toString().toLowerCase();
+            long size = Files.size(source);
+            return fileName.endsWith(".zip") || fileName.endsWith(".gz") || fileName.endsWith(".tgz")
+                    ? size * ARCHIVE_FACTOR * IN_MEMORY_FACTOR
+                    : size * IN_MEMORY_FACTOR;
+        }
+
+        try (Stream<Path> stream = Files.walk(source)) {
+            return stream
+                    .filter(Files::isRegularFile)
+                    .filter(path -> path.toString().toLowerCase().endsWith(".txt"))
+                    .mapToLong(path -> path.toFile().length())
+                    .sum() * IN_MEMORY_FACTOR;
+        }
+    }
+}
@@ -1,11 +1,123 @@
 package org.enginecraft.util;
 
+import org.enginecraft.objects.ColumnType;
+
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class SqlUtil {
+    /**
+     * Suffix of the side column holding the original text of a typed column's value when the text does not
+     * round-trip through the number (such as "010" or "+5").
+     */
+    public static final String TEXT_SUFFIX = "__TEXT";
+
+    /**
+     * JDBC URL of the database, the file under ./data unless the {@code townportal.db.url} property names another,
+     * as the tests do to work in memory.
+     */
+    public static final String URL = System.getProperty("townportal.db.url", "jdbc:h2:file:./data/town-portal;AUTO_SERVER=TRUE");
+
     public static Connection getConnection() throws SQLException {
-        return DriverManager.getConnection("jdbc:h2:file:./data/town-portal;AUTO_SERVER=TRUE");
+        return DriverManager.getConnection(URL);
+    }
+
+    public static boolean isTyped(ColumnType type) {
+        return type == ColumnType.INTEGER || type == ColumnType.BIGINT;
+    }
+
+    public static String sqlType(ColumnType type) {
+        return switch (type) {
+            case INTEGER -> "INTEGER";
+            case BIGINT -> "BIGINT";
+            default -> "TEXT";
+        };
+    }
+
+    /**
+     * The type H2 reports in INFORMATION_SCHEMA.COLUMNS for a column created with {@link #sqlType}.
+     */
+    public static String schemaType(ColumnType type) {
+        return switch (type) {
+            case INTEGER -> "INTEGER";
+            case BIGINT -> "BIGINT";
+            default -> "CHARACTER VARYING";
+        };
+    }
+
+    public static String textColumn(String column) {
+        return column + TEXT_SUFFIX;
+    }
+
+    /**
+     * Binds a cell of a typed column. Empty text becomes NULL, text that parses but does not round-trip is also
+     * written to the side column and text that does not parse at all is kept only in the side column.
+     */
+    public static void setTyped(PreparedStatement ps, int valueIndex, int textIndex, ColumnType type, String value) throws SQLException {
+        Long parsed = parse(value);
+        int sqlType = type == ColumnType.BIGINT ? Types.BIGINT : Types.INTEGER;
+
+        if (parsed == null) {
+            ps.setNull(valueIndex, sqlType);
+        } else {
+            ps.setObject(valueIndex, type == ColumnType.BIGINT ? parsed : (Object) parsed.intValue(), sqlType);
+        }
+
+        if (value == null || value.isEmpty() || (parsed != null && parsed.toString().equals(value))) {
+            ps.setNull(textIndex, Types.VARCHAR);
+        } else {
+            ps.setString(textIndex, value);
+        }
+    }
+
+    public static Long parse(String value) {
+        if (value == null || value.isEmpty()) return null;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public static boolean tableExists(Connection conn, String tableName) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT 1 FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA='PUBLIC' AND TABLE_NAME = ?")) {
+            ps.setString(1, tableName);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    public static boolean columnExists(Connection conn, String tableName, String columnName) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT 1 FROM INFORMATION_SCHEMA.COLUMNS WHERE TABLE_SCHEMA='PUBLIC' AND TABLE_NAME = ? AND COLUMN_NAME = ?")) {
+            ps.setString(1, tableName);
+            ps.setString(2, columnName);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    /**
+     * The columns of a table in their order, name to INFORMATION_SCHEMA data type; empty when there is no such table.
+     */
+    public static Map<String, String> columns(Connection conn, String tableName) throws SQLException {
+        Map<String, String> columns = new LinkedHashMap<>();
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT COLUMN_NAME, DATA_TYPE FROM INFORMATION_SCHEMA.COLUMNS WHERE TABLE_SCHEMA='PUBLIC' AND TABLE_NAME = ? ORDER BY ORDINAL_POSITION")) {
+            ps.setString(1, tableName);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) columns.put(rs.getString(1), rs.getString(2));
+            }
+        }
+        return columns;
     }
 }
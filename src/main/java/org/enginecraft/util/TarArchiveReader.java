@@ -0,0 +1,187 @@
+package org.enginecraft.util;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Minimal streaming reader for (ustar, GNU long name and pax) tar archives, enough to pull regular files out of a
+ * decompressing stream one entry at a time without touching the disk. Of the pax attributes only {@code path} and
+ * {@code size} are read, from an entry's own header before the archive's global ones.
+ */
+public class TarArchiveReader implements Closeable {
+    private static final int BLOCK = 512;
+
+    private final InputStream in;
+    private final byte[] header = new byte[BLOCK];
+    private final Map<String, String> globalPax = new HashMap<>();
+    private String name;
+    private long remaining = 0;
+    private long padding = 0;
+
+    public TarArchiveReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Advances to the next regular file and returns its path, or null at the end of the archive. Any unread
+     * content of the current entry is skipped.
+     */
+    public String next() throws IOException {
+        skip(remaining + padding);
+        remaining = 0;
+        padding = 0;
+
+        String longName = null;
+        Map<String, String> pax = Map.of();
+        while (true) {
+            if (!readBlock(header) || isZero(header)) return null;
+
+            long size = parseOctal(header, 124, 12);
+            char type = (char) header[156];
+
+            if (type == 'L') {
+                // GNU long name, the real name is the content of this entry
+                byte[] nameBytes = readFully(size);
+                skip(pad(size));
+                longName = cString(nameBytes, 0, nameBytes.length);
+                continue;
+            }
+            if (type == 'x' || type == 'g') {
+                // Pax extended header, for the next entry or for every entry that follows
+                Map<String, String> records = paxRecords(readFully(size));
+                skip(pad(size));
+                if (type == 'g') globalPax.putAll(records);
+                else pax = records;
+                continue;
+            }
+
+            String entryName = pax.getOrDefault("path", longName != null ? longName : globalPax.getOrDefault("path", ustarName(header)));
+            String paxSize = pax.getOrDefault("size", globalPax.get("size"));
+            if (paxSize != null) size = Long.parseLong(paxSize);
+            longName = null;
+            pax = Map.of();
+
+            if (type == '0' || type == '\0' || type == '7') {
+                name = entryName;
+                remaining = size;
+                padding = pad(size);
+                return name;
+            }
+
+            skip(size + pad(size));
+        }
+    }
+
+    /**
+     * Reads the full content of the current entry.
+     */
+    public byte[] read() throws IOException {
+        byte[] data = readFully(remaining);
+        remaining = 0;
+        return data;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private byte[] readFully(long size) throws IOException {
+        if (size > Integer.MAX_VALUE) throw new IOException("Tar entry too large: " + name);
+        byte[] data = new byte[(int) size];
+        int read = 0;
+        while (read < data.length) {
+            int n = in.read(data, read, data.length - read);
+            if (n < 0) throw new EOFException("Truncated tar entry: " + name);
+            read += n;
+        }
+        return data;
+    }
+
+    private boolean readBlock(byte[] block) throws IOException {
+        int read = 0;
+        while (read < BLOCK) {
+            int n = in.read(block, read, BLOCK - read);
+            if (n < 0) {
+                if (read == 0) return false;
+                throw new EOFException("Truncated tar header");
+            }
+            read += n;
+        }
+        return true;
+    }
+
+    private void skip(long bytes) throws IOException {
+        while (bytes > 0) {
+            long skipped = in.skip(bytes);
+            if (skipped <= 0) {
+                if (in.read() < 0) throw new EOFException("Truncated tar archive");
+                skipped = 1;
+            }
+            bytes -= skipped;
+        }
+    }
+
+    /**
+     * Parses the "length key=value\n" records of a pax header, the length counting the whole record in bytes.
+     */
+    private static Map<String, String> paxRecords(byte[] data) throws IOException {
+        Map<String, String> records = new HashMap<>();
+        int pos = 0;
+        while (pos < data.length && data[pos] != 0) {
+            int space = pos;
+            int length = 0;
+            while (space < data.length && data[space] >= '0' && data[space] <= '9') length = length * 10 + data[space++] - '0';
+            if (space >= data.length || data[space] != ' ' || length <= space - pos || pos + length > data.length) {
+                throw new IOException("Malformed pax header");
+            }
+
+            String record = new String(data, space + 1, pos + length - space - 1, StandardCharsets.UTF_8);
+            int equals = record.indexOf('=');
+            if (equals < 0) throw new IOException("Malformed pax header");
+            records.put(record.substring(0, equals), record.substring(equals + 1, record.length() - (record.endsWith("\n") ? 1 : 0)));
+            pos += length;
+        }
+        return records;
+    }
+
+    private static long pad(long size) {
+        return (BLOCK - size % BLOCK) % BLOCK;
+    }
+
+    private static String ustarName(byte[] header) {
+        String name = cString(header, 0, 100);
+        boolean ustar = new String(header, 257, 5, StandardCharsets.US_ASCII).equals("ustar");
+        String prefix = ustar ? cString(header, 345, 155) : "";
+        return prefix.isEmpty() ? name : prefix + "/" + name;
+    }
+
+    private static String cString(byte[] bytes, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && bytes[end] != 0) end++;
+        return new String(bytes, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static long parseOctal(byte[] bytes, int offset, int length) {
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = bytes[i];
+            if (b == 0 || b == ' ') {
+                if (value > 0) break;
+                continue;
+            }
+            value = (value << 3) + (b - '0');
+        }
+        return value;
+    }
+
+    private static boolean isZero(byte[] block) {
+        for (byte b : block) if (b != 0) return false;
+        return true;
+    }
+}
@@ -0,0 +1,231 @@
+package org.enginecraft.util;
+
+import org.enginecraft.objects.SearchHit;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted index from cell values to the cells holding them, across every stored library.
+ * <p>
+ * A cell is indexed under its whole value and under each word of it, lower-cased, so both codes ("2ax") and words
+ * of longer names ("axe") are found. {@code VALUE_INDEX} keeps one postings list per (token, library, ref): the
+ * cells in row order, each written as the row delta from the previous cell and the column, both as varints.
+ * A search reads the postings of one token with a single key range scan and decodes them. Tokens longer than
+ * {@code TOKEN} holds, such as long descriptions, are indexed under their start followed by a hash of the whole
+ * token, so they are still found by their exact value.
+ */
+public class ValueIndexUtil {
+    public static final String VALUE_INDEX = "VALUE_INDEX";
+    public static final String VALUE_INDEX_FILE = "VALUE_INDEX_FILE";
+
+    private static final int BATCH_SIZE = 1000;
+    private static final int MAX_TOKEN_LENGTH = 255;
+    private static final int HASH_LENGTH = 40;
+
+    // Files are indexed concurrently, and concurrent CREATE INDEX IF NOT EXISTS can still collide in H2
+    public static synchronized void createTables(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + VALUE_INDEX + " (" +
+                    "TOKEN VARCHAR(255) NOT NULL, " +
+                    "LIBRARY VARCHAR(255) NOT NULL, " +
+                    "REF VARCHAR(255) NOT NULL, " +
+                    "HITS INTEGER NOT NULL, " +
+                    "POSTINGS VARBINARY NOT NULL, " +
+                    "PRIMARY KEY (TOKEN, LIBRARY, REF))");
+            stmt.execute("CREATE INDEX IF NOT EXISTS IDX_" + VALUE_INDEX + "_FILE ON " + VALUE_INDEX + "(LIBRARY, REF)");
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + VALUE_INDEX_FILE + " (" +
+                    "LIBRARY VARCHAR(255) NOT NULL, " +
+                    "REF VARCHAR(255) NOT NULL, " +
+                    "HEADER TEXT NOT NULL, " +
+                    "PRIMARY KEY (LIBRARY, REF))");
+        }
+    }
+
+    /**
+     * Indexes one file of a library, header first, replacing its previous entries.
+     */
+    public static void writeFile(Connection conn, String library, String ref, List<String[]> rows) throws SQLException {
+        createTables(conn);
+
+        Map<String, Postings> postings = new HashMap<>();
+        Set<String> cellTokens = new LinkedHashSet<>();
+        for (int r = 1; r < rows.size(); r++) {
+            String[] row = rows.get(r);
+            for (int c = 0; c < row.length; c++) {
+                cellTokens.clear();
+                tokens(row[c], cellTokens);
+                for (String token : cellTokens) {
+                    postings.computeIfAbsent(token, k -> new Postings()).add(r, c);
+                }
+            }
+        }
+
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            removeFile(conn, library, ref);
+            insertPostings(conn, library, ref, rows.getFirst(), postings);
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static void insertPostings(Connection conn, String library, String ref, String[] header, Map<String, Postings> postings) throws SQLException {
+        String sql = "INSERT INTO " + VALUE_INDEX + " (TOKEN, LIBRARY, REF, HITS, POSTINGS) VALUES (?, ?, ?, ?, ?)";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            int count = 0;
+            for (Map.Entry<String, Postings> entry : postings.entrySet()) {
+                ps.setString(1, entry.getKey());
+                ps.setString(2, library);
+                ps.setString(3, ref);
+                ps.setInt(4, entry.getValue().hits);
+                ps.setBytes(5, entry.getValue().toBytes());
+                ps.addBatch();
+                if (++count % BATCH_SIZE == 0) ps.executeBatch();
+            }
+            ps.executeBatch();
+        }
+
+        try (PreparedStatement ps = conn.prepareStatement("MERGE INTO " + VALUE_INDEX_FILE + " (LIBRARY, REF, HEADER) KEY(LIBRARY, REF) VALUES (?, ?, ?)")) {
+            ps.setString(1, library);
+            ps.setString(2, ref);
+            ps.setString(3, String.join("\t", header));
+            ps.executeUpdate();
+        }
+    }
+
+    public static void removeFile(Connection conn, String library, String ref) throws SQLException {
+        if (!SqlUtil.tableExists(conn, VALUE_INDEX)) return;
+
+        for (String table : List.of(VALUE_INDEX, VALUE_INDEX_FILE)) {
+            try (PreparedStatement ps = conn.prepareStatement("DELETE FROM " + table + " WHERE LIBRARY = ? AND REF = ?")) {
+                ps.setString(1, library);
+                ps.setString(2, ref);
+                ps.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * Finds every indexed cell whose value, or one of whose words, equals the query, ignoring case. Hits are
+     * ordered by library, ref, row and column.
+     */
+    public static List<SearchHit> search(Connection conn, String query) throws SQLException {
+        List<SearchHit> hits = new ArrayList<>();
+        String text = query == null ? "" : query.trim().toLowerCase(Locale.ROOT);
+        if (text.isEmpty() || !SqlUtil.tableExists(conn, VALUE_INDEX)) return hits;
+        String token = token(text);
+
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT i.LIBRARY, i.REF, i.POSTINGS, f.HEADER FROM " + VALUE_INDEX + " i " +
+                        "LEFT JOIN " + VALUE_INDEX_FILE + " f ON f.LIBRARY = i.LIBRARY AND f.REF = i.REF " +
+                        "WHERE i.TOKEN = ? ORDER BY i.LIBRARY, i.REF")) {
+            ps.setString(1, token);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    String library = rs.getString(1);
+                    String ref = rs.getString(2);
+                    String[] header = rs.getString(4) == null ? new String[0] : rs.getString(4).split("\t", -1);
+                    decode(library, ref, rs.getBytes(3), header, hits);
+                }
+            }
+        }
+
+        hits.sort(Comparator.comparing(SearchHit::library)
+                .thenComparing(SearchHit::ref)
+                .thenComparingInt(SearchHit::row)
+                .thenComparingInt(SearchHit::column));
+        return hits;
+    }
+
+    private static void tokens(String value, Set<String> tokens) {
+        if (value == null) return;
+
+        String whole = value.trim().toLowerCase(Locale.ROOT);
+        if (whole.isEmpty()) return;
+        tokens.add(token(whole));
+
+        for (String word : whole.split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) tokens.add(token(word));
+        }
+    }
+
+    // Text too long for TOKEN keeps its start, cut before a surrogate pair is split, and a hash of all of it
+    private static String token(String text) {
+        if (text.length() <= MAX_TOKEN_LENGTH) return text;
+
+        int cut = MAX_TOKEN_LENGTH - HASH_LENGTH - 1;
+        if (Character.isHighSurrogate(text.charAt(cut - 1))) cut--;
+        return text.substring(0, cut) + "#" + HashUtil.sha1Hex(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void decode(String library, String ref, byte[] bytes, String[] header, List<SearchHit> hits) {
+        int[] pos = {0};
+        int row = 0;
+        while (pos[0] < bytes.length) {
+            row += readVarint(bytes, pos);
+            int column = readVarint(bytes, pos);
+            hits.add(new SearchHit(library, ref, row, column, column < header.length ? header[column] : null));
+        }
+    }
+
+    private static int readVarint(byte[] bytes, int[] pos) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes[pos[0]++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * Growable postings list; cells must be added in row order.
+     */
+    private static class Postings {
+        private byte[] bytes = new byte[8];
+        private int length;
+        private int lastRow;
+        private int hits;
+
+        void add(int row, int column) {
+            writeVarint(row - lastRow);
+            writeVarint(column);
+            lastRow = row;
+            hits++;
+        }
+
+        byte[] toBytes() {
+            return Arrays.copyOf(bytes, length);
+        }
+
+        private void writeVarint(int value) {
+            if (length + 5 > bytes.length) bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            while ((value & ~0x7F) != 0) {
+                bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+    }
+}
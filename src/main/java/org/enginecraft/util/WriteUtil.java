@@ -1,13 +1,31 @@
 package org.enginecraft.util;
 
 import org.enginecraft.objects.DataDictionary;
+import org.enginecraft.objects.TextFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.CompletableFuture;
 
 public class WriteUtil {
+    private static final Logger log = LoggerFactory.getLogger(WriteUtil.class);
+
+    private static final int EXPORT_BUFFER_SIZE = 1 << 20;
+
     public static void writeFile(Path outputPath, DataDictionary dict) throws IOException {
         if (dict == null || dict.data.isEmpty()) return;
 
@@ -26,4 +44,131 @@ public class WriteUtil {
             writer.write(data);
         }
     }
+
+    /**
+     * Exports every file of a stored library back to text under {@code outputDir}, laid out by ref, from whichever
+     * layout it was stored in. Files are written the way they were read, lines whose cell count did not match the
+     * header included. Tables of the per-file layout are each streamed in ROW_INDEX order straight into a file
+     * channel, concurrently on the scheduler's virtual threads, each on its own connection. Returns the number of
+     * files written.
+     */
+    public static int exportLibrary(String library, Path outputDir) throws Exception {
+        Map<String, String> tables;
+        Map<String, TextFormat> sharedFormats;
+        try (Connection conn = SqlUtil.getConnection()) {
+            tables = CatalogUtil.readLibraryTables(conn).get(library);
+            sharedFormats = tables == null ? RowStoreUtil.readFormats(conn, library) : Map.of();
+        }
+        if (tables == null && sharedFormats.isEmpty()) throw new Exception("Library '" + library + "' is not stored in either layout");
+        if (tables == null) return exportShared(library, outputDir, sharedFormats);
+
+        List<String> failures = new ArrayList<>();
+        long written = tables.entrySet()
+                .stream()
+                .map(entry -> CompletableFuture.supplyAsync(() -> {
+                    try {
+                        exportTable(library, entry.getKey(), entry.getValue(), outputDir.resolve(entry.getKey()));
+                        return true;
+                    } catch (Exception e) {
+                        log.error("An error occurred exporting '{}' from '{}': {}", entry.getKey(), entry.getValue(), e.getMessage());
+                        synchronized (failures) {
+                            failures.add(entry.getKey());
+                        }
+                        return false;
+                    }
+                }, SchedulerUtil.io()))
+                .toList()
+                .stream()
+                .filter(CompletableFuture::join)
+                .count();
+
+        if (!failures.isEmpty()) throw new Exception("Failed to export " + failures.size() + " files of '" + library + "': " + failures);
+
+        log.info("Exported {} files of {} to {}", written, library, outputDir);
+        return (int) written;
+    }
+
+    /**
+     * Exports a library from the shared row store, read with one query over the store like any other read of it.
+     */
+    private static int exportShared(String library, Path outputDir, Map<String, TextFormat> formats) throws Exception {
+        try (Connection conn = SqlUtil.getConnection()) {
+            List<DataDictionary> files = RowStoreUtil.readLibrary(conn, library);
+            for (DataDictionary dict : files) {
+                SortedMap<Integer, String> dropped = CatalogUtil.readDroppedRows(conn, library, dict.getRef());
+                writeRows(outputDir.resolve(dict.getRef()), formats.getOrDefault(dict.getRef(), TextFormat.DEFAULT), dropped, handler -> {
+                    for (String[] row : dict.getData()) handler.accept(row);
+                });
+            }
+            log.info("Exported {} files of {} to {}", files.size(), library, outputDir);
+            return files.size();
+        }
+    }
+
+    @FunctionalInterface
+    private interface RowSource {
+        void read(CatalogUtil.RowHandler handler) throws IOException, SQLException;
+    }
+
+    /**
+     * Writes one table back as its file: the header as it was read, and the text in the charset, byte order mark
+     * and line separator the file was read with.
+     */
+    private static void exportTable(String library, String ref, String tableName, Path outputPath) throws IOException, SQLException {
+        try (Connection conn = SqlUtil.getConnection()) {
+            TextFormat format = CatalogUtil.readFormat(conn, tableName);
+            SortedMap<Integer, String> dropped = CatalogUtil.readDroppedRows(conn, library, ref);
+            writeRows(outputPath, format, dropped, handler -> CatalogUtil.readTable(conn, tableName, handler));
+        }
+    }
+
+    // Rows go out in order, with each line dropped at ingest put back at its line index
+    private static void writeRows(Path outputPath, TextFormat format, SortedMap<Integer, String> dropped, RowSource rows) throws IOException, SQLException {
+        Files.createDirectories(outputPath.getParent());
+        try (FileChannel channel = FileChannel.open(outputPath,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(EXPORT_BUFFER_SIZE);
+            if (format.bom()) buffer.put(CharsetUtil.bom(format.charset()));
+            StringBuilder line = new StringBuilder();
+            int[] lineIndex = {0};
+
+            rows.read(row -> {
+                while (!dropped.isEmpty() && dropped.firstKey() == lineIndex[0]) {
+                    line.setLength(0);
+                    writeLine(channel, buffer, line.append(dropped.remove(dropped.firstKey())).append(format.lineSeparator()), format.charset());
+                    lineIndex[0]++;
+                }
+
+                line.setLength(0);
+                for (int i = 0; i < row.length; i++) {
+                    if (i > 0) line.append('\t');
+                    line.append(row[i]);
+                }
+                writeLine(channel, buffer, line.append(format.lineSeparator()), format.charset());
+                lineIndex[0]++;
+            });
+            for (String rest : dropped.values()) {
+                line.setLength(0);
+                writeLine(channel, buffer, line.append(rest).append(format.lineSeparator()), format.charset());
+            }
+
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+        }
+    }
+
+    private static void writeLine(FileChannel channel, ByteBuffer buffer, StringBuilder line, Charset charset) throws IOException {
+        byte[] bytes = line.toString().getBytes(charset);
+        if (bytes.length > buffer.remaining()) {
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+
+        if (bytes.length > buffer.capacity()) {
+            channel.write(ByteBuffer.wrap(bytes));
+        } else {
+            buffer.put(bytes);
+        }
+    }
 }
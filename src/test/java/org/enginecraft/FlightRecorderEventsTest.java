@@ -0,0 +1,78 @@
+package org.enginecraft;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.enginecraft.objects.PersistenceMode;
+import org.enginecraft.service.LibraryService;
+import org.enginecraft.util.HtmlReportUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.enginecraft.TestLibraries.EXCEL;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FlightRecorderEventsTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void recordsEveryStageOfAComparison() throws Exception {
+        StringBuilder a = new StringBuilder("Name\tCost\n");
+        StringBuilder b = new StringBuilder("Name\tCost\n");
+        for (int i = 0; i < 150; i++) {
+            a.append("Jfr").append(i).append('\t').append(i).append('\n');
+            b.append("Jfr").append(i).append('\t').append(i + 1).append('\n');
+        }
+
+        Path recorded = dir.resolve("run.jfr");
+        try (Recording recording = new Recording()) {
+            for (String name : List.of("FileLoad", "BatchFlush", "FileCompare", "SubReportWrite")) {
+                recording.enable("org.enginecraft." + name).withThreshold(Duration.ZERO);
+            }
+            recording.start();
+
+            LibraryService libA = new LibraryService("Jfr_A", TestLibraries.writeExcel(dir.resolve("a"), Map.of("weapons.txt", a.toString())), PersistenceMode.SYNC);
+            LibraryService libB = TestLibraries.load(dir, "Jfr_B", Map.of("weapons.txt", b.toString()));
+            HtmlReportUtil.generate(dir.resolve("report"), "jfr", libA.compareTo(libB));
+            libA.close();
+
+            recording.stop();
+            recording.dump(recorded);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(recorded);
+
+        RecordedEvent load = single(events, "org.enginecraft.FileLoad", "library", "Jfr_A");
+        assertEquals(EXCEL + "weapons.txt", load.getString("ref"));
+        assertEquals(150, load.getInt("rows"));
+        assertEquals(2, load.getInt("columns"));
+
+        assertEquals(150, events.stream()
+                .filter(e -> e.getEventType().getName().equals("org.enginecraft.BatchFlush") && "Jfr_A".equals(e.getString("library")))
+                .mapToInt(e -> e.getInt("rows"))
+                .sum());
+
+        RecordedEvent compare = single(events, "org.enginecraft.FileCompare", "libraryA", "Jfr_A");
+        assertEquals("Jfr_B", compare.getString("libraryB"));
+        assertEquals(150, compare.getInt("rowsA"));
+        assertEquals(150, compare.getInt("differences"));
+
+        RecordedEvent subReport = single(events, "org.enginecraft.SubReportWrite", "report", "jfr");
+        assertEquals(EXCEL + "weapons.txt", subReport.getString("ref"));
+        assertEquals(150, subReport.getInt("differences"));
+    }
+
+    private static RecordedEvent single(List<RecordedEvent> events, String type, String field, String value) {
+        List<RecordedEvent> matching = events.stream()
+                .filter(e -> e.getEventType().getName().equals(type) && value.equals(e.getString(field)))
+                .toList();
+        assertEquals(1, matching.size(), type);
+        return matching.getFirst();
+    }
+}
@@ -0,0 +1,77 @@
+package org.enginecraft;
+
+import org.enginecraft.objects.DataDictionary;
+import org.enginecraft.objects.PersistenceMode;
+import org.enginecraft.service.LibraryService;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Builds libraries for tests as folders of excel files, and compares them.
+ */
+public class TestLibraries {
+    public static final String EXCEL = "data/global/excel/";
+
+    /**
+     * Writes files under a root folder, keyed by their path relative to it.
+     */
+    public static Path write(Path root, Map<String, byte[]> files) throws IOException {
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            Path path = root.resolve(file.getKey());
+            Files.createDirectories(path.getParent());
+            Files.write(path, file.getValue());
+        }
+        return root;
+    }
+
+    /**
+     * Writes UTF-8 excel files, keyed by file name, into the excel folder under a root folder.
+     */
+    public static Path writeExcel(Path root, Map<String, String> files) throws IOException {
+        Map<String, byte[]> bytes = new LinkedHashMap<>();
+        files.forEach((file, text) -> bytes.put(EXCEL + file, text.getBytes(StandardCharsets.UTF_8)));
+        return write(root, bytes);
+    }
+
+    /**
+     * Writes the excel files into a folder named after the library under {@code dir} and loads it in memory only.
+     */
+    public static LibraryService load(Path dir, String name, Map<String, String> files) throws Exception {
+        return new LibraryService(name, writeExcel(dir.resolve(name), files), PersistenceMode.NONE);
+    }
+
+    /**
+     * Rows of every file of a library by ref.
+     */
+    public static Map<String, List<String[]>> files(LibraryService library) {
+        Map<String, List<String[]>> files = new TreeMap<>();
+        for (DataDictionary dict : library.getLibrary()) files.put(dict.getRef(), dict.getData());
+        return files;
+    }
+
+    public static void assertSameContent(LibraryService expected, LibraryService actual) {
+        assertSameRows(files(expected), files(actual));
+    }
+
+    public static void assertSameRows(Map<String, List<String[]>> expected, Map<String, List<String[]>> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, List<String[]>> file : expected.entrySet()) {
+            assertSameRows(file.getValue(), actual.get(file.getKey()), file.getKey());
+        }
+    }
+
+    public static void assertSameRows(List<String[]> expected, List<String[]> actual, String message) {
+        assertEquals(expected.size(), actual.size(), message);
+        for (int i = 0; i < expected.size(); i++) assertArrayEquals(expected.get(i), actual.get(i), message + " row " + i);
+    }
+}
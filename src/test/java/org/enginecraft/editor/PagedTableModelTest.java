@@ -0,0 +1,210 @@
+package org.enginecraft.editor;
+
+import org.enginecraft.util.SqlUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PagedTableModelTest {
+    private static final String TABLE = "PAGED_TEST";
+    private static final int NAME = 0;
+    private static final int COST = 1;
+
+    private PagedTableModel model;
+
+    @BeforeEach
+    void createTable() throws Exception {
+        try (Connection conn = SqlUtil.getConnection(); Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS " + TABLE);
+            stmt.execute("CREATE TABLE " + TABLE + " (ROW_INDEX INTEGER, PATH VARCHAR, \"Name\" VARCHAR, " +
+                    "\"Cost\" INTEGER, \"Cost__TEXT\" VARCHAR, PRIMARY KEY (ROW_INDEX, PATH))");
+            for (int i = 1; i <= 6; i++) {
+                stmt.execute("INSERT INTO " + TABLE + " VALUES (" + i + ", 'weapons.txt', 'Item" + i + "', " + i * 10 + ", NULL)");
+            }
+        }
+        // Two rows a page and a single page cached, so loading another page evicts the last
+        model = new PagedTableModel(TABLE, 2, 1);
+    }
+
+    @AfterEach
+    void cancel() {
+        model.cancel();
+    }
+
+    @Test
+    void keepsTheMostRecentlyUsedPages() throws Exception {
+        PagedTableModel cached = new PagedTableModel(TABLE, 2, 2);
+        try {
+            assertEquals(6, cached.getRowCount());
+            assertEquals(3, cached.getPageCount());
+            for (int page = 0; page < 2; page++) cached.putPage(page, cached.fetchPage(page), cached.getSaveCount());
+
+            // Reading page 0 makes page 1 the least recently used, the one loading page 2 evicts
+            assertEquals("Item1", cached.getValueAt(0, NAME));
+            cached.putPage(2, cached.fetchPage(2), cached.getSaveCount());
+            assertTrue(cached.isPageCached(0));
+            assertFalse(cached.isPageCached(1));
+            assertTrue(cached.isPageCached(2));
+            assertEquals(4, cached.getCachedRows().size());
+        } finally {
+            cached.cancel();
+        }
+    }
+
+    @Test
+    void typedColumnsShowAndTakeTheirText() throws Exception {
+        try (Connection conn = SqlUtil.getConnection(); Statement stmt = conn.createStatement()) {
+            stmt.execute("UPDATE " + TABLE + " SET \"Cost__TEXT\" = '010' WHERE ROW_INDEX = 1");
+        }
+        PagedTableModel typed = new PagedTableModel(TABLE, 2, 1);
+        try {
+            // ROW_INDEX, PATH and the text side column are hidden
+            assertEquals(2, typed.getColumnCount());
+            assertEquals("Cost", typed.getColumnName(COST));
+
+            typed.putPage(0, typed.fetchPage(0), typed.getSaveCount());
+            assertEquals("010", typed.getValueAt(0, COST));
+            assertEquals(20, typed.getValueAt(1, COST));
+
+            typed.setValueAt("012", 1, COST);
+            typed.setValueAt("12", 0, COST);
+            assertEquals("012", typed.getValueAt(1, COST));
+            assertEquals(12, typed.getValueAt(0, COST));
+
+            Map<Integer, Object> row1 = typed.getDirtyCells().get(1).values();
+            assertEquals(12, row1.get(3));
+            assertEquals("012", row1.get(4));
+            Map<Integer, Object> row0 = typed.getDirtyCells().get(0).values();
+            assertEquals(12, row0.get(3));
+            assertTrue(row0.containsKey(4));
+            assertNull(row0.get(4));
+        } finally {
+            typed.cancel();
+        }
+    }
+
+    @Test
+    void cancelledModelsStopLoading() throws Exception {
+        put(0);
+        Object[][] page = model.fetchPage(1);
+        model.cancel();
+
+        model.putPage(1, page, model.getSaveCount());
+        assertFalse(model.isPageCached(1));
+        assertTrue(model.isCancelled());
+        assertThrows(SQLException.class, () -> model.fetchPage(1));
+        // Rows already cached stay readable
+        assertEquals("Item1", model.getValueAt(0, NAME));
+    }
+
+    @Test
+    void savedRowsShowTheirNewValuesAfterTheirPageWasReloaded() throws Exception {
+        put(0);
+        model.setValueAt("Edited", 0, NAME);
+        put(1);
+        assertFalse(model.isPageCached(0));
+
+        // Reloaded before the save, the page holds the stored value but the edit still shows
+        put(0);
+        assertEquals("Edited", model.getValueAt(0, NAME));
+
+        save(model.getDirtyCells());
+        assertEquals(0, model.getDirtyCellCount());
+        assertEquals("Edited", model.getValueAt(0, NAME));
+    }
+
+    @Test
+    void pagesReadBeforeASaveAreDropped() throws Exception {
+        put(0);
+        model.setValueAt("Edited", 0, NAME);
+        put(1);
+
+        int savesBefore = model.getSaveCount();
+        Object[][] stale = model.fetchPage(0);
+        save(model.getDirtyCells());
+        model.putPage(0, stale, savesBefore);
+
+        assertFalse(model.isPageCached(0));
+        put(0);
+        assertEquals("Edited", model.getValueAt(0, NAME));
+    }
+
+    @Test
+    void editsOfRowsNotLoadedYetAreQueued() throws Exception {
+        model.setValueAt("Queued", 4, NAME);
+        assertEquals("Queued", model.getValueAt(4, NAME));
+        assertEquals(1, model.getDirtyCellCount());
+        assertTrue(model.getDirtyCells().isEmpty());
+
+        put(2);
+        assertEquals("Queued", model.getValueAt(4, NAME));
+        assertEquals("Item6", model.getValueAt(5, NAME));
+        assertEquals(Map.of(2, "Queued"), model.getDirtyCells().get(4).values());
+    }
+
+    @Test
+    void sortedPagesFollowTheColumnWithEmptyCellsFirst() throws Exception {
+        // Ties, empty cells and several paths sharing row indexes, across page boundaries
+        try (Connection conn = SqlUtil.getConnection(); Statement stmt = conn.createStatement()) {
+            stmt.execute("UPDATE " + TABLE + " SET \"Cost\" = 30 WHERE ROW_INDEX IN (2, 5)");
+            stmt.execute("UPDATE " + TABLE + " SET \"Cost\" = NULL WHERE ROW_INDEX = 4");
+            stmt.execute("INSERT INTO " + TABLE + " VALUES (1, 'armor.txt', 'Cap', 30, NULL), (4, 'armor.txt', 'Helm', NULL, NULL)");
+        }
+
+        List<String> ascending = List.of("Helm", "Item4", "Item1", "Cap", "Item2", "Item3", "Item5", "Item6");
+        assertEquals(ascending, names(new PagedTableModel(TABLE, 2, 10, "Cost", true)));
+        assertEquals(ascending.reversed(), names(new PagedTableModel(TABLE, 2, 10, "Cost", false)));
+        assertEquals(ascending.stream().sorted().toList(), names(new PagedTableModel(TABLE, 3, 10, "Name", true)));
+        assertEquals(List.of("Cap", "Item1", "Item2", "Item3", "Helm", "Item4", "Item5", "Item6"), names(new PagedTableModel(TABLE, 3, 10, null, true)));
+    }
+
+    private static List<String> names(PagedTableModel sorted) throws Exception {
+        try {
+            List<String> names = new ArrayList<>();
+            for (int page = 0; page < sorted.getPageCount(); page++) {
+                sorted.putPage(page, sorted.fetchPage(page), sorted.getSaveCount());
+            }
+            for (int row = 0; row < sorted.getRowCount(); row++) names.add((String) sorted.getValueAt(row, NAME));
+            return names;
+        } finally {
+            sorted.cancel();
+        }
+    }
+
+    private void put(int page) throws Exception {
+        model.putPage(page, model.fetchPage(page), model.getSaveCount());
+    }
+
+    // What the editor does: write the changed cells by key, then mark them saved
+    private void save(Map<Integer, PagedTableModel.RowEdit> edits) throws Exception {
+        String[] columns = model.getRawColumnNames();
+        try (Connection conn = SqlUtil.getConnection()) {
+            for (PagedTableModel.RowEdit edit : edits.values()) {
+                for (Map.Entry<Integer, Object> cell : edit.values().entrySet()) {
+                    try (PreparedStatement ps = conn.prepareStatement("UPDATE " + TABLE + " SET \"" + columns[cell.getKey()]
+                            + "\" = ? WHERE ROW_INDEX = ? AND PATH = ?")) {
+                        ps.setObject(1, cell.getValue());
+                        ps.setObject(2, edit.rowIndex());
+                        ps.setObject(3, edit.path());
+                        ps.executeUpdate();
+                    }
+                }
+            }
+        }
+        model.markSaved(edits);
+    }
+}
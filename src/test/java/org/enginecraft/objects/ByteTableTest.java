@@ -0,0 +1,85 @@
+package org.enginecraft.objects;
+
+import org.enginecraft.util.CharsetUtil;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ByteTableTest {
+    @Test
+    void splitsEveryLineEndingAndKeepsEmptyCells() {
+        ByteTable table = ByteTable.parse(bytes("Name\tCost\t\r\nAxe\t\t1\rBow\t3\n\nLast\tline", StandardCharsets.US_ASCII));
+
+        assertEquals(5, table.rowCount());
+        assertArrayEquals(new String[]{"Name", "Cost", ""}, table.row(0));
+        assertArrayEquals(new String[]{"Axe", "", "1"}, table.row(1));
+        assertArrayEquals(new String[]{"Bow", "3"}, table.row(2));
+        assertArrayEquals(new String[]{""}, table.row(3));
+        assertArrayEquals(new String[]{"Last", "line"}, table.row(4));
+        assertTrue(table.isEmpty(1, 1));
+        assertTrue(table.isAscii());
+        assertEquals("Axe", table.asciiView().at(1, 0).toString());
+    }
+
+    @Test
+    void detectsTheCharsetAndFormatOfEachFile() {
+        String text = "Name\tText\r\nCafé\tÜber\r\n";
+
+        ByteTable utf8 = ByteTable.parse(bytes(text, StandardCharsets.UTF_8));
+        assertEquals(new TextFormat(StandardCharsets.UTF_8, false, "\r\n"), utf8.format());
+        assertEquals("Café", utf8.cell(1, 0));
+
+        ByteTable cp1252 = ByteTable.parse(bytes(text, CharsetUtil.WINDOWS_1252));
+        assertEquals(new TextFormat(CharsetUtil.WINDOWS_1252, false, "\r\n"), cp1252.format());
+        assertEquals("Über", cp1252.cell(1, 1));
+
+        for (Charset charset : new Charset[]{StandardCharsets.UTF_8, StandardCharsets.UTF_16LE, StandardCharsets.UTF_16BE}) {
+            ByteTable withBom = ByteTable.parse(withBom(text.replace("\r\n", "\n"), charset));
+            assertEquals(new TextFormat(charset, true, "\n"), withBom.format(), charset.name());
+            assertArrayEquals(new String[]{"Café", "Über"}, withBom.row(1), charset.name());
+        }
+    }
+
+    @Test
+    void mismatchFindsTheFirstDifferingColumn() {
+        ByteTable a = ByteTable.parse(bytes("Axe\t10\t1\tx\n", StandardCharsets.US_ASCII));
+        ByteTable b = ByteTable.parse(bytes("Axe\t10\t12\tx\n", StandardCharsets.US_ASCII));
+        ByteTable c = ByteTable.parse(bytes("Axe\t10\t1\ty\n", StandardCharsets.US_ASCII));
+
+        assertEquals(-1, a.mismatch(0, 0, a, 0));
+        assertEquals(2, a.mismatch(0, 0, b, 0));
+        assertEquals(2, b.mismatch(0, 0, a, 0));
+        assertEquals(3, a.mismatch(0, 0, c, 0));
+        assertEquals(3, a.mismatch(0, 3, c, 0));
+        assertEquals(-1, a.mismatch(0, 4, c, 0));
+    }
+
+    @Test
+    void sameBytesOnlyMeanSameTextInTheSameCharset() {
+        ByteTable ascii = ByteTable.parse(bytes("Axe\n", StandardCharsets.US_ASCII));
+        ByteTable utf8 = ByteTable.parse(bytes("Café\n", StandardCharsets.UTF_8));
+        ByteTable cp1252 = ByteTable.parse(bytes("Café\n", CharsetUtil.WINDOWS_1252));
+
+        assertTrue(ascii.sameDecoding(cp1252));
+        assertTrue(utf8.sameDecoding(ascii));
+        assertFalse(utf8.sameDecoding(cp1252));
+    }
+
+    private static byte[] bytes(String text, Charset charset) {
+        return text.getBytes(charset);
+    }
+
+    private static byte[] withBom(String text, Charset charset) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(CharsetUtil.bom(charset));
+        out.writeBytes(text.getBytes(charset));
+        return out.toByteArray();
+    }
+}
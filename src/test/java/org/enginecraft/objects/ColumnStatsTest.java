@@ -0,0 +1,57 @@
+package org.enginecraft.objects;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ColumnStatsTest {
+    @Test
+    void infersTheNarrowestTypeHoldingEveryValue() {
+        assertEquals(ColumnType.EMPTY, type());
+        assertEquals(ColumnType.EMPTY, type("", ""));
+        assertEquals(ColumnType.INTEGER, type("1", "", "-20", "+3", "010"));
+        assertEquals(ColumnType.INTEGER, type(String.valueOf(Integer.MAX_VALUE), String.valueOf(Integer.MIN_VALUE)));
+        assertEquals(ColumnType.BIGINT, type("1", "2147483648"));
+        assertEquals(ColumnType.BIGINT, type(String.valueOf(Long.MIN_VALUE)));
+        assertEquals(ColumnType.DECIMAL, type("1", "9223372036854775808"));
+        assertEquals(ColumnType.DECIMAL, type("1", "2.5", ".5"));
+        assertEquals(ColumnType.TEXT, type("1", "."));
+        assertEquals(ColumnType.TEXT, type("1", "-"));
+        assertEquals(ColumnType.TEXT, type("1.2.3"));
+        assertEquals(ColumnType.TEXT, type("10", "r01", "20"));
+    }
+
+    @Test
+    void countsLengthsAndEmptyCells() {
+        ColumnStats stats = stats("a", "", "abc", "", "abc");
+
+        ColumnProfile profile = stats.toProfile("lib", "data/global/excel/misc.txt");
+        assertEquals(3, profile.maxLength());
+        assertEquals(2, profile.emptyCount());
+        assertEquals(2, profile.distinctEstimate());
+        assertEquals(ColumnType.TEXT, profile.type());
+    }
+
+    @Test
+    void numericTypesCompareByValue() {
+        assertTrue(ColumnType.INTEGER.valuesEqual("10", "010"));
+        assertTrue(ColumnType.INTEGER.valuesEqual("+5", "5"));
+        assertTrue(ColumnType.DECIMAL.valuesEqual("2.50", "2.5"));
+        assertTrue(ColumnType.INTEGER.valuesEqual("", ""));
+        assertFalse(ColumnType.INTEGER.valuesEqual("10", "11"));
+        assertFalse(ColumnType.INTEGER.valuesEqual("", "0"));
+        assertFalse(ColumnType.INTEGER.valuesEqual("x", "10"));
+    }
+
+    private static ColumnType type(String... values) {
+        return stats(values).getType();
+    }
+
+    private static ColumnStats stats(String... values) {
+        ColumnStats stats = new ColumnStats(0, "Column");
+        for (String value : values) stats.accept(value);
+        return stats;
+    }
+}
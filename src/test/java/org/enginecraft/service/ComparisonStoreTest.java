@@ -0,0 +1,98 @@
+package org.enginecraft.service;
+
+import org.enginecraft.TestLibraries;
+import org.enginecraft.objects.Regression;
+import org.enginecraft.util.SqlUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.enginecraft.TestLibraries.EXCEL;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ComparisonStoreTest {
+    private static final String WEAPONS = "Name\tCost\tSpeed\nAxe\t10\t1\nBow\t3\t2\nClub\t5\t3\n";
+    private static final String ARMOR = "Name\tAc\nCap\t2\n";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void storingAgainOnlyRewritesTheRefsThatChanged() throws Exception {
+        LibraryService mod = TestLibraries.load(dir, "Store_Mod", Map.of("weapons.txt", WEAPONS, "armor.txt", ARMOR));
+
+        try (ComparisonStore store = new ComparisonStore()) {
+            assertFalse(store.contains("Store_Mod", "Store_Vanilla"));
+            assertEquals(2, store.store(mod.compareTo(vanilla("v1", "Name\tCost\tSpeed\nAxe\t12\t1\nBow\t3\t2\nClub\t5\t3\n", "Name\tAc\nCap\t3\n"))));
+            assertTrue(store.contains("Store_Mod", "Store_Vanilla"));
+            assertEquals(0, store.store(mod.compareTo(vanilla("v2", "Name\tCost\tSpeed\nAxe\t12\t1\nBow\t3\t2\nClub\t5\t3\n", "Name\tAc\nCap\t3\n"))));
+            assertEquals(1, store.store(mod.compareTo(vanilla("v3", "Name\tCost\tSpeed\nAxe\t14\t1\nBow\t3\t2\nClub\t5\t3\n", "Name\tAc\nCap\t3\n"))));
+            assertEquals(Map.of(EXCEL + "armor.txt", 1, EXCEL + "weapons.txt", 1), storedRefs());
+
+            // A ref without differences any more is dropped
+            assertEquals(1, store.store(mod.compareTo(vanilla("v4", "Name\tCost\tSpeed\nAxe\t14\t1\nBow\t3\t2\nClub\t5\t3\n", ARMOR))));
+            assertEquals(Map.of(EXCEL + "weapons.txt", 1), storedRefs());
+        }
+    }
+
+    @Test
+    void regressionsAreKeyedByRowAndColumnRatherThanPosition() throws Exception {
+        LibraryService mod = TestLibraries.load(dir, "Regress_Mod", Map.of("weapons.txt", WEAPONS, "armor.txt", ARMOR));
+        LibraryService before = TestLibraries.load(dir, "Regress_Before", Map.of(
+                "weapons.txt", "Name\tCost\tSpeed\nAxe\t12\t1\nBow\t3\t2\nClub\t6\t3\nDagger\t1\t1\n",
+                "armor.txt", "Name\tAc\nCap\t3\n"));
+        // Rows moved, Axe still differs the same way, armor unchanged
+        LibraryService after = TestLibraries.load(dir, "Regress_After", Map.of(
+                "weapons.txt", "Name\tCost\tSpeed\nClub\t7\t3\nBow\t4\t2\nAxe\t12\t1\n",
+                "armor.txt", "Name\tAc\nCap\t3\n"));
+
+        try (ComparisonStore store = new ComparisonStore()) {
+            store.store(mod.compareTo(before));
+            store.store(mod.compareTo(after));
+
+            List<Regression> regressions = store.regressions("Regress_Mod", "Regress_Before", "Regress_Mod", "Regress_After");
+            assertEquals(List.of(
+                    "APPEARED MISMATCH weapons.txt [Bow|Cost] null/null -> 3/4",
+                    "CHANGED MISMATCH weapons.txt [Club|Cost] 5/6 -> 5/7",
+                    "DISAPPEARED UNKNOWN weapons.txt [Dagger|] null/Dagger -> null/null"
+            ), regressions.stream().map(ComparisonStoreTest::describe).toList());
+        }
+    }
+
+    @Test
+    void comparisonsThatWereNeverStoredAreReported() throws Exception {
+        try (ComparisonStore store = new ComparisonStore()) {
+            Exception e = assertThrows(Exception.class, () -> store.regressions("Regress_None", "A", "Regress_None", "B"));
+            assertEquals("No stored comparison of 'Regress_None' and 'A'", e.getMessage());
+        }
+    }
+
+    private LibraryService vanilla(String version, String weapons, String armor) throws Exception {
+        return TestLibraries.load(dir.resolve(version), "Store_Vanilla", Map.of("weapons.txt", weapons, "armor.txt", armor));
+    }
+
+    private static Map<String, Integer> storedRefs() throws Exception {
+        String sql = "SELECT r.REF, r.DIFF_COUNT FROM " + ComparisonStore.COMPARISON_REF + " r JOIN " + ComparisonStore.COMPARISON
+                + " c ON c.COMPARISON_ID = r.COMPARISON_ID WHERE c.LIB_A = 'Store_Mod' AND c.LIB_B = 'Store_Vanilla'";
+        Map<String, Integer> refs = new TreeMap<>();
+        try (Connection conn = SqlUtil.getConnection(); PreparedStatement ps = conn.prepareStatement(sql); ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) refs.put(rs.getString(1), rs.getInt(2));
+        }
+        return refs;
+    }
+
+    private static String describe(Regression r) {
+        return r.kind() + " " + r.type() + " " + r.ref().substring(EXCEL.length()) + " [" + r.rowKey() + "|" + r.column() + "] "
+                + r.beforeA() + "/" + r.beforeB() + " -> " + r.afterA() + "/" + r.afterB();
+    }
+}
@@ -0,0 +1,112 @@
+package org.enginecraft.service;
+
+import org.enginecraft.TestLibraries;
+import org.enginecraft.objects.CellChange;
+import org.enginecraft.objects.DifferenceType;
+import org.enginecraft.objects.PersistenceMode;
+import org.enginecraft.objects.StorageLayout;
+import org.enginecraft.util.SqlUtil;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+
+import static org.enginecraft.TestLibraries.EXCEL;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class HistoryServiceTest {
+    private static final String SKILLS = EXCEL + "skills.txt";
+
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    void dropHistory() throws Exception {
+        try (Connection conn = SqlUtil.getConnection(); Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS " + HistoryService.CELL_HISTORY);
+            stmt.execute("DROP TABLE IF EXISTS " + HistoryService.HISTORY_BUILD);
+        }
+    }
+
+    @Test
+    void recordsInWhichBuildsACellChanged() throws Exception {
+        try (HistoryService history = new HistoryService()) {
+            assertEquals(0, history.addBuild(build("B1", "Name\tMana\tLevel\nFire\t10\t1\nIce\t5\t1\n")));
+            // "010" is the same number, the comparison does not report it and neither does the history
+            assertEquals(0, history.addBuild(build("B2", "Name\tMana\tLevel\nFire\t010\t1\nIce\t5\t1\n")));
+            // Fire changes, Ice goes missing and Bolt appears
+            assertEquals(3, history.addBuild(build("B3", "Name\tMana\tLevel\nFire\t12\t1\nBolt\t3\t2\n")));
+            assertEquals(1, history.addBuild(build("B4", "Name\tMana\tLevel\nFire\t14\t1\nBolt\t3\t2\n")));
+
+            assertEquals(List.of("B1", "B2", "B3", "B4"), history.builds());
+            assertEquals(List.of("B3 010 -> 12", "B4 12 -> 14"), describe(history.cellHistory(SKILLS, "Fire", "Mana")));
+            assertEquals(List.of(), history.cellHistory(SKILLS, "Fire", "Level"));
+            assertEquals(List.of(DifferenceType.MISSING), history.rowHistory(SKILLS, "Ice").stream().map(CellChange::type).toList());
+        }
+    }
+
+    @Test
+    void columnsAreMatchedByNameWhenTheHeaderChanges() throws Exception {
+        try (HistoryService history = new HistoryService()) {
+            history.addBuild(build("H1", "Name\tMana\tLevel\nFire\t10\t1\n"));
+            history.addBuild(build("H2", "Name\tLevel\tMana\tRange\nFire\t1\t010\t5\n"));
+            history.addBuild(build("H3", "Name\tLevel\tMana\tRange\nFire\t2\t10\t5\n"));
+
+            assertEquals(List.of(), history.cellHistory(SKILLS, "Fire", "Mana"));
+            assertEquals(List.of("H3 1 -> 2"), describe(history.cellHistory(SKILLS, "Fire", "Level")));
+            assertEquals(List.of(DifferenceType.UNKNOWN), history.cellHistory(SKILLS, "", "Range").stream().map(CellChange::type).toList());
+        }
+    }
+
+    @Test
+    void keepsRowKeysLongerThanAnIndexColumn() throws Exception {
+        String key = "Skill".repeat(100);
+        try (HistoryService history = new HistoryService()) {
+            history.addBuild(build("L1", "Name\tMana\n" + key + "\t1\n"));
+            history.addBuild(build("L2", "Name\tMana\n" + key + "\t2\n"));
+
+            assertEquals(List.of("L2" + " 1 -> 2"), describe(history.cellHistory(SKILLS, key, "Mana")));
+        }
+    }
+
+    @Test
+    void historiesWithLimitedKeysAreWidened() throws Exception {
+        try (Connection conn = SqlUtil.getConnection(); Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE " + HistoryService.CELL_HISTORY + " (REF VARCHAR(255) NOT NULL, " +
+                    "ROW_KEY VARCHAR(255) NOT NULL, COLUMN_NAME VARCHAR(255) NOT NULL, BUILD_SEQ INTEGER NOT NULL, " +
+                    "CHANGE_TYPE VARCHAR(16) NOT NULL, OLD_VALUE TEXT, NEW_VALUE TEXT, " +
+                    "PRIMARY KEY (REF, ROW_KEY, COLUMN_NAME, BUILD_SEQ))");
+        }
+        keepsRowKeysLongerThanAnIndexColumn();
+    }
+
+    @Test
+    void previousBuildIsReadBackFromTheStoreInALaterSession() throws Exception {
+        for (StorageLayout layout : StorageLayout.values()) {
+            dropHistory();
+            try (HistoryService history = new HistoryService()) {
+                history.addBuild(stored("S1_" + layout, "Name\tMana\nFire\t10\n", layout));
+            }
+            try (HistoryService history = new HistoryService()) {
+                assertEquals(1, history.addBuild(build("S2_" + layout, "Name\tMana\nFire\t11\n")), layout.name());
+            }
+        }
+    }
+
+    private LibraryService build(String name, String skills) throws Exception {
+        return TestLibraries.load(dir, name, Map.of("skills.txt", skills));
+    }
+
+    private LibraryService stored(String name, String skills, StorageLayout layout) throws Exception {
+        return new LibraryService(name, TestLibraries.writeExcel(dir.resolve(name), Map.of("skills.txt", skills)), PersistenceMode.SYNC, layout);
+    }
+
+    private static List<String> describe(List<CellChange> changes) {
+        return changes.stream().map(c -> c.library() + " " + c.oldValue() + " -> " + c.newValue()).toList();
+    }
+}
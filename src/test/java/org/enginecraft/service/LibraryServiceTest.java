@@ -0,0 +1,134 @@
+package org.enginecraft.service;
+
+import org.enginecraft.TestLibraries;
+import org.enginecraft.objects.DataDictionary;
+import org.enginecraft.objects.Difference;
+import org.enginecraft.objects.PersistenceMode;
+import org.enginecraft.objects.SearchHit;
+import org.enginecraft.objects.StorageLayout;
+import org.enginecraft.util.CatalogUtil;
+import org.enginecraft.util.SqlUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.enginecraft.TestLibraries.EXCEL;
+import static org.enginecraft.TestLibraries.assertSameContent;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LibraryServiceTest {
+    private static final String WEAPONS = "Name\tCost\tCode\nAxe\t10\tx1\nBow\t3\t7\nClub\t5\t2\n";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void numericColumnsCompareByValue() throws Exception {
+        LibraryService a = TestLibraries.load(dir, "A", Map.of("weapons.txt", WEAPONS));
+        // Cost is numeric on both sides, Code is text in A as it holds "x1"
+        LibraryService b = TestLibraries.load(dir, "B", Map.of("weapons.txt", "Name\tCost\tCode\nAxe\t010\tx1\nBow\t4\t07\nClub\t+5\t2\n"));
+
+        for (LibraryService[] pair : new LibraryService[][]{{a, b}, {decoded(a), decoded(b)}}) {
+            List<Difference> differences = pair[0].compareFiles(pair[1]);
+
+            assertEquals(2, differences.size(), differences.toString());
+            assertEquals(List.of("3 -> 4", "7 -> 07"), differences.stream().map(d -> d.valueA() + " -> " + d.valueB()).sorted().toList());
+        }
+    }
+
+    @Test
+    void columnsNumericOnOneSideOnlyCompareAsText() throws Exception {
+        LibraryService a = TestLibraries.load(dir, "A", Map.of("weapons.txt", WEAPONS));
+        LibraryService b = TestLibraries.load(dir, "B", Map.of("weapons.txt", "Name\tCost\tCode\nAxe\t010\tx1\nBow\t3\t7\nClub\tn/a\t2\n"));
+
+        List<Difference> differences = a.compareFiles(b);
+
+        assertEquals(List.of("10 -> 010", "5 -> n/a"), differences.stream().map(d -> d.valueA() + " -> " + d.valueB()).sorted().toList());
+    }
+
+    @Test
+    void tablesStoredAsTextByOlderVersionsAreRecreated() throws Exception {
+        try (Connection conn = SqlUtil.getConnection(); Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE \"LEGACY_DATA_GLOBAL_EXCEL_WEAPONS\" (ROW_INDEX INTEGER NOT NULL, PATH VARCHAR(255), " +
+                    "\"Name\" TEXT, \"Cost\" TEXT, \"Code\" TEXT, PRIMARY KEY (ROW_INDEX, PATH))");
+            stmt.execute("INSERT INTO \"LEGACY_DATA_GLOBAL_EXCEL_WEAPONS\" VALUES (0, '" + EXCEL + "weapons.txt', 'Old', 'x', 'y')");
+        }
+
+        assertStoredAndReadBack("Legacy", WEAPONS);
+    }
+
+    @Test
+    void tablesAreRecreatedWhenAColumnTypeChanges() throws Exception {
+        assertStoredAndReadBack("Changing", WEAPONS);
+        // Cost turns from INTEGER into text, Code loses a column
+        assertStoredAndReadBack("Changing", "Name\tCost\nAxe\tten\nBow\t3\n");
+        assertStoredAndReadBack("Changing", WEAPONS);
+    }
+
+    @Test
+    void rowsBeyondAShorterFileAreRemoved() throws Exception {
+        assertStoredAndReadBack("Shrinking", WEAPONS);
+        assertStoredAndReadBack("Shrinking", "Name\tCost\tCode\nAxe\t10\tx1\n");
+    }
+
+    @Test
+    void everyPersistenceModeHoldsTheSameRows() throws Exception {
+        Path root = TestLibraries.writeExcel(dir.resolve("Modes"), Map.of("weapons.txt", WEAPONS + "ModesOnly\t\t\n", "armor.txt", "Name\tAc\nCap\t2\n"));
+        LibraryService memory = new LibraryService("Modes_Memory", root, PersistenceMode.NONE);
+
+        for (StorageLayout layout : StorageLayout.values()) {
+            for (PersistenceMode mode : List.of(PersistenceMode.SYNC, PersistenceMode.WRITE_BEHIND)) {
+                String name = "Modes_" + mode + "_" + layout;
+                try (LibraryService library = new LibraryService(name, root, mode, layout)) {
+                    assertSameContent(memory, library);
+                }
+                // Closing waits for the background writer, so the library is stored by then
+                assertSameContent(memory, new LibraryService(name, layout));
+                assertEquals(List.of(name), LibraryService.search("ModesOnly").stream()
+                        .map(SearchHit::library).filter(name::equals).distinct().toList(), name);
+            }
+        }
+    }
+
+    @Test
+    void librariesKeptInMemoryAreNotStored() throws Exception {
+        Path root = TestLibraries.writeExcel(dir.resolve("Memory"), Map.of("weapons.txt", "Name\tCost\nMemoryOnly\t1\n"));
+        for (StorageLayout layout : StorageLayout.values()) {
+            String name = "Memory_" + layout;
+            LibraryService library = new LibraryService(name, root, PersistenceMode.NONE, layout);
+            assertEquals(1, library.getLibrary().size());
+            library.close();
+
+            assertTrue(new LibraryService(name, layout).getLibrary().isEmpty(), name);
+        }
+        try (Connection conn = SqlUtil.getConnection()) {
+            assertTrue(CatalogUtil.readLibraryTables(conn).keySet().stream().noneMatch(name -> name.startsWith("Memory_")));
+        }
+        assertEquals(List.of(), LibraryService.search("MemoryOnly"));
+    }
+
+    private void assertStoredAndReadBack(String name, String weapons) throws Exception {
+        Path root = TestLibraries.writeExcel(dir.resolve(name), Map.of("weapons.txt", weapons));
+        LibraryService stored = new LibraryService(name, root, PersistenceMode.SYNC);
+        for (DataDictionary dict : stored.getLibrary()) assertNull(dict.getError(), dict.getRef());
+
+        assertSameContent(stored, new LibraryService(name, StorageLayout.TABLE_PER_FILE));
+    }
+
+    // The same library with every file's rows decoded into strings, compared cell by cell instead of on bytes
+    private static LibraryService decoded(LibraryService library) {
+        List<DataDictionary> dictionaries = new ArrayList<>();
+        for (DataDictionary dict : library.getLibrary()) {
+            dictionaries.add(new DataDictionary(dict.getRef(), new ArrayList<>(dict.getData()), null, dict.getTypes()));
+        }
+        return new LibraryService(library.getName() + "'", dictionaries);
+    }
+}
@@ -0,0 +1,94 @@
+package org.enginecraft.service;
+
+import org.enginecraft.TestLibraries;
+import org.enginecraft.objects.Difference;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.enginecraft.TestLibraries.EXCEL;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LibraryWatcherTest {
+    private static final String ARMOR = "Name\tAc\nCap\t2\n";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void keepsWatchingAfterAnUpdateFails() throws Exception {
+        LibraryService loaded = TestLibraries.load(dir, "watchBase", Map.of("weapons.txt", weapons(0), "armor.txt", ARMOR));
+        LibraryService base = new LibraryService("watchBase", loaded.getLibrary()) {
+            @Override
+            public List<Difference> compareRef(LibraryService lib, String ref) {
+                if (ref.endsWith("armor.txt")) throw new IllegalStateException("Comparison of " + ref + " failed");
+                return super.compareRef(lib, ref);
+            }
+        };
+        LibraryService mod = TestLibraries.load(dir, "watchMod", Map.of("weapons.txt", weapons(0), "armor.txt", ARMOR));
+        Path out = Files.createDirectories(dir.resolve("out"));
+
+        try (LibraryWatcher watcher = new LibraryWatcher(base, mod, dir.resolve("watchMod"), out, "watch", base.compareTo(mod))) {
+            Thread thread = Thread.ofVirtual().start(watcher);
+            try {
+                Files.writeString(dir.resolve("watchMod").resolve(EXCEL + "armor.txt"), "Name\tAc\nCap\t3\n");
+                Thread.sleep(500);
+                Files.writeString(dir.resolve("watchMod").resolve(EXCEL + "weapons.txt"), weapons(1));
+
+                await(() -> Files.exists(out.resolve("watch.html")));
+                assertTrue(thread.isAlive());
+            } finally {
+                watcher.close();
+                thread.join();
+            }
+        }
+    }
+
+    @Test
+    void refsOfAFailedUpdateAreReportedWithTheNext() throws Exception {
+        LibraryService base = TestLibraries.load(dir, "pendingBase", Map.of("weapons.txt", weapons(0), "armor.txt", ARMOR));
+        LibraryService mod = TestLibraries.load(dir, "pendingMod", Map.of("weapons.txt", weapons(0), "armor.txt", ARMOR));
+        // The report cannot be written while its folder is a file
+        Path out = Files.writeString(dir.resolve("out"), "");
+
+        try (LibraryWatcher watcher = new LibraryWatcher(base, mod, dir.resolve("pendingMod"), out, "pending", base.compareTo(mod))) {
+            Thread thread = Thread.ofVirtual().start(watcher);
+            try {
+                // Enough changed cells for weapons.txt to get a sub-report of its own
+                Files.writeString(dir.resolve("pendingMod").resolve(EXCEL + "weapons.txt"), weapons(1));
+                Thread.sleep(500);
+                Files.delete(out);
+                Files.createDirectories(out);
+                Files.writeString(dir.resolve("pendingMod").resolve(EXCEL + "armor.txt"), "Name\tAc\nCap\t3\n");
+
+                await(() -> Files.exists(out.resolve("pending.html")));
+                try (Stream<Path> files = Files.list(out)) {
+                    assertTrue(files.anyMatch(f -> f.getFileName().toString().startsWith("pending_" + EXCEL.replace('/', '_') + "weapons")));
+                }
+            } finally {
+                watcher.close();
+                thread.join();
+            }
+        }
+    }
+
+    private static String weapons(int offset) {
+        StringBuilder text = new StringBuilder("Name\tCost\n");
+        for (int i = 0; i < 150; i++) text.append("Item").append(i).append('\t').append(i + offset).append('\n');
+        return text.toString();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for the watcher");
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.enginecraft.service;
+
+import org.enginecraft.TestLibraries;
+import org.enginecraft.objects.PersistenceMode;
+import org.enginecraft.objects.StorageLayout;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.enginecraft.TestLibraries.assertSameContent;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LibraryWriterTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void flushWaitsForEveryQueuedJobInOrder() throws Exception {
+        List<Integer> ran = new CopyOnWriteArrayList<>();
+        try (LibraryWriter writer = new LibraryWriter("WriterOrder")) {
+            // More jobs than the queue holds, so submitting also waits on the writer
+            for (int i = 0; i < 40; i++) {
+                int job = i;
+                writer.submit("ref", conn -> {
+                    Thread.sleep(1);
+                    ran.add(job);
+                });
+            }
+            writer.flush();
+            assertEquals(40, ran.size());
+            assertEquals(ran.stream().sorted().toList(), ran);
+        }
+    }
+
+    @Test
+    void flushReportsTheFirstFailure() throws Exception {
+        LibraryWriter writer = new LibraryWriter("WriterFailure");
+        writer.submit("first.txt", conn -> {
+            throw new Exception("disk full");
+        });
+        writer.submit("second.txt", conn -> {
+            throw new Exception("still full");
+        });
+
+        Exception e = assertThrows(Exception.class, writer::flush);
+        assertTrue(e.getMessage().contains("disk full"), e.getMessage());
+        assertThrows(Exception.class, writer::close);
+    }
+
+    @Test
+    void closeStopsTheThreadAfterTheQueuedJobs() throws Exception {
+        List<Integer> ran = new CopyOnWriteArrayList<>();
+        LibraryWriter writer = new LibraryWriter("WriterClose");
+        for (int i = 0; i < 5; i++) {
+            int job = i;
+            writer.submit("ref", conn -> ran.add(job));
+        }
+        writer.close();
+
+        assertEquals(5, ran.size());
+        assertFalse(writerThreadAlive("WriterClose"));
+        assertThrows(IllegalStateException.class, () -> writer.submit("ref", conn -> ran.add(-1)));
+    }
+
+    @Test
+    void writeBehindLibrariesAreStoredOnceFlushed() throws Exception {
+        Map<String, String> files = Map.of("weapons.txt", "Name\tCost\nAxe\t10\nBow\t3\n", "armor.txt", "Name\tAc\nCap\t2\n");
+        Path root = TestLibraries.writeExcel(dir.resolve("lib"), files);
+
+        for (StorageLayout layout : StorageLayout.values()) {
+            String name = "WriteBehind_" + layout;
+            try (LibraryService library = new LibraryService(name, root, PersistenceMode.WRITE_BEHIND, layout)) {
+                library.flush();
+                assertSameContent(library, new LibraryService(name, layout));
+            }
+            assertFalse(writerThreadAlive(name));
+        }
+    }
+
+    private static boolean writerThreadAlive(String library) {
+        return Thread.getAllStackTraces().keySet().stream().anyMatch(t -> t.getName().equals("writer-" + library) && t.isAlive());
+    }
+}
@@ -0,0 +1,80 @@
+package org.enginecraft.service;
+
+import org.enginecraft.TestLibraries;
+import org.enginecraft.objects.Difference;
+import org.enginecraft.objects.DifferenceOverview;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardCoordinatorTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void everyRefBelongsToExactlyOneShard() {
+        List<String> refs = IntStream.range(0, 200).mapToObj(i -> TestLibraries.EXCEL + "file" + i + ".txt").toList();
+        int[] perShard = new int[4];
+        for (String ref : refs) {
+            List<Integer> shards = IntStream.range(0, 4).filter(shard -> ShardCoordinator.inShard(ref, shard, 4)).boxed().toList();
+            assertEquals(1, shards.size(), ref);
+            perShard[shards.getFirst()]++;
+        }
+        for (int count : perShard) assertTrue(count > 0);
+    }
+
+    @Test
+    void mergesTheWorkersIntoTheSameDifferencesAsOneProcess() throws Exception {
+        Path a = library("shardA", "Fire\t10", "axe", "Cap\t2");
+        Path b = library("shardB", "Fire\t12", "bow", "Cap\t3");
+
+        DifferenceOverview sharded = new ShardCoordinator(2, 256).compare("shardA", a, "shardB", b);
+
+        List<Difference> expected = TestLibraries.load(dir, "oneA", files("Fire\t10", "axe", "Cap\t2"))
+                .compareTo(TestLibraries.load(dir, "oneB", files("Fire\t12", "bow", "Cap\t3")))
+                .differences();
+        assertTrue(expected.size() >= 4);
+        assertEquals(describe(expected), describe(sharded.differences()));
+        assertEquals("shardA", sharded.libA());
+        assertEquals("shardB", sharded.libB());
+    }
+
+    @Test
+    void failsWhenAWorkerFails() throws Exception {
+        Path a = library("failA", "Fire\t10", "axe", "Cap\t2");
+
+        Exception e = assertThrows(Exception.class, () -> new ShardCoordinator(1, 256).compare("failA", a, "failB", dir.resolve("missing")));
+        assertTrue(e.getMessage().startsWith("Shard workers comparing failA and failB failed"), e.getMessage());
+    }
+
+    private Path library(String name, String skill, String weaponType, String armor) throws Exception {
+        return TestLibraries.writeExcel(dir.resolve(name), files(skill, weaponType, armor));
+    }
+
+    private static Map<String, String> files(String skill, String weaponType, String armor) {
+        Map<String, String> files = new HashMap<>();
+        files.put("skills.txt", "skill\tMana\n" + skill + "\n");
+        files.put("itemtypes.txt", "Name\tCode\nAxe\taxe\n");
+        files.put("weapons.txt", "name\ttype\tcode\nWeapon\t" + weaponType + "\twp\n");
+        files.put("armor.txt", "name\tAc\n" + armor + "\n");
+        files.put("misc.txt", "name\tcode\nKey\tkey\n");
+        return files;
+    }
+
+    // The merge keeps the order of the shards, the comparison in one process that of its parallel stream
+    private static List<String> describe(List<Difference> differences) {
+        return differences.stream()
+                .map(d -> d.type() + " " + d.ref() + " " + d.rIndex() + " " + d.cIndex() + " " + d.valueA() + " " + d.valueB())
+                .sorted()
+                .toList();
+    }
+}
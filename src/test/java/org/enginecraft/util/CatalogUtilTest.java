@@ -0,0 +1,100 @@
+package org.enginecraft.util;
+
+import org.enginecraft.TestLibraries;
+import org.enginecraft.objects.ColumnProfile;
+import org.enginecraft.objects.ColumnType;
+import org.enginecraft.objects.PersistenceMode;
+import org.enginecraft.objects.TextFormat;
+import org.enginecraft.service.LibraryService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.util.List;
+import java.util.Map;
+
+import static org.enginecraft.TestLibraries.EXCEL;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CatalogUtilTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void listsEveryStoredTableByLibraryAndRef() throws Exception {
+        store("Catalog_A", Map.of("weapons.txt", "Name\tCost\nAxe\t10\n", "armor.txt", "Name\tAc\nCap\t2\n"));
+        store("Catalog_B", Map.of("weapons.txt", "Name\tCost\nAxe\t12\n"));
+
+        try (Connection conn = SqlUtil.getConnection()) {
+            Map<String, Map<String, String>> libraries = CatalogUtil.readLibraryTables(conn);
+            assertEquals(List.of(EXCEL + "armor.txt", EXCEL + "weapons.txt"), List.copyOf(libraries.get("Catalog_A").keySet()));
+            assertEquals(List.of(EXCEL + "weapons.txt"), List.copyOf(libraries.get("Catalog_B").keySet()));
+
+            // Each library has tables of its own, and they exist
+            String tableA = libraries.get("Catalog_A").get(EXCEL + "weapons.txt");
+            String tableB = libraries.get("Catalog_B").get(EXCEL + "weapons.txt");
+            assertNotEquals(tableA, tableB);
+            assertTrue(SqlUtil.tableExists(conn, tableA));
+            assertTrue(SqlUtil.tableExists(conn, tableB));
+        }
+    }
+
+    @Test
+    void profilesColumnsAndKeepsTheFileAsItWasRead() throws Exception {
+        Path root = TestLibraries.write(dir.resolve("Catalog_Profile"), Map.of(EXCEL + "weapons.txt",
+                "Name \tCost\tSpeed\tNote\r\nAxe\t010\t-5\t\r\nBow\t3000000000\t1.5\t\r\nAxe\t7\t2\tx\r\n".getBytes(StandardCharsets.ISO_8859_1)));
+        new LibraryService("Catalog_Profile", root, PersistenceMode.SYNC).close();
+
+        try (Connection conn = SqlUtil.getConnection()) {
+            String table = CatalogUtil.readLibraryTables(conn).get("Catalog_Profile").get(EXCEL + "weapons.txt");
+
+            Map<String, ColumnProfile> profiles = CatalogUtil.readColumnStats(conn, table);
+            assertEquals(List.of("Name", "Cost", "Speed", "Note"), List.copyOf(profiles.keySet()));
+            assertEquals(ColumnType.TEXT, profiles.get("Name").type());
+            assertEquals(ColumnType.BIGINT, profiles.get("Cost").type());
+            assertEquals(ColumnType.DECIMAL, profiles.get("Speed").type());
+            assertEquals(2, profiles.get("Note").emptyCount());
+            assertEquals(10, profiles.get("Cost").maxLength());
+            assertEquals(2, profiles.get("Name").distinctEstimate());
+
+            assertEquals("\r\n", CatalogUtil.readFormat(conn, table).lineSeparator());
+            TestLibraries.assertSameRows(List.of(
+                    new String[]{"Name ", "Cost", "Speed", "Note"},
+                    new String[]{"Axe", "010", "-5", ""},
+                    new String[]{"Bow", "3000000000", "1.5", ""},
+                    new String[]{"Axe", "7", "2", "x"}
+            ), CatalogUtil.readLibrary(conn, "Catalog_Profile").getFirst().getData(), table);
+        }
+    }
+
+    @Test
+    void reloadedAndDeletedFilesReplaceTheirEntries() throws Exception {
+        Path root = TestLibraries.writeExcel(dir.resolve("Catalog_Reload"), Map.of("weapons.txt", "Name\tCost\nAxe\t10\n", "armor.txt", "Name\tAc\nCap\t2\n"));
+        try (LibraryService library = new LibraryService("Catalog_Reload", root, PersistenceMode.SYNC)) {
+            Path weapons = root.resolve(EXCEL + "weapons.txt");
+            Files.writeString(weapons, "Name\tCost\tLevel\nAxe\t10\t3\n");
+            library.reloadFile(EXCEL + "weapons.txt", weapons);
+            Path armor = root.resolve(EXCEL + "armor.txt");
+            Files.delete(armor);
+            library.reloadFile(EXCEL + "armor.txt", armor);
+        }
+
+        try (Connection conn = SqlUtil.getConnection()) {
+            Map<String, String> tables = CatalogUtil.readLibraryTables(conn).get("Catalog_Reload");
+            assertEquals(List.of(EXCEL + "weapons.txt"), List.copyOf(tables.keySet()));
+            assertEquals(List.of("Name", "Cost", "Level"), List.copyOf(CatalogUtil.readColumnStats(conn, tables.get(EXCEL + "weapons.txt")).keySet()));
+            assertEquals(TextFormat.DEFAULT, CatalogUtil.readFormat(conn, "NO_SUCH_TABLE"));
+            assertNull(CatalogUtil.readLibraryTables(conn).get("Catalog_Missing"));
+        }
+    }
+
+    private void store(String name, Map<String, String> files) throws Exception {
+        new LibraryService(name, TestLibraries.writeExcel(dir.resolve(name), files), PersistenceMode.SYNC).close();
+    }
+}
@@ -0,0 +1,40 @@
+package org.enginecraft.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CharsetUtilTest {
+    @Test
+    void bomIsReadBackAsItsCharset() {
+        for (Charset charset : new Charset[]{StandardCharsets.UTF_8, StandardCharsets.UTF_16LE, StandardCharsets.UTF_16BE}) {
+            byte[] bom = CharsetUtil.bom(charset);
+            assertEquals(charset, CharsetUtil.bomCharset(bom), charset.name());
+            assertEquals(bom.length, CharsetUtil.bomLength(bom), charset.name());
+        }
+        assertEquals(0, CharsetUtil.bom(CharsetUtil.WINDOWS_1252).length);
+        assertNull(CharsetUtil.bomCharset("Name".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals(0, CharsetUtil.bomLength(new byte[0]));
+    }
+
+    @Test
+    void acceptsOnlyWellFormedUtf8() {
+        assertTrue(utf8("Name\tCafé\t€\t😀".getBytes(StandardCharsets.UTF_8)));
+        assertFalse(utf8("Café".getBytes(CharsetUtil.WINDOWS_1252)));
+        assertFalse(utf8(new byte[]{(byte) 0x80}));                            // stray continuation byte
+        assertFalse(utf8(new byte[]{(byte) 0xC0, (byte) 0xAF}));               // overlong '/'
+        assertFalse(utf8(new byte[]{(byte) 0xED, (byte) 0xA0, (byte) 0x80}));  // surrogate
+        assertFalse(utf8(new byte[]{(byte) 0xF4, (byte) 0x90, (byte) 0x80, (byte) 0x80})); // past U+10FFFF
+        assertFalse(utf8(new byte[]{'a', (byte) 0xE2, (byte) 0x82}));          // cut off
+    }
+
+    private static boolean utf8(byte[] data) {
+        return CharsetUtil.isUtf8(data, 0, data.length);
+    }
+}
@@ -0,0 +1,92 @@
+package org.enginecraft.util;
+
+import org.enginecraft.TestLibraries;
+import org.enginecraft.objects.MetricCounter;
+import org.enginecraft.objects.PersistenceMode;
+import org.enginecraft.objects.StorageLayout;
+import org.enginecraft.service.LibraryService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.enginecraft.TestLibraries.EXCEL;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ContentStoreUtilTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void identicalFilesAreParsedOnceAndShared() throws Exception {
+        String armor = "Name\tAc\nShareCap\t2\n";
+        LibraryService a = TestLibraries.load(dir, "Share_A", Map.of("armor.txt", armor, "weapons.txt", "Name\tCost\nShareAxe\t10\n"));
+        LibraryService b = TestLibraries.load(dir, "Share_B", Map.of("armor.txt", armor, "weapons.txt", "Name\tCost\nShareAxe\t12\n"));
+
+        Map<String, List<String[]>> filesA = TestLibraries.files(a);
+        Map<String, List<String[]>> filesB = TestLibraries.files(b);
+        assertSame(filesA.get(EXCEL + "armor.txt"), filesB.get(EXCEL + "armor.txt"));
+        assertNotSame(filesA.get(EXCEL + "weapons.txt"), filesB.get(EXCEL + "weapons.txt"));
+
+        assertEquals(1, MetricsUtil.of("Share_B", EXCEL + "armor.txt").get(MetricCounter.ROWS_SHARED));
+        assertEquals(0, MetricsUtil.of("Share_B", EXCEL + "armor.txt").get(MetricCounter.ROWS_PARSED));
+        assertEquals(1, MetricsUtil.of("Share_B", EXCEL + "weapons.txt").get(MetricCounter.ROWS_PARSED));
+    }
+
+    @Test
+    void theFirstFileSharedIsKept() {
+        String hash = ContentStoreUtil.hash("Name\tFirst\n".getBytes(StandardCharsets.UTF_8));
+        List<String[]> first = new ArrayList<>(List.<String[]>of(new String[]{"Name", "First"}));
+        List<String[]> second = new ArrayList<>(List.<String[]>of(new String[]{"Name", "First"}));
+
+        assertSame(first, ContentStoreUtil.putFile(hash, first));
+        assertSame(first, ContentStoreUtil.putFile(hash, second));
+        assertSame(first, ContentStoreUtil.file(hash));
+    }
+
+    @Test
+    void filesNoLibraryHoldsAreForgotten() throws Exception {
+        String hash = ContentStoreUtil.hash("Name\tForgotten\n".getBytes(StandardCharsets.UTF_8));
+        ContentStoreUtil.putFile(hash, new ArrayList<>(List.<String[]>of(new String[]{"Name", "Forgotten"})));
+
+        for (int attempt = 0; attempt < 50 && ContentStoreUtil.file(hash) != null; attempt++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(ContentStoreUtil.file(hash));
+    }
+
+    @Test
+    void rowsAreInternedByContent() {
+        String[] row = {"Intern", "1", ""};
+        assertSame(row, ContentStoreUtil.internRow(row));
+        assertSame(row, ContentStoreUtil.internRow(new String[]{"Intern", "1", ""}));
+
+        // Same cells joined differently are other rows
+        String[] other = {"Intern1", ""};
+        assertSame(other, ContentStoreUtil.internRow(other));
+        assertNotSame(row, ContentStoreUtil.internRow(new String[]{"Intern", "1"}));
+    }
+
+    @Test
+    void rowsReadBackFromTheRowStoreAreShared() throws Exception {
+        for (String name : List.of("Share_Store_A", "Share_Store_B")) {
+            String weapons = "Name\tCost\nShareStored\t10\n" + name + "\t1\n";
+            Path root = TestLibraries.writeExcel(dir.resolve(name), Map.of("weapons.txt", weapons));
+            new LibraryService(name, root, PersistenceMode.SYNC, StorageLayout.SHARED).close();
+        }
+
+        List<String[]> a = TestLibraries.files(new LibraryService("Share_Store_A", StorageLayout.SHARED)).get(EXCEL + "weapons.txt");
+        List<String[]> b = TestLibraries.files(new LibraryService("Share_Store_B", StorageLayout.SHARED)).get(EXCEL + "weapons.txt");
+        assertSame(a.get(0), b.get(0));
+        assertSame(a.get(1), b.get(1));
+        assertNotSame(a.get(2), b.get(2));
+    }
+}
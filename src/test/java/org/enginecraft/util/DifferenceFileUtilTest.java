@@ -0,0 +1,96 @@
+package org.enginecraft.util;
+
+import org.enginecraft.TestLibraries;
+import org.enginecraft.objects.Difference;
+import org.enginecraft.objects.DifferenceType;
+import org.enginecraft.service.LibraryService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.enginecraft.TestLibraries.EXCEL;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DifferenceFileUtilTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void writtenDifferencesReadBackTheSame() throws Exception {
+        String[] header = {"Name", "Cost"};
+        String[] rowA = {"Axe", "10"};
+        String[] rowB = {"Axe", "é".repeat(40_000)};
+        List<Difference> differences = List.of(
+                new Difference(DifferenceType.MISMATCH, EXCEL + "weapons.txt", header, rowA, rowB, 1, 1, "10", rowB[1]),
+                new Difference(DifferenceType.MISSING, EXCEL + "weapons.txt", header, rowA, null, null, 1, null, null),
+                new Difference(DifferenceType.UNKNOWN, EXCEL + "armor.txt", null, null, null, null, null, "", null),
+                new Difference(DifferenceType.BROKEN_REFERENCE, EXCEL + "armor.txt", header, null, rowB, 0, 2, "Axe", ""),
+                // Rows decoded again for another difference are equal arrays, not the same one
+                new Difference(DifferenceType.MISMATCH, EXCEL + "weapons.txt", header.clone(), rowA.clone(), rowB.clone(), 1, 1, "10", rowB[1])
+        );
+
+        Path file = dir.resolve("shard-0.bin");
+        DifferenceFileUtil.write(file, differences);
+        List<Difference> read = DifferenceFileUtil.read(file);
+
+        assertEquals(differences.size(), read.size());
+        for (int i = 0; i < differences.size(); i++) assertSameDifference(differences.get(i), read.get(i));
+        // Rows shared between differences are written once and read back as one array
+        assertSame(read.get(0).rowZero(), read.get(1).rowZero());
+        assertSame(read.get(0).rowB(), read.get(3).rowB());
+        assertSame(read.get(0).rowA(), read.get(4).rowA());
+        assertSame(read.get(0).rowB(), read.get(4).rowB());
+        // The long row is written once, next to the two values holding the same text
+        assertTrue(Files.size(file) < 3 * 80_000 + 1_000);
+        assertFalse(Files.exists(dir.resolve("shard-0.bin.tmp")));
+    }
+
+    @Test
+    void comparedLibrariesSurviveTheFile() throws Exception {
+        LibraryService a = library("A", "Name\tCost\tLevel\nAxe\t10\t1\nSword\t20\t2\n");
+        LibraryService b = library("B", "Name\tCost\tLevel\nAxe\t15\t1\nBow\t30\t3\n");
+        List<Difference> differences = a.compareFiles(b);
+        assertFalse(differences.isEmpty());
+
+        Path file = dir.resolve("shard.bin");
+        DifferenceFileUtil.write(file, differences);
+        List<Difference> read = DifferenceFileUtil.read(file);
+
+        assertEquals(differences.size(), read.size());
+        for (int i = 0; i < differences.size(); i++) assertSameDifference(differences.get(i), read.get(i));
+    }
+
+    @Test
+    void rejectsOtherFiles() throws Exception {
+        Path file = dir.resolve("other.bin");
+        Files.writeString(file, "not differences");
+
+        Exception e = assertThrows(Exception.class, () -> DifferenceFileUtil.read(file));
+        assertEquals("Not a differences file: " + file, e.getMessage());
+    }
+
+    private LibraryService library(String name, String weapons) throws Exception {
+        return TestLibraries.load(dir, name, Map.of("weapons.txt", weapons));
+    }
+
+    private static void assertSameDifference(Difference expected, Difference actual) {
+        assertEquals(expected.type(), actual.type());
+        assertEquals(expected.ref(), actual.ref());
+        assertArrayEquals(expected.rowZero(), actual.rowZero());
+        assertArrayEquals(expected.rowA(), actual.rowA());
+        assertArrayEquals(expected.rowB(), actual.rowB());
+        assertEquals(expected.cIndex(), actual.cIndex());
+        assertEquals(expected.rIndex(), actual.rIndex());
+        assertEquals(expected.valueA(), actual.valueA());
+        assertEquals(expected.valueB(), actual.valueB());
+    }
+}
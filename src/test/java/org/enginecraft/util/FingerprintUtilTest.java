@@ -0,0 +1,95 @@
+package org.enginecraft.util;
+
+import org.enginecraft.TestLibraries;
+import org.enginecraft.objects.DataDictionary;
+import org.enginecraft.objects.LibraryFingerprint;
+import org.enginecraft.objects.PersistenceMode;
+import org.enginecraft.objects.StorageLayout;
+import org.enginecraft.service.LibraryService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.enginecraft.TestLibraries.EXCEL;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class FingerprintUtilTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void sameContentFingerprintsTheSameHoweverItIsHeld() throws Exception {
+        Path root = TestLibraries.write(dir.resolve("lib"), Map.of(
+                EXCEL + "weapons.txt", "Name\tCost\nAxe\t10\nSword\t20\n".getBytes(CharsetUtil.WINDOWS_1252),
+                EXCEL + "misc.txt", "Name\tText\nCafé\tÜber\n".getBytes(CharsetUtil.WINDOWS_1252)
+        ));
+        LibraryService loaded = new LibraryService("lib", root, PersistenceMode.NONE);
+        assertEquals(2, loaded.getLibrary().size());
+
+        // The same rows as decoded strings instead of byte ranges
+        List<DataDictionary> copied = new ArrayList<>();
+        for (DataDictionary dict : loaded.getLibrary()) {
+            copied.add(new DataDictionary(dict.getRef(), new ArrayList<>(dict.getData()), null));
+        }
+
+        LibraryFingerprint fromBytes = FingerprintUtil.of(loaded.getLibrary());
+        assertEquals(fromBytes, FingerprintUtil.of(copied));
+        assertEquals(Set.of(), FingerprintUtil.changedFiles(fromBytes, FingerprintUtil.of(copied)));
+    }
+
+    @Test
+    void changedFilesListsOnlyWhatDiffers() {
+        LibraryFingerprint a = FingerprintUtil.of(List.of(
+                file(EXCEL + "weapons.txt", "Axe", "10"),
+                file(EXCEL + "armor.txt", "Cap", "2"),
+                file("data/global/other/gone.txt", "x", "1")
+        ));
+        LibraryFingerprint b = FingerprintUtil.of(List.of(
+                file(EXCEL + "weapons.txt", "Axe", "12"),
+                file(EXCEL + "armor.txt", "Cap", "2")
+        ));
+
+        assertNotEquals(a.root(), b.root());
+        assertEquals(a.hash("data/global/excel/armor.txt"), b.hash("data/global/excel/armor.txt"));
+        assertEquals(Set.of(EXCEL + "weapons.txt", "data/global/other/gone.txt"), FingerprintUtil.changedFiles(a, b));
+        assertEquals(Set.of(EXCEL + "weapons.txt"), FingerprintUtil.changedFiles(b, a));
+    }
+
+    @Test
+    void updateMatchesFingerprintingTheChangedLibrary() {
+        List<DataDictionary> before = List.of(file(EXCEL + "weapons.txt", "Axe", "10"), file(EXCEL + "armor.txt", "Cap", "2"));
+        LibraryFingerprint fingerprint = FingerprintUtil.of(before);
+
+        DataDictionary changed = file(EXCEL + "weapons.txt", "Axe", "12");
+        assertEquals(FingerprintUtil.of(List.of(changed, before.get(1))),
+                FingerprintUtil.update(fingerprint, changed.getRef(), changed.getData()));
+        assertEquals(FingerprintUtil.of(List.of(before.get(1))),
+                FingerprintUtil.update(fingerprint, changed.getRef(), null));
+    }
+
+    @Test
+    void storedFingerprintReadsBackPerLayout() throws Exception {
+        LibraryFingerprint fingerprint = FingerprintUtil.of(List.of(file(EXCEL + "weapons.txt", "Axe", "10")));
+
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:fingerprints")) {
+            assertNull(FingerprintUtil.read(conn, "lib", StorageLayout.SHARED));
+
+            FingerprintUtil.write(conn, "lib", StorageLayout.SHARED, fingerprint);
+            assertEquals(fingerprint, FingerprintUtil.read(conn, "lib", StorageLayout.SHARED));
+            assertNull(FingerprintUtil.read(conn, "lib", StorageLayout.TABLE_PER_FILE));
+        }
+    }
+
+    private static DataDictionary file(String ref, String name, String value) {
+        return new DataDictionary(ref, List.of(new String[]{"Name", "Value"}, new String[]{name, value}), null);
+    }
+}
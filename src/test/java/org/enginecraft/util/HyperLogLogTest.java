@@ -0,0 +1,31 @@
+package org.enginecraft.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HyperLogLogTest {
+    @Test
+    void countsSmallSetsAndIgnoresRepeats() {
+        HyperLogLog hll = new HyperLogLog();
+        assertEquals(0, hll.estimate());
+
+        for (int repeat = 0; repeat < 3; repeat++) {
+            for (int i = 0; i < 100; i++) hll.add("value" + i);
+        }
+        assertEquals(100, hll.estimate(), 2);
+    }
+
+    @Test
+    void staysWithinTheErrorBoundForLargeSets() {
+        for (int distinct : new int[]{5_000, 50_000, 500_000}) {
+            HyperLogLog hll = new HyperLogLog();
+            for (int i = 0; i < distinct; i++) hll.add("row" + i + "\tcell");
+
+            double error = Math.abs(hll.estimate() - distinct) / (double) distinct;
+            // Four standard errors of 1.6%
+            assertTrue(error < 0.065, distinct + " estimated as " + hll.estimate());
+        }
+    }
+}
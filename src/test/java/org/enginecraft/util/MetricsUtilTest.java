@@ -0,0 +1,84 @@
+package org.enginecraft.util;
+
+import org.enginecraft.TestLibraries;
+import org.enginecraft.objects.FileMetrics;
+import org.enginecraft.objects.MetricCounter;
+import org.enginecraft.objects.MetricPhase;
+import org.enginecraft.service.LibraryService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.enginecraft.TestLibraries.EXCEL;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetricsUtilTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void summaryHoldsTheTotalsAndEveryFile() throws Exception {
+        MetricsUtil.reset();
+        MetricsUtil.of("B", "b.txt").addNanos(MetricPhase.PARSE, 2_000_000);
+        MetricsUtil.count("B", "b.txt", MetricCounter.ROWS_PARSED, 10);
+        MetricsUtil.of("A", "a \"quoted\"\\\t.txt").addNanos(MetricPhase.PARSE, 3_000_000);
+        MetricsUtil.of("A", "a \"quoted\"\\\t.txt").addNanos(MetricPhase.COMPARE, 7_500_000);
+        MetricsUtil.count("A", "a \"quoted\"\\\t.txt", MetricCounter.DIFFERENCES, 4);
+
+        Path summary = dir.resolve("summary.json");
+        MetricsUtil.writeSummary(summary);
+        List<String> lines = Files.readAllLines(summary);
+
+        assertEquals("{", lines.get(0));
+        assertTrue(lines.get(1).matches(" {2}\"started\": \"[0-9T:.Z-]+\","), lines.get(1));
+        assertTrue(lines.get(3).matches(" {2}\"wallMillis\": \\d+,"), lines.get(3));
+        assertEquals(List.of(
+                "  \"totals\": {\"parseMillis\": 5, \"dbMillis\": 0, \"compareMillis\": 7, \"renderMillis\": 0, \"bytesRead\": 0, "
+                        + "\"rowsParsed\": 10, \"rowsShared\": 0, \"rowsMerged\": 0, \"differences\": 4, \"htmlBytes\": 0},",
+                "  \"files\": [",
+                // Ordered by library then ref, names escaped
+                "    {\"library\": \"A\", \"ref\": \"a \\\"quoted\\\"\\\\\\t.txt\", \"parseMillis\": 3, \"dbMillis\": 0, \"compareMillis\": 7, "
+                        + "\"renderMillis\": 0, \"bytesRead\": 0, \"rowsParsed\": 0, \"rowsShared\": 0, \"rowsMerged\": 0, \"differences\": 4, \"htmlBytes\": 0},",
+                "    {\"library\": \"B\", \"ref\": \"b.txt\", \"parseMillis\": 2, \"dbMillis\": 0, \"compareMillis\": 0, "
+                        + "\"renderMillis\": 0, \"bytesRead\": 0, \"rowsParsed\": 10, \"rowsShared\": 0, \"rowsMerged\": 0, \"differences\": 0, \"htmlBytes\": 0}",
+                "  ]",
+                "}"), lines.subList(4, lines.size()));
+    }
+
+    @Test
+    void emptyRunsWriteAnEmptyFileList() throws Exception {
+        MetricsUtil.reset();
+        Path summary = dir.resolve("empty.json");
+        MetricsUtil.writeSummary(summary);
+
+        List<String> lines = Files.readAllLines(summary);
+        assertEquals(List.of("  \"files\": []", "}"), lines.subList(lines.size() - 2, lines.size()));
+    }
+
+    @Test
+    void loadingComparingAndReportingAreRecordedPerFile() throws Exception {
+        MetricsUtil.reset();
+        String weapons = "Name\tCost\nMetricsAxe\t10\nMetricsBow\t3\n";
+        LibraryService a = TestLibraries.load(dir, "MetricsA", Map.of("weapons.txt", weapons));
+        LibraryService b = TestLibraries.load(dir, "MetricsB", Map.of("weapons.txt", weapons.replace("10", "12")));
+        HtmlReportUtil.generate(dir.resolve("report"), "metrics", a.compareTo(b));
+
+        FileMetrics loaded = MetricsUtil.of("MetricsA", EXCEL + "weapons.txt");
+        assertEquals(weapons.length(), loaded.get(MetricCounter.BYTES_READ));
+        assertEquals(2, loaded.get(MetricCounter.ROWS_PARSED));
+
+        // Comparison figures are charged to library B
+        FileMetrics compared = MetricsUtil.of("MetricsB", EXCEL + "weapons.txt");
+        assertEquals(1, compared.get(MetricCounter.DIFFERENCES));
+        assertEquals(0, MetricsUtil.of("MetricsA", EXCEL + "weapons.txt").get(MetricCounter.DIFFERENCES));
+
+        FileMetrics report = MetricsUtil.of("metrics", "metrics.html");
+        assertEquals(Files.size(dir.resolve("report").resolve("metrics.html")), report.get(MetricCounter.HTML_BYTES));
+        assertTrue(report.getNanos(MetricPhase.RENDER) > 0);
+    }
+}
@@ -0,0 +1,250 @@
+package org.enginecraft.util;
+
+import org.enginecraft.TestLibraries;
+import org.enginecraft.objects.DataDictionary;
+import org.enginecraft.objects.PersistenceMode;
+import org.enginecraft.service.LibraryService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MpqArchiveTest {
+    // Archives store names with backslashes
+    private static final String EXCEL = TestLibraries.EXCEL.replace('/', '\\');
+    private static final int SECTOR_SIZE = 512;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsEveryStorageMode() throws Exception {
+        Map<String, byte[]> files = files();
+        Path mpq = dir.resolve("test.mpq");
+        Files.write(mpq, MpqWriter.write(files));
+
+        try (MpqArchive archive = MpqArchive.open(mpq)) {
+            assertEquals(new ArrayList<>(files.keySet()), archive.list());
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                assertArrayEquals(file.getValue(), archive.read(file.getKey()), file.getKey());
+            }
+            assertArrayEquals(files.get(EXCEL + "weapons.txt"), archive.read("data/global/excel/WEAPONS.txt"));
+            assertNull(archive.read(EXCEL + "missing.txt"));
+        }
+    }
+
+    @Test
+    void loadsTheSameLibraryAsAFolder() throws Exception {
+        Map<String, byte[]> files = files();
+        Path mpq = dir.resolve("test.mpq");
+        Files.write(mpq, MpqWriter.write(files));
+
+        Map<String, byte[]> folderFiles = new LinkedHashMap<>();
+        files.forEach((name, content) -> folderFiles.put(name.replace('\\', '/'), content));
+        Path folder = TestLibraries.write(dir.resolve("folder"), folderFiles);
+
+        LibraryService fromMpq = new LibraryService("mpq", mpq, PersistenceMode.NONE);
+        LibraryService fromFolder = new LibraryService("folder", folder, PersistenceMode.NONE);
+
+        assertEquals(files.size(), fromMpq.getLibrary().size());
+        assertEquals(0, fromFolder.compareFiles(fromMpq).size());
+    }
+
+    @Test
+    void skipsListedFilesTheArchiveDoesNotHold() throws Exception {
+        Map<String, byte[]> files = files();
+        Path mpq = dir.resolve("listed.mpq");
+        Files.write(mpq, MpqWriter.write(files, EXCEL + "missing.txt"));
+
+        LibraryService library = new LibraryService("listed", mpq, PersistenceMode.NONE);
+        assertEquals(files.size(), library.getLibrary().size());
+        for (DataDictionary dict : library.getLibrary()) {
+            assertNull(dict.getError(), dict.getRef());
+        }
+    }
+
+    @Test
+    void rejectsFilesWithoutHeader() throws Exception {
+        Path notMpq = dir.resolve("not.mpq");
+        Files.write(notMpq, new byte[2048]);
+
+        assertThrows(IOException.class, () -> MpqArchive.open(notMpq).close());
+    }
+
+    private static Map<String, byte[]> files() {
+        StringBuilder large = new StringBuilder("Name\tCost\tLevel\n");
+        for (int i = 0; i < 200; i++) large.append("Item").append(i).append('\t').append(i * 7).append('\t').append(i % 90).append('\n');
+
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put(EXCEL + "weapons.txt", large.toString().getBytes(StandardCharsets.UTF_8));
+        files.put(EXCEL + "armor.txt", large.toString().replace("Item", "Armor").getBytes(StandardCharsets.UTF_8));
+        files.put(EXCEL + "misc.txt", "Name\tText\nKey\tK\nGem\tG\n".getBytes(StandardCharsets.UTF_8));
+        files.put(EXCEL + "runes.txt", "Name\tRune\nEl\tr01\n".getBytes(StandardCharsets.UTF_8));
+        return files;
+    }
+
+    /**
+     * Writes a version 0 archive, storing the files in turn as zlib sectors, encrypted zlib sectors, a single zlib
+     * unit and plain bytes, followed by a sectored {@code (listfile)}.
+     */
+    private static class MpqWriter {
+        private static final int[] CRYPT_TABLE = cryptTable();
+        private static final int HEADER_SIZE = 32;
+
+        private static final int FILE_COMPRESS = 0x00000200;
+        private static final int FILE_ENCRYPTED = 0x00010000;
+        private static final int FILE_FIX_KEY = 0x00020000;
+        private static final int FILE_SINGLE_UNIT = 0x01000000;
+        private static final int FILE_EXISTS = 0x80000000;
+
+        // The listfile names the files and any extra names given, which the archive does not hold
+        static byte[] write(Map<String, byte[]> files, String... unstored) {
+            List<String> names = new ArrayList<>(files.keySet());
+            List<byte[]> contents = new ArrayList<>(files.values());
+            List<String> listed = new ArrayList<>(files.keySet());
+            listed.addAll(List.of(unstored));
+            names.add("(listfile)");
+            contents.add(String.join("\r\n", listed).getBytes(StandardCharsets.UTF_8));
+
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            int[] blocks = new int[names.size() * 4];
+            for (int i = 0; i < names.size(); i++) {
+                int offset = HEADER_SIZE + body.size();
+                byte[] data = contents.get(i);
+                int mode = names.get(i).equals("(listfile)") ? 0 : i % 4;
+
+                int flags = FILE_EXISTS;
+                byte[] payload;
+                if (mode == 3) {
+                    payload = data;
+                } else if (mode == 2) {
+                    flags |= FILE_SINGLE_UNIT | FILE_COMPRESS;
+                    payload = compress(data, 0, data.length);
+                } else {
+                    flags |= FILE_COMPRESS;
+                    int key = 0;
+                    if (mode == 1) {
+                        flags |= FILE_ENCRYPTED | FILE_FIX_KEY;
+                        String name = names.get(i);
+                        key = (MpqArchive.hashString(name.substring(name.lastIndexOf('\\') + 1), 3) + offset) ^ data.length;
+                    }
+                    payload = sectors(data, key);
+                }
+
+                body.writeBytes(payload);
+                blocks[i * 4] = offset;
+                blocks[i * 4 + 1] = payload.length;
+                blocks[i * 4 + 2] = data.length;
+                blocks[i * 4 + 3] = flags;
+            }
+
+            int hashEntries = 16;
+            int[] hashes = new int[hashEntries * 4];
+            Arrays.fill(hashes, 0xFFFFFFFF);
+            for (int block = 0; block < names.size(); block++) {
+                String name = names.get(block);
+                int entry = Integer.remainderUnsigned(MpqArchive.hashString(name, 0), hashEntries);
+                while (hashes[entry * 4 + 3] != 0xFFFFFFFF) entry = (entry + 1) % hashEntries;
+                hashes[entry * 4] = MpqArchive.hashString(name, 1);
+                hashes[entry * 4 + 1] = MpqArchive.hashString(name, 2);
+                hashes[entry * 4 + 2] = 0;
+                hashes[entry * 4 + 3] = block;
+            }
+
+            int hashTableOffset = HEADER_SIZE + body.size();
+            int blockTableOffset = hashTableOffset + hashes.length * 4;
+            ByteBuffer out = ByteBuffer.allocate(blockTableOffset + blocks.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+            out.putInt(0x1A51504D).putInt(HEADER_SIZE).putInt(out.capacity())
+                    .putShort((short) 0).putShort((short) Integer.numberOfTrailingZeros(SECTOR_SIZE / 512))
+                    .putInt(hashTableOffset).putInt(blockTableOffset).putInt(hashEntries).putInt(names.size());
+            out.put(body.toByteArray());
+            out.put(encrypt(ints(hashes), MpqArchive.hashString("(hash table)", 3)));
+            out.put(encrypt(ints(blocks), MpqArchive.hashString("(block table)", 3)));
+            return out.array();
+        }
+
+        private static byte[] sectors(byte[] data, int key) {
+            int sectors = (data.length + SECTOR_SIZE - 1) / SECTOR_SIZE;
+            int[] offsets = new int[sectors + 1];
+            ByteArrayOutputStream packed = new ByteArrayOutputStream();
+            offsets[0] = offsets.length * 4;
+            for (int i = 0; i < sectors; i++) {
+                int start = i * SECTOR_SIZE;
+                byte[] sector = compress(data, start, Math.min(SECTOR_SIZE, data.length - start));
+                if (key != 0) sector = encrypt(sector, key + i);
+                packed.writeBytes(sector);
+                offsets[i + 1] = offsets[0] + packed.size();
+            }
+
+            byte[] table = ints(offsets);
+            if (key != 0) table = encrypt(table, key - 1);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.writeBytes(table);
+            out.writeBytes(packed.toByteArray());
+            return out.toByteArray();
+        }
+
+        // A zlib stream behind the compression mask, or the bytes as they are when that is not smaller
+        private static byte[] compress(byte[] data, int offset, int length) {
+            Deflater deflater = new Deflater();
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(0x02);
+            byte[] buffer = new byte[1024];
+            while (!deflater.finished()) out.write(buffer, 0, deflater.deflate(buffer));
+            deflater.end();
+            return out.size() < length ? out.toByteArray() : Arrays.copyOfRange(data, offset, offset + length);
+        }
+
+        private static byte[] encrypt(byte[] data, int key) {
+            ByteBuffer buffer = ByteBuffer.wrap(data.clone()).order(ByteOrder.LITTLE_ENDIAN);
+            int seed = 0xEEEEEEEE;
+            for (int i = 0; i < data.length / 4; i++) {
+                seed += CRYPT_TABLE[0x400 + (key & 0xFF)];
+                int value = buffer.getInt(i * 4);
+                buffer.putInt(i * 4, value ^ (key + seed));
+                key = ((~key << 0x15) + 0x11111111) | (key >>> 0x0B);
+                seed = value + seed + (seed << 5) + 3;
+            }
+            return buffer.array();
+        }
+
+        private static byte[] ints(int[] values) {
+            ByteBuffer buffer = ByteBuffer.allocate(values.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.asIntBuffer().put(values);
+            return buffer.array();
+        }
+
+        private static int[] cryptTable() {
+            int[] table = new int[0x500];
+            int seed = 0x00100001;
+            for (int index1 = 0; index1 < 0x100; index1++) {
+                for (int index2 = index1, i = 0; i < 5; i++, index2 += 0x100) {
+                    seed = (seed * 125 + 3) % 0x2AAAAB;
+                    int temp1 = (seed & 0xFFFF) << 0x10;
+                    seed = (seed * 125 + 3) % 0x2AAAAB;
+                    table[index2] = temp1 | (seed & 0xFFFF);
+                }
+            }
+            return table;
+        }
+    }
+}
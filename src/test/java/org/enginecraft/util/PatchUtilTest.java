@@ -0,0 +1,131 @@
+package org.enginecraft.util;
+
+import org.enginecraft.TestLibraries;
+import org.enginecraft.objects.Patch;
+import org.enginecraft.objects.PatchEntry;
+import org.enginecraft.objects.PatchType;
+import org.enginecraft.service.LibraryService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.enginecraft.TestLibraries.EXCEL;
+import static org.enginecraft.TestLibraries.assertSameContent;
+import static org.enginecraft.TestLibraries.assertSameRows;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PatchUtilTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void appliedPatchRebuildsLibraryB() throws Exception {
+        LibraryService a = library("A", Map.of(
+                "weapons.txt", "Name\tCost\tLevel\nAxe\t10\t1\nSword\t20\t2\nBow\t30\t3\n",
+                "armor.txt", "Name\tAc\nCap\t2\n",
+                "gone.txt", "Name\tX\nOne\t1\n"
+        ));
+        LibraryService b = library("B", Map.of(
+                "weapons.txt", "Name\tCost\tLevel\nAxe\t15\t1\nBow\t30\t3\nSpear\t25\t\n",
+                "armor.txt", "Name\tAc\tDur\nCap\t2\t10\n",
+                "added.txt", "Name\tY\t\nTwo\t\t\n"
+        ));
+
+        Patch patch = PatchUtil.create(a.compareTo(b), a, b);
+
+        assertSameContent(b, PatchUtil.apply(a, patch, "B'"));
+    }
+
+    @Test
+    void writtenPatchReadsBackTheSame() throws Exception {
+        LibraryService a = library("A", Map.of("weapons.txt", "Name\tCost\nAxe\t10\nSword\t20\n"));
+        LibraryService b = library("B", Map.of(
+                "weapons.txt", "Name\tCost\nAxe\t12\nClub\t\n",
+                "misc.txt", "Name\tText\nKey\t\n"
+        ));
+        Patch patch = PatchUtil.create(a.compareTo(b), a, b);
+
+        for (String name : List.of("patch.tsv", "patch.tsv.gz")) {
+            Path file = dir.resolve(name);
+            PatchUtil.write(file, patch);
+            Patch read = PatchUtil.read(file);
+
+            assertEquals(patch.libA(), read.libA());
+            assertEquals(patch.libB(), read.libB());
+            assertEquals(patch.entries().size(), read.entries().size());
+            for (int i = 0; i < patch.entries().size(); i++) assertSameEntry(patch.entries().get(i), read.entries().get(i));
+            assertSameContent(b, PatchUtil.apply(a, read, "B'"));
+        }
+    }
+
+    @Test
+    void putFileKeepsTrailingEmptyCellsOfEveryRow() throws Exception {
+        List<String[]> rows = List.of(new String[]{"Name", "Value", ""}, new String[]{"One", "", ""});
+        Patch patch = new Patch("A", "B", List.of(new PatchEntry(PatchType.PUT_FILE, EXCEL + "x.txt", null, null, null, null, null, rows)));
+
+        Path file = dir.resolve("patch.tsv");
+        PatchUtil.write(file, patch);
+        List<String[]> read = PatchUtil.read(file).entries().getFirst().rows();
+
+        assertSameRows(rows, read, "x.txt");
+    }
+
+    @Test
+    void patchForAnotherLibraryDoesNotApply() throws Exception {
+        LibraryService a = library("A", Map.of("weapons.txt", "Name\tCost\nAxe\t10\n"));
+        LibraryService b = library("B", Map.of("weapons.txt", "Name\tCost\nAxe\t12\n"));
+        LibraryService other = library("C", Map.of("weapons.txt", "Name\tCost\nBow\t10\n"));
+
+        Patch patch = PatchUtil.create(a.compareTo(b), a, b);
+
+        Exception e = assertThrows(Exception.class, () -> PatchUtil.apply(other, patch, "C'"));
+        assertTrue(e.getMessage().contains("has no row 'Axe'"), e.getMessage());
+    }
+
+    @Test
+    void filesTheComparisonCannotTellApartAreShippedWhole() throws Exception {
+        LibraryService a = library("A", Map.of(
+                // Equal by value, different as text
+                "weapons.txt", "Name\tCost\tLevel\nAxe\t10\t1\nBow\t30\t3\n",
+                // Rows are keyed by their first cell, the second Axe is not compared
+                "armor.txt", "Name\tAc\nAxe\t1\nAxe\t2\n",
+                // Files without data rows are not compared
+                "misc.txt", "Name\tText\n",
+                "same.txt", "Name\tX\nOne\t1\n"
+        ));
+        LibraryService b = library("B", Map.of(
+                "weapons.txt", "Name\tCost\tLevel\nAxe\t010\t1\nBow\t30\t3\n",
+                "armor.txt", "Name\tAc\nAxe\t1\nAxe\t5\n",
+                "misc.txt", "Name\tText\nKey\tK\n",
+                "same.txt", "Name\tX\nOne\t1\n"
+        ));
+
+        Patch patch = PatchUtil.create(a.compareTo(b), a, b);
+
+        assertEquals(List.of(EXCEL + "armor.txt", EXCEL + "misc.txt", EXCEL + "weapons.txt"), patch.entries().stream()
+                .filter(e -> e.type() == PatchType.PUT_FILE).map(PatchEntry::ref).sorted().toList());
+        assertEquals(3, patch.entries().size());
+        assertSameContent(b, PatchUtil.apply(a, patch, "B'"));
+    }
+
+    private LibraryService library(String name, Map<String, String> files) throws Exception {
+        return TestLibraries.load(dir, name, files);
+    }
+
+    private static void assertSameEntry(PatchEntry expected, PatchEntry actual) {
+        assertEquals(expected.type(), actual.type());
+        assertEquals(expected.ref(), actual.ref());
+        assertEquals(expected.rIndex(), actual.rIndex());
+        assertEquals(expected.rowKey(), actual.rowKey());
+        assertEquals(expected.column(), actual.column());
+        assertEquals(expected.value(), actual.value());
+        assertArrayEquals(expected.row(), actual.row());
+        if (expected.rows() != null) assertSameRows(expected.rows(), actual.rows(), expected.ref());
+    }
+}
@@ -0,0 +1,92 @@
+package org.enginecraft.util;
+
+import org.enginecraft.TestLibraries;
+import org.enginecraft.objects.Difference;
+import org.enginecraft.objects.DifferenceType;
+import org.enginecraft.service.LibraryService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.enginecraft.TestLibraries.EXCEL;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ReferenceCheckUtilTest {
+    private static final String ITEMTYPES = "Name\tCode\nAxe\taxe\nSword\tswor\n";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void reportsValuesMissingFromTheTargetColumn() throws Exception {
+        LibraryService library = TestLibraries.load(dir, "refs", Map.of(
+                "itemtypes.txt", ITEMTYPES,
+                // Every column matching the rule is checked, blank cells are not, values are trimmed
+                "weapons.txt", "name\ttype\ttype2\tcode\tnormcode\nHand Axe\taxe\t \thax\thax\nBlade\t swor \tbow\tbld\tbad\n"));
+
+        List<Difference> broken = ReferenceCheckUtil.check(library.getLibrary());
+
+        assertEquals(List.of(
+                EXCEL + "weapons.txt 2 2 bow itemtypes.txt Code",
+                EXCEL + "weapons.txt 2 4 bad weapons.txt code"), describe(broken));
+        Difference first = broken.getFirst();
+        assertEquals(DifferenceType.BROKEN_REFERENCE, first.type());
+        assertEquals("Blade", first.rowB()[0]);
+    }
+
+    @Test
+    void valuesMayBeAKeyOfAnyTarget() throws Exception {
+        LibraryService library = TestLibraries.load(dir, "targets", Map.of(
+                "weapons.txt", "name\tcode\nAxe\taxe\n",
+                "armor.txt", "name\tcode\nCap\tcap\n",
+                "misc.txt", "name\tcode\nKey\tkey\n",
+                "uniqueitems.txt", "index\tcode\nA\taxe\nB\tcap\nC\tkey\nD\tring\n"));
+
+        assertEquals(List.of(EXCEL + "uniqueitems.txt 4 1 ring weapons.txt, armor.txt, misc.txt code"),
+                describe(ReferenceCheckUtil.check(library.getLibrary())));
+    }
+
+    @Test
+    void rulesWithoutTheirTargetAreSkipped() throws Exception {
+        // No itemtypes.txt at all, and an itemtypes.txt without the Code column
+        LibraryService noFile = TestLibraries.load(dir, "noFile", Map.of(
+                "weapons.txt", "name\ttype\tcode\nAxe\tnone\taxe\n"));
+        LibraryService noColumn = TestLibraries.load(dir, "noColumn", Map.of(
+                "itemtypes.txt", "Name\tOther\nAxe\taxe\n",
+                "weapons.txt", "name\ttype\tcode\nAxe\tnone\taxe\n"));
+
+        assertEquals(List.of(), ReferenceCheckUtil.check(noFile.getLibrary()));
+        assertEquals(List.of(), ReferenceCheckUtil.check(noColumn.getLibrary()));
+    }
+
+    @Test
+    void referencesTheBaselineBreaksTooAreNotCharged() throws Exception {
+        LibraryService baseline = TestLibraries.load(dir, "base", Map.of(
+                "itemtypes.txt", ITEMTYPES,
+                "weapons.txt", "name\ttype\tcode\nOld\tgone\told\n"));
+        LibraryService mod = TestLibraries.load(dir, "mod", Map.of(
+                "itemtypes.txt", ITEMTYPES,
+                "weapons.txt", "name\ttype\tcode\nOld\tgone\told\nNew\tlost\tnew\n"));
+
+        assertEquals(List.of(EXCEL + "weapons.txt 1 1 gone itemtypes.txt Code", EXCEL + "weapons.txt 2 1 lost itemtypes.txt Code"),
+                describe(mod.checkReferences(null)));
+        assertEquals(List.of(EXCEL + "weapons.txt 2 1 lost itemtypes.txt Code"), describe(mod.checkReferences(baseline)));
+        assertEquals(List.of(EXCEL + "weapons.txt 2 1 lost itemtypes.txt Code"), describe(mod.checkReferences(baseline)));
+
+        // The baseline's broken references are checked again once one of its files is reloaded
+        Path weapons = dir.resolve("base").resolve(EXCEL + "weapons.txt");
+        Files.writeString(weapons, "name\ttype\tcode\nOld\taxe\told\n");
+        baseline.reloadFile(EXCEL + "weapons.txt", weapons);
+        assertEquals(2, mod.checkReferences(baseline).size());
+    }
+
+    private static List<String> describe(List<Difference> differences) {
+        return differences.stream()
+                .map(d -> d.ref() + " " + d.rIndex() + " " + d.cIndex() + " " + d.valueB().trim() + " " + d.valueA())
+                .toList();
+    }
+}
@@ -0,0 +1,138 @@
+package org.enginecraft.util;
+
+import org.enginecraft.objects.DataDictionary;
+import org.enginecraft.objects.TextFormat;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.enginecraft.TestLibraries.EXCEL;
+import static org.enginecraft.TestLibraries.assertSameRows;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RowStoreUtilTest {
+    private static final String WEAPONS = EXCEL + "weapons.txt";
+    private static final String ARMOR = EXCEL + "armor.txt";
+
+    @Test
+    void readsBackWhatWasWritten() throws Exception {
+        List<String[]> weapons = rows("Name\tCost", "Axe\t10", "Sword\t", "\t");
+        List<String[]> armor = rows("Name\tAc", "Cap\t2");
+        try (Connection conn = SqlUtil.getConnection()) {
+            RowStoreUtil.writeFile(conn, "RS_READ", WEAPONS, weapons, TextFormat.DEFAULT);
+            RowStoreUtil.writeFile(conn, "RS_READ", ARMOR, armor, TextFormat.DEFAULT);
+
+            Map<String, List<String[]>> read = read(conn, "RS_READ");
+            assertSameRows(weapons, read.get(WEAPONS), WEAPONS);
+            assertSameRows(armor, read.get(ARMOR), ARMOR);
+            assertEquals(Map.of(), read(conn, "RS_NEVER_STORED"));
+        }
+    }
+
+    @Test
+    void storesIdenticalFilesAndSharedRowsOnce() throws Exception {
+        try (Connection conn = SqlUtil.getConnection()) {
+            RowStoreUtil.createTables(conn);
+            long files = count(conn, RowStoreUtil.STORE_FILE);
+            long rows = count(conn, RowStoreUtil.STORE_ROW);
+
+            RowStoreUtil.writeFile(conn, "RS_SHARE_A", WEAPONS, rows("Name\tShared", "RsAxe\t10", "RsSword\t20"), TextFormat.DEFAULT);
+            RowStoreUtil.writeFile(conn, "RS_SHARE_B", WEAPONS, rows("Name\tShared", "RsAxe\t10", "RsSword\t20"), TextFormat.DEFAULT);
+            assertEquals(files + 1, count(conn, RowStoreUtil.STORE_FILE));
+            assertEquals(rows + 3, count(conn, RowStoreUtil.STORE_ROW));
+
+            // One row changed: a new file, but only the changed row is new
+            RowStoreUtil.writeFile(conn, "RS_SHARE_C", WEAPONS, rows("Name\tShared", "RsAxe\t10", "RsSword\t25"), TextFormat.DEFAULT);
+            assertEquals(files + 2, count(conn, RowStoreUtil.STORE_FILE));
+            assertEquals(rows + 4, count(conn, RowStoreUtil.STORE_ROW));
+        }
+    }
+
+    @Test
+    void replacesAndRemovesFilesOfOneLibraryOnly() throws Exception {
+        try (Connection conn = SqlUtil.getConnection()) {
+            RowStoreUtil.writeFile(conn, "RS_REPLACE_A", WEAPONS, rows("Name\tCost", "Axe\t10"), TextFormat.DEFAULT);
+            RowStoreUtil.writeFile(conn, "RS_REPLACE_B", WEAPONS, rows("Name\tCost", "Axe\t10"), TextFormat.DEFAULT);
+            RowStoreUtil.writeFile(conn, "RS_REPLACE_A", WEAPONS, rows("Name\tCost", "Axe\t12"), TextFormat.DEFAULT);
+
+            assertSameRows(rows("Name\tCost", "Axe\t12"), read(conn, "RS_REPLACE_A").get(WEAPONS), "replaced");
+            assertSameRows(rows("Name\tCost", "Axe\t10"), read(conn, "RS_REPLACE_B").get(WEAPONS), "other library");
+
+            RowStoreUtil.removeFile(conn, "RS_REPLACE_A", WEAPONS);
+            assertEquals(Map.of(), read(conn, "RS_REPLACE_A"));
+            assertSameRows(rows("Name\tCost", "Axe\t10"), read(conn, "RS_REPLACE_B").get(WEAPONS), "other library");
+        }
+    }
+
+    @Test
+    void concurrentWritersOfSharedRowsAndFiles() throws Exception {
+        int libraries = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(libraries);
+        try {
+            List<Future<?>> writes = new ArrayList<>();
+            for (int l = 0; l < libraries; l++) {
+                String library = "RS_CONCURRENT_" + l;
+                writes.add(pool.submit(() -> {
+                    try (Connection conn = SqlUtil.getConnection()) {
+                        for (int f = 0; f < 4; f++) {
+                            RowStoreUtil.writeFile(conn, library, EXCEL + "concurrent" + f + ".txt", file(f, library), TextFormat.DEFAULT);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> write : writes) write.get();
+        } finally {
+            pool.shutdown();
+        }
+
+        try (Connection conn = SqlUtil.getConnection()) {
+            for (int l = 0; l < libraries; l++) {
+                String library = "RS_CONCURRENT_" + l;
+                Map<String, List<String[]>> read = read(conn, library);
+                assertEquals(4, read.size(), library);
+                for (int f = 0; f < 4; f++) {
+                    assertSameRows(file(f, library), read.get(EXCEL + "concurrent" + f + ".txt"), library + " " + f);
+                }
+            }
+        }
+    }
+
+    // Even files are identical in every library, odd ones differ in one row but share the rest
+    private static List<String[]> file(int f, String library) {
+        List<String[]> rows = new ArrayList<>();
+        rows.add(new String[]{"Name", "Value"});
+        for (int r = 0; r < 1200; r++) rows.add(new String[]{"Row" + r, String.valueOf(r % 7)});
+        if (f % 2 == 1) rows.add(new String[]{library, String.valueOf(f)});
+        return rows;
+    }
+
+    private static List<String[]> rows(String... lines) {
+        List<String[]> rows = new ArrayList<>();
+        for (String line : lines) rows.add(line.split("\t", -1));
+        return rows;
+    }
+
+    private static Map<String, List<String[]>> read(Connection conn, String library) throws SQLException {
+        Map<String, List<String[]>> files = new TreeMap<>();
+        for (DataDictionary dict : RowStoreUtil.readLibrary(conn, library)) files.put(dict.getRef(), dict.getData());
+        return files;
+    }
+
+    private static long count(Connection conn, String table) throws SQLException {
+        try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.enginecraft.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class SchedulerUtilTest {
+    private static final long MIB = 1024 * 1024;
+
+    @AfterEach
+    void restoreDefaults() throws Exception {
+        SchedulerUtil.configure(Runtime.getRuntime().availableProcessors(), (int) (Runtime.getRuntime().maxMemory() / 2 / MIB));
+    }
+
+    @Test
+    void modLargerThanWhatTheBaselineLeavesIsAdmittedAlone() throws Exception {
+        SchedulerUtil.configure(2, 64);
+        SchedulerUtil.pin("baseline", 48 * MIB);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            try (SchedulerUtil.Admission ignored = SchedulerUtil.admit("large mod", 500 * MIB)) {
+                // Holds all that is left, another mod has to wait for it
+                CompletableFuture<SchedulerUtil.Admission> next = CompletableFuture.supplyAsync(() -> admit("small mod", MIB));
+                assertThrows(TimeoutException.class, () -> next.get(200, TimeUnit.MILLISECONDS));
+                ignored.close();
+                next.get(5, TimeUnit.SECONDS).close();
+            }
+        });
+    }
+
+    @Test
+    void baselineLargerThanTheBudgetStillLeavesRoomForMods() throws Exception {
+        SchedulerUtil.configure(2, 64);
+        SchedulerUtil.pin("baseline", 1000 * MIB);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            SchedulerUtil.admit("mod", 500 * MIB).close();
+            SchedulerUtil.admit("mod", 500 * MIB).close();
+        });
+    }
+
+    @Test
+    void admissionsThatFitRunTogether() throws Exception {
+        SchedulerUtil.configure(2, 64);
+        SchedulerUtil.pin("baseline", 16 * MIB);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            try (SchedulerUtil.Admission a = SchedulerUtil.admit("a", 20 * MIB);
+                 SchedulerUtil.Admission b = SchedulerUtil.admit("b", 20 * MIB)) {
+                CompletableFuture<SchedulerUtil.Admission> c = CompletableFuture.supplyAsync(() -> admit("c", 20 * MIB));
+                assertThrows(TimeoutException.class, () -> c.get(200, TimeUnit.MILLISECONDS));
+                a.close();
+                c.get(5, TimeUnit.SECONDS).close();
+            }
+        });
+    }
+
+    private static SchedulerUtil.Admission admit(String name, long bytes) {
+        try {
+            return SchedulerUtil.admit(name, bytes);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package org.enginecraft.util;
+
+import org.enginecraft.TestLibraries;
+import org.enginecraft.objects.PersistenceMode;
+import org.enginecraft.service.LibraryService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.enginecraft.TestLibraries.EXCEL;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TarArchiveReaderTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsRegularFilesAndLongNames() throws Exception {
+        String longName = EXCEL + "a".repeat(120) + ".txt";
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        directory(tar, EXCEL);
+        entry(tar, EXCEL + "weapons.txt", bytes("Name\tCost\nAxe\t10\n"));
+        entry(tar, longName, bytes("Name\nLong\n"));
+        entry(tar, EXCEL + "empty.txt", new byte[0]);
+        end(tar);
+
+        try (TarArchiveReader reader = new TarArchiveReader(new ByteArrayInputStream(tar.toByteArray()))) {
+            assertEquals(EXCEL + "weapons.txt", reader.next());
+            assertArrayEquals(bytes("Name\tCost\nAxe\t10\n"), reader.read());
+            assertEquals(longName, reader.next());
+            assertArrayEquals(bytes("Name\nLong\n"), reader.read());
+            assertEquals(EXCEL + "empty.txt", reader.next());
+            assertArrayEquals(new byte[0], reader.read());
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    void readsPaxPaths() throws Exception {
+        String longName = EXCEL + "ä".repeat(80) + ".txt";
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        pax(tar, 'g', "comment", "made by a pax writer");
+        pax(tar, 'x', "path", longName);
+        entry(tar, "PaxHeader/cut.txt", bytes("Name\nLong\n"));
+        entry(tar, EXCEL + "weapons.txt", bytes("Name\tCost\nAxe\t10\n"));
+        end(tar);
+
+        try (TarArchiveReader reader = new TarArchiveReader(new ByteArrayInputStream(tar.toByteArray()))) {
+            assertEquals(longName, reader.next());
+            assertArrayEquals(bytes("Name\nLong\n"), reader.read());
+            // The path only named the entry following it
+            assertEquals(EXCEL + "weapons.txt", reader.next());
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    void skipsContentThatIsNotRead() throws Exception {
+        byte[] large = new byte[1500];
+        Arrays.fill(large, (byte) 'x');
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        entry(tar, "large.bin", large);
+        entry(tar, "small.txt", bytes("small"));
+        end(tar);
+
+        try (TarArchiveReader reader = new TarArchiveReader(new ByteArrayInputStream(tar.toByteArray()))) {
+            assertEquals("large.bin", reader.next());
+            assertEquals("small.txt", reader.next());
+            assertArrayEquals(bytes("small"), reader.read());
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    void reportsTruncatedEntries() throws Exception {
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        entry(tar, "cut.txt", new byte[1000]);
+        byte[] truncated = Arrays.copyOf(tar.toByteArray(), 512 + 100);
+
+        try (TarArchiveReader reader = new TarArchiveReader(new ByteArrayInputStream(truncated))) {
+            assertEquals("cut.txt", reader.next());
+            assertThrows(EOFException.class, reader::read);
+        }
+    }
+
+    @Test
+    void archivesLoadTheSameLibraryAsAFolder() throws Exception {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put(EXCEL + "weapons.txt", bytes("Name\tCost\tLevel\nAxe\t10\t1\nSword\t20\t2\n"));
+        files.put(EXCEL + "armor.txt", bytes("Name\tAc\nCap\t2\n"));
+        files.put(EXCEL + "misc.txt", bytes("Name\tText\nKey\t\n"));
+        files.put("readme.md", bytes("not part of the library"));
+
+        Path folder = TestLibraries.write(dir.resolve("folder"), files);
+
+        Path tarGz = dir.resolve("lib.tar.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tarGz))) {
+            ByteArrayOutputStream tar = new ByteArrayOutputStream();
+            directory(tar, EXCEL);
+            for (Map.Entry<String, byte[]> file : files.entrySet()) entry(tar, file.getKey(), file.getValue());
+            end(tar);
+            out.write(tar.toByteArray());
+        }
+
+        Path zip = dir.resolve("lib.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                out.putNextEntry(new ZipEntry(file.getKey()));
+                out.write(file.getValue());
+                out.closeEntry();
+            }
+        }
+
+        LibraryService fromFolder = new LibraryService("folder", folder, PersistenceMode.NONE);
+        assertEquals(3, fromFolder.getLibrary().size());
+        for (Path archive : new Path[]{tarGz, zip}) {
+            LibraryService fromArchive = new LibraryService(archive.getFileName().toString(), archive, PersistenceMode.NONE);
+            assertEquals(fromFolder.getLibrary().size(), fromArchive.getLibrary().size(), archive.toString());
+            assertEquals(0, fromFolder.compareFiles(fromArchive).size(), archive.toString());
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void entry(ByteArrayOutputStream tar, String name, byte[] content) {
+        if (name.length() > 100) {
+            // GNU long name: an 'L' entry holding the name, followed by the entry under a cut name
+            byte[] nameBytes = Arrays.copyOf(bytes(name), name.length() + 1);
+            block(tar, "././@LongLink", nameBytes.length, 'L');
+            data(tar, nameBytes);
+            name = name.substring(0, 100);
+        }
+        block(tar, name, content.length, '0');
+        data(tar, content);
+    }
+
+    private static void pax(ByteArrayOutputStream tar, char type, String key, String value) {
+        // The record length counts its own digits
+        int length = bytes(" " + key + "=" + value + "\n").length;
+        length += String.valueOf(length + String.valueOf(length).length()).length();
+        byte[] record = bytes(length + " " + key + "=" + value + "\n");
+        block(tar, "PaxHeader", record.length, type);
+        data(tar, record);
+    }
+
+    private static void directory(ByteArrayOutputStream tar, String name) {
+        block(tar, name, 0, '5');
+    }
+
+    private static void end(ByteArrayOutputStream tar) {
+        tar.writeBytes(new byte[1024]);
+    }
+
+    private static void block(ByteArrayOutputStream tar, String name, long size, char type) {
+        byte[] header = new byte[512];
+        byte[] nameBytes = bytes(name);
+        System.arraycopy(nameBytes, 0, header, 0, Math.min(nameBytes.length, 100));
+        octal(header, 100, 8, 0644);
+        octal(header, 124, 12, size);
+        header[156] = (byte) type;
+        System.arraycopy(bytes("ustar\u000000"), 0, header, 257, 8);
+
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        long checksum = 0;
+        for (byte b : header) checksum += b & 0xFF;
+        octal(header, 148, 8, checksum);
+        tar.writeBytes(header);
+    }
+
+    private static void data(ByteArrayOutputStream tar, byte[] content) {
+        tar.writeBytes(content);
+        tar.writeBytes(new byte[(512 - content.length % 512) % 512]);
+    }
+
+    private static void octal(byte[] header, int offset, int length, long value) {
+        byte[] digits = bytes(String.format("%0" + (length - 1) + "o", value));
+        System.arraycopy(digits, 0, header, offset, digits.length);
+    }
+}
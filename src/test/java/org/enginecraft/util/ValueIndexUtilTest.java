@@ -0,0 +1,112 @@
+package org.enginecraft.util;
+
+import org.enginecraft.objects.SearchHit;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.enginecraft.TestLibraries.EXCEL;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ValueIndexUtilTest {
+    private static final String WEAPONS = EXCEL + "weapons.txt";
+
+    @Test
+    void cellsAreFoundByTheirValueAndEachWord() throws Exception {
+        try (Connection conn = SqlUtil.getConnection()) {
+            ValueIndexUtil.writeFile(conn, "Index_Words", WEAPONS, List.of(
+                    new String[]{"Name", "Types"},
+                    new String[]{" Hand Axe ", "IdxAxe,IdxSwor"},
+                    new String[]{"Großes Schwert", ""}
+            ));
+
+            assertEquals(List.of("1 Name"), describe(conn, "hand axe", "Index_Words"));
+            assertEquals(List.of("1 Name"), describe(conn, "AXE", "Index_Words"));
+            assertEquals(List.of("1 Types"), describe(conn, "idxaxe,idxswor", "Index_Words"));
+            assertEquals(List.of("1 Types"), describe(conn, " idxswor ", "Index_Words"));
+            assertEquals(List.of("2 Name"), describe(conn, "GROẞES", "Index_Words"));
+            assertEquals(List.of(), describe(conn, "ax", "Index_Words"));
+            assertEquals(List.of(), ValueIndexUtil.search(conn, "  "));
+        }
+    }
+
+    @Test
+    void postingsKeepLargeRowGapsAndColumns() throws Exception {
+        String[] header = new String[200];
+        for (int c = 0; c < header.length; c++) header[c] = "Col" + c;
+        List<String[]> rows = new ArrayList<>();
+        rows.add(header);
+        for (int r = 1; r <= 20_000; r++) rows.add(new String[]{"filler"});
+        // The same token twice in one row, at columns needing one and two varint bytes
+        String[] wide = new String[200];
+        Arrays.fill(wide, "");
+        wide[5] = "IdxGap";
+        wide[199] = "IdxGap";
+        rows.set(130, wide);
+        rows.set(1, new String[]{"IdxGap"});
+        rows.set(20_000, new String[]{"IdxGap"});
+
+        try (Connection conn = SqlUtil.getConnection()) {
+            ValueIndexUtil.writeFile(conn, "Index_Gaps", WEAPONS, rows);
+
+            List<SearchHit> hits = hits(conn, "idxgap", "Index_Gaps");
+            assertEquals(List.of("1 Col0", "130 Col5", "130 Col199", "20000 Col0"), hits.stream().map(h -> h.row() + " " + h.columnName()).toList());
+            assertEquals(199, hits.get(2).column());
+        }
+    }
+
+    @Test
+    void tokensLongerThanTheKeyAreFoundByTheirWholeValue() throws Exception {
+        String longValue = "IdxLong ".repeat(40) + "end";
+        String sameStart = "IdxLong ".repeat(40) + "other";
+        String surrogates = "😀".repeat(200);
+        try (Connection conn = SqlUtil.getConnection()) {
+            ValueIndexUtil.writeFile(conn, "Index_Long", WEAPONS, List.of(
+                    new String[]{"Name", "Text"},
+                    new String[]{"a", longValue},
+                    new String[]{"b", sameStart},
+                    new String[]{"c", surrogates}
+            ));
+
+            assertEquals(List.of("1 Text"), describe(conn, longValue, "Index_Long"));
+            assertEquals(List.of("2 Text"), describe(conn, sameStart, "Index_Long"));
+            assertEquals(List.of("3 Text"), describe(conn, surrogates, "Index_Long"));
+            assertEquals(List.of("1 Text", "2 Text"), describe(conn, "idxlong", "Index_Long"));
+        }
+    }
+
+    @Test
+    void rewrittenAndRemovedFilesReplaceTheirPostings() throws Exception {
+        try (Connection conn = SqlUtil.getConnection()) {
+            ValueIndexUtil.writeFile(conn, "Index_Rewrite_A", WEAPONS, List.of(new String[]{"Name", "Code"}, new String[]{"IdxOld", "IdxKept"}));
+            ValueIndexUtil.writeFile(conn, "Index_Rewrite_B", WEAPONS, List.of(new String[]{"Code", "Name"}, new String[]{"IdxKept", "x"}));
+            ValueIndexUtil.writeFile(conn, "Index_Rewrite_A", WEAPONS, List.of(new String[]{"Name", "Code"}, new String[]{"IdxNew", "IdxKept"}));
+
+            assertEquals(List.of(), hits(conn, "idxold", "Index_Rewrite_A"));
+            assertEquals(List.of("Index_Rewrite_A 1 Name"), describeAll(conn, "idxnew"));
+            // Libraries in order, each with its own header
+            assertEquals(List.of("Index_Rewrite_A 1 Code", "Index_Rewrite_B 1 Code"), describeAll(conn, "idxkept"));
+
+            ValueIndexUtil.removeFile(conn, "Index_Rewrite_A", WEAPONS);
+            assertEquals(List.of("Index_Rewrite_B 1 Code"), describeAll(conn, "idxkept"));
+        }
+    }
+
+    private static List<SearchHit> hits(Connection conn, String query, String library) throws Exception {
+        return ValueIndexUtil.search(conn, query).stream().filter(h -> h.library().equals(library)).toList();
+    }
+
+    private static List<String> describe(Connection conn, String query, String library) throws Exception {
+        return hits(conn, query, library).stream().map(h -> h.row() + " " + h.columnName()).toList();
+    }
+
+    private static List<String> describeAll(Connection conn, String query) throws Exception {
+        return ValueIndexUtil.search(conn, query).stream()
+                .filter(h -> h.library().startsWith("Index_Rewrite_"))
+                .map(h -> h.library() + " " + h.row() + " " + h.columnName())
+                .toList();
+    }
+}
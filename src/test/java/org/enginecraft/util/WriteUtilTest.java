@@ -0,0 +1,79 @@
+package org.enginecraft.util;
+
+import org.enginecraft.TestLibraries;
+import org.enginecraft.objects.PersistenceMode;
+import org.enginecraft.objects.StorageLayout;
+import org.enginecraft.service.LibraryService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.enginecraft.TestLibraries.EXCEL;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WriteUtilTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void exportedFilesAreTheFilesThatWereLoaded() throws Exception {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        // Lines with too few or too many cells are left out of the rows, a blank line among them
+        files.put(EXCEL + "weapons.txt", utf8("Name\tCost\tCode\nAxe\t010\tx1\nbroken line\nBow\t3\t7\n\nClub\t5\t2\textra\n\t\t\nlast\n"));
+        files.put(EXCEL + "armor.txt", concat(new byte[]{(byte) 0xEF, (byte) 0xBB, (byte) 0xBF}, utf8("Name\tAc\r\nCap\t2\r\nHelm\t\r\n")));
+        files.put(EXCEL + "misc.txt", "Name\tText\nKéy\tx\n".getBytes(CharsetUtil.WINDOWS_1252));
+        files.put(EXCEL + "empty.txt", utf8("Name\tX\n"));
+        Path root = TestLibraries.write(dir.resolve("lib"), files);
+
+        for (StorageLayout layout : StorageLayout.values()) {
+            String name = "Export_" + layout;
+            new LibraryService(name, root, PersistenceMode.SYNC, layout).close();
+
+            Path out = dir.resolve("out_" + layout);
+            assertEquals(files.size(), WriteUtil.exportLibrary(name, out), layout.name());
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                assertArrayEquals(file.getValue(), Files.readAllBytes(out.resolve(file.getKey())), layout + " " + file.getKey());
+            }
+        }
+    }
+
+    @Test
+    void reloadedFilesForgetTheLinesDroppedBefore() throws Exception {
+        Path root = TestLibraries.writeExcel(dir.resolve("lib"), Map.of("weapons.txt", "Name\tCost\nAxe\t10\nbroken\n"));
+        try (LibraryService library = new LibraryService("Export_Reload", root, PersistenceMode.SYNC)) {
+            Path weapons = root.resolve(EXCEL + "weapons.txt");
+            Files.writeString(weapons, "Name\tCost\nAxe\t12\n");
+            library.reloadFile(EXCEL + "weapons.txt", weapons);
+        }
+
+        Path out = dir.resolve("out");
+        WriteUtil.exportLibrary("Export_Reload", out);
+        assertEquals("Name\tCost\nAxe\t12\n", Files.readString(out.resolve(EXCEL + "weapons.txt")));
+    }
+
+    @Test
+    void librariesThatWereNeverStoredAreReported() {
+        Exception e = assertThrows(Exception.class, () -> WriteUtil.exportLibrary("Export_Missing", dir));
+        assertTrue(e.getMessage().contains("not stored"), e.getMessage());
+    }
+
+    private static byte[] utf8(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(a);
+        out.writeBytes(b);
+        return out.toByteArray();
+    }
+}